@@ -0,0 +1,369 @@
+/*
+ * Copyright (C) 2015 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.example.android.sunshine.app;
+
+import android.content.Context;
+import android.database.Cursor;
+import android.database.MatrixCursor;
+import android.os.Handler;
+import android.os.Looper;
+import android.support.v4.view.ViewCompat;
+import android.support.v7.widget.LinearLayoutManager;
+import android.support.v7.widget.RecyclerView;
+import android.test.AndroidTestCase;
+import android.util.DisplayMetrics;
+import android.util.Log;
+import android.view.ContextThemeWrapper;
+import android.view.LayoutInflater;
+import android.view.View;
+import android.view.ViewGroup;
+import android.widget.AbsListView;
+import android.widget.ImageView;
+import android.widget.TextView;
+
+import com.bumptech.glide.Glide;
+import com.example.android.sunshine.app.data.WeatherContract;
+import com.example.android.sunshine.app.utils.PollingCheck;
+
+import java.util.Arrays;
+import java.util.Locale;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+/*
+    Checks the rows ForecastCursorLoader builds against what Utility gives for the same day,
+    checks that the first screen of rows uses what ForecastViewPreInflater inflated, and times a
+    fling over 14 and 16 days of forecast with ForecastAdapter binding those rows and with a copy
+    of the adapter as it was, which read the cursor and formatted everything on each bind.
+    The fling is driven frame by frame with scrollBy on an off-screen RecyclerView, so each
+    "frame" is the layout and binding work a real frame would do.  Numbers go to logcat under the
+    TestForecastAdapter tag.
+ */
+public class TestForecastAdapter extends AndroidTestCase {
+
+    public static final String LOG_TAG = TestForecastAdapter.class.getSimpleName();
+
+    private static final long DAY_IN_MILLIS = 1000L * 60 * 60 * 24;
+    private static final long FRAME_BUDGET_NANOS = 16666667L;
+
+    private static final String[] COLUMNS = {
+            "_id", "date", "short_desc", "max", "min", "location_setting", "weather_id",
+            "coord_lat", "coord_long"
+    };
+    private static final int[] WEATHER_IDS = {800, 801, 500, 211, 601, 741, 803};
+
+    private static final int FLINGS = 20;
+
+    public void testRowsMatchUtility() {
+        ForecastCursor cursor = ForecastCursor.wrap(mContext, createForecastCursor(16), null);
+        try {
+            SettingsSnapshot settings = SettingsSnapshot.get(mContext);
+            ForecastRow[] rows = cursor.getRows();
+            assertEquals(16, rows.length);
+            assertTrue(cursor.isCurrent(mContext));
+            for (int position = 0; position < rows.length; position++) {
+                ForecastRow row = rows[position];
+                cursor.moveToPosition(position);
+                int weatherId = cursor.getInt(ForecastFragment.COL_WEATHER_CONDITION_ID);
+                long date = cursor.getLong(ForecastFragment.COL_WEATHER_DATE);
+                String high = Utility.formatTemperature(mContext,
+                        cursor.getDouble(ForecastFragment.COL_WEATHER_MAX_TEMP));
+                String description = Utility.getStringForWeatherCondition(mContext, weatherId);
+
+                assertEquals(cursor.getLong(ForecastFragment.COL_WEATHER_ID), row.mId);
+                assertEquals(date, row.mDate);
+                assertEquals(weatherId, row.mWeatherId);
+                assertEquals(Utility.getIconResourceForWeatherCondition(weatherId),
+                        row.mIconResource);
+                assertEquals(Utility.getArtResourceForWeatherCondition(weatherId),
+                        row.mArtResource);
+                assertEquals(settings.usingLocalGraphics
+                                ? null : Utility.getArtUrlForWeatherCondition(mContext, weatherId),
+                        row.mArtUrl);
+                assertEquals(Utility.getFriendlyDayString(mContext, date, false), row.mDateText);
+                assertEquals(Utility.getFriendlyDayString(mContext, date, true),
+                        row.mLongDateText);
+                assertEquals(description, row.mDescription);
+                assertEquals(mContext.getString(R.string.a11y_forecast, description),
+                        row.mDescriptionA11y);
+                assertEquals(high, row.mHighText);
+                assertEquals(mContext.getString(R.string.a11y_high_temp, high), row.mHighA11y);
+                assertEquals("iconView" + date, row.mTransitionName);
+            }
+        } finally {
+            cursor.close();
+        }
+    }
+
+    public void testBenchmarkFling() throws Exception {
+        runOnMainThread(new Runnable() {
+            @Override
+            public void run() {
+                for (int pass = 0; pass < 2; pass++) {
+                    // The first pass warms up the code; only the second is logged.
+                    boolean log = pass == 1;
+                    for (int days : new int[]{14, 16}) {
+                        ForecastAdapter adapter = newForecastAdapter();
+                        Cursor rows = ForecastCursor.wrap(mContext, createForecastCursor(days),
+                                null);
+                        adapter.swapCursor(rows);
+                        fling(days + " days, rows", log, adapter);
+                        rows.close();
+
+                        LegacyForecastAdapter legacy = new LegacyForecastAdapter(mContext,
+                                createForecastCursor(days));
+                        fling(days + " days, cursor", log, legacy);
+                        legacy.mCursor.close();
+                    }
+                }
+            }
+        });
+    }
+
+    public void testPreInflatedRowsAreUsed() throws Exception {
+        final RecyclerView[] recyclerView = new RecyclerView[1];
+        final ForecastAdapter[] adapter = new ForecastAdapter[1];
+        final ForecastViewPreInflater[] preInflater = new ForecastViewPreInflater[1];
+        runOnMainThread(new Runnable() {
+            @Override
+            public void run() {
+                Context themed = new ContextThemeWrapper(mContext, R.style.AppTheme);
+                recyclerView[0] = new RecyclerView(themed);
+                recyclerView[0].setLayoutManager(new LinearLayoutManager(themed));
+                adapter[0] = newForecastAdapter();
+                recyclerView[0].setAdapter(adapter[0]);
+                preInflater[0] = new ForecastViewPreInflater(recyclerView[0], adapter[0]);
+                adapter[0].setPreInflater(preInflater[0]);
+                preInflater[0].start();
+            }
+        });
+
+        new PollingCheck() {
+            @Override
+            protected boolean check() {
+                return preInflater[0].isPoolFilled();
+            }
+        }.run();
+
+        runOnMainThread(new Runnable() {
+            @Override
+            public void run() {
+                Cursor rows = ForecastCursor.wrap(mContext, createForecastCursor(16), null);
+                adapter[0].swapCursor(rows);
+                DisplayMetrics metrics = mContext.getResources().getDisplayMetrics();
+                recyclerView[0].measure(
+                        View.MeasureSpec.makeMeasureSpec(metrics.widthPixels,
+                                View.MeasureSpec.EXACTLY),
+                        View.MeasureSpec.makeMeasureSpec(metrics.heightPixels,
+                                View.MeasureSpec.EXACTLY));
+                recyclerView[0].layout(0, 0, metrics.widthPixels, metrics.heightPixels);
+                assertTrue(recyclerView[0].getChildCount() > 0);
+                assertEquals("Error: the first screen of rows was inflated on the main thread",
+                        0, adapter[0].getInflatedOnMainThread());
+                recyclerView[0].setAdapter(null);
+                rows.close();
+            }
+        });
+    }
+
+    private ForecastAdapter newForecastAdapter() {
+        return new ForecastAdapter(mContext, new ForecastAdapter.ForecastAdapterOnClickHandler() {
+            @Override
+            public void onClick(Long date, ForecastAdapter.ForecastAdapterViewHolder vh) {
+            }
+        }, new View(mContext), AbsListView.CHOICE_MODE_NONE);
+    }
+
+    private void fling(String name, boolean log, RecyclerView.Adapter adapter) {
+        Context themed = new ContextThemeWrapper(mContext, R.style.AppTheme);
+        RecyclerView recyclerView = new RecyclerView(themed);
+        recyclerView.setLayoutManager(new LinearLayoutManager(themed));
+        recyclerView.setHasFixedSize(true);
+        recyclerView.setAdapter(adapter);
+
+        DisplayMetrics metrics = mContext.getResources().getDisplayMetrics();
+        int width = metrics.widthPixels;
+        int height = metrics.heightPixels;
+        recyclerView.measure(View.MeasureSpec.makeMeasureSpec(width, View.MeasureSpec.EXACTLY),
+                View.MeasureSpec.makeMeasureSpec(height, View.MeasureSpec.EXACTLY));
+        recyclerView.layout(0, 0, width, height);
+
+        long[] frames = new long[4096];
+        int frameCount = 0;
+        for (int fling = 0; fling < FLINGS; fling++) {
+            // Down the list then back up, slowing the way a fling does.
+            int direction = fling % 2 == 0 ? 1 : -1;
+            for (float velocity = height / 8f; velocity >= 1 && frameCount < frames.length;
+                 velocity *= 0.95f) {
+                long start = System.nanoTime();
+                recyclerView.scrollBy(0, direction * (int) velocity);
+                frames[frameCount++] = System.nanoTime() - start;
+            }
+        }
+
+        if (log) {
+            Arrays.sort(frames, 0, frameCount);
+            long total = 0;
+            int overBudget = 0;
+            for (int i = 0; i < frameCount; i++) {
+                total += frames[i];
+                if (frames[i] > FRAME_BUDGET_NANOS) {
+                    overBudget++;
+                }
+            }
+            Log.i(LOG_TAG, String.format(Locale.US,
+                    "%s: %d frames, mean %.3f ms, 90th %.3f ms, max %.3f ms, %d over budget",
+                    name, frameCount, total / 1e6 / frameCount,
+                    frames[frameCount * 9 / 10] / 1e6, frames[frameCount - 1] / 1e6,
+                    overBudget));
+        }
+        recyclerView.setAdapter(null);
+    }
+
+    private static Cursor createForecastCursor(int days) {
+        MatrixCursor cursor = new MatrixCursor(COLUMNS, days);
+        long today = WeatherContract.normalizeDate(System.currentTimeMillis());
+        for (int day = 0; day < days; day++) {
+            cursor.addRow(new Object[]{
+                    (long) day + 1,
+                    today + day * DAY_IN_MILLIS,
+                    "Asteroids",
+                    21.5 + day,
+                    10.25 + day,
+                    "99705",
+                    WEATHER_IDS[day % WEATHER_IDS.length],
+                    64.7488,
+                    -147.353
+            });
+        }
+        return cursor;
+    }
+
+    private static void runOnMainThread(final Runnable runnable) throws Exception {
+        final CountDownLatch done = new CountDownLatch(1);
+        final Throwable[] error = new Throwable[1];
+        new Handler(Looper.getMainLooper()).post(new Runnable() {
+            @Override
+            public void run() {
+                try {
+                    runnable.run();
+                } catch (Throwable t) {
+                    error[0] = t;
+                } finally {
+                    done.countDown();
+                }
+            }
+        });
+        assertTrue("Error: timed out on the main thread", done.await(5, TimeUnit.MINUTES));
+        if (error[0] != null) {
+            throw new RuntimeException(error[0]);
+        }
+    }
+
+    /*
+        ForecastAdapter's binding as it was before ForecastRow, less the choice manager, with the
+        settings read through SettingsSnapshot as it did by then.
+     */
+    private static class LegacyForecastAdapter extends RecyclerView.Adapter<LegacyViewHolder> {
+        final Context mContext;
+        final Cursor mCursor;
+
+        LegacyForecastAdapter(Context context, Cursor cursor) {
+            mContext = context;
+            mCursor = cursor;
+        }
+
+        @Override
+        public LegacyViewHolder onCreateViewHolder(ViewGroup viewGroup, int viewType) {
+            int layoutId = viewType == 0
+                    ? R.layout.list_item_forecast_today : R.layout.list_item_forecast;
+            View view = LayoutInflater.from(viewGroup.getContext())
+                    .inflate(layoutId, viewGroup, false);
+            view.setFocusable(true);
+            return new LegacyViewHolder(view);
+        }
+
+        @Override
+        public void onBindViewHolder(LegacyViewHolder holder, int position) {
+            mCursor.moveToPosition(position);
+            SettingsSnapshot settings = SettingsSnapshot.get(mContext);
+            int weatherId = mCursor.getInt(ForecastFragment.COL_WEATHER_CONDITION_ID);
+            int defaultImage;
+            boolean useLongToday;
+            if (getItemViewType(position) == 0) {
+                defaultImage = Utility.getArtResourceForWeatherCondition(weatherId);
+                useLongToday = true;
+            } else {
+                defaultImage = Utility.getIconResourceForWeatherCondition(weatherId);
+                useLongToday = false;
+            }
+            if (settings.usingLocalGraphics) {
+                holder.mIconView.setImageResource(defaultImage);
+            } else {
+                Glide.with(mContext)
+                        .load(Utility.getArtUrlForWeatherCondition(mContext, weatherId))
+                        .error(defaultImage)
+                        .crossFade()
+                        .into(holder.mIconView);
+            }
+            ViewCompat.setTransitionName(holder.mIconView, "iconView" + position);
+            long dateInMillis = mCursor.getLong(ForecastFragment.COL_WEATHER_DATE);
+            holder.mDateView.setText(
+                    Utility.getFriendlyDayString(mContext, dateInMillis, useLongToday));
+            String description = Utility.getStringForWeatherCondition(mContext, weatherId);
+            holder.mDescriptionView.setText(description);
+            holder.mDescriptionView.setContentDescription(
+                    mContext.getString(R.string.a11y_forecast, description));
+            double high = mCursor.getDouble(ForecastFragment.COL_WEATHER_MAX_TEMP);
+            String highString = Utility.formatTemperature(mContext, high, settings.metric);
+            holder.mHighTempView.setText(highString);
+            holder.mHighTempView.setContentDescription(
+                    mContext.getString(R.string.a11y_high_temp, highString));
+            double low = mCursor.getDouble(ForecastFragment.COL_WEATHER_MIN_TEMP);
+            String lowString = Utility.formatTemperature(mContext, low, settings.metric);
+            holder.mLowTempView.setText(lowString);
+            holder.mLowTempView.setContentDescription(
+                    mContext.getString(R.string.a11y_low_temp, lowString));
+        }
+
+        @Override
+        public int getItemViewType(int position) {
+            return position == 0 ? 0 : 1;
+        }
+
+        @Override
+        public int getItemCount() {
+            return mCursor.getCount();
+        }
+    }
+
+    private static class LegacyViewHolder extends RecyclerView.ViewHolder {
+        final ImageView mIconView;
+        final TextView mDateView;
+        final TextView mDescriptionView;
+        final TextView mHighTempView;
+        final TextView mLowTempView;
+
+        LegacyViewHolder(View view) {
+            super(view);
+            mIconView = (ImageView) view.findViewById(R.id.list_item_icon);
+            mDateView = (TextView) view.findViewById(R.id.list_item_date_textview);
+            mDescriptionView = (TextView) view.findViewById(R.id.list_item_forecast_textview);
+            mHighTempView = (TextView) view.findViewById(R.id.list_item_high_textview);
+            mLowTempView = (TextView) view.findViewById(R.id.list_item_low_textview);
+        }
+    }
+}
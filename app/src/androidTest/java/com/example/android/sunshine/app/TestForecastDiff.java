@@ -0,0 +1,211 @@
+/*
+ * Copyright (C) 2015 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.example.android.sunshine.app;
+
+import android.database.MatrixCursor;
+import android.support.v7.widget.RecyclerView;
+import android.test.AndroidTestCase;
+import android.view.ViewGroup;
+
+import com.example.android.sunshine.app.data.WeatherContract;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Random;
+
+/*
+    Checks the changes ForecastDiff finds between two forecasts: that a sync which changes
+    nothing binds nothing, that the day rolling over touches only the rows it has to, and that
+    for any two lists, replaying the notifications on the old list gives the new one and marks
+    every row whose content changed.
+ */
+public class TestForecastDiff extends AndroidTestCase {
+
+    private static final long DAY_IN_MILLIS = 1000L * 60 * 60 * 24;
+
+    private static final String[] COLUMNS = {
+            "_id", "date", "short_desc", "max", "min", "location_setting", "weather_id",
+            "coord_lat", "coord_long"
+    };
+
+    private long mToday;
+
+    @Override
+    protected void setUp() throws Exception {
+        super.setUp();
+        mToday = WeatherContract.normalizeDate(System.currentTimeMillis());
+    }
+
+    public void testUnchangedSyncChangesNothing() {
+        ForecastRow[] before = rows("99705", new int[]{0, 1, 2, 3, 4, 5, 6}, 0);
+        // A sync replaces every row, so only the _IDs differ.
+        ForecastRow[] after = rows("99705", new int[]{0, 1, 2, 3, 4, 5, 6}, 0);
+        ForecastDiff diff = ForecastDiff.between(before, after);
+        assertTrue("Error: unchanged days were notified: " + diff, diff.isEmpty());
+    }
+
+    public void testNewDayOnlyTouchesEnds() {
+        ForecastRow[] before = rows("99705", new int[]{-1, 0, 1, 2, 3, 4, 5}, 0);
+        ForecastRow[] after = rows("99705", new int[]{0, 1, 2, 3, 4, 5, 6}, 0);
+        // Yesterday goes, a day is added at the end, and today takes the top row's layout.
+        assertEquals("R0:1 I6:1 C0:1", ForecastDiff.between(before, after).toString());
+    }
+
+    public void testChangedDayIsChangedInPlace() {
+        ForecastRow[] before = rows("99705", new int[]{0, 1, 2, 3}, 0);
+        ForecastRow[] after = rows("99705", new int[]{0, 1, 2, 3}, 0);
+        after[2] = rows("99705", new int[]{2}, 5)[0];
+        assertEquals("C2:1", ForecastDiff.between(before, after).toString());
+    }
+
+    public void testNewLocationReplacesEverything() {
+        ForecastRow[] before = rows("99705", new int[]{0, 1, 2}, 0);
+        ForecastRow[] after = rows("94043", new int[]{0, 1, 2}, 0);
+        assertEquals("R0:3 I0:3", ForecastDiff.between(before, after).toString());
+    }
+
+    public void testReplayingGivesNewList() {
+        Random random = new Random(20151);
+        for (int round = 0; round < 500; round++) {
+            ForecastRow[] before = rows("99705", randomDays(random), 0);
+            int[] afterDays = randomDays(random);
+            ForecastRow[] after = new ForecastRow[afterDays.length];
+            for (int j = 0; j < afterDays.length; j++) {
+                int warmer = random.nextInt(3) == 0 ? 1 : 0;
+                after[j] = rows("99705", new int[]{afterDays[j]}, warmer)[0];
+            }
+            assertReplays(before, after);
+        }
+    }
+
+    private void assertReplays(ForecastRow[] before, ForecastRow[] after) {
+        ForecastDiff diff = ForecastDiff.between(before, after);
+        final List<Long> list = new ArrayList<Long>();
+        for (ForecastRow row : before) {
+            list.add(row.mDate);
+        }
+        final HashSet<Integer> changed = new HashSet<Integer>();
+        RecyclerView.Adapter adapter = new RecyclerView.Adapter() {
+            @Override
+            public RecyclerView.ViewHolder onCreateViewHolder(ViewGroup parent, int viewType) {
+                return null;
+            }
+
+            @Override
+            public void onBindViewHolder(RecyclerView.ViewHolder holder, int position) {
+            }
+
+            @Override
+            public int getItemCount() {
+                return list.size();
+            }
+        };
+        adapter.registerAdapterDataObserver(new RecyclerView.AdapterDataObserver() {
+            @Override
+            public void onItemRangeRemoved(int positionStart, int itemCount) {
+                assertTrue("Error: change before removal in " + list, changed.isEmpty());
+                list.subList(positionStart, positionStart + itemCount).clear();
+            }
+
+            @Override
+            public void onItemRangeMoved(int fromPosition, int toPosition, int itemCount) {
+                assertEquals(1, itemCount);
+                list.add(toPosition, list.remove(fromPosition));
+            }
+
+            @Override
+            public void onItemRangeInserted(int positionStart, int itemCount) {
+                for (int i = 0; i < itemCount; i++) {
+                    // Placeholder; checked against the new list below.
+                    list.add(positionStart + i, null);
+                }
+            }
+
+            @Override
+            public void onItemRangeChanged(int positionStart, int itemCount) {
+                for (int i = 0; i < itemCount; i++) {
+                    changed.add(positionStart + i);
+                }
+            }
+        });
+        diff.dispatchTo(adapter);
+
+        assertEquals("Error: wrong length after " + diff, after.length, list.size());
+        for (int j = 0; j < after.length; j++) {
+            Long date = list.get(j);
+            if (date != null) {
+                assertEquals("Error: wrong day at " + j + " after " + diff,
+                        after[j].mDate, date.longValue());
+                ForecastRow old = null;
+                for (ForecastRow row : before) {
+                    if (row.mDate == date) {
+                        old = row;
+                    }
+                }
+                if (!old.mHighText.equals(after[j].mHighText)) {
+                    assertTrue("Error: " + j + " changed but wasn't notified in " + diff,
+                            changed.contains(j));
+                }
+            } else {
+                for (ForecastRow row : before) {
+                    assertFalse("Error: " + j + " was inserted but existed before, " + diff,
+                            row.mDate == after[j].mDate);
+                }
+            }
+        }
+    }
+
+    private static int[] randomDays(Random random) {
+        List<Integer> days = new ArrayList<Integer>();
+        for (int day = 0; day < 20; day++) {
+            if (random.nextInt(4) != 0) {
+                days.add(day);
+            }
+        }
+        if (random.nextBoolean()) {
+            Collections.shuffle(days, random);
+        }
+        int[] result = new int[days.size()];
+        for (int i = 0; i < result.length; i++) {
+            result[i] = days.get(i);
+        }
+        return result;
+    }
+
+    private ForecastRow[] rows(String location, int[] days, int warmer) {
+        MatrixCursor cursor = new MatrixCursor(COLUMNS, days.length);
+        for (int day : days) {
+            cursor.addRow(new Object[]{
+                    System.nanoTime(),
+                    mToday + day * DAY_IN_MILLIS,
+                    "Clear",
+                    20.0 + day + warmer,
+                    10.0 + day,
+                    location,
+                    800,
+                    64.7488,
+                    -147.353
+            });
+        }
+        try {
+            return ForecastRow.fromCursor(mContext, SettingsSnapshot.get(mContext), cursor);
+        } finally {
+            cursor.close();
+        }
+    }
+}
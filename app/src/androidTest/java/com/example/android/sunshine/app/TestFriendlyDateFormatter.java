@@ -0,0 +1,225 @@
+/*
+ * Copyright (C) 2015 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.example.android.sunshine.app;
+
+import android.content.Context;
+import android.os.Debug;
+import android.test.AndroidTestCase;
+import android.text.format.Time;
+import android.util.Log;
+
+import com.example.android.sunshine.app.data.WeatherContract;
+
+import java.text.SimpleDateFormat;
+import java.util.Calendar;
+import java.util.Locale;
+import java.util.TimeZone;
+
+/*
+    Checks that Utility's friendly date strings, now built by FriendlyDateFormatter, match what
+    the Time and SimpleDateFormat code they replaced gave, that "today" moves at midnight and
+    with the time zone, and compares the two while scrolling the forecast and refreshing the
+    detail widget.  The old versions are copied below as they were, less the objects they made
+    and never used.  Numbers go to logcat under the TestFriendlyDateFormatter tag.
+ */
+public class TestFriendlyDateFormatter extends AndroidTestCase {
+
+    public static final String LOG_TAG = TestFriendlyDateFormatter.class.getSimpleName();
+
+    private static final long DAY_IN_MILLIS = 1000L * 60 * 60 * 24;
+
+    // The forecast and the detail widget show two weeks.
+    private static final int ROWS = 14;
+    private static final int SCROLL_PASSES = 500;
+    private static final int WIDGET_REFRESHES = 500;
+
+    private TimeZone mPreviousZone;
+
+    @Override
+    protected void setUp() throws Exception {
+        super.setUp();
+        mPreviousZone = TimeZone.getDefault();
+    }
+
+    @Override
+    protected void tearDown() throws Exception {
+        useZone(mPreviousZone);
+        super.tearDown();
+    }
+
+    public void testLabelsMatchLegacy() {
+        long today = WeatherContract.normalizeDate(System.currentTimeMillis());
+        for (int day = -3; day <= 30; day++) {
+            long date = today + day * DAY_IN_MILLIS;
+            assertEquals("Error: long friendly day " + day,
+                    legacyFriendlyDayString(mContext, date, true),
+                    Utility.getFriendlyDayString(mContext, date, true));
+            assertEquals("Error: friendly day " + day,
+                    legacyFriendlyDayString(mContext, date, false),
+                    Utility.getFriendlyDayString(mContext, date, false));
+            assertEquals("Error: full friendly day " + day,
+                    legacyFullFriendlyDayString(mContext, date),
+                    Utility.getFullFriendlyDayString(mContext, date));
+            assertEquals("Error: day name " + day,
+                    legacyDayName(mContext, date),
+                    Utility.getDayName(mContext, date));
+            assertEquals("Error: month day " + day,
+                    legacyFormattedMonthDay(date),
+                    Utility.getFormattedMonthDay(mContext, date));
+        }
+    }
+
+    public void testRollsOverAtMidnight() {
+        useZone(TimeZone.getTimeZone("America/New_York"));
+        Calendar calendar = Calendar.getInstance();
+        calendar.clear();
+        calendar.set(2015, Calendar.JUNE, 24);
+        long midnight = calendar.getTimeInMillis();
+
+        String today = mContext.getString(R.string.today);
+        String tomorrow = mContext.getString(R.string.tomorrow);
+        assertEquals(tomorrow, FriendlyDateFormatter.getDayName(mContext, midnight, midnight - 1));
+        assertEquals(today, FriendlyDateFormatter.getDayName(mContext, midnight, midnight));
+        assertEquals(mContext.getString(R.string.format_full_friendly_date, today,
+                        new SimpleDateFormat("MMMM dd").format(midnight)),
+                FriendlyDateFormatter.getFriendlyDayString(mContext, midnight, true, midnight));
+        assertEquals(new SimpleDateFormat("EEEE").format(midnight),
+                FriendlyDateFormatter.getDayName(mContext, midnight, midnight + DAY_IN_MILLIS));
+    }
+
+    public void testFollowsTimeZoneChanges() {
+        // 11:00 UTC on June 24th is 1am that day in Honolulu, and 1am the next in Kiritimati.
+        long date = 1435143600000L;
+        useZone(TimeZone.getTimeZone("Pacific/Honolulu"));
+        String honolulu = Utility.getFormattedMonthDay(mContext, date);
+        assertEquals(legacyFormattedMonthDay(date), honolulu);
+
+        useZone(TimeZone.getTimeZone("Pacific/Kiritimati"));
+        String kiritimati = Utility.getFormattedMonthDay(mContext, date);
+        assertEquals(legacyFormattedMonthDay(date), kiritimati);
+        assertFalse(honolulu.equals(kiritimati));
+        assertEquals(legacyFriendlyDayString(mContext, date, false),
+                Utility.getFriendlyDayString(mContext, date, false));
+    }
+
+    public void testBenchmarkScrollAndWidgetRefresh() {
+        long today = WeatherContract.normalizeDate(System.currentTimeMillis());
+        long[] dates = new long[ROWS];
+        for (int i = 0; i < ROWS; i++) {
+            dates[i] = today + i * DAY_IN_MILLIS;
+        }
+
+        Debug.startAllocCounting();
+        try {
+            for (int pass = 0; pass < 2; pass++) {
+                // The first pass warms up the code; only the second is logged.
+                boolean log = pass == 1;
+                // Scrolling the forecast binds today with the long form and the rest without.
+                benchmark("scroll, formatter", log, false, dates, SCROLL_PASSES, true);
+                benchmark("scroll, legacy", log, true, dates, SCROLL_PASSES, true);
+                // The detail widget formats every row again on each refresh.
+                benchmark("widget, formatter", log, false, dates, WIDGET_REFRESHES, false);
+                benchmark("widget, legacy", log, true, dates, WIDGET_REFRESHES, false);
+            }
+        } finally {
+            Debug.stopAllocCounting();
+        }
+    }
+
+    private void benchmark(String name, boolean log, boolean legacy, long[] dates, int passes,
+                           boolean longToday) {
+        long checksum = 0;
+        Debug.resetThreadAllocCount();
+        long start = System.nanoTime();
+        for (int pass = 0; pass < passes; pass++) {
+            for (int i = 0; i < dates.length; i++) {
+                boolean useLongToday = longToday && i == 0;
+                String label = legacy
+                        ? legacyFriendlyDayString(mContext, dates[i], useLongToday)
+                        : Utility.getFriendlyDayString(mContext, dates[i], useLongToday);
+                checksum += label.length();
+            }
+        }
+        long nanos = System.nanoTime() - start;
+        int allocations = Debug.getThreadAllocCount();
+        int rows = passes * dates.length;
+        if (log) {
+            Log.i(LOG_TAG, String.format(Locale.US,
+                    "%s: %.2f us/row, %.2f allocations/row (checksum %d)",
+                    name, nanos / 1e3 / rows, (double) allocations / rows, checksum));
+        }
+    }
+
+    private static void useZone(TimeZone zone) {
+        // FriendlyDateFormatter notices the new zone by itself.
+        TimeZone.setDefault(zone);
+        WeatherContract.onTimeZoneChanged();
+    }
+
+    // Utility's date strings as they were before FriendlyDateFormatter.
+
+    private static String legacyFriendlyDayString(Context context, long dateInMillis,
+                                                  boolean displayLongToday) {
+        Time time = new Time();
+        time.setToNow();
+        long currentTime = System.currentTimeMillis();
+        int julianDay = Time.getJulianDay(dateInMillis, time.gmtoff);
+        int currentJulianDay = Time.getJulianDay(currentTime, time.gmtoff);
+
+        if (displayLongToday && julianDay == currentJulianDay) {
+            String today = context.getString(R.string.today);
+            int formatId = R.string.format_full_friendly_date;
+            return String.format(context.getString(
+                    formatId,
+                    today,
+                    legacyFormattedMonthDay(dateInMillis)));
+        } else if (julianDay < currentJulianDay + 7) {
+            return legacyDayName(context, dateInMillis);
+        } else {
+            SimpleDateFormat shortenedDateFormat = new SimpleDateFormat("EEE MMM dd");
+            return shortenedDateFormat.format(dateInMillis);
+        }
+    }
+
+    private static String legacyFullFriendlyDayString(Context context, long dateInMillis) {
+        String day = legacyDayName(context, dateInMillis);
+        int formatId = R.string.format_full_friendly_date;
+        return String.format(context.getString(
+                formatId,
+                day,
+                legacyFormattedMonthDay(dateInMillis)));
+    }
+
+    private static String legacyDayName(Context context, long dateInMillis) {
+        Time t = new Time();
+        t.setToNow();
+        int julianDay = Time.getJulianDay(dateInMillis, t.gmtoff);
+        int currentJulianDay = Time.getJulianDay(System.currentTimeMillis(), t.gmtoff);
+        if (julianDay == currentJulianDay) {
+            return context.getString(R.string.today);
+        } else if (julianDay == currentJulianDay + 1) {
+            return context.getString(R.string.tomorrow);
+        } else {
+            SimpleDateFormat dayFormat = new SimpleDateFormat("EEEE");
+            return dayFormat.format(dateInMillis);
+        }
+    }
+
+    private static String legacyFormattedMonthDay(long dateInMillis) {
+        SimpleDateFormat monthDayFormat = new SimpleDateFormat("MMMM dd");
+        return monthDayFormat.format(dateInMillis);
+    }
+}
@@ -0,0 +1,189 @@
+/*
+ * Copyright (C) 2015 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.example.android.sunshine.app;
+
+import android.os.Bundle;
+import android.support.v7.widget.RecyclerView;
+import android.test.AndroidTestCase;
+import android.util.Log;
+import android.view.ViewGroup;
+import android.widget.AbsListView;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Locale;
+import java.util.Random;
+
+/*
+    Checks that ItemChoiceManager keeps the checked items checked by ID through data changes,
+    however far they move, and drops those that go, and times finding the checked items again
+    after a change on lists of different lengths.  Numbers go to logcat under the
+    TestItemChoiceManager tag.
+ */
+public class TestItemChoiceManager extends AndroidTestCase {
+
+    public static final String LOG_TAG = TestItemChoiceManager.class.getSimpleName();
+
+    public void testMultipleChoiceFollowsIds() {
+        Random random = new Random(2015);
+        IdAdapter adapter = new IdAdapter(500);
+        ItemChoiceManager icm = new ItemChoiceManager(adapter);
+        icm.setChoiceMode(AbsListView.CHOICE_MODE_MULTIPLE);
+
+        HashSet<Long> checked = new HashSet<Long>();
+        for (int i = 0; i < 50; i++) {
+            int position = random.nextInt(adapter.getItemCount());
+            icm.setItemChecked(position, true);
+            checked.add(adapter.mIds.get(position));
+        }
+
+        for (int round = 0; round < 20; round++) {
+            // Far more than the 20 positions the old search looked through.
+            Collections.shuffle(adapter.mIds, random);
+            Long removed = adapter.mIds.remove(0);
+            checked.remove(removed);
+            adapter.notifyItemRemoved(0);
+            adapter.mIds.add(adapter.mIds.size(), adapter.mNextId++);
+            adapter.notifyItemInserted(adapter.mIds.size() - 1);
+            adapter.notifyDataSetChanged();
+            assertCheckedIds(adapter, icm, checked);
+        }
+
+        // Unchecking by position forgets the ID too.
+        int position = adapter.mIds.indexOf(checked.iterator().next());
+        checked.remove(adapter.mIds.get(position));
+        icm.setItemChecked(position, false);
+        Collections.reverse(adapter.mIds);
+        adapter.notifyDataSetChanged();
+        assertCheckedIds(adapter, icm, checked);
+    }
+
+    public void testSingleChoiceSurvivesSaveAndRestore() {
+        IdAdapter adapter = new IdAdapter(30);
+        ItemChoiceManager icm = new ItemChoiceManager(adapter);
+        icm.setChoiceMode(AbsListView.CHOICE_MODE_SINGLE);
+        icm.setItemChecked(3, true);
+        icm.setItemChecked(7, true);
+        assertFalse(icm.isItemChecked(3));
+        long id = adapter.mIds.get(7);
+
+        Bundle state = new Bundle();
+        icm.onSaveInstanceState(state);
+
+        // As after a rotation: a new adapter that's empty until the loader delivers.
+        IdAdapter restoredAdapter = new IdAdapter(0);
+        ItemChoiceManager restored = new ItemChoiceManager(restoredAdapter);
+        restored.setChoiceMode(AbsListView.CHOICE_MODE_SINGLE);
+        restored.onRestoreInstanceState(state);
+        restoredAdapter.mIds.addAll(adapter.mIds);
+        restoredAdapter.mIds.add(0, adapter.mNextId++);
+        restoredAdapter.mIds.add(0, adapter.mNextId++);
+        restoredAdapter.notifyDataSetChanged();
+
+        assertEquals(restoredAdapter.mIds.indexOf(id), restored.getSelectedItemPosition());
+        assertEquals(9, restored.getSelectedItemPosition());
+    }
+
+    public void testBenchmarkReconcile() {
+        for (int pass = 0; pass < 2; pass++) {
+            // The first pass warms up the code; only the second is logged.
+            for (int length : new int[]{16, 1000, 100000}) {
+                IdAdapter adapter = new IdAdapter(length);
+                ItemChoiceManager icm = new ItemChoiceManager(adapter);
+                icm.setChoiceMode(AbsListView.CHOICE_MODE_MULTIPLE);
+                int checkedCount = Math.min(length, 100);
+                for (int position = 0; position < checkedCount; position++) {
+                    icm.setItemChecked(position * (length / checkedCount), true);
+                }
+                // Insert half the list's length at the top, moving every checked item much
+                // further than the 20 places the old search looked.
+                adapter.mIds.addAll(0, adapter.newIds(length / 2));
+                adapter.notifyItemRangeInserted(0, length / 2);
+
+                long start = System.nanoTime();
+                int found = 0;
+                for (int position = 0; position < adapter.getItemCount(); position++) {
+                    if (icm.isItemChecked(position)) {
+                        found++;
+                    }
+                }
+                long nanos = System.nanoTime() - start;
+                assertEquals(checkedCount, found);
+                if (pass == 1) {
+                    Log.i(LOG_TAG, String.format(Locale.US,
+                            "%d items, %d checked: %.3f ms to find them after a change",
+                            adapter.getItemCount(), checkedCount, nanos / 1e6));
+                }
+            }
+        }
+    }
+
+    private static void assertCheckedIds(IdAdapter adapter, ItemChoiceManager icm,
+                                         HashSet<Long> checked) {
+        int found = 0;
+        for (int position = 0; position < adapter.getItemCount(); position++) {
+            boolean expected = checked.contains(adapter.mIds.get(position));
+            assertEquals("Error: wrong checked state at " + position, expected,
+                    icm.isItemChecked(position));
+            if (expected) {
+                found++;
+            }
+        }
+        assertEquals(checked.size(), found);
+    }
+
+    /*
+        An adapter that's nothing but a list of stable IDs.
+     */
+    private static class IdAdapter extends RecyclerView.Adapter {
+        final List<Long> mIds = new ArrayList<Long>();
+        long mNextId = 1000;
+
+        IdAdapter(int count) {
+            setHasStableIds(true);
+            mIds.addAll(newIds(count));
+        }
+
+        List<Long> newIds(int count) {
+            List<Long> ids = new ArrayList<Long>(count);
+            for (int i = 0; i < count; i++) {
+                ids.add(mNextId++);
+            }
+            return ids;
+        }
+
+        @Override
+        public RecyclerView.ViewHolder onCreateViewHolder(ViewGroup parent, int viewType) {
+            return null;
+        }
+
+        @Override
+        public void onBindViewHolder(RecyclerView.ViewHolder holder, int position) {
+        }
+
+        @Override
+        public long getItemId(int position) {
+            return mIds.get(position);
+        }
+
+        @Override
+        public int getItemCount() {
+            return mIds.size();
+        }
+    }
+}
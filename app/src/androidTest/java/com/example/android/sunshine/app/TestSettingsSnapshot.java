@@ -0,0 +1,177 @@
+/*
+ * Copyright (C) 2015 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.example.android.sunshine.app;
+
+import android.content.Context;
+import android.content.SharedPreferences;
+import android.preference.PreferenceManager;
+import android.test.AndroidTestCase;
+import android.util.Log;
+
+import com.example.android.sunshine.app.utils.PollingCheck;
+
+import java.util.Locale;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+/*
+    Checks that SettingsSnapshot follows the preferences, whether they're written through it or
+    not, and that its listeners hear about a change only once it has it.  Also compares what
+    the settings cost a forecast row's bind (art pack, two temperatures) when read through
+    SettingsSnapshot and when read from SharedPreferences the way Utility used to.  Numbers go
+    to logcat under the TestSettingsSnapshot tag.
+ */
+public class TestSettingsSnapshot extends AndroidTestCase {
+
+    public static final String LOG_TAG = TestSettingsSnapshot.class.getSimpleName();
+
+    private static final int ROWS = 14;
+    private static final int PASSES = 500;
+
+    private SharedPreferences mPrefs;
+    private String mUnitsKey;
+    private String mPreviousUnits;
+
+    @Override
+    protected void setUp() throws Exception {
+        super.setUp();
+        mPrefs = PreferenceManager.getDefaultSharedPreferences(mContext);
+        mUnitsKey = mContext.getString(R.string.pref_units_key);
+        mPreviousUnits = mPrefs.getString(mUnitsKey, null);
+    }
+
+    @Override
+    protected void tearDown() throws Exception {
+        if (mPreviousUnits == null) {
+            SettingsSnapshot.edit(mContext).remove(mUnitsKey).commit();
+        } else {
+            SettingsSnapshot.edit(mContext).putString(mUnitsKey, mPreviousUnits).commit();
+        }
+        super.tearDown();
+    }
+
+    public void testSnapshotFollowsPreferences() {
+        SettingsSnapshot.edit(mContext)
+                .putString(mUnitsKey, mContext.getString(R.string.pref_units_metric)).commit();
+        assertTrue("Error: a change made through edit() should be read straight back",
+                SettingsSnapshot.get(mContext).metric);
+
+        SettingsSnapshot metricSnapshot = SettingsSnapshot.get(mContext);
+        mPrefs.edit().putString(mUnitsKey, mContext.getString(R.string.pref_units_imperial))
+                .commit();
+        assertTrue("Error: a snapshot must not change once taken", metricSnapshot.metric);
+
+        // Written behind SettingsSnapshot's back, off the main thread, so the listener that
+        // notices runs later on the main thread; wait for it.
+        new PollingCheck() {
+            @Override
+            protected boolean check() {
+                return !SettingsSnapshot.get(mContext).metric;
+            }
+        }.run();
+        assertFalse(Utility.isMetric(mContext));
+        assertEquals(legacyIsMetric(mContext), Utility.isMetric(mContext));
+        assertEquals(legacyUsingLocalGraphics(mContext), Utility.usingLocalGraphics(mContext));
+        assertEquals(legacyFormatTemperature(mContext, 21.5),
+                Utility.formatTemperature(mContext, 21.5));
+    }
+
+    public void testListenersSeeTheChange() throws Exception {
+        SettingsSnapshot.edit(mContext)
+                .putString(mUnitsKey, mContext.getString(R.string.pref_units_metric)).commit();
+        assertTrue(SettingsSnapshot.get(mContext).metric);
+
+        final CountDownLatch changed = new CountDownLatch(1);
+        final AtomicBoolean metricWhenCalled = new AtomicBoolean(true);
+        SharedPreferences.OnSharedPreferenceChangeListener listener =
+                new SharedPreferences.OnSharedPreferenceChangeListener() {
+                    @Override
+                    public void onSharedPreferenceChanged(SharedPreferences sharedPreferences,
+                                                          String key) {
+                        if (mUnitsKey.equals(key)) {
+                            metricWhenCalled.set(SettingsSnapshot.get(mContext).metric);
+                            changed.countDown();
+                        }
+                    }
+                };
+        SettingsSnapshot.registerOnSharedPreferenceChangeListener(mContext, listener);
+        try {
+            mPrefs.edit().putString(mUnitsKey, mContext.getString(R.string.pref_units_imperial))
+                    .commit();
+            assertTrue(changed.await(5, TimeUnit.SECONDS));
+            assertFalse("Error: a listener should only hear about a change the snapshot has",
+                    metricWhenCalled.get());
+        } finally {
+            SettingsSnapshot.unregisterOnSharedPreferenceChangeListener(listener);
+        }
+    }
+
+    public void testBenchmarkBindCost() {
+        long checksum = 0;
+        for (int pass = 0; pass < 2; pass++) {
+            // The first pass warms up the code; only the second is logged.
+            long start = System.nanoTime();
+            for (int i = 0; i < PASSES * ROWS; i++) {
+                boolean local = legacyUsingLocalGraphics(mContext);
+                String high = legacyFormatTemperature(mContext, 20 + i % ROWS);
+                String low = legacyFormatTemperature(mContext, 10 + i % ROWS);
+                checksum += (local ? 1 : 0) + high.length() + low.length();
+            }
+            long legacyNanos = System.nanoTime() - start;
+
+            start = System.nanoTime();
+            for (int i = 0; i < PASSES * ROWS; i++) {
+                SettingsSnapshot settings = SettingsSnapshot.get(mContext);
+                boolean local = settings.usingLocalGraphics;
+                String high = Utility.formatTemperature(mContext, 20 + i % ROWS, settings.metric);
+                String low = Utility.formatTemperature(mContext, 10 + i % ROWS, settings.metric);
+                checksum += (local ? 1 : 0) + high.length() + low.length();
+            }
+            long snapshotNanos = System.nanoTime() - start;
+
+            if (pass == 1) {
+                Log.i(LOG_TAG, String.format(Locale.US,
+                        "settings per row: SharedPreferences %.2f us, snapshot %.2f us (%d)",
+                        legacyNanos / 1e3 / (PASSES * ROWS),
+                        snapshotNanos / 1e3 / (PASSES * ROWS), checksum));
+            }
+        }
+    }
+
+    // Utility's settings reads as they were before SettingsSnapshot.
+
+    private static boolean legacyIsMetric(Context context) {
+        SharedPreferences prefs = PreferenceManager.getDefaultSharedPreferences(context);
+        return prefs.getString(context.getString(R.string.pref_units_key),
+                context.getString(R.string.pref_units_metric))
+                .equals(context.getString(R.string.pref_units_metric));
+    }
+
+    private static boolean legacyUsingLocalGraphics(Context context) {
+        SharedPreferences prefs = PreferenceManager.getDefaultSharedPreferences(context);
+        String sunshineArtPack = context.getString(R.string.pref_art_pack_sunshine);
+        return prefs.getString(context.getString(R.string.pref_art_pack_key),
+                sunshineArtPack).equals(sunshineArtPack);
+    }
+
+    private static String legacyFormatTemperature(Context context, double temperature) {
+        if (!legacyIsMetric(context)) {
+            temperature = (temperature * 1.8) + 32;
+        }
+        return String.format(context.getString(R.string.format_temperature), temperature);
+    }
+}
@@ -0,0 +1,83 @@
+/*
+ * Copyright (C) 2015 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.example.android.sunshine.app;
+
+import android.os.SystemClock;
+import android.test.AndroidTestCase;
+
+import org.json.JSONArray;
+import org.json.JSONObject;
+
+/*
+    Checks the trace StartupTrace writes: times relative to the process start, only the first
+    begin and end of a span counting, nothing counting after the trace is finished, and launches
+    long after the process started not being called cold.
+ */
+public class TestStartupTrace extends AndroidTestCase {
+
+    public void testSpansAreRelativeToProcessStart() throws Exception {
+        StartupTrace trace = new StartupTrace(1000);
+        trace.beginSpan(StartupTrace.PROVIDER_CREATE, 1100);
+        trace.endSpan(StartupTrace.PROVIDER_CREATE, 1150);
+        trace.beginSpan(StartupTrace.ACTIVITY_CREATE, 1200);
+        // A second activity, after a rotation, doesn't move the span.
+        trace.beginSpan(StartupTrace.ACTIVITY_CREATE, 1800);
+        trace.endSpan(StartupTrace.ACTIVITY_CREATE, 1400);
+        trace.endSpan(StartupTrace.ACTIVITY_CREATE, 1900);
+        trace.beginSpan(StartupTrace.LOADER_FIRST_RESULT, 1300);
+        assertTrue(trace.markFinished());
+        assertFalse(trace.markFinished());
+        trace.endSpan(StartupTrace.LOADER_FIRST_RESULT, 1500);
+        trace.beginSpan(StartupTrace.FIRST_LIST_DRAW, 1600);
+
+        JSONObject json = trace.toJson(900, 42);
+        assertEquals(42, json.getLong("time"));
+        assertTrue(json.getBoolean("cold"));
+        JSONArray spans = json.getJSONArray("spans");
+        assertEquals(4, spans.length());
+        assertSpan(spans.getJSONObject(0), StartupTrace.PROCESS_START, 0, 0);
+        assertSpan(spans.getJSONObject(1), StartupTrace.PROVIDER_CREATE, 200, 250);
+        assertSpan(spans.getJSONObject(2), StartupTrace.ACTIVITY_CREATE, 300, 500);
+        JSONObject loader = spans.getJSONObject(3);
+        assertEquals(StartupTrace.LOADER_FIRST_RESULT, loader.getString("name"));
+        assertFalse("Error: a span ended after the trace finished", loader.has("end"));
+    }
+
+    public void testLateActivityIsNotCold() throws Exception {
+        StartupTrace trace = new StartupTrace(0);
+        trace.beginSpan(StartupTrace.ACTIVITY_CREATE, StartupTrace.COLD_START_WINDOW_MS + 1);
+        assertFalse(trace.toJson(0, 0).getBoolean("cold"));
+
+        StartupTrace service = new StartupTrace(0);
+        service.beginSpan(StartupTrace.PROVIDER_CREATE, 10);
+        assertFalse("Error: a process with no activity was called cold",
+                service.toJson(0, 0).getBoolean("cold"));
+    }
+
+    public void testProcessStartIsBeforeNow() {
+        long now = SystemClock.elapsedRealtime();
+        long start = StartupTrace.readProcessStart(now);
+        assertTrue(start > 0);
+        assertTrue(start <= now);
+    }
+
+    private static void assertSpan(JSONObject span, String name, long start, long end)
+            throws Exception {
+        assertEquals(name, span.getString("name"));
+        assertEquals(start, span.getLong("start"));
+        assertEquals(end, span.getLong("end"));
+    }
+}
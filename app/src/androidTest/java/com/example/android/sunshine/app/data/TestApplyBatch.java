@@ -0,0 +1,238 @@
+/*
+ * Copyright (C) 2015 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.example.android.sunshine.app.data;
+
+import android.content.ContentProviderOperation;
+import android.content.ContentProviderResult;
+import android.content.ContentUris;
+import android.content.ContentValues;
+import android.database.Cursor;
+import android.os.Build;
+import android.os.Bundle;
+import android.test.AndroidTestCase;
+import android.util.Log;
+
+import com.example.android.sunshine.app.data.WeatherContract.LocationEntry;
+import com.example.android.sunshine.app.data.WeatherContract.WeatherEntry;
+
+import java.util.ArrayList;
+import java.util.Locale;
+
+/*
+    Checks that WeatherProvider.applyBatch commits a whole location refresh at once, that it
+    reports which days it actually wrote and reuses a location that's already stored, and
+    compares the commits (journal syncs) and wall time of a refresh done as separate
+    insert/bulkInsert/delete calls against the same refresh as one batch.  Numbers go to logcat
+    under the TestApplyBatch tag.
+ */
+public class TestApplyBatch extends AndroidTestCase {
+
+    public static final String LOG_TAG = TestApplyBatch.class.getSimpleName();
+
+    private static final int DAYS = 14;
+    private static final int SYNCS = 50;
+    private static final long DAY_IN_MILLIS = 1000L * 60 * 60 * 24;
+
+    @Override
+    protected void setUp() throws Exception {
+        super.setUp();
+        mContext.getContentResolver().delete(WeatherEntry.CONTENT_URI, null, null);
+        mContext.getContentResolver().delete(LocationEntry.CONTENT_URI, null, null);
+    }
+
+    @Override
+    protected void tearDown() throws Exception {
+        mContext.getContentResolver().delete(WeatherEntry.CONTENT_URI, null, null);
+        mContext.getContentResolver().delete(LocationEntry.CONTENT_URI, null, null);
+        super.tearDown();
+    }
+
+    public void testBatchWithBackReference() throws Exception {
+        ArrayList<ContentProviderOperation> operations = new ArrayList<ContentProviderOperation>();
+        operations.add(ContentProviderOperation.newInsert(LocationEntry.CONTENT_URI)
+                .withValues(TestUtilities.createNorthPoleLocationValues())
+                .build());
+        for (int day = 0; day < DAYS; day++) {
+            operations.add(ContentProviderOperation.newInsert(WeatherEntry.CONTENT_URI)
+                    .withValues(createDay(day, 0))
+                    .withValueBackReference(WeatherEntry.COLUMN_LOC_KEY, 0)
+                    .build());
+        }
+        long commitsBefore = getCommits();
+        ContentProviderResult[] results =
+                mContext.getContentResolver().applyBatch(WeatherContract.CONTENT_AUTHORITY,
+                        operations);
+        assertEquals(DAYS + 1, results.length);
+
+        long locationId = ContentUris.parseId(results[0].uri);
+        Cursor cursor = mContext.getContentResolver().query(WeatherEntry.CONTENT_URI, null,
+                WeatherEntry.COLUMN_LOC_KEY + " = ?", new String[]{Long.toString(locationId)},
+                null);
+        assertEquals(DAYS, cursor.getCount());
+        cursor.close();
+        if (commitsBefore != -1) {
+            assertEquals("The batch should commit once", commitsBefore + 1, getCommits());
+        }
+    }
+
+    public void testBatchReportsChangedDays() throws Exception {
+        ContentProviderResult[] results = applyRefresh(0);
+        assertEquals(DAYS + 1, results.length);
+        long locationId = ContentUris.parseId(results[0].uri);
+        for (int day = 1; day <= DAYS; day++) {
+            assertNull(results[day].uri);
+            assertEquals("Error: a new day should count as written", 1, results[day].count);
+        }
+
+        // The same forecast again: the location is looked up, and no day is written.
+        results = applyRefresh(0);
+        assertEquals(locationId, ContentUris.parseId(results[0].uri));
+        for (int day = 1; day <= DAYS; day++) {
+            assertEquals("Error: an unchanged day should not count", 0, results[day].count);
+        }
+
+        // A new forecast changes every day in place.
+        results = applyRefresh(1);
+        assertEquals(locationId, ContentUris.parseId(results[0].uri));
+        for (int day = 1; day <= DAYS; day++) {
+            assertEquals(1, results[day].count);
+        }
+        Cursor cursor = mContext.getContentResolver().query(WeatherEntry.CONTENT_URI, null,
+                null, null, null);
+        assertEquals(DAYS, cursor.getCount());
+        cursor.close();
+        cursor = mContext.getContentResolver().query(LocationEntry.CONTENT_URI, null,
+                null, null, null);
+        assertEquals(1, cursor.getCount());
+        cursor.close();
+    }
+
+    public void testFailedBatchRollsBack() {
+        ArrayList<ContentProviderOperation> operations = new ArrayList<ContentProviderOperation>();
+        operations.add(ContentProviderOperation.newInsert(LocationEntry.CONTENT_URI)
+                .withValues(TestUtilities.createNorthPoleLocationValues())
+                .build());
+        // A second location with the same setting breaks the UNIQUE constraint.
+        operations.add(ContentProviderOperation.newInsert(LocationEntry.CONTENT_URI)
+                .withValues(TestUtilities.createNorthPoleLocationValues())
+                .build());
+        try {
+            mContext.getContentResolver().applyBatch(WeatherContract.CONTENT_AUTHORITY,
+                    operations);
+            fail("Inserting the same location twice should fail");
+        } catch (Exception expected) {
+            // The first insert must not have been kept.
+        }
+        Cursor cursor = mContext.getContentResolver().query(LocationEntry.CONTENT_URI, null,
+                null, null, null);
+        assertEquals(0, cursor.getCount());
+        cursor.close();
+    }
+
+    public void testBenchmarkSeparateCallsVersusBatch() throws Exception {
+        long locationId = ContentUris.parseId(mContext.getContentResolver().insert(
+                LocationEntry.CONTENT_URI, TestUtilities.createNorthPoleLocationValues()));
+
+        long commitsBefore = getCommits();
+        long start = System.nanoTime();
+        for (int sync = 0; sync < SYNCS; sync++) {
+            ContentValues[] days = new ContentValues[DAYS];
+            for (int day = 0; day < DAYS; day++) {
+                days[day] = createDay(sync + day, sync);
+                days[day].put(WeatherEntry.COLUMN_LOC_KEY, locationId);
+            }
+            mContext.getContentResolver().bulkInsert(WeatherEntry.CONTENT_URI, days);
+            mContext.getContentResolver().delete(WeatherEntry.CONTENT_URI,
+                    WeatherEntry.COLUMN_DATE + " < ?",
+                    new String[]{Long.toString(dayDate(sync))});
+        }
+        long separateNanos = System.nanoTime() - start;
+        long separateCommits = getCommits() - commitsBefore;
+
+        commitsBefore = getCommits();
+        start = System.nanoTime();
+        for (int sync = SYNCS; sync < 2 * SYNCS; sync++) {
+            ArrayList<ContentProviderOperation> operations =
+                    new ArrayList<ContentProviderOperation>();
+            for (int day = 0; day < DAYS; day++) {
+                ContentValues values = createDay(sync + day, sync);
+                values.put(WeatherEntry.COLUMN_LOC_KEY, locationId);
+                operations.add(ContentProviderOperation.newInsert(WeatherEntry.CONTENT_URI)
+                        .withValues(values)
+                        .build());
+            }
+            operations.add(ContentProviderOperation.newDelete(WeatherEntry.CONTENT_URI)
+                    .withSelection(WeatherEntry.COLUMN_DATE + " < ?",
+                            new String[]{Long.toString(dayDate(sync))})
+                    .build());
+            mContext.getContentResolver().applyBatch(WeatherContract.CONTENT_AUTHORITY,
+                    operations);
+        }
+        long batchNanos = System.nanoTime() - start;
+        long batchCommits = getCommits() - commitsBefore;
+
+        Log.i(LOG_TAG, String.format(Locale.US,
+                "per sync: separate calls %.2f ms / %.1f commits, applyBatch %.2f ms / %.1f commits",
+                separateNanos / 1e6 / SYNCS, (double) separateCommits / SYNCS,
+                batchNanos / 1e6 / SYNCS, (double) batchCommits / SYNCS));
+    }
+
+    /*
+        A sync's batch for the North Pole: the location, looked up or added, then its days.
+     */
+    private ContentProviderResult[] applyRefresh(int version) throws Exception {
+        ArrayList<ContentProviderOperation> operations = new ArrayList<ContentProviderOperation>();
+        operations.add(ContentProviderOperation.newInsert(LocationEntry.buildInsertOrLookupUri())
+                .withValues(TestUtilities.createNorthPoleLocationValues())
+                .build());
+        for (int day = 0; day < DAYS; day++) {
+            operations.add(ContentProviderOperation.newInsert(WeatherEntry.CONTENT_URI)
+                    .withValues(createDay(day, version))
+                    .withValueBackReference(WeatherEntry.COLUMN_LOC_KEY, 0)
+                    .build());
+        }
+        return mContext.getContentResolver().applyBatch(WeatherContract.CONTENT_AUTHORITY,
+                operations);
+    }
+
+    private static long dayDate(int day) {
+        return WeatherContract.normalizeDate(TestUtilities.TEST_DATE + day * DAY_IN_MILLIS);
+    }
+
+    /*
+        A day's forecast without the location; "version" changes the temperatures so repeated
+        syncs really update rows.
+     */
+    private static ContentValues createDay(int day, int version) {
+        ContentValues values = TestUtilities.createWeatherValues(0);
+        values.remove(WeatherEntry.COLUMN_LOC_KEY);
+        values.put(WeatherEntry.COLUMN_DATE, dayDate(day));
+        values.put(WeatherEntry.COLUMN_MAX_TEMP, 70 + version % 10);
+        return values;
+    }
+
+    /*
+        Transactions the provider has committed so far, or -1 before Honeycomb.
+     */
+    private long getCommits() {
+        if (Build.VERSION.SDK_INT < Build.VERSION_CODES.HONEYCOMB) {
+            return -1;
+        }
+        Bundle stats = mContext.getContentResolver().call(WeatherEntry.CONTENT_URI,
+                WeatherContract.METHOD_GET_WRITE_STATS, null, null);
+        return stats.getLong(WeatherContract.STATS_TRANSACTIONS_COMMITTED);
+    }
+}
@@ -0,0 +1,177 @@
+/*
+ * Copyright (C) 2015 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.example.android.sunshine.app.data;
+
+import android.content.ContentValues;
+import android.database.Cursor;
+import android.database.sqlite.SQLiteDatabase;
+import android.os.Build;
+import android.test.AndroidTestCase;
+import android.util.Log;
+
+import com.example.android.sunshine.app.data.WeatherContract.LocationEntry;
+import com.example.android.sunshine.app.data.WeatherContract.WeatherEntry;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Locale;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+/*
+    Measures how long WEATHER_WITH_LOCATION queries take while another thread keeps running
+    bulkInsert-sized transactions, first with rollback journaling and then with write-ahead
+    logging.  p50/p99 read latencies go to logcat under the TestDbContention tag.
+ */
+public class TestDbContention extends AndroidTestCase {
+
+    public static final String LOG_TAG = TestDbContention.class.getSimpleName();
+
+    private static final int READER_THREADS = 4;
+    private static final int QUERIES_PER_READER = 200;
+    private static final int DAYS_PER_BATCH = 14;
+    private static final int LOCATIONS = 20;
+    private static final long DAY_IN_MILLIS = 1000L * 60 * 60 * 24;
+
+    private static final String[] FORECAST_COLUMNS = {
+            WeatherEntry.TABLE_NAME + "." + WeatherEntry._ID,
+            WeatherEntry.COLUMN_DATE,
+            WeatherEntry.COLUMN_SHORT_DESC,
+            WeatherEntry.COLUMN_MAX_TEMP,
+            WeatherEntry.COLUMN_MIN_TEMP,
+            LocationEntry.COLUMN_LOCATION_SETTING,
+            WeatherEntry.COLUMN_WEATHER_ID
+    };
+
+    @Override
+    protected void tearDown() throws Exception {
+        mContext.deleteDatabase(WeatherDbHelper.DATABASE_NAME);
+        super.tearDown();
+    }
+
+    public void testWriteAheadLoggingEnabledByDefault() {
+        mContext.deleteDatabase(WeatherDbHelper.DATABASE_NAME);
+        WeatherDbHelper helper = new WeatherDbHelper(mContext);
+        SQLiteDatabase db = helper.getWritableDatabase();
+        if (Build.VERSION.SDK_INT >= Build.VERSION_CODES.HONEYCOMB) {
+            Cursor cursor = db.rawQuery("PRAGMA journal_mode", null);
+            assertTrue(cursor.moveToFirst());
+            assertEquals("wal", cursor.getString(0).toLowerCase(Locale.US));
+            cursor.close();
+        }
+        helper.close();
+    }
+
+    public void testBenchmarkReadLatencyUnderWrites() throws Exception {
+        long[] rollback = runContention(false);
+        long[] wal = runContention(true);
+        Log.i(LOG_TAG, String.format(Locale.US,
+                "%d readers: rollback journal p50 %.2f ms p99 %.2f ms, WAL p50 %.2f ms p99 %.2f ms",
+                READER_THREADS, rollback[0] / 1e6, rollback[1] / 1e6, wal[0] / 1e6, wal[1] / 1e6));
+    }
+
+    /*
+        Returns {p50, p99} read latency in nanoseconds.
+     */
+    private long[] runContention(boolean writeAheadLogging) throws Exception {
+        mContext.deleteDatabase(WeatherDbHelper.DATABASE_NAME);
+        final WeatherDbHelper helper = new WeatherDbHelper(mContext, writeAheadLogging,
+                WeatherDbHelper.DEFAULT_WAL_AUTOCHECKPOINT_PAGES);
+        final SQLiteDatabase db = helper.getWritableDatabase();
+
+        final long[] locationIds = new long[LOCATIONS];
+        for (int i = 0; i < LOCATIONS; i++) {
+            ContentValues location = TestUtilities.createNorthPoleLocationValues();
+            location.put(LocationEntry.COLUMN_LOCATION_SETTING, "loc" + i);
+            locationIds[i] = db.insert(LocationEntry.TABLE_NAME, null, location);
+        }
+
+        final AtomicBoolean readersDone = new AtomicBoolean();
+        Thread writer = new Thread(new Runnable() {
+            @Override
+            public void run() {
+                // Keep rewriting every location's days with slightly different values, so each
+                // pass does real updates like a sync with a fresh forecast would.
+                for (int pass = 0; !readersDone.get(); pass++) {
+                    for (long locationId : locationIds) {
+                        ContentValues[] days = new ContentValues[DAYS_PER_BATCH];
+                        for (int day = 0; day < DAYS_PER_BATCH; day++) {
+                            days[day] = TestUtilities.createWeatherValues(locationId);
+                            days[day].put(WeatherEntry.COLUMN_DATE,
+                                    WeatherContract.normalizeDate(
+                                            TestUtilities.TEST_DATE + day * DAY_IN_MILLIS));
+                            days[day].put(WeatherEntry.COLUMN_MAX_TEMP, 70 + pass % 10);
+                        }
+                        WeatherUpsert upsert = new WeatherUpsert(db);
+                        WeatherProvider.beginWriteTransaction(db);
+                        try {
+                            upsert.apply(days);
+                            db.setTransactionSuccessful();
+                        } finally {
+                            db.endTransaction();
+                            upsert.close();
+                        }
+                    }
+                }
+            }
+        });
+
+        final ArrayList<Long> latencies = new ArrayList<Long>();
+        final CountDownLatch readersFinished = new CountDownLatch(READER_THREADS);
+        final String sql = WeatherProvider.sWeatherByLocationSettingQueryBuilder.buildQuery(
+                FORECAST_COLUMNS, WeatherProvider.sLocationSettingSelection, null, null,
+                WeatherEntry.COLUMN_DATE + " ASC", null);
+
+        writer.start();
+        for (int r = 0; r < READER_THREADS; r++) {
+            final int reader = r;
+            new Thread(new Runnable() {
+                @Override
+                public void run() {
+                    long[] mine = new long[QUERIES_PER_READER];
+                    for (int i = 0; i < QUERIES_PER_READER; i++) {
+                        long start = System.nanoTime();
+                        Cursor cursor = db.rawQuery(sql,
+                                new String[]{"loc" + ((reader + i) % LOCATIONS)});
+                        while (cursor.moveToNext()) {
+                            cursor.getLong(0);
+                        }
+                        cursor.close();
+                        mine[i] = System.nanoTime() - start;
+                    }
+                    synchronized (latencies) {
+                        for (long latency : mine) {
+                            latencies.add(latency);
+                        }
+                    }
+                    readersFinished.countDown();
+                }
+            }).start();
+        }
+
+        readersFinished.await();
+        readersDone.set(true);
+        writer.join();
+        helper.close();
+
+        assertEquals(READER_THREADS * QUERIES_PER_READER, latencies.size());
+        Collections.sort(latencies);
+        return new long[]{
+                latencies.get(latencies.size() / 2),
+                latencies.get(latencies.size() * 99 / 100)
+        };
+    }
+}
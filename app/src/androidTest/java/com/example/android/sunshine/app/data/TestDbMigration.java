@@ -0,0 +1,231 @@
+/*
+ * Copyright (C) 2015 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.example.android.sunshine.app.data;
+
+import android.content.ContentValues;
+import android.database.Cursor;
+import android.database.DatabaseUtils;
+import android.database.sqlite.SQLiteDatabase;
+import android.database.sqlite.SQLiteStatement;
+import android.test.AndroidTestCase;
+import android.util.Log;
+
+import com.example.android.sunshine.app.data.WeatherContract.LocationEntry;
+import com.example.android.sunshine.app.data.WeatherContract.WeatherEntry;
+
+import java.util.Locale;
+
+/*
+    Builds a database the way version 2 of the app left it, fills it with forecasts and checks
+    that WeatherDbHelper carries the rows through every later version.  The benchmark does the
+    same with a year of history for 500 locations and logs how long the upgrade took, and how
+    long WeatherDbHelper.rebuildTable takes on the weather table.
+ */
+public class TestDbMigration extends AndroidTestCase {
+
+    public static final String LOG_TAG = TestDbMigration.class.getSimpleName();
+
+    private static final long DAY_IN_MILLIS = 1000L * 60 * 60 * 24;
+
+    // The schema as it shipped in version 2.  Don't update these when the schema changes;
+    // they are what an upgrading device has on disk.
+    private static final String V2_CREATE_LOCATION_TABLE = "CREATE TABLE location (" +
+            "_id INTEGER PRIMARY KEY,location_setting TEXT UNIQUE NOT NULL, " +
+            "city_name TEXT NOT NULL, coord_lat REAL NOT NULL, coord_long REAL NOT NULL  );";
+    private static final String V2_CREATE_WEATHER_TABLE = "CREATE TABLE weather (" +
+            "_id INTEGER PRIMARY KEY AUTOINCREMENT,location_id INTEGER NOT NULL, " +
+            "date INTEGER NOT NULL, short_desc TEXT NOT NULL, weather_id INTEGER NOT NULL," +
+            "min REAL NOT NULL, max REAL NOT NULL, humidity REAL NOT NULL, " +
+            "pressure REAL NOT NULL, wind REAL NOT NULL, degrees REAL NOT NULL,  " +
+            "FOREIGN KEY (location_id) REFERENCES location (_id),  " +
+            "UNIQUE (date, location_id) ON CONFLICT REPLACE);";
+
+    private static final String[] WEATHER_COLUMNS = {
+            WeatherEntry._ID,
+            WeatherEntry.COLUMN_LOC_KEY,
+            WeatherEntry.COLUMN_DATE,
+            WeatherEntry.COLUMN_SHORT_DESC,
+            WeatherEntry.COLUMN_WEATHER_ID,
+            WeatherEntry.COLUMN_MIN_TEMP,
+            WeatherEntry.COLUMN_MAX_TEMP,
+            WeatherEntry.COLUMN_HUMIDITY,
+            WeatherEntry.COLUMN_PRESSURE,
+            WeatherEntry.COLUMN_WIND_SPEED,
+            WeatherEntry.COLUMN_DEGREES
+    };
+
+    @Override
+    protected void setUp() throws Exception {
+        super.setUp();
+        mContext.deleteDatabase(WeatherDbHelper.DATABASE_NAME);
+    }
+
+    @Override
+    protected void tearDown() throws Exception {
+        mContext.deleteDatabase(WeatherDbHelper.DATABASE_NAME);
+        super.tearDown();
+    }
+
+    public void testMigrationsCoverEveryVersion() {
+        WeatherDbHelper helper = new WeatherDbHelper(mContext);
+        int currentVersion = helper.getWritableDatabase().getVersion();
+        helper.close();
+
+        assertEquals("Error: every version bump needs a migration step",
+                currentVersion - WeatherDbHelper.OLDEST_MIGRATABLE_VERSION,
+                WeatherDbHelper.MIGRATIONS.length);
+        for (int i = 0; i < WeatherDbHelper.MIGRATIONS.length; i++) {
+            assertEquals(WeatherDbHelper.OLDEST_MIGRATABLE_VERSION + i,
+                    WeatherDbHelper.MIGRATIONS[i].mFromVersion);
+        }
+    }
+
+    public void testUpgradeFromVersion2KeepsForecasts() {
+        createVersion2Database(3, 14);
+
+        WeatherDbHelper helper = new WeatherDbHelper(mContext);
+        SQLiteDatabase db = helper.getWritableDatabase();
+
+        assertEquals(3, DatabaseUtils.queryNumEntries(db, LocationEntry.TABLE_NAME));
+        assertEquals(3 * 14, DatabaseUtils.queryNumEntries(db, WeatherEntry.TABLE_NAME));
+        assertTrue("Error: the upgrade didn't add the (location_id, date) index",
+                hasIndex(db, WeatherEntry.INDEX_LOCATION_DATE));
+
+        Cursor cursor = db.query(WeatherEntry.TABLE_NAME, null,
+                WeatherEntry.COLUMN_LOC_KEY + " = 1 AND " + WeatherEntry.COLUMN_DATE + " = ?",
+                new String[]{Long.toString(TestUtilities.TEST_DATE)}, null, null, null);
+        ContentValues expected = TestUtilities.createWeatherValues(1);
+        TestUtilities.validateCursor("Error: forecast changed during the upgrade", cursor,
+                expected);
+        helper.close();
+    }
+
+    public void testRebuildTableKeepsRowsAndIndexes() {
+        WeatherDbHelper helper = new WeatherDbHelper(mContext);
+        SQLiteDatabase db = helper.getWritableDatabase();
+        long locationId = db.insert(LocationEntry.TABLE_NAME, null,
+                TestUtilities.createNorthPoleLocationValues());
+        long weatherId = db.insert(WeatherEntry.TABLE_NAME, null,
+                TestUtilities.createWeatherValues(locationId));
+
+        db.beginTransaction();
+        try {
+            WeatherDbHelper.rebuildTable(db, WeatherEntry.TABLE_NAME,
+                    WeatherDbHelper.createWeatherTableSql(
+                            WeatherDbHelper.rebuiltTableName(WeatherEntry.TABLE_NAME)),
+                    WEATHER_COLUMNS,
+                    WeatherDbHelper.createWeatherLocationDateIndexSql());
+            db.setTransactionSuccessful();
+        } finally {
+            db.endTransaction();
+        }
+
+        Cursor cursor = db.query(WeatherEntry.TABLE_NAME, null, null, null, null, null, null);
+        assertTrue(cursor.moveToFirst());
+        assertEquals(weatherId, cursor.getLong(cursor.getColumnIndex(WeatherEntry._ID)));
+        TestUtilities.validateCurrentRecord("Error: row changed during the rebuild", cursor,
+                TestUtilities.createWeatherValues(locationId));
+        cursor.close();
+        assertTrue(hasIndex(db, WeatherEntry.INDEX_LOCATION_DATE));
+
+        // AUTOINCREMENT must keep counting from where it was.
+        ContentValues nextDay = TestUtilities.createWeatherValues(locationId);
+        nextDay.put(WeatherEntry.COLUMN_DATE, TestUtilities.TEST_DATE + DAY_IN_MILLIS);
+        assertTrue(db.insert(WeatherEntry.TABLE_NAME, null, nextDay) > weatherId);
+        helper.close();
+    }
+
+    public void testBenchmarkUpgradeLargeHistory() {
+        int[] locationCounts = {50, 500};
+        for (int locations : locationCounts) {
+            mContext.deleteDatabase(WeatherDbHelper.DATABASE_NAME);
+            createVersion2Database(locations, 365);
+
+            long start = System.nanoTime();
+            WeatherDbHelper helper = new WeatherDbHelper(mContext);
+            SQLiteDatabase db = helper.getWritableDatabase();
+            long upgradeNanos = System.nanoTime() - start;
+
+            start = System.nanoTime();
+            db.beginTransaction();
+            try {
+                WeatherDbHelper.rebuildTable(db, WeatherEntry.TABLE_NAME,
+                        WeatherDbHelper.createWeatherTableSql(
+                                WeatherDbHelper.rebuiltTableName(WeatherEntry.TABLE_NAME)),
+                        WEATHER_COLUMNS,
+                        WeatherDbHelper.createWeatherLocationDateIndexSql());
+                db.setTransactionSuccessful();
+            } finally {
+                db.endTransaction();
+            }
+            long rebuildNanos = System.nanoTime() - start;
+
+            assertEquals(locations * 365L,
+                    DatabaseUtils.queryNumEntries(db, WeatherEntry.TABLE_NAME));
+            helper.close();
+
+            Log.i(LOG_TAG, String.format(Locale.US,
+                    "%d locations x 365 days: upgrade from 2 %.1f ms, weather table rebuild %.1f ms",
+                    locations, upgradeNanos / 1e6, rebuildNanos / 1e6));
+        }
+    }
+
+    private void createVersion2Database(int locations, int days) {
+        SQLiteDatabase db = mContext.openOrCreateDatabase(WeatherDbHelper.DATABASE_NAME,
+                0, null);
+        db.execSQL(V2_CREATE_LOCATION_TABLE);
+        db.execSQL(V2_CREATE_WEATHER_TABLE);
+
+        // Same column order as WEATHER_COLUMNS, minus _id.
+        SQLiteStatement insertWeather = db.compileStatement("INSERT INTO weather (" +
+                "location_id, date, short_desc, weather_id, min, max, humidity, pressure, " +
+                "wind, degrees) VALUES (?, ?, ?, ?, ?, ?, ?, ?, ?, ?)");
+        ContentValues day = TestUtilities.createWeatherValues(0);
+
+        db.beginTransaction();
+        try {
+            for (int i = 0; i < locations; i++) {
+                ContentValues location = TestUtilities.createNorthPoleLocationValues();
+                location.put(LocationEntry.COLUMN_LOCATION_SETTING,
+                        String.format(Locale.US, "%05d", i));
+                long locationId = db.insert(LocationEntry.TABLE_NAME, null, location);
+                for (int d = 0; d < days; d++) {
+                    insertWeather.bindLong(1, locationId);
+                    insertWeather.bindLong(2, TestUtilities.TEST_DATE + d * DAY_IN_MILLIS);
+                    // Bind the way ContentValues would be written, so the rows read back the
+                    // same as ones inserted through the provider.
+                    for (int c = 3; c < WEATHER_COLUMNS.length; c++) {
+                        DatabaseUtils.bindObjectToProgram(insertWeather, c,
+                                day.get(WEATHER_COLUMNS[c]));
+                    }
+                    insertWeather.executeInsert();
+                }
+            }
+            db.setTransactionSuccessful();
+        } finally {
+            db.endTransaction();
+        }
+        insertWeather.close();
+        db.setVersion(2);
+        db.close();
+    }
+
+    private static boolean hasIndex(SQLiteDatabase db, String indexName) {
+        return DatabaseUtils.longForQuery(db,
+                "SELECT COUNT(*) FROM sqlite_master WHERE type = 'index' AND name = ?",
+                new String[]{indexName}) == 1;
+    }
+}
@@ -0,0 +1,241 @@
+/*
+ * Copyright (C) 2015 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.example.android.sunshine.app.data;
+
+import android.os.Debug;
+import android.test.AndroidTestCase;
+import android.text.format.Time;
+import android.util.Log;
+
+import java.util.Calendar;
+import java.util.Locale;
+import java.util.Random;
+import java.util.TimeZone;
+
+/*
+    Checks WeatherContract.normalizeDate against the Time-based version it replaced, at random
+    instants and all around the DST changes of a range of time zones, and logs how fast both are
+    and how much they allocate under the TestNormalizeDate tag.
+ */
+public class TestNormalizeDate extends AndroidTestCase {
+
+    public static final String LOG_TAG = TestNormalizeDate.class.getSimpleName();
+
+    private static final long MINUTE_IN_MILLIS = 1000L * 60;
+    private static final long HOUR_IN_MILLIS = MINUTE_IN_MILLIS * 60;
+    private static final long DAY_IN_MILLIS = HOUR_IN_MILLIS * 24;
+
+    // 1990-01-01 and 2037-01-01 UTC.
+    private static final long RANGE_START = 631152000000L;
+    private static final long RANGE_END = 2114380800000L;
+    // 2010-01-01 and 2020-01-01 UTC, searched for DST changes.
+    private static final long TRANSITIONS_START = 1262304000000L;
+    private static final long TRANSITIONS_END = 1577836800000L;
+
+    private static final int RANDOM_SAMPLES = 5000;
+    private static final int BENCHMARK_CALLS = 200000;
+
+    // Zones whose clocks never change at midnight, where the old version is the reference.
+    private static final String[] ZONES = {
+            "UTC",
+            "America/Los_Angeles",
+            "America/New_York",
+            "Europe/London",
+            "Europe/Berlin",
+            "Asia/Kolkata",
+            "Asia/Kathmandu",
+            "Australia/Sydney",
+            "Australia/Lord_Howe",
+            "Pacific/Chatham"
+    };
+
+    // Zones that have changed their clocks at midnight, so some days don't start at 00:00.
+    // What the old version did there depended on Time's handling of missing and repeated
+    // wall times; the new one has to return the first instant of the local day.
+    private static final String[] MIDNIGHT_CHANGE_ZONES = {
+            "America/Sao_Paulo",
+            "America/Santiago",
+            "America/Havana",
+            // Changed at 00:01 until 2011, so midnight happened twice when the clocks went back.
+            "America/St_Johns",
+            "Asia/Tehran"
+    };
+
+    private TimeZone mDefaultZone;
+
+    @Override
+    protected void setUp() throws Exception {
+        super.setUp();
+        mDefaultZone = TimeZone.getDefault();
+    }
+
+    @Override
+    protected void tearDown() throws Exception {
+        TimeZone.setDefault(mDefaultZone);
+        WeatherContract.onTimeZoneChanged();
+        super.tearDown();
+    }
+
+    public void testMatchesTimeBasedVersion() {
+        for (String zoneId : ZONES) {
+            TimeZone zone = useZone(zoneId);
+            Random random = new Random(zoneId.hashCode());
+            for (int i = 0; i < RANDOM_SAMPLES; i++) {
+                assertMatches(zoneId, randomInstant(random));
+            }
+            for (long change : findOffsetChanges(zone)) {
+                for (long time = change - 36 * HOUR_IN_MILLIS;
+                     time < change + 36 * HOUR_IN_MILLIS; time += 10 * MINUTE_IN_MILLIS) {
+                    assertMatches(zoneId, time);
+                    assertMatches(zoneId, time - 1);
+                }
+            }
+        }
+    }
+
+    public void testStartsOfDayAcrossMidnightChanges() {
+        String[] zones = new String[ZONES.length + MIDNIGHT_CHANGE_ZONES.length];
+        System.arraycopy(ZONES, 0, zones, 0, ZONES.length);
+        System.arraycopy(MIDNIGHT_CHANGE_ZONES, 0, zones, ZONES.length,
+                MIDNIGHT_CHANGE_ZONES.length);
+        for (String zoneId : zones) {
+            TimeZone zone = useZone(zoneId);
+            Calendar calendar = Calendar.getInstance(zone, Locale.US);
+            Random random = new Random(zoneId.hashCode());
+            for (int i = 0; i < RANDOM_SAMPLES; i++) {
+                assertStartOfDay(zoneId, calendar, randomInstant(random));
+            }
+            for (long change : findOffsetChanges(zone)) {
+                for (long time = change - 36 * HOUR_IN_MILLIS;
+                     time < change + 36 * HOUR_IN_MILLIS; time += 10 * MINUTE_IN_MILLIS) {
+                    assertStartOfDay(zoneId, calendar, time);
+                }
+            }
+        }
+    }
+
+    public void testFollowsTimeZoneChanges() {
+        useZone("America/Los_Angeles");
+        long losAngeles = WeatherContract.normalizeDate(TestUtilities.TEST_DATE);
+        useZone("Asia/Tokyo");
+        long tokyo = WeatherContract.normalizeDate(TestUtilities.TEST_DATE);
+        assertEquals(legacyNormalizeDate(TestUtilities.TEST_DATE), tokyo);
+        assertFalse(losAngeles == tokyo);
+    }
+
+    public void testBenchmarkNormalizeDate() {
+        useZone("America/New_York");
+        long base = WeatherContract.normalizeDate(System.currentTimeMillis());
+        // A sync's worth of rows: two weeks of days at midday, over and over.
+        long[] dates = new long[14];
+        for (int i = 0; i < dates.length; i++) {
+            dates[i] = base + i * DAY_IN_MILLIS + 12 * HOUR_IN_MILLIS;
+        }
+
+        Debug.startAllocCounting();
+        try {
+            for (int pass = 0; pass < 2; pass++) {
+                // The first pass warms up the code; only the second is logged.
+                boolean log = pass == 1;
+                benchmark("same day, new", log, false, new long[]{dates[0]});
+                benchmark("same day, Time", log, true, new long[]{dates[0]});
+                benchmark("14 days, new", log, false, dates);
+                benchmark("14 days, Time", log, true, dates);
+            }
+        } finally {
+            Debug.stopAllocCounting();
+        }
+    }
+
+    private void benchmark(String name, boolean log, boolean legacy, long[] dates) {
+        long sum = 0;
+        Debug.resetThreadAllocCount();
+        long start = System.nanoTime();
+        for (int i = 0; i < BENCHMARK_CALLS; i++) {
+            long date = dates[i % dates.length];
+            sum += legacy ? legacyNormalizeDate(date) : WeatherContract.normalizeDate(date);
+        }
+        long nanos = System.nanoTime() - start;
+        int allocations = Debug.getThreadAllocCount();
+        if (log) {
+            Log.i(LOG_TAG, String.format(Locale.US,
+                    "%s: %.0f calls/s, %.3f allocations/call (checksum %d)",
+                    name, BENCHMARK_CALLS / (nanos / 1e9),
+                    (double) allocations / BENCHMARK_CALLS, sum));
+        }
+    }
+
+    private static TimeZone useZone(String zoneId) {
+        TimeZone zone = TimeZone.getTimeZone(zoneId);
+        assertEquals("Error: this device doesn't know " + zoneId, zoneId, zone.getID());
+        TimeZone.setDefault(zone);
+        WeatherContract.onTimeZoneChanged();
+        return zone;
+    }
+
+    private static long randomInstant(Random random) {
+        return RANGE_START + (long) (random.nextDouble() * (RANGE_END - RANGE_START));
+    }
+
+    /*
+        The instants in TRANSITIONS_START..TRANSITIONS_END, to within a day, at which the zone's
+        offset changes.
+     */
+    private static long[] findOffsetChanges(TimeZone zone) {
+        long[] changes = new long[64];
+        int count = 0;
+        for (long time = TRANSITIONS_START; time < TRANSITIONS_END && count < changes.length;
+             time += DAY_IN_MILLIS) {
+            if (zone.getOffset(time) != zone.getOffset(time + DAY_IN_MILLIS)) {
+                changes[count++] = time + DAY_IN_MILLIS / 2;
+            }
+        }
+        long[] result = new long[count];
+        System.arraycopy(changes, 0, result, 0, count);
+        return result;
+    }
+
+    private static void assertMatches(String zoneId, long time) {
+        assertEquals("Error: normalizeDate(" + time + ") in " + zoneId,
+                legacyNormalizeDate(time), WeatherContract.normalizeDate(time));
+    }
+
+    /*
+        The result must be on the same local day as the input, no later than it, and the day
+        must not have started any earlier.
+     */
+    private static void assertStartOfDay(String zoneId, Calendar calendar, long time) {
+        long start = WeatherContract.normalizeDate(time);
+        String error = "Error: normalizeDate(" + time + ") in " + zoneId + " gave " + start;
+        assertTrue(error, start <= time);
+        assertEquals(error, localDay(calendar, time), localDay(calendar, start));
+        assertFalse(error, localDay(calendar, time) == localDay(calendar, start - 1));
+        assertEquals(error, start, WeatherContract.normalizeDate(start));
+    }
+
+    private static int localDay(Calendar calendar, long time) {
+        calendar.setTimeInMillis(time);
+        return calendar.get(Calendar.YEAR) * 1000 + calendar.get(Calendar.DAY_OF_YEAR);
+    }
+
+    // WeatherContract.normalizeDate as it was before it stopped using Time.
+    private static long legacyNormalizeDate(long startDate) {
+        Time time = new Time();
+        time.set(startDate);
+        int julianDay = Time.getJulianDay(startDate, time.gmtoff);
+        return time.setJulianDay(julianDay);
+    }
+}
@@ -24,6 +24,7 @@ import android.database.Cursor;
 import android.database.sqlite.SQLiteDatabase;
 import android.net.Uri;
 import android.os.Build;
+import android.os.Bundle;
 import android.test.AndroidTestCase;
 import android.util.Log;
 
@@ -512,4 +513,139 @@ public class TestProvider extends AndroidTestCase {
         }
         cursor.close();
     }
+
+    // Re-inserting the same forecast should leave the stored rows alone, and changing one day
+    // should update just that row in place.
+    public void testBulkInsertSkipsUnchangedRows() {
+        ContentValues testValues = TestUtilities.createNorthPoleLocationValues();
+        Uri locationUri = mContext.getContentResolver().insert(LocationEntry.CONTENT_URI, testValues);
+        long locationRowId = ContentUris.parseId(locationUri);
+
+        int insertCount = mContext.getContentResolver().bulkInsert(WeatherEntry.CONTENT_URI,
+                createBulkInsertWeatherValues(locationRowId));
+        assertEquals(BULK_INSERT_RECORDS_TO_INSERT, insertCount);
+
+        Cursor cursor = mContext.getContentResolver().query(WeatherEntry.CONTENT_URI,
+                new String[]{WeatherEntry._ID}, null, null, WeatherEntry.COLUMN_DATE + " ASC");
+        long[] ids = new long[cursor.getCount()];
+        for (int i = 0; cursor.moveToNext(); i++) {
+            ids[i] = cursor.getLong(0);
+        }
+        cursor.close();
+
+        insertCount = mContext.getContentResolver().bulkInsert(WeatherEntry.CONTENT_URI,
+                createBulkInsertWeatherValues(locationRowId));
+        assertEquals("Unchanged rows should not be written again", 0, insertCount);
+
+        ContentValues[] changedValues = createBulkInsertWeatherValues(locationRowId);
+        changedValues[3].put(WeatherEntry.COLUMN_SHORT_DESC, "Meteors");
+        insertCount = mContext.getContentResolver().bulkInsert(WeatherEntry.CONTENT_URI,
+                changedValues);
+        assertEquals("Only the changed row should be written", 1, insertCount);
+
+        cursor = mContext.getContentResolver().query(WeatherEntry.CONTENT_URI, null, null, null,
+                WeatherEntry.COLUMN_DATE + " ASC");
+        assertEquals(BULK_INSERT_RECORDS_TO_INSERT, cursor.getCount());
+        cursor.moveToFirst();
+        for (int i = 0; i < BULK_INSERT_RECORDS_TO_INSERT; i++, cursor.moveToNext()) {
+            assertEquals("Row " + i + " should have kept its _ID",
+                    ids[i], cursor.getLong(cursor.getColumnIndex(WeatherEntry._ID)));
+            TestUtilities.validateCurrentRecord("testBulkInsertSkipsUnchangedRows. Error validating " +
+                    "WeatherEntry " + i, cursor, changedValues[i]);
+        }
+        cursor.close();
+
+        if (Build.VERSION.SDK_INT >= Build.VERSION_CODES.HONEYCOMB) {
+            Bundle stats = mContext.getContentResolver().call(WeatherEntry.CONTENT_URI,
+                    WeatherContract.METHOD_GET_WRITE_STATS, null, null);
+            assertNotNull(stats);
+            assertTrue(stats.getLong(WeatherContract.STATS_ROWS_UNCHANGED)
+                    >= 2 * BULK_INSERT_RECORDS_TO_INSERT - 1);
+        }
+    }
+
+    // Changes made inside a notification batch should reach observers once per URI, when the
+    // batch ends.
+    public void testNotificationBatch() {
+        if (Build.VERSION.SDK_INT < Build.VERSION_CODES.HONEYCOMB) {
+            return;
+        }
+        Bundle before = mContext.getContentResolver().call(WeatherEntry.CONTENT_URI,
+                WeatherContract.METHOD_GET_WRITE_STATS, null, null);
+
+        mContext.getContentResolver().call(WeatherEntry.CONTENT_URI,
+                WeatherContract.METHOD_BEGIN_NOTIFICATION_BATCH, null, null);
+        Uri locationUri = mContext.getContentResolver().insert(LocationEntry.CONTENT_URI,
+                TestUtilities.createNorthPoleLocationValues());
+        long locationRowId = ContentUris.parseId(locationUri);
+        mContext.getContentResolver().bulkInsert(WeatherEntry.CONTENT_URI,
+                createBulkInsertWeatherValues(locationRowId));
+        mContext.getContentResolver().delete(WeatherEntry.CONTENT_URI,
+                WeatherEntry.COLUMN_DATE + " <= ?",
+                new String[]{Long.toString(TestUtilities.TEST_DATE)});
+
+        Bundle during = mContext.getContentResolver().call(WeatherEntry.CONTENT_URI,
+                WeatherContract.METHOD_GET_WRITE_STATS, null, null);
+        assertEquals("Nothing should be sent while the batch is open",
+                before.getLong(WeatherContract.STATS_NOTIFICATIONS_SENT),
+                during.getLong(WeatherContract.STATS_NOTIFICATIONS_SENT));
+        assertEquals("The delete should have been folded into the bulkInsert's notification",
+                before.getLong(WeatherContract.STATS_NOTIFICATIONS_SUPPRESSED) + 1,
+                during.getLong(WeatherContract.STATS_NOTIFICATIONS_SUPPRESSED));
+
+        TestUtilities.TestContentObserver weatherObserver = TestUtilities.getTestContentObserver();
+        mContext.getContentResolver().registerContentObserver(WeatherEntry.CONTENT_URI, true,
+                weatherObserver);
+        mContext.getContentResolver().call(WeatherEntry.CONTENT_URI,
+                WeatherContract.METHOD_END_NOTIFICATION_BATCH, null, null);
+        weatherObserver.waitForNotificationOrFail();
+        mContext.getContentResolver().unregisterContentObserver(weatherObserver);
+
+        Bundle after = mContext.getContentResolver().call(WeatherEntry.CONTENT_URI,
+                WeatherContract.METHOD_GET_WRITE_STATS, null, null);
+        assertEquals("One notification each for weather and location",
+                before.getLong(WeatherContract.STATS_NOTIFICATIONS_SENT) + 2,
+                after.getLong(WeatherContract.STATS_NOTIFICATIONS_SENT));
+    }
+
+    // Repeated per-location queries should come from the provider's result cache, and a write
+    // to the location should make the next query read the new rows.
+    public void testQueryCacheInvalidatedByWrites() {
+        Uri locationUri = mContext.getContentResolver().insert(LocationEntry.CONTENT_URI,
+                TestUtilities.createNorthPoleLocationValues());
+        long locationRowId = ContentUris.parseId(locationUri);
+        ContentValues[] values = createBulkInsertWeatherValues(locationRowId);
+        mContext.getContentResolver().bulkInsert(WeatherEntry.CONTENT_URI, values);
+
+        Uri dayUri = WeatherEntry.buildWeatherLocationWithDate(TestUtilities.TEST_LOCATION,
+                TestUtilities.TEST_DATE);
+        Bundle before = getStats();
+        for (int i = 0; i < 3; i++) {
+            Cursor cursor = mContext.getContentResolver().query(dayUri, null, null, null, null);
+            TestUtilities.validateCursor("testQueryCacheInvalidatedByWrites. Error validating " +
+                    "cached day", cursor, values[0]);
+        }
+        Bundle after = getStats();
+        if (before != null) {
+            assertEquals(before.getLong(WeatherContract.STATS_QUERY_CACHE_MISSES) + 1,
+                    after.getLong(WeatherContract.STATS_QUERY_CACHE_MISSES));
+            assertEquals(before.getLong(WeatherContract.STATS_QUERY_CACHE_HITS) + 2,
+                    after.getLong(WeatherContract.STATS_QUERY_CACHE_HITS));
+        }
+
+        values[0].put(WeatherEntry.COLUMN_SHORT_DESC, "Meteors");
+        mContext.getContentResolver().bulkInsert(WeatherEntry.CONTENT_URI, values);
+        Cursor cursor = mContext.getContentResolver().query(dayUri, null, null, null, null);
+        TestUtilities.validateCursor("testQueryCacheInvalidatedByWrites. Error validating " +
+                "day after the write", cursor, values[0]);
+    }
+
+    // The provider's stats, or null before Honeycomb.
+    private Bundle getStats() {
+        if (Build.VERSION.SDK_INT < Build.VERSION_CODES.HONEYCOMB) {
+            return null;
+        }
+        return mContext.getContentResolver().call(WeatherEntry.CONTENT_URI,
+                WeatherContract.METHOD_GET_WRITE_STATS, null, null);
+    }
 }
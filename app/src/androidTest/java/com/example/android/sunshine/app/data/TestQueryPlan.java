@@ -0,0 +1,208 @@
+/*
+ * Copyright (C) 2015 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.example.android.sunshine.app.data;
+
+import android.database.Cursor;
+import android.database.sqlite.SQLiteDatabase;
+import android.database.sqlite.SQLiteStatement;
+import android.test.AndroidTestCase;
+import android.util.Log;
+
+import com.example.android.sunshine.app.data.WeatherContract.LocationEntry;
+import com.example.android.sunshine.app.data.WeatherContract.WeatherEntry;
+
+import java.util.ArrayList;
+import java.util.Locale;
+import java.util.regex.Pattern;
+
+/*
+    Runs EXPLAIN QUERY PLAN on the SQL WeatherProvider builds for each per-location URI and
+    fails if SQLite would read a whole table or sort in a temporary b-tree to answer it.  The
+    benchmark loads 500 locations and times the same queries as the history grows to a year;
+    numbers go to logcat under the TestQueryPlan tag.
+ */
+public class TestQueryPlan extends AndroidTestCase {
+
+    public static final String LOG_TAG = TestQueryPlan.class.getSimpleName();
+
+    // Same shape as the list in ForecastFragment, which is the heaviest user of these queries.
+    private static final String[] FORECAST_COLUMNS = {
+            WeatherEntry.TABLE_NAME + "." + WeatherEntry._ID,
+            WeatherEntry.COLUMN_DATE,
+            WeatherEntry.COLUMN_SHORT_DESC,
+            WeatherEntry.COLUMN_MAX_TEMP,
+            WeatherEntry.COLUMN_MIN_TEMP,
+            LocationEntry.COLUMN_LOCATION_SETTING,
+            WeatherEntry.COLUMN_WEATHER_ID,
+            LocationEntry.COLUMN_COORD_LAT,
+            LocationEntry.COLUMN_COORD_LONG
+    };
+
+    private static final String SORT_BY_DATE = WeatherEntry.COLUMN_DATE + " ASC";
+
+    // "SCAN TABLE weather" on older SQLite releases, "SCAN weather" on newer ones.  Either
+    // means every row is read, with or without an index.
+    private static final Pattern FULL_SCAN = Pattern.compile(
+            "\\bSCAN (TABLE )?(" + WeatherEntry.TABLE_NAME + "|" + LocationEntry.TABLE_NAME + ")\\b");
+    private static final Pattern TEMP_SORT = Pattern.compile("USE TEMP B-TREE");
+
+    private static final int BENCHMARK_LOCATIONS = 500;
+    private static final int[] BENCHMARK_HISTORY_DAYS = {30, 90, 180, 365};
+    private static final int BENCHMARK_QUERIES = 200;
+    private static final long DAY_IN_MILLIS = 1000L * 60 * 60 * 24;
+
+    private SQLiteDatabase mDb;
+
+    @Override
+    protected void setUp() throws Exception {
+        super.setUp();
+        mContext.deleteDatabase(WeatherDbHelper.DATABASE_NAME);
+        mDb = new WeatherDbHelper(mContext).getWritableDatabase();
+    }
+
+    @Override
+    protected void tearDown() throws Exception {
+        mDb.close();
+        mContext.deleteDatabase(WeatherDbHelper.DATABASE_NAME);
+        super.tearDown();
+    }
+
+    // content://.../weather/94043
+    public void testWeatherWithLocationPlan() {
+        assertIndexedPlan("weather/*", WeatherProvider.sLocationSettingSelection,
+                new String[]{"94043"});
+    }
+
+    // content://.../weather/94043?date=...
+    public void testWeatherWithLocationAndStartDatePlan() {
+        assertIndexedPlan("weather/*?date", WeatherProvider.sLocationSettingWithStartDateSelection,
+                new String[]{"94043", Long.toString(TestUtilities.TEST_DATE)});
+    }
+
+    // content://.../weather/94043/<date>
+    public void testWeatherWithLocationAndDatePlan() {
+        assertIndexedPlan("weather/*/#", WeatherProvider.sLocationSettingAndDaySelection,
+                new String[]{"94043", Long.toString(TestUtilities.TEST_DATE)});
+    }
+
+    public void testBenchmarkHistoryGrowth() {
+        SQLiteStatement insertLocation = mDb.compileStatement("INSERT INTO " +
+                LocationEntry.TABLE_NAME + " (" + LocationEntry.COLUMN_LOCATION_SETTING + ", " +
+                LocationEntry.COLUMN_CITY_NAME + ", " + LocationEntry.COLUMN_COORD_LAT + ", " +
+                LocationEntry.COLUMN_COORD_LONG + ") VALUES (?, ?, ?, ?)");
+        SQLiteStatement insertWeather = mDb.compileStatement("INSERT INTO " +
+                WeatherEntry.TABLE_NAME + " (" + WeatherEntry.COLUMN_LOC_KEY + ", " +
+                WeatherEntry.COLUMN_DATE + ", " + WeatherEntry.COLUMN_SHORT_DESC + ", " +
+                WeatherEntry.COLUMN_WEATHER_ID + ", " + WeatherEntry.COLUMN_MIN_TEMP + ", " +
+                WeatherEntry.COLUMN_MAX_TEMP + ", " + WeatherEntry.COLUMN_HUMIDITY + ", " +
+                WeatherEntry.COLUMN_PRESSURE + ", " + WeatherEntry.COLUMN_WIND_SPEED + ", " +
+                WeatherEntry.COLUMN_DEGREES + ") VALUES (?, ?, 'Clear', 800, 10, 20, 50, 1000, 3, 90)");
+
+        long[] locationIds = new long[BENCHMARK_LOCATIONS];
+        mDb.beginTransaction();
+        try {
+            for (int i = 0; i < BENCHMARK_LOCATIONS; i++) {
+                insertLocation.bindString(1, locationSetting(i));
+                insertLocation.bindString(2, "City " + i);
+                insertLocation.bindDouble(3, -60 + (120.0 * i) / BENCHMARK_LOCATIONS);
+                insertLocation.bindDouble(4, -170 + (340.0 * i) / BENCHMARK_LOCATIONS);
+                locationIds[i] = insertLocation.executeInsert();
+            }
+            mDb.setTransactionSuccessful();
+        } finally {
+            mDb.endTransaction();
+        }
+
+        long firstDate = TestUtilities.TEST_DATE;
+        int loadedDays = 0;
+        for (int historyDays : BENCHMARK_HISTORY_DAYS) {
+            mDb.beginTransaction();
+            try {
+                for (long locationId : locationIds) {
+                    for (int day = loadedDays; day < historyDays; day++) {
+                        insertWeather.bindLong(1, locationId);
+                        insertWeather.bindLong(2, firstDate + day * DAY_IN_MILLIS);
+                        insertWeather.executeInsert();
+                    }
+                }
+                mDb.setTransactionSuccessful();
+            } finally {
+                mDb.endTransaction();
+            }
+            loadedDays = historyDays;
+
+            // Ask for the last two weeks, the way the forecast list does.
+            String startDate = Long.toString(firstDate + (historyDays - 14) * DAY_IN_MILLIS);
+            String lastDate = Long.toString(firstDate + (historyDays - 1) * DAY_IN_MILLIS);
+            Log.i(LOG_TAG, String.format(Locale.US,
+                    "%d locations x %d days: weather/* %.3f ms, weather/*?date %.3f ms, " +
+                            "weather/*/# %.3f ms",
+                    BENCHMARK_LOCATIONS, historyDays,
+                    timeQuery(WeatherProvider.sLocationSettingSelection, null),
+                    timeQuery(WeatherProvider.sLocationSettingWithStartDateSelection, startDate),
+                    timeQuery(WeatherProvider.sLocationSettingAndDaySelection, lastDate)));
+        }
+        insertLocation.close();
+        insertWeather.close();
+    }
+
+    private static String locationSetting(int i) {
+        return String.format(Locale.US, "%05d", 10000 + i);
+    }
+
+    /*
+        Average milliseconds to run the query and read every row, over a spread of locations.
+     */
+    private double timeQuery(String selection, String date) {
+        String sql = buildForecastQuery(selection);
+        long start = System.nanoTime();
+        for (int i = 0; i < BENCHMARK_QUERIES; i++) {
+            String location = locationSetting((i * 7) % BENCHMARK_LOCATIONS);
+            String[] args = date == null ? new String[]{location} : new String[]{location, date};
+            Cursor cursor = mDb.rawQuery(sql, args);
+            while (cursor.moveToNext()) {
+                cursor.getLong(0);
+            }
+            cursor.close();
+        }
+        return (System.nanoTime() - start) / 1e6 / BENCHMARK_QUERIES;
+    }
+
+    private static String buildForecastQuery(String selection) {
+        return WeatherProvider.sWeatherByLocationSettingQueryBuilder.buildQuery(
+                FORECAST_COLUMNS, selection, null, null, SORT_BY_DATE, null);
+    }
+
+    private void assertIndexedPlan(String shape, String selection, String[] selectionArgs) {
+        ArrayList<String> plan = new ArrayList<String>();
+        Cursor cursor = mDb.rawQuery("EXPLAIN QUERY PLAN " + buildForecastQuery(selection),
+                selectionArgs);
+        int detailColumn = cursor.getColumnIndexOrThrow("detail");
+        while (cursor.moveToNext()) {
+            plan.add(cursor.getString(detailColumn));
+        }
+        cursor.close();
+
+        Log.d(LOG_TAG, shape + ": " + plan);
+        assertFalse("Error: no query plan for " + shape, plan.isEmpty());
+        for (String step : plan) {
+            assertFalse("Error: " + shape + " reads a whole table: " + plan,
+                    FULL_SCAN.matcher(step).find());
+            assertFalse("Error: " + shape + " sorts in a temporary b-tree: " + plan,
+                    TEMP_SORT.matcher(step).find());
+        }
+    }
+}
@@ -0,0 +1,177 @@
+/*
+ * Copyright (C) 2015 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.example.android.sunshine.app.net;
+
+import android.test.AndroidTestCase;
+
+import com.example.android.sunshine.app.utils.StubHttpServer;
+import com.example.android.sunshine.app.utils.StubHttpServer.StubResponse;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.Arrays;
+
+/*
+    Runs HttpFetcher against a local stub server: plain and gzipped bodies come back decoded
+    and counted, a slow server times out, a connection whose body was drained on close() is
+    used again, and one whose body is too long to drain is dropped.
+ */
+public class TestHttpFetcher extends AndroidTestCase {
+
+    private static final int TIMEOUT_MILLIS = 5000;
+
+    private StubHttpServer mServer;
+    private HttpFetcher mFetcher;
+
+    @Override
+    protected void setUp() throws Exception {
+        super.setUp();
+        mServer = new StubHttpServer();
+        mFetcher = new HttpFetcher(TIMEOUT_MILLIS, TIMEOUT_MILLIS);
+    }
+
+    @Override
+    protected void tearDown() throws Exception {
+        mServer.shutdown();
+        super.tearDown();
+    }
+
+    public void testPlainBody() throws Exception {
+        byte[] body = createBody(1000);
+        mServer.enqueue(new StubResponse(200).setBody(body));
+
+        HttpFetcher.Response response = mFetcher.get(mServer.getUrl("/plain"), null);
+        assertEquals(200, response.getCode());
+        assertTrue(Arrays.equals(body, readFully(response.getBody())));
+        response.close();
+
+        assertEquals("gzip", mServer.getRequestHeaders(0).get("accept-encoding"));
+        assertEquals(1, mFetcher.getRequestCount());
+        assertEquals(body.length, mFetcher.getBytesReceived());
+        assertEquals(body.length, mFetcher.getBytesDecoded());
+    }
+
+    public void testGzippedBody() throws Exception {
+        byte[] body = createBody(8192);
+        mServer.enqueue(new StubResponse(200).setGzippedBody(body));
+
+        HttpFetcher.Response response = mFetcher.get(mServer.getUrl("/gzip"), null);
+        assertEquals("gzip", response.getHeader("Content-Encoding"));
+        assertTrue(Arrays.equals(body, readFully(response.getBody())));
+        response.close();
+
+        assertEquals(body.length, mFetcher.getBytesDecoded());
+        assertTrue("Error: the compressed size should have been counted",
+                mFetcher.getBytesReceived() > 0
+                        && mFetcher.getBytesReceived() < mFetcher.getBytesDecoded());
+    }
+
+    public void testReadTimeout() throws Exception {
+        HttpFetcher fetcher = new HttpFetcher(TIMEOUT_MILLIS, 250);
+        mServer.enqueue(new StubResponse(200).setBody("late").setDelay(2000));
+        try {
+            fetcher.get(mServer.getUrl("/slow"), null);
+            fail("Error: a response slower than the read timeout should have failed");
+        } catch (IOException e) {
+            // Expected.
+        }
+        assertEquals(0, fetcher.getRequestCount());
+    }
+
+    public void testDrainedConnectionIsReused() throws Exception {
+        byte[] first = createBody(4096);
+        byte[] second = createBody(100);
+        mServer.enqueue(new StubResponse(200).setBody(first));
+        mServer.enqueue(new StubResponse(200).setGzippedBody(second));
+
+        // Read a little of the first body and leave the rest for close() to drain.
+        HttpFetcher.Response response = mFetcher.get(mServer.getUrl("/first"), null);
+        assertTrue(response.getBody().read() != -1);
+        response.close();
+
+        response = mFetcher.get(mServer.getUrl("/second"), null);
+        byte[] read = readFully(response.getBody());
+        response.close();
+
+        assertTrue(Arrays.equals(second, read));
+        assertEquals("Error: the second request should have used the first one's connection",
+                1, mServer.getConnectionCount());
+        assertEquals(2, mFetcher.getRequestCount());
+        assertEquals(first.length + second.length, mFetcher.getBytesDecoded());
+        assertTrue(mFetcher.getBytesReceived() > first.length
+                && mFetcher.getBytesReceived() < first.length + second.length);
+
+        mFetcher.resetStats();
+        assertEquals(0, mFetcher.getRequestCount());
+        assertEquals(0, mFetcher.getBytesReceived());
+        assertEquals(0, mFetcher.getBytesDecoded());
+        assertEquals(0, mFetcher.getAverageLatencyMillis());
+    }
+
+    public void testLongBodyIsNotDrained() throws Exception {
+        mServer.enqueue(new StubResponse(200).setBody(createBody(256 * 1024)));
+        mServer.enqueue(new StubResponse(200).setBody("next"));
+
+        HttpFetcher.Response response = mFetcher.get(mServer.getUrl("/long"), null);
+        assertTrue(response.getBody().read() != -1);
+        response.close();
+        assertTrue("Error: close() should stop draining at 64 KB",
+                mFetcher.getBytesDecoded() < 128 * 1024);
+
+        response = mFetcher.get(mServer.getUrl("/next"), null);
+        assertEquals("next", new String(readFully(response.getBody()), "UTF-8"));
+        response.close();
+        assertEquals("Error: the undrained connection should have been dropped",
+                2, mServer.getConnectionCount());
+    }
+
+    public void testUnreadNotModifiedIsReused() throws Exception {
+        mServer.enqueue(new StubResponse(304));
+        mServer.enqueue(new StubResponse(200).setBody("changed"));
+
+        HttpFetcher.Response response = mFetcher.get(mServer.getUrl("/cached"), null);
+        assertEquals(304, response.getCode());
+        response.close();
+
+        response = mFetcher.get(mServer.getUrl("/cached"), null);
+        assertEquals(200, response.getCode());
+        response.close();
+        assertEquals(1, mServer.getConnectionCount());
+        assertEquals(2, mFetcher.getRequestCount());
+    }
+
+    /*
+        A body that compresses well, like JSON does.
+     */
+    private static byte[] createBody(int length) {
+        byte[] body = new byte[length];
+        for (int i = 0; i < length; i++) {
+            body[i] = (byte) ('a' + i % 26);
+        }
+        return body;
+    }
+
+    private static byte[] readFully(InputStream in) throws IOException {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        byte[] buffer = new byte[4096];
+        int read;
+        while ((read = in.read(buffer)) != -1) {
+            bytes.write(buffer, 0, read);
+        }
+        return bytes.toByteArray();
+    }
+}
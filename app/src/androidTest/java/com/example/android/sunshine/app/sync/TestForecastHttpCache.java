@@ -0,0 +1,158 @@
+/*
+ * Copyright (C) 2015 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.example.android.sunshine.app.sync;
+
+import android.database.Cursor;
+import android.net.Uri;
+import android.os.Build;
+import android.os.Bundle;
+import android.test.AndroidTestCase;
+
+import com.example.android.sunshine.app.data.WeatherContract;
+import com.example.android.sunshine.app.data.WeatherContract.LocationEntry;
+import com.example.android.sunshine.app.data.WeatherContract.WeatherEntry;
+import com.example.android.sunshine.app.utils.StubHttpServer;
+import com.example.android.sunshine.app.utils.StubHttpServer.StubResponse;
+
+import java.util.concurrent.atomic.AtomicInteger;
+
+/*
+    Runs the sync's fetch and store against a local stub server that answers with a full
+    response and an ETag, then 304 Not Modified, then the same body again without looking at
+    the validators.  Checks the conditional header that goes out, ForecastHttpCache's hit and
+    miss counters, and that only the first response is stored and passed on to the widgets,
+    Muzei, the notification and the watch.
+ */
+public class TestForecastHttpCache extends AndroidTestCase {
+
+    private static final String LOCATION = "stub-location";
+    private static final String ETAG = "\"forecast-1\"";
+    private static final int DAYS = 14;
+    // Long enough for the adapter's own post-sync consumers, wear's connect timeout included.
+    private static final long POST_SYNC_TIMEOUT_MILLIS = 45 * 1000;
+
+    private StubHttpServer mServer;
+    private SunshineSyncAdapter mAdapter;
+    private final AtomicInteger mPostSyncRuns = new AtomicInteger();
+
+    @Override
+    protected void setUp() throws Exception {
+        super.setUp();
+        deleteWeather();
+        new ForecastHttpCache(mContext).clear();
+        ForecastHttpCache.resetStats();
+        mServer = new StubHttpServer();
+        mAdapter = new SunshineSyncAdapter(mContext, false);
+        mAdapter.getPostSyncDispatcher().addConsumer("test", new Runnable() {
+            @Override
+            public void run() {
+                mPostSyncRuns.incrementAndGet();
+            }
+        });
+    }
+
+    @Override
+    protected void tearDown() throws Exception {
+        mServer.shutdown();
+        mAdapter.getPostSyncDispatcher().awaitIdle(POST_SYNC_TIMEOUT_MILLIS);
+        deleteWeather();
+        new ForecastHttpCache(mContext).clear();
+        super.tearDown();
+    }
+
+    public void testUnchangedForecastIsNotStored() throws Exception {
+        String body = TestForecastJsonParser.createForecastJson("Mountain View", DAYS);
+        Uri forecastUri = Uri.parse(mServer.getUrl("/forecast/daily").toString());
+
+        // Nothing stored yet, so nothing to be conditional about.
+        mServer.enqueue(new StubResponse(200).setHeader("ETag", ETAG).setBody(body));
+        assertEquals(SunshineSyncAdapter.LOCATION_STATUS_OK,
+                mAdapter.syncLocation(forecastUri, LOCATION));
+        assertNull(mServer.getRequestHeaders(0).get("if-none-match"));
+        assertEquals(1, ForecastHttpCache.getMissCount());
+        assertEquals(0, ForecastHttpCache.getHitCount());
+        assertEquals(DAYS, countStoredDays());
+        assertPostSyncRuns(1);
+
+        long commitsBefore = getCommits();
+        mServer.enqueue(new StubResponse(304).setHeader("ETag", ETAG));
+        assertEquals(SunshineSyncAdapter.LOCATION_STATUS_OK,
+                mAdapter.syncLocation(forecastUri, LOCATION));
+        assertEquals(ETAG, mServer.getRequestHeaders(1).get("if-none-match"));
+        assertEquals(1, ForecastHttpCache.getNotModifiedCount());
+        assertEquals(1, ForecastHttpCache.getMissCount());
+        assertNothingStored(commitsBefore);
+        assertPostSyncRuns(1);
+
+        // A server that ignores If-None-Match and sends the same forecast again.
+        mServer.enqueue(new StubResponse(200).setBody(body));
+        assertEquals(SunshineSyncAdapter.LOCATION_STATUS_OK,
+                mAdapter.syncLocation(forecastUri, LOCATION));
+        assertEquals(1, ForecastHttpCache.getUnchangedBodyCount());
+        assertEquals(2, ForecastHttpCache.getHitCount());
+        assertEquals(1, ForecastHttpCache.getMissCount());
+        assertNothingStored(commitsBefore);
+        assertPostSyncRuns(1);
+
+        assertEquals(3, mServer.getRequestCount());
+    }
+
+    /*
+        Waits for any post-sync updates a sync asked for, then checks how many times they have
+        run in all.
+     */
+    private void assertPostSyncRuns(int expected) throws InterruptedException {
+        assertTrue(mAdapter.getPostSyncDispatcher().awaitIdle(POST_SYNC_TIMEOUT_MILLIS));
+        assertEquals("Error: only new data should update the widgets, Muzei and the rest",
+                expected, mPostSyncRuns.get());
+    }
+
+    private void assertNothingStored(long commitsBefore) {
+        if (commitsBefore != -1) {
+            assertEquals("Error: nothing should have been written", commitsBefore, getCommits());
+        }
+        assertEquals(DAYS, countStoredDays());
+        Cursor cursor = mContext.getContentResolver().query(LocationEntry.CONTENT_URI, null,
+                null, null, null);
+        assertEquals(1, cursor.getCount());
+        cursor.close();
+    }
+
+    private int countStoredDays() {
+        Cursor cursor = mContext.getContentResolver().query(
+                WeatherEntry.buildWeatherLocation(LOCATION), null, null, null, null);
+        int count = cursor.getCount();
+        cursor.close();
+        return count;
+    }
+
+    private void deleteWeather() {
+        mContext.getContentResolver().delete(WeatherEntry.CONTENT_URI, null, null);
+        mContext.getContentResolver().delete(LocationEntry.CONTENT_URI, null, null);
+    }
+
+    /*
+        Transactions the provider has committed so far, or -1 before Honeycomb.
+     */
+    private long getCommits() {
+        if (Build.VERSION.SDK_INT < Build.VERSION_CODES.HONEYCOMB) {
+            return -1;
+        }
+        Bundle stats = mContext.getContentResolver().call(WeatherEntry.CONTENT_URI,
+                WeatherContract.METHOD_GET_WRITE_STATS, null, null);
+        return stats.getLong(WeatherContract.STATS_TRANSACTIONS_COMMITTED);
+    }
+}
@@ -0,0 +1,236 @@
+/*
+ * Copyright (C) 2015 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.example.android.sunshine.app.sync;
+
+import android.os.Debug;
+import android.test.AndroidTestCase;
+import android.util.Log;
+
+import org.json.JSONException;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.io.Reader;
+import java.util.ArrayList;
+import java.util.Locale;
+
+/*
+    Checks that the streaming and the JSONObject paths of ForecastJsonParser agree, and compares
+    how long each takes and how much each allocates on 14-day, 16-day and 200-location payloads.
+    Numbers are written to logcat under the TestForecastJsonParser tag.
+ */
+public class TestForecastJsonParser extends AndroidTestCase {
+
+    public static final String LOG_TAG = TestForecastJsonParser.class.getSimpleName();
+
+    private static final int BENCHMARK_ITERATIONS = 20;
+
+    /*
+        A handler that just remembers what it was given, so the two paths can be compared.
+     */
+    static class RecordingHandler implements ForecastJsonParser.Handler {
+        int messageCode = -1;
+        String cityName;
+        final ArrayList<String> days = new ArrayList<String>();
+
+        @Override
+        public void onMessageCode(int code) {
+            messageCode = code;
+        }
+
+        @Override
+        public void onCity(String cityName, double latitude, double longitude) {
+            this.cityName = cityName + "@" + latitude + "," + longitude;
+        }
+
+        @Override
+        public void onDay(int dayIndex, double pressure, int humidity, double windSpeed,
+                          double windDirection, double high, double low, String description,
+                          int weatherId) {
+            days.add(dayIndex + ":" + pressure + ":" + humidity + ":" + windSpeed + ":"
+                    + windDirection + ":" + high + ":" + low + ":" + description + ":" + weatherId);
+        }
+    }
+
+    /*
+        A handler that does nothing, so the benchmark measures only the parsing.
+     */
+    static class CountingHandler implements ForecastJsonParser.Handler {
+        int dayCount;
+
+        @Override
+        public void onMessageCode(int code) {
+        }
+
+        @Override
+        public void onCity(String cityName, double latitude, double longitude) {
+        }
+
+        @Override
+        public void onDay(int dayIndex, double pressure, int humidity, double windSpeed,
+                          double windDirection, double high, double low, String description,
+                          int weatherId) {
+            dayCount++;
+        }
+    }
+
+    /*
+        Builds a response shaped like the one OpenWeatherMap sends for forecast/daily.
+     */
+    static String createForecastJson(String cityName, int numDays) {
+        StringBuilder json = new StringBuilder();
+        json.append("{\"city\":{\"id\":5375480,\"name\":\"").append(cityName)
+                .append("\",\"coord\":{\"lon\":-122.083847,\"lat\":37.386051},")
+                .append("\"country\":\"US\",\"population\":0},")
+                .append("\"cod\":\"200\",\"message\":0.0125,\"cnt\":").append(numDays)
+                .append(",\"list\":[");
+        for (int i = 0; i < numDays; i++) {
+            if (i > 0) json.append(',');
+            json.append(String.format(Locale.US,
+                    "{\"dt\":%d,\"temp\":{\"day\":20.5,\"min\":%.2f,\"max\":%.2f,\"night\":9.1,"
+                            + "\"eve\":18.3,\"morn\":11.0},\"pressure\":%.2f,\"humidity\":%d,"
+                            + "\"weather\":[{\"id\":%d,\"main\":\"Clear\",\"description\":"
+                            + "\"sky is clear\",\"icon\":\"01d\"}],\"speed\":%.2f,\"deg\":%d,"
+                            + "\"clouds\":0}",
+                    1419033600L + i * 86400L, 8.0 + i * 0.1, 21.0 + i * 0.2, 1012.5 - i,
+                    40 + i, 800 + (i % 5), 1.5 + i * 0.1, (i * 37) % 360));
+        }
+        json.append("]}");
+        return json.toString();
+    }
+
+    public void testStreamingMatchesTree() throws Exception {
+        String json = createForecastJson("Mountain View", 16);
+
+        RecordingHandler tree = new RecordingHandler();
+        ForecastJsonParser.parse(json, tree);
+
+        RecordingHandler streamed = new RecordingHandler();
+        ForecastJsonParser.parse(new ByteArrayInputStream(json.getBytes("UTF-8")), streamed);
+
+        assertEquals(200, tree.messageCode);
+        assertEquals(tree.messageCode, streamed.messageCode);
+        assertEquals(tree.cityName, streamed.cityName);
+        assertEquals(16, tree.days.size());
+        assertEquals(tree.days, streamed.days);
+    }
+
+    public void testStreamingErrorResponse() throws Exception {
+        RecordingHandler handler = new RecordingHandler();
+        ForecastJsonParser.parse(new ByteArrayInputStream(
+                "{\"cod\":\"404\",\"message\":\"Error: Not found city\"}".getBytes("UTF-8")),
+                handler);
+        assertEquals(404, handler.messageCode);
+        assertNull(handler.cityName);
+        assertTrue(handler.days.isEmpty());
+    }
+
+    public void testStreamingMalformedResponse() throws Exception {
+        try {
+            ForecastJsonParser.parse(new ByteArrayInputStream(
+                    "{\"city\":{\"name\":".getBytes("UTF-8")), new RecordingHandler());
+            fail("Truncated response should not parse");
+        } catch (JSONException | IOException expected) {
+            // Either is fine; the sync adapter treats both as a failed sync.
+        }
+    }
+
+    public void testBenchmark14Days() throws Exception {
+        byte[] payload = createForecastJson("Mountain View", 14).getBytes("UTF-8");
+        benchmark("14 days", new byte[][]{payload});
+    }
+
+    public void testBenchmark16Days() throws Exception {
+        byte[] payload = createForecastJson("Mountain View", 16).getBytes("UTF-8");
+        benchmark("16 days", new byte[][]{payload});
+    }
+
+    public void testBenchmark200Locations() throws Exception {
+        byte[][] payloads = new byte[200][];
+        for (int i = 0; i < payloads.length; i++) {
+            payloads[i] = createForecastJson("Location " + i, 14).getBytes("UTF-8");
+        }
+        benchmark("200 locations x 14 days", payloads);
+    }
+
+    @SuppressWarnings("deprecation")
+    private void benchmark(String label, byte[][] payloads) throws Exception {
+        // Warm up both paths so the first measured run isn't paying for class loading.
+        runTree(payloads);
+        runStreaming(payloads);
+
+        Debug.startAllocCounting();
+        try {
+            Debug.resetThreadAllocSize();
+            long start = System.nanoTime();
+            int treeDays = 0;
+            for (int i = 0; i < BENCHMARK_ITERATIONS; i++) {
+                treeDays += runTree(payloads);
+            }
+            long treeNanos = System.nanoTime() - start;
+            long treeBytes = Debug.getThreadAllocSize();
+
+            Debug.resetThreadAllocSize();
+            start = System.nanoTime();
+            int streamedDays = 0;
+            for (int i = 0; i < BENCHMARK_ITERATIONS; i++) {
+                streamedDays += runStreaming(payloads);
+            }
+            long streamedNanos = System.nanoTime() - start;
+            long streamedBytes = Debug.getThreadAllocSize();
+
+            assertEquals(treeDays, streamedDays);
+            Log.i(LOG_TAG, String.format(Locale.US,
+                    "%s: tree %.2f ms / %d KB per pass, streaming %.2f ms / %d KB per pass",
+                    label,
+                    treeNanos / 1e6 / BENCHMARK_ITERATIONS,
+                    treeBytes / 1024 / BENCHMARK_ITERATIONS,
+                    streamedNanos / 1e6 / BENCHMARK_ITERATIONS,
+                    streamedBytes / 1024 / BENCHMARK_ITERATIONS));
+        } finally {
+            Debug.stopAllocCounting();
+        }
+    }
+
+    /*
+        The old path: read the whole response into a String, then build the JSONObject tree.
+     */
+    private static int runTree(byte[][] payloads) throws IOException, JSONException {
+        CountingHandler handler = new CountingHandler();
+        for (byte[] payload : payloads) {
+            Reader reader = new InputStreamReader(new ByteArrayInputStream(payload), "UTF-8");
+            StringBuilder buffer = new StringBuilder();
+            char[] chunk = new char[4096];
+            int read;
+            while ((read = reader.read(chunk)) != -1) {
+                buffer.append(chunk, 0, read);
+            }
+            ForecastJsonParser.parse(buffer.toString(), handler);
+        }
+        return handler.dayCount;
+    }
+
+    private static int runStreaming(byte[][] payloads) throws IOException, JSONException {
+        CountingHandler handler = new CountingHandler();
+        for (byte[] payload : payloads) {
+            InputStream in = new ByteArrayInputStream(payload);
+            ForecastJsonParser.parse(in, handler);
+        }
+        return handler.dayCount;
+    }
+}
@@ -0,0 +1,129 @@
+/*
+ * Copyright (C) 2015 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.example.android.sunshine.app.sync;
+
+import android.test.AndroidTestCase;
+
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/*
+    Checks that PostSyncDispatcher runs each consumer once for syncs in quick succession, runs
+    the consumers at the same time, runs one again if it's asked while running, and keeps going
+    after a consumer throws.
+ */
+public class TestPostSyncDispatcher extends AndroidTestCase {
+
+    private static final long TIMEOUT_MILLIS = 5000;
+
+    public void testBackToBackSyncsRunOnce() throws Exception {
+        PostSyncDispatcher dispatcher = new PostSyncDispatcher(2, 200, 2000);
+        AtomicInteger widgets = countingConsumer(dispatcher, "widgets");
+        AtomicInteger wear = countingConsumer(dispatcher, "wear");
+        for (int i = 0; i < 5; i++) {
+            dispatcher.dispatch();
+            Thread.sleep(20);
+        }
+        assertTrue(dispatcher.awaitIdle(TIMEOUT_MILLIS));
+        assertEquals(1, widgets.get());
+        assertEquals(1, wear.get());
+
+        // A sync after things have settled runs them again.
+        dispatcher.dispatch();
+        assertTrue(dispatcher.awaitIdle(TIMEOUT_MILLIS));
+        assertEquals(2, widgets.get());
+        assertEquals(2, wear.get());
+    }
+
+    public void testConsumersRunTogether() throws Exception {
+        PostSyncDispatcher dispatcher = new PostSyncDispatcher(2, 0, 0);
+        // Each waits for the other, so this only finishes if they run at the same time.
+        final CountDownLatch bothStarted = new CountDownLatch(2);
+        Runnable waitForOther = new Runnable() {
+            @Override
+            public void run() {
+                bothStarted.countDown();
+                try {
+                    bothStarted.await(TIMEOUT_MILLIS, TimeUnit.MILLISECONDS);
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                }
+            }
+        };
+        dispatcher.addConsumer("notification", waitForOther);
+        dispatcher.addConsumer("wear", waitForOther);
+        long start = System.currentTimeMillis();
+        dispatcher.dispatch();
+        assertTrue(dispatcher.awaitIdle(TIMEOUT_MILLIS));
+        assertEquals(0, bothStarted.getCount());
+        assertTrue(System.currentTimeMillis() - start < TIMEOUT_MILLIS);
+    }
+
+    public void testSyncDuringRunRunsAgain() throws Exception {
+        PostSyncDispatcher dispatcher = new PostSyncDispatcher(1, 0, 0);
+        final CountDownLatch running = new CountDownLatch(1);
+        final CountDownLatch release = new CountDownLatch(1);
+        final AtomicInteger runs = new AtomicInteger();
+        dispatcher.addConsumer("muzei", new Runnable() {
+            @Override
+            public void run() {
+                runs.incrementAndGet();
+                running.countDown();
+                try {
+                    release.await(TIMEOUT_MILLIS, TimeUnit.MILLISECONDS);
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                }
+            }
+        });
+        dispatcher.dispatch();
+        assertTrue(running.await(TIMEOUT_MILLIS, TimeUnit.MILLISECONDS));
+        // The run in progress may have read the forecast before this sync wrote it.
+        dispatcher.dispatch();
+        dispatcher.dispatch();
+        release.countDown();
+        assertTrue(dispatcher.awaitIdle(TIMEOUT_MILLIS));
+        assertEquals(2, runs.get());
+    }
+
+    public void testThrowingConsumerDoesNotStopOthers() throws Exception {
+        PostSyncDispatcher dispatcher = new PostSyncDispatcher(1, 0, 0);
+        dispatcher.addConsumer("broken", new Runnable() {
+            @Override
+            public void run() {
+                throw new IllegalStateException("not connected");
+            }
+        });
+        AtomicInteger widgets = countingConsumer(dispatcher, "widgets");
+        dispatcher.dispatch();
+        assertTrue(dispatcher.awaitIdle(TIMEOUT_MILLIS));
+        dispatcher.dispatch();
+        assertTrue(dispatcher.awaitIdle(TIMEOUT_MILLIS));
+        assertEquals(2, widgets.get());
+    }
+
+    private static AtomicInteger countingConsumer(PostSyncDispatcher dispatcher, String name) {
+        final AtomicInteger runs = new AtomicInteger();
+        dispatcher.addConsumer(name, new Runnable() {
+            @Override
+            public void run() {
+                runs.incrementAndGet();
+            }
+        });
+        return runs;
+    }
+}
@@ -0,0 +1,137 @@
+/*
+ * Copyright (C) 2015 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.example.android.sunshine.app.sync;
+
+import android.graphics.Bitmap;
+import android.graphics.Color;
+import android.test.AndroidTestCase;
+
+import com.example.android.sunshine.app.R;
+
+import java.io.File;
+import java.util.Arrays;
+
+/*
+    Checks that WeatherIconCache fetches and encodes each icon once, that a new process reads
+    the encoded icon back from disk without fetching it and with the same hash, and that art
+    which can't be fetched falls back to the resource without being cached.
+ */
+public class TestWeatherIconCache extends AndroidTestCase {
+
+    private static final String CLEAR = "http://example.com/clear.png";
+
+    private File mDirectory;
+
+    @Override
+    protected void setUp() throws Exception {
+        super.setUp();
+        mDirectory = new File(mContext.getCacheDir(), "test_weather_icons");
+        deleteDirectory();
+    }
+
+    @Override
+    protected void tearDown() throws Exception {
+        deleteDirectory();
+        super.tearDown();
+    }
+
+    public void testRepeatSyncReusesIcon() {
+        CountingCache cache = new CountingCache(true);
+        WeatherIconCache.Icon icon = cache.get(CLEAR, R.drawable.art_clear, 64, 64,
+                Bitmap.CompressFormat.PNG);
+        assertSame(icon, cache.get(CLEAR, R.drawable.art_clear, 64, 64,
+                Bitmap.CompressFormat.PNG));
+        assertEquals(1, cache.mFetches);
+
+        // The notification's size is a different icon.
+        WeatherIconCache.Icon large = cache.get(CLEAR, R.drawable.art_clear, 96, 96,
+                Bitmap.CompressFormat.PNG);
+        assertNotSame(icon, large);
+        assertEquals(2, cache.mFetches);
+    }
+
+    public void testNewProcessReadsFromDisk() {
+        WeatherIconCache.Icon written = new CountingCache(true).get(CLEAR, R.drawable.art_clear,
+                64, 64, Bitmap.CompressFormat.PNG);
+
+        CountingCache restarted = new CountingCache(true);
+        WeatherIconCache.Icon read = restarted.get(CLEAR, R.drawable.art_clear, 64, 64,
+                Bitmap.CompressFormat.PNG);
+        assertEquals(0, restarted.mFetches);
+        assertTrue(Arrays.equals(written.bytes, read.bytes));
+        Bitmap bitmap = read.getBitmap();
+        assertEquals(64, bitmap.getWidth());
+        assertEquals(Color.BLUE, bitmap.getPixel(10, 10));
+    }
+
+    public void testHashIsOfTheBytes() {
+        WeatherIconCache.Icon written = new CountingCache(true).get(CLEAR, R.drawable.art_clear,
+                64, 64, Bitmap.CompressFormat.PNG);
+        WeatherIconCache.Icon read = new CountingCache(true).get(CLEAR, R.drawable.art_clear,
+                64, 64, Bitmap.CompressFormat.PNG);
+        // The watch keeps icons under this hash, so it must not change between processes.
+        assertEquals(written.getHash(), read.getHash());
+        assertEquals(ForecastHttpCache.toHex(ForecastHttpCache.newBodyDigest()
+                .digest(read.bytes)), read.getHash());
+
+        WeatherIconCache.Icon other = new CountingCache(true).get(CLEAR, R.drawable.art_clear,
+                32, 32, Bitmap.CompressFormat.PNG);
+        assertFalse(other.getHash().equals(read.getHash()));
+    }
+
+    public void testFailedFetchIsNotCached() {
+        CountingCache cache = new CountingCache(false);
+        WeatherIconCache.Icon fallback = cache.get(CLEAR, R.drawable.art_clear, 64, 64,
+                Bitmap.CompressFormat.PNG);
+        assertNotNull(fallback.getBitmap());
+        assertTrue(fallback.bytes.length > 0);
+        cache.get(CLEAR, R.drawable.art_clear, 64, 64, Bitmap.CompressFormat.PNG);
+        assertEquals(2, cache.mFetches);
+        String[] files = mDirectory.list();
+        assertTrue(files == null || files.length == 0);
+    }
+
+    private void deleteDirectory() {
+        File[] files = mDirectory.listFiles();
+        if (files != null) {
+            for (File file : files) {
+                file.delete();
+            }
+        }
+        mDirectory.delete();
+    }
+
+    private class CountingCache extends WeatherIconCache {
+        final boolean mOnline;
+        int mFetches;
+
+        CountingCache(boolean online) {
+            super(mContext, mDirectory, 1024 * 1024);
+            mOnline = online;
+        }
+
+        @Override
+        Bitmap fetch(String artUrl, int width, int height) {
+            mFetches++;
+            if (!mOnline) {
+                return null;
+            }
+            Bitmap bitmap = Bitmap.createBitmap(width, height, Bitmap.Config.ARGB_8888);
+            bitmap.eraseColor(Color.BLUE);
+            return bitmap;
+        }
+    }
+}
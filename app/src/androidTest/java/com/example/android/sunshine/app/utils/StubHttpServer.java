@@ -0,0 +1,282 @@
+/*
+ * Copyright (C) 2015 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.example.android.sunshine.app.utils;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.InetAddress;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.net.URL;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.zip.GZIPOutputStream;
+
+/*
+    A tiny HTTP/1.1 server on the loopback interface that answers each request with the next
+    canned response, so tests can drive HttpFetcher and the sync without the network.
+    Connections are kept alive until the client closes them, and every request's headers are
+    kept so tests can check what was sent.
+ */
+public class StubHttpServer {
+
+    private static final long RESPONSE_TIMEOUT_SECONDS = 5;
+
+    private final ServerSocket mServerSocket;
+    private final LinkedBlockingQueue<StubResponse> mResponses =
+            new LinkedBlockingQueue<StubResponse>();
+    private final List<Map<String, String>> mRequests = new ArrayList<Map<String, String>>();
+    private final List<Socket> mSockets = new ArrayList<Socket>();
+    private final AtomicInteger mConnectionCount = new AtomicInteger();
+
+    /*
+        A response to send.  Header names are sent as given; Content-Length is added.
+     */
+    public static class StubResponse {
+        final int mCode;
+        final Map<String, String> mHeaders = new HashMap<String, String>();
+        byte[] mBody = new byte[0];
+        long mDelayMillis;
+
+        public StubResponse(int code) {
+            mCode = code;
+        }
+
+        public StubResponse setHeader(String name, String value) {
+            mHeaders.put(name, value);
+            return this;
+        }
+
+        public StubResponse setBody(byte[] body) {
+            mBody = body;
+            return this;
+        }
+
+        public StubResponse setBody(String body) {
+            try {
+                return setBody(body.getBytes("UTF-8"));
+            } catch (IOException e) {
+                throw new AssertionError(e);
+            }
+        }
+
+        /*
+            Sends the body gzipped, with Content-Encoding: gzip.
+         */
+        public StubResponse setGzippedBody(byte[] body) {
+            ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+            try {
+                GZIPOutputStream gzip = new GZIPOutputStream(bytes);
+                gzip.write(body);
+                gzip.close();
+            } catch (IOException e) {
+                throw new AssertionError(e);
+            }
+            mHeaders.put("Content-Encoding", "gzip");
+            return setBody(bytes.toByteArray());
+        }
+
+        /*
+            Waits this long before sending anything, e.g. to outlast a read timeout.
+         */
+        public StubResponse setDelay(long delayMillis) {
+            mDelayMillis = delayMillis;
+            return this;
+        }
+    }
+
+    public StubHttpServer() throws IOException {
+        mServerSocket = new ServerSocket(0, 50, InetAddress.getByName("127.0.0.1"));
+        Thread acceptThread = new Thread(new Runnable() {
+            @Override
+            public void run() {
+                acceptConnections();
+            }
+        }, "StubHttpServer");
+        acceptThread.setDaemon(true);
+        acceptThread.start();
+    }
+
+    public URL getUrl(String path) throws IOException {
+        return new URL("http", "127.0.0.1", mServerSocket.getLocalPort(), path);
+    }
+
+    public void enqueue(StubResponse response) {
+        mResponses.add(response);
+    }
+
+    public int getConnectionCount() {
+        return mConnectionCount.get();
+    }
+
+    public synchronized int getRequestCount() {
+        return mRequests.size();
+    }
+
+    /*
+        Returns the headers of the index'th request, with lower-case names.
+     */
+    public synchronized Map<String, String> getRequestHeaders(int index) {
+        return mRequests.get(index);
+    }
+
+    public void shutdown() {
+        try {
+            mServerSocket.close();
+        } catch (IOException e) {
+            // Closing anyway.
+        }
+        synchronized (this) {
+            for (Socket socket : mSockets) {
+                closeQuietly(socket);
+            }
+        }
+    }
+
+    private void acceptConnections() {
+        while (true) {
+            final Socket socket;
+            try {
+                socket = mServerSocket.accept();
+            } catch (IOException e) {
+                // Shut down.
+                return;
+            }
+            mConnectionCount.incrementAndGet();
+            synchronized (this) {
+                mSockets.add(socket);
+            }
+            Thread connectionThread = new Thread(new Runnable() {
+                @Override
+                public void run() {
+                    serveConnection(socket);
+                }
+            }, "StubHttpServer-" + mConnectionCount.get());
+            connectionThread.setDaemon(true);
+            connectionThread.start();
+        }
+    }
+
+    private void serveConnection(Socket socket) {
+        try {
+            InputStream in = socket.getInputStream();
+            OutputStream out = socket.getOutputStream();
+            while (true) {
+                Map<String, String> headers = readRequest(in);
+                if (headers == null) {
+                    // The client closed the connection.
+                    return;
+                }
+                synchronized (this) {
+                    mRequests.add(headers);
+                }
+                StubResponse response =
+                        mResponses.poll(RESPONSE_TIMEOUT_SECONDS, TimeUnit.SECONDS);
+                if (response == null) {
+                    return;
+                }
+                if (response.mDelayMillis > 0) {
+                    Thread.sleep(response.mDelayMillis);
+                }
+                writeResponse(out, response);
+            }
+        } catch (IOException | InterruptedException e) {
+            // The client gave up on us, e.g. after a timeout.
+        } finally {
+            closeQuietly(socket);
+        }
+    }
+
+    /*
+        Reads a request's line and headers, or returns null at the end of the stream.  Requests
+        are GETs, so there's never a body to skip.
+     */
+    private static Map<String, String> readRequest(InputStream in) throws IOException {
+        String requestLine = readLine(in);
+        if (requestLine == null) {
+            return null;
+        }
+        Map<String, String> headers = new HashMap<String, String>();
+        String line;
+        while ((line = readLine(in)) != null && line.length() > 0) {
+            int colon = line.indexOf(':');
+            if (colon > 0) {
+                headers.put(line.substring(0, colon).trim().toLowerCase(Locale.US),
+                        line.substring(colon + 1).trim());
+            }
+        }
+        return headers;
+    }
+
+    private static String readLine(InputStream in) throws IOException {
+        StringBuilder line = new StringBuilder();
+        int b;
+        while ((b = in.read()) != -1) {
+            if (b == '\n') {
+                int length = line.length();
+                if (length > 0 && line.charAt(length - 1) == '\r') {
+                    line.setLength(length - 1);
+                }
+                return line.toString();
+            }
+            line.append((char) b);
+        }
+        return line.length() > 0 ? line.toString() : null;
+    }
+
+    private static void writeResponse(OutputStream out, StubResponse response)
+            throws IOException {
+        StringBuilder head = new StringBuilder();
+        head.append("HTTP/1.1 ").append(response.mCode).append(' ')
+                .append(reasonPhrase(response.mCode)).append("\r\n");
+        for (Map.Entry<String, String> header : response.mHeaders.entrySet()) {
+            head.append(header.getKey()).append(": ").append(header.getValue()).append("\r\n");
+        }
+        head.append("Content-Length: ").append(response.mBody.length).append("\r\n\r\n");
+        out.write(head.toString().getBytes("US-ASCII"));
+        out.write(response.mBody);
+        out.flush();
+    }
+
+    private static String reasonPhrase(int code) {
+        switch (code) {
+            case 200:
+                return "OK";
+            case 304:
+                return "Not Modified";
+            case 404:
+                return "Not Found";
+            default:
+                return "Status";
+        }
+    }
+
+    private static void closeQuietly(Socket socket) {
+        try {
+            socket.close();
+        } catch (IOException e) {
+            // Nothing more to do with it.
+        }
+    }
+}
@@ -0,0 +1,114 @@
+/*
+ * Copyright (C) 2015 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.example.android.sunshine.app.widget;
+
+import android.content.Context;
+import android.content.SharedPreferences;
+import android.test.AndroidTestCase;
+import android.util.SparseArray;
+
+import com.example.android.sunshine.app.R;
+
+import java.util.Arrays;
+import java.util.List;
+
+/*
+    Checks that TodayWidgetIntentService groups widgets by the layout their width calls for,
+    tells different content apart, and only sends content to widgets not already showing it
+    unless it's told to update them all.
+ */
+public class TestTodayWidgetIntentService extends AndroidTestCase {
+
+    private static final String TEST_DIGESTS_FILE = "test_today_widget_rendered_digests";
+
+    private static final int DEFAULT_WIDTH = 110;
+    private static final int LARGE_WIDTH = 220;
+
+    private static final String HIGH = "21\u00B0";
+    private static final String LOW = "12\u00B0";
+
+    private SharedPreferences mRenderedDigests;
+
+    @Override
+    protected void setUp() throws Exception {
+        super.setUp();
+        mRenderedDigests = mContext.getSharedPreferences(TEST_DIGESTS_FILE,
+                Context.MODE_PRIVATE);
+        mRenderedDigests.edit().clear().commit();
+    }
+
+    @Override
+    protected void tearDown() throws Exception {
+        mRenderedDigests.edit().clear().commit();
+        super.tearDown();
+    }
+
+    public void testGroupsWidgetsByLayout() {
+        int[] appWidgetIds = {1, 2, 3, 4, 5};
+        int[] widths = {DEFAULT_WIDTH, LARGE_WIDTH + 50, DEFAULT_WIDTH - 1, DEFAULT_WIDTH + 20,
+                LARGE_WIDTH};
+        SparseArray<List<Integer>> widgetsByLayout = TodayWidgetIntentService.groupByLayout(
+                appWidgetIds, widths, DEFAULT_WIDTH, LARGE_WIDTH);
+
+        assertEquals(3, widgetsByLayout.size());
+        assertEquals(Arrays.asList(1, 4), widgetsByLayout.get(R.layout.widget_today));
+        assertEquals(Arrays.asList(2, 5), widgetsByLayout.get(R.layout.widget_today_large));
+        assertEquals(Arrays.asList(3), widgetsByLayout.get(R.layout.widget_today_small));
+    }
+
+    public void testContentDigest() {
+        String digest = digest(R.layout.widget_today, "Clear", HIGH, LOW);
+        assertEquals(digest, digest(R.layout.widget_today, "Clear", HIGH, LOW));
+        assertFalse(digest.equals(digest(R.layout.widget_today_large, "Clear", HIGH, LOW)));
+        assertFalse(digest.equals(digest(R.layout.widget_today, "Clouds", HIGH, LOW)));
+        assertFalse(digest.equals(digest(R.layout.widget_today, "Clear", HIGH, "11\u00B0")));
+        // The same text split differently between the fields.
+        assertFalse(digest(R.layout.widget_today, "Clear", "21\u00B0", "1").equals(
+                digest(R.layout.widget_today, "Clear", "21", "\u00B01")));
+    }
+
+    public void testSkipsWidgetsAlreadyShowingContent() {
+        List<Integer> widgets = Arrays.asList(7, 8, 9);
+        String sunny = digest(R.layout.widget_today, "Clear", HIGH, LOW);
+
+        // Nothing has been sent yet.
+        assertStale(new int[]{7, 8, 9}, widgets, sunny, false);
+        assertStale(new int[0], widgets, sunny, false);
+
+        // A widget that was added since, and everything once the weather changes.
+        assertStale(new int[]{10}, Arrays.asList(7, 8, 9, 10), sunny, false);
+        String rainy = digest(R.layout.widget_today, "Rain", "15\u00B0", "9\u00B0");
+        assertStale(new int[]{7, 8, 9, 10}, Arrays.asList(7, 8, 9, 10), rainy, false);
+
+        // Forced, e.g. after a reboot, even though they should already be showing it.
+        assertStale(new int[]{7, 8, 9, 10}, Arrays.asList(7, 8, 9, 10), rainy, true);
+    }
+
+    private static String digest(int layoutId, String description, String high, String low) {
+        return TodayWidgetIntentService.getContentDigest(layoutId, R.drawable.art_clear,
+                description, high, low);
+    }
+
+    private void assertStale(int[] expected, List<Integer> widgets, String contentDigest,
+                             boolean forceUpdate) {
+        SharedPreferences.Editor editor = mRenderedDigests.edit();
+        int[] stale = TodayWidgetIntentService.selectStaleWidgets(mRenderedDigests, editor,
+                widgets, contentDigest, forceUpdate);
+        editor.commit();
+        assertTrue("Error: expected " + Arrays.toString(expected) + " but was "
+                + Arrays.toString(stale), Arrays.equals(expected, stale));
+    }
+}
@@ -0,0 +1,89 @@
+/*
+ * Copyright (C) 2015 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.example.android.sunshine.app.widget;
+
+import android.graphics.Bitmap;
+import android.test.AndroidTestCase;
+
+import com.example.android.sunshine.app.R;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/*
+    Checks that WidgetArtCache decodes each art and size once, stays within its byte budget,
+    and decodes the art at the size it's asked for rather than the art's own.
+ */
+public class TestWidgetArtCache extends AndroidTestCase {
+
+    private static final String CLEAR = "http://example.com/clear.png";
+    private static final String RAIN = "http://example.com/rain.png";
+
+    public void testDecodesEachArtAndSizeOnce() {
+        CountingCache cache = new CountingCache(1024 * 1024);
+        Bitmap first = cache.get(CLEAR, 40, 40);
+        // Every row with the same condition, on every refresh.
+        for (int i = 0; i < 14; i++) {
+            assertSame(first, cache.get(CLEAR, 40, 40));
+        }
+        assertEquals(1, cache.mDecoded.size());
+
+        cache.get(RAIN, 40, 40);
+        cache.get(CLEAR, 60, 60);
+        assertEquals(3, cache.mDecoded.size());
+        assertEquals(WidgetArtCache.keyFor(CLEAR, 60, 60), cache.mDecoded.get(2));
+    }
+
+    public void testStaysWithinBudget() {
+        // Room for two 40x40 ARGB_8888 bitmaps.
+        CountingCache cache = new CountingCache(2 * 40 * 40 * 4);
+        cache.get(CLEAR, 40, 40);
+        cache.get(RAIN, 40, 40);
+        cache.get(CLEAR, 40, 40);
+        assertEquals(2, cache.size());
+        cache.get("http://example.com/snow.png", 40, 40);
+        assertEquals(2, cache.size());
+        // Rain was the least recently used, so it's decoded again.
+        cache.get(RAIN, 40, 40);
+        assertEquals(4, cache.mDecoded.size());
+    }
+
+    public void testDecodesAtRequestedSize() {
+        WidgetArtCache cache = new WidgetArtCache(mContext, 1024 * 1024);
+        String artUrl = "android.resource://" + mContext.getPackageName() + "/"
+                + R.drawable.art_clear;
+        int size = mContext.getResources().getDimensionPixelSize(R.dimen.list_icon);
+        Bitmap art = cache.get(artUrl, size, size);
+        assertNotNull("Error: couldn't decode " + artUrl, art);
+        assertTrue("Error: art decoded at " + art.getWidth() + "x" + art.getHeight(),
+                art.getWidth() <= size && art.getHeight() <= size);
+        assertSame(art, cache.get(artUrl, size, size));
+    }
+
+    private class CountingCache extends WidgetArtCache {
+        final List<String> mDecoded = new ArrayList<String>();
+
+        CountingCache(int maxBytes) {
+            super(mContext, maxBytes);
+        }
+
+        @Override
+        Bitmap decode(String artUrl, int width, int height) {
+            mDecoded.add(keyFor(artUrl, width, height));
+            return Bitmap.createBitmap(width, height, Bitmap.Config.ARGB_8888);
+        }
+    }
+}
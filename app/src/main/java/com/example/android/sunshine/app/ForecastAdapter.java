@@ -19,6 +19,7 @@ import android.content.Context;
 import android.database.Cursor;
 import android.os.Build;
 import android.os.Bundle;
+import android.support.v4.os.TraceCompat;
 import android.support.v4.view.ViewCompat;
 import android.support.v7.widget.RecyclerView;
 import android.util.Log;
@@ -30,7 +31,6 @@ import android.widget.ImageView;
 import android.widget.TextView;
 
 import com.bumptech.glide.Glide;
-import com.example.android.sunshine.app.data.WeatherContract;
 
 /**
  * {@link ForecastAdapter} exposes a list of weather forecasts
@@ -38,17 +38,22 @@ import com.example.android.sunshine.app.data.WeatherContract;
  */
 public class ForecastAdapter extends RecyclerView.Adapter<ForecastAdapter.ForecastAdapterViewHolder> {
 
-    private static final int VIEW_TYPE_TODAY = 0;
-    private static final int VIEW_TYPE_FUTURE_DAY = 1;
+    static final int VIEW_TYPE_TODAY = 0;
+    static final int VIEW_TYPE_FUTURE_DAY = 1;
+    static final int VIEW_TYPE_COUNT = 2;
 
     // Flag to determine if we want to use a separate view for "today".
     private boolean mUseTodayLayout = true;
 
     private Cursor mCursor;
+    private ForecastRow[] mRows = ForecastRow.EMPTY;
     final private Context mContext;
     final private ForecastAdapterOnClickHandler mClickHandler;
     final private View mEmptyView;
     final private ItemChoiceManager mICM;
+    private ForecastViewPreInflater mPreInflater;
+    // Rows inflated here rather than by mPreInflater; see ForecastFragment's first draw.
+    private int mInflatedOnMainThread;
 
     /**
      * Cache of the children views for a forecast list item.
@@ -73,9 +78,11 @@ public class ForecastAdapter extends RecyclerView.Adapter<ForecastAdapter.Foreca
         @Override
         public void onClick(View v) {
             int adapterPosition = getAdapterPosition();
-            mCursor.moveToPosition(adapterPosition);
-            int dateColumnIndex = mCursor.getColumnIndex(WeatherContract.WeatherEntry.COLUMN_DATE);
-            mClickHandler.onClick(mCursor.getLong(dateColumnIndex), this);
+            if (adapterPosition == RecyclerView.NO_POSITION) {
+                // The row is on its way out after a data change.
+                return;
+            }
+            mClickHandler.onClick(mRows[adapterPosition].mDate, this);
             mICM.onClick(this);
         }
     }
@@ -88,6 +95,8 @@ public class ForecastAdapter extends RecyclerView.Adapter<ForecastAdapter.Foreca
         mContext = context;
         mClickHandler = dh;
         mEmptyView = emptyView;
+        // Before the choice manager registers its observer, which fixes this for good.
+        setHasStableIds(true);
         mICM = new ItemChoiceManager(this);
         mICM.setChoiceMode(choiceMode);
     }
@@ -103,18 +112,17 @@ public class ForecastAdapter extends RecyclerView.Adapter<ForecastAdapter.Foreca
     @Override
     public ForecastAdapterViewHolder onCreateViewHolder(ViewGroup viewGroup, int viewType) {
         if ( viewGroup instanceof RecyclerView ) {
-            int layoutId = -1;
-            switch (viewType) {
-                case VIEW_TYPE_TODAY: {
-                    layoutId = R.layout.list_item_forecast_today;
-                    break;
-                }
-                case VIEW_TYPE_FUTURE_DAY: {
-                    layoutId = R.layout.list_item_forecast;
-                    break;
+            View view = null != mPreInflater ? mPreInflater.take(viewType) : null;
+            if (null == view) {
+                TraceCompat.beginSection("ForecastAdapter.inflate");
+                try {
+                    view = LayoutInflater.from(viewGroup.getContext())
+                            .inflate(getLayoutId(viewType), viewGroup, false);
+                } finally {
+                    TraceCompat.endSection();
                 }
+                mInflatedOnMainThread++;
             }
-            View view = LayoutInflater.from(viewGroup.getContext()).inflate(layoutId, viewGroup, false);
             view.setFocusable(true);
             return new ForecastAdapterViewHolder(view);
         } else {
@@ -122,28 +130,50 @@ public class ForecastAdapter extends RecyclerView.Adapter<ForecastAdapter.Foreca
         }
     }
 
+    static int getLayoutId(int viewType) {
+        switch (viewType) {
+            case VIEW_TYPE_TODAY:
+                return R.layout.list_item_forecast_today;
+            case VIEW_TYPE_FUTURE_DAY:
+                return R.layout.list_item_forecast;
+            default:
+                throw new IllegalArgumentException("Unknown view type: " + viewType);
+        }
+    }
+
+    /**
+     * Has onCreateViewHolder use the views the pre-inflater has ready before inflating its own.
+     */
+    void setPreInflater(ForecastViewPreInflater preInflater) {
+        mPreInflater = preInflater;
+    }
+
+    int getInflatedOnMainThread() {
+        return mInflatedOnMainThread;
+    }
+
     @Override
     public void onBindViewHolder(ForecastAdapterViewHolder forecastAdapterViewHolder, int position) {
-        mCursor.moveToPosition(position);
-        int weatherId = mCursor.getInt(ForecastFragment.COL_WEATHER_CONDITION_ID);
+        // Everything shown was worked out when the rows were built; see ForecastRow.
+        ForecastRow row = mRows[position];
         int defaultImage;
-        boolean useLongToday;
+        String dateText;
 
         switch (getItemViewType(position)) {
             case VIEW_TYPE_TODAY:
-                defaultImage = Utility.getArtResourceForWeatherCondition(weatherId);
-                useLongToday = true;
+                defaultImage = row.mArtResource;
+                dateText = row.mLongDateText;
                 break;
             default:
-                defaultImage = Utility.getIconResourceForWeatherCondition(weatherId);
-                useLongToday = false;
+                defaultImage = row.mIconResource;
+                dateText = row.mDateText;
         }
 
-        if ( Utility.usingLocalGraphics(mContext) ) {
+        if ( row.mArtUrl == null ) {
             forecastAdapterViewHolder.mIconView.setImageResource(defaultImage);
         } else {
             Glide.with(mContext)
-                    .load(Utility.getArtUrlForWeatherCondition(mContext, weatherId))
+                    .load(row.mArtUrl)
                     .error(defaultImage)
                     .crossFade()
                     .into(forecastAdapterViewHolder.mIconView);
@@ -151,36 +181,22 @@ public class ForecastAdapter extends RecyclerView.Adapter<ForecastAdapter.Foreca
 
         // this enables better animations. even if we lose state due to a device rotation,
         // the animator can use this to re-find the original view
-        ViewCompat.setTransitionName(forecastAdapterViewHolder.mIconView, "iconView" + position);
+        ViewCompat.setTransitionName(forecastAdapterViewHolder.mIconView, row.mTransitionName);
 
-        // Read date from cursor
-        long dateInMillis = mCursor.getLong(ForecastFragment.COL_WEATHER_DATE);
+        forecastAdapterViewHolder.mDateView.setText(dateText);
 
-        // Find TextView and set formatted date on it
-        forecastAdapterViewHolder.mDateView.setText(Utility.getFriendlyDayString(mContext, dateInMillis, useLongToday));
-
-        // Read weather forecast from cursor
-        String description = Utility.getStringForWeatherCondition(mContext, weatherId);
-
-        // Find TextView and set weather forecast on it
-        forecastAdapterViewHolder.mDescriptionView.setText(description);
-        forecastAdapterViewHolder.mDescriptionView.setContentDescription(mContext.getString(R.string.a11y_forecast, description));
+        forecastAdapterViewHolder.mDescriptionView.setText(row.mDescription);
+        forecastAdapterViewHolder.mDescriptionView.setContentDescription(row.mDescriptionA11y);
 
         // For accessibility, we don't want a content description for the icon field
         // because the information is repeated in the description view and the icon
         // is not individually selectable
 
-        // Read high temperature from cursor
-        double high = mCursor.getDouble(ForecastFragment.COL_WEATHER_MAX_TEMP);
-        String highString = Utility.formatTemperature(mContext, high);
-        forecastAdapterViewHolder.mHighTempView.setText(highString);
-        forecastAdapterViewHolder.mHighTempView.setContentDescription(mContext.getString(R.string.a11y_high_temp, highString));
+        forecastAdapterViewHolder.mHighTempView.setText(row.mHighText);
+        forecastAdapterViewHolder.mHighTempView.setContentDescription(row.mHighA11y);
 
-        // Read low temperature from cursor
-        double low = mCursor.getDouble(ForecastFragment.COL_WEATHER_MIN_TEMP);
-        String lowString = Utility.formatTemperature(mContext, low);
-        forecastAdapterViewHolder.mLowTempView.setText(lowString);
-        forecastAdapterViewHolder.mLowTempView.setContentDescription(mContext.getString(R.string.a11y_low_temp, lowString));
+        forecastAdapterViewHolder.mLowTempView.setText(row.mLowText);
+        forecastAdapterViewHolder.mLowTempView.setContentDescription(row.mLowA11y);
 
         mICM.onBindViewHolder(forecastAdapterViewHolder, position);
     }
@@ -206,15 +222,42 @@ public class ForecastAdapter extends RecyclerView.Adapter<ForecastAdapter.Foreca
         return (position == 0 && mUseTodayLayout) ? VIEW_TYPE_TODAY : VIEW_TYPE_FUTURE_DAY;
     }
 
+    /**
+     * Returns an id for the day at the position that stays the same across loads and syncs,
+     * unlike the weather row's _ID, so ItemChoiceManager can keep the day checked when it moves.
+     */
+    @Override
+    public long getItemId(int position) {
+        return mRows[position].mStableId;
+    }
+
     @Override
     public int getItemCount() {
-        if ( null == mCursor ) return 0;
-        return mCursor.getCount();
+        return mRows.length;
     }
 
+    /**
+     * Shows a new forecast.  Cursors from ForecastCursorLoader come with their rows built, and
+     * with the changes from the rows before, which are passed on to RecyclerView so only the
+     * days that changed are bound again.  Rows for any other cursor are built here.
+     */
     public void swapCursor(Cursor newCursor) {
+        ForecastRow[] oldRows = mRows;
+        ForecastDiff diff = null;
         mCursor = newCursor;
-        notifyDataSetChanged();
+        if (newCursor == null) {
+            mRows = ForecastRow.EMPTY;
+        } else if (newCursor instanceof ForecastCursor) {
+            mRows = ((ForecastCursor) newCursor).getRows();
+            diff = ((ForecastCursor) newCursor).getDiff();
+        } else {
+            mRows = ForecastRow.fromCursor(mContext, SettingsSnapshot.get(mContext), newCursor);
+        }
+        if (diff != null && diff.startsFrom(oldRows)) {
+            diff.dispatchTo(this);
+        } else if (mRows != oldRows) {
+            notifyDataSetChanged();
+        }
         mEmptyView.setVisibility(getItemCount() == 0 ? View.VISIBLE : View.GONE);
     }
 
@@ -0,0 +1,91 @@
+/*
+ * Copyright (C) 2015 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.example.android.sunshine.app;
+
+import android.content.Context;
+import android.database.Cursor;
+import android.database.CursorWrapper;
+
+import com.example.android.sunshine.app.data.WeatherContract;
+
+import java.util.Locale;
+
+/**
+ * The forecast cursor together with the {@link ForecastRow}s built from it, and the
+ * {@link ForecastDiff} from the rows the loader built before, so the loader can hand them all to
+ * ForecastFragment as one result.
+ *
+ * The rows' text depends on the day, the locale and the settings they were built under.
+ * Changing the units or art pack notifies the weather URI and reloads the cursor, but a new
+ * day or locale doesn't, so {@link #isCurrent(Context)} says when the rows need building again.
+ */
+final class ForecastCursor extends CursorWrapper {
+
+    private final ForecastRow[] mRows;
+    private final ForecastDiff mDiff;
+    private final long mToday;
+    private final Locale mLocale;
+    private final boolean mMetric;
+    private final String mArtPack;
+
+    private ForecastCursor(Cursor cursor, ForecastRow[] rows, ForecastDiff diff, long today,
+                           Locale locale, SettingsSnapshot settings) {
+        super(cursor);
+        mRows = rows;
+        mDiff = diff;
+        mToday = today;
+        mLocale = locale;
+        mMetric = settings.metric;
+        mArtPack = settings.artPack;
+    }
+
+    /**
+     * Builds the rows for a cursor with ForecastFragment's columns, and the diff from the
+     * previous rows if there were any, and wraps the cursor with them.
+     */
+    static ForecastCursor wrap(Context context, Cursor cursor, ForecastRow[] previousRows) {
+        long today = WeatherContract.normalizeDate(System.currentTimeMillis());
+        Locale locale = Locale.getDefault();
+        SettingsSnapshot settings = SettingsSnapshot.get(context);
+        ForecastRow[] rows = ForecastRow.fromCursor(context, settings, cursor);
+        ForecastDiff diff = previousRows != null ? ForecastDiff.between(previousRows, rows) : null;
+        return new ForecastCursor(cursor, rows, diff, today, locale, settings);
+    }
+
+    ForecastRow[] getRows() {
+        return mRows;
+    }
+
+    /**
+     * Returns the changes from the rows the loader built before these, or null if these are
+     * the first.
+     */
+    ForecastDiff getDiff() {
+        return mDiff;
+    }
+
+    /**
+     * Returns whether the rows were built today, in the current locale and with the current
+     * units and art pack.
+     */
+    boolean isCurrent(Context context) {
+        SettingsSnapshot settings = SettingsSnapshot.get(context);
+        return mToday == WeatherContract.normalizeDate(System.currentTimeMillis())
+                && mLocale.equals(Locale.getDefault())
+                && mMetric == settings.metric
+                && mArtPack.equals(settings.artPack);
+    }
+}
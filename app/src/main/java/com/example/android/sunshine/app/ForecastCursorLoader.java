@@ -0,0 +1,53 @@
+/*
+ * Copyright (C) 2015 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.example.android.sunshine.app;
+
+import android.content.Context;
+import android.database.Cursor;
+import android.net.Uri;
+import android.support.v4.content.CursorLoader;
+
+/**
+ * Loads the forecast and, still on the loader's thread, builds the {@link ForecastRow}s that
+ * ForecastAdapter binds and the {@link ForecastDiff} from the last load's rows, delivering them
+ * as a {@link ForecastCursor}.
+ */
+class ForecastCursorLoader extends CursorLoader {
+
+    // Only touched from loadInBackground, which never runs twice at once.
+    private ForecastRow[] mLastRows;
+
+    public ForecastCursorLoader(Context context, Uri uri, String[] projection, String selection,
+                                String[] selectionArgs, String sortOrder) {
+        super(context, uri, projection, selection, selectionArgs, sortOrder);
+    }
+
+    @Override
+    public Cursor loadInBackground() {
+        Cursor cursor = super.loadInBackground();
+        if (cursor == null) {
+            return null;
+        }
+        try {
+            ForecastCursor forecast = ForecastCursor.wrap(getContext(), cursor, mLastRows);
+            mLastRows = forecast.getRows();
+            return forecast;
+        } catch (RuntimeException e) {
+            cursor.close();
+            throw e;
+        }
+    }
+}
@@ -0,0 +1,228 @@
+/*
+ * Copyright (C) 2015 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.example.android.sunshine.app;
+
+import android.support.v7.widget.RecyclerView;
+import android.text.TextUtils;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+
+/**
+ * The changes that turn one list of {@link ForecastRow}s into another, worked out on the
+ * loader's thread so ForecastAdapter can tell RecyclerView exactly which rows were inserted,
+ * removed, moved or changed instead of rebinding them all.  A day is the same row in both lists
+ * if it has the same location and date; it has changed if anything it shows is different.
+ *
+ * The operations are kept in the order RecyclerView applies them: removals from the bottom up,
+ * then moves, then insertions from the top down, so each position is valid when it's used.
+ * Changes come last and use the new list's positions.
+ */
+final class ForecastDiff {
+
+    private static final int REMOVE = 0;
+    private static final int MOVE = 1;
+    private static final int INSERT = 2;
+    private static final int CHANGE = 3;
+
+    // The rows this diff starts from; it only applies to an adapter still showing them.
+    private final ForecastRow[] mFrom;
+    private final ArrayList<Op> mOps = new ArrayList<Op>();
+
+    private ForecastDiff(ForecastRow[] from) {
+        mFrom = from;
+    }
+
+    /**
+     * Works out the changes from one list of rows to the next.
+     */
+    static ForecastDiff between(ForecastRow[] from, ForecastRow[] to) {
+        ForecastDiff diff = new ForecastDiff(from);
+
+        HashMap<String, Integer> newPositions = new HashMap<String, Integer>(to.length * 2);
+        for (int j = 0; j < to.length; j++) {
+            newPositions.put(keyOf(to[j]), j);
+        }
+        int[] newIndexOfOld = new int[from.length];
+        int[] oldIndexOfNew = new int[to.length];
+        Arrays.fill(oldIndexOfNew, -1);
+        for (int i = 0; i < from.length; i++) {
+            Integer j = newPositions.get(keyOf(from[i]));
+            newIndexOfOld[i] = j != null ? j : -1;
+            if (j != null) {
+                oldIndexOfNew[j] = i;
+            }
+        }
+
+        // Removals, bottom up, leaving the surviving rows in their old order.
+        for (int i = from.length - 1; i >= 0; ) {
+            if (newIndexOfOld[i] != -1) {
+                i--;
+                continue;
+            }
+            int end = i;
+            while (i >= 0 && newIndexOfOld[i] == -1) {
+                i--;
+            }
+            diff.add(REMOVE, i + 1, end - i);
+        }
+
+        // Moves, putting the surviving rows into their new order.
+        ArrayList<Integer> current = new ArrayList<Integer>(from.length);
+        for (int i = 0; i < from.length; i++) {
+            if (newIndexOfOld[i] != -1) {
+                current.add(i);
+            }
+        }
+        int position = 0;
+        for (int j = 0; j < to.length; j++) {
+            int oldIndex = oldIndexOfNew[j];
+            if (oldIndex == -1) {
+                continue;
+            }
+            int currentPosition = current.indexOf(oldIndex);
+            if (currentPosition != position) {
+                diff.add(MOVE, currentPosition, position);
+                current.add(position, current.remove(currentPosition));
+            }
+            position++;
+        }
+
+        // Insertions, top down; the rows before each are already where they belong.
+        for (int j = 0; j < to.length; ) {
+            if (oldIndexOfNew[j] != -1) {
+                j++;
+                continue;
+            }
+            int start = j;
+            while (j < to.length && oldIndexOfNew[j] == -1) {
+                j++;
+            }
+            diff.add(INSERT, start, j - start);
+        }
+
+        // Changes.  The first row has its own layout, so the rows moving into and out of the
+        // top need binding again even if nothing they show is different.
+        boolean[] changed = new boolean[to.length];
+        for (int j = 0; j < to.length; j++) {
+            int oldIndex = oldIndexOfNew[j];
+            changed[j] = oldIndex != -1 && !sameContent(from[oldIndex], to[j]);
+        }
+        if (to.length > 0 && oldIndexOfNew[0] > 0) {
+            changed[0] = true;
+        }
+        if (from.length > 0 && newIndexOfOld[0] > 0) {
+            changed[newIndexOfOld[0]] = true;
+        }
+        for (int j = 0; j < to.length; ) {
+            if (!changed[j]) {
+                j++;
+                continue;
+            }
+            int start = j;
+            while (j < to.length && changed[j]) {
+                j++;
+            }
+            diff.add(CHANGE, start, j - start);
+        }
+        return diff;
+    }
+
+    /**
+     * Returns whether this diff starts from the given rows.
+     */
+    boolean startsFrom(ForecastRow[] rows) {
+        return mFrom == rows;
+    }
+
+    boolean isEmpty() {
+        return mOps.isEmpty();
+    }
+
+    /**
+     * Tells the adapter about each change.  The adapter must already be showing the new rows.
+     */
+    void dispatchTo(RecyclerView.Adapter adapter) {
+        for (Op op : mOps) {
+            switch (op.mType) {
+                case REMOVE:
+                    adapter.notifyItemRangeRemoved(op.mPosition, op.mValue);
+                    break;
+                case MOVE:
+                    adapter.notifyItemMoved(op.mPosition, op.mValue);
+                    break;
+                case INSERT:
+                    adapter.notifyItemRangeInserted(op.mPosition, op.mValue);
+                    break;
+                case CHANGE:
+                    adapter.notifyItemRangeChanged(op.mPosition, op.mValue);
+                    break;
+            }
+        }
+    }
+
+    @Override
+    public String toString() {
+        StringBuilder sb = new StringBuilder();
+        for (Op op : mOps) {
+            if (sb.length() > 0) {
+                sb.append(' ');
+            }
+            sb.append("RMIC".charAt(op.mType)).append(op.mPosition).append(':').append(op.mValue);
+        }
+        return sb.toString();
+    }
+
+    private void add(int type, int position, int value) {
+        mOps.add(new Op(type, position, value));
+    }
+
+    private static String keyOf(ForecastRow row) {
+        return row.mLocationSetting + '/' + row.mDate;
+    }
+
+    private static boolean sameContent(ForecastRow a, ForecastRow b) {
+        return a.mIconResource == b.mIconResource
+                && a.mArtResource == b.mArtResource
+                && TextUtils.equals(a.mArtUrl, b.mArtUrl)
+                && TextUtils.equals(a.mDateText, b.mDateText)
+                && TextUtils.equals(a.mLongDateText, b.mLongDateText)
+                && TextUtils.equals(a.mDescription, b.mDescription)
+                && TextUtils.equals(a.mDescriptionA11y, b.mDescriptionA11y)
+                && TextUtils.equals(a.mHighText, b.mHighText)
+                && TextUtils.equals(a.mHighA11y, b.mHighA11y)
+                && TextUtils.equals(a.mLowText, b.mLowText)
+                && TextUtils.equals(a.mLowA11y, b.mLowA11y)
+                && TextUtils.equals(a.mTransitionName, b.mTransitionName);
+    }
+
+    /**
+     * One notification: a range removed, inserted or changed (position and count), or a row
+     * moved (from and to).
+     */
+    private static class Op {
+        final int mType;
+        final int mPosition;
+        final int mValue;
+
+        Op(int type, int position, int value) {
+            mType = type;
+            mPosition = position;
+            mValue = value;
+        }
+    }
+}
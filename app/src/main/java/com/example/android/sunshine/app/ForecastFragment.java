@@ -24,11 +24,9 @@ import android.database.Cursor;
 import android.net.Uri;
 import android.os.Build;
 import android.os.Bundle;
-import android.preference.PreferenceManager;
 import android.support.design.widget.AppBarLayout;
 import android.support.v4.app.Fragment;
 import android.support.v4.app.LoaderManager;
-import android.support.v4.content.CursorLoader;
 import android.support.v4.content.Loader;
 import android.support.v4.view.ViewCompat;
 import android.support.v7.widget.LinearLayoutManager;
@@ -59,6 +57,9 @@ public class ForecastFragment extends Fragment implements LoaderManager.LoaderCa
     private int mChoiceMode;
     private boolean mHoldForTransition;
     private long mInitialSelectedDate = -1;
+    private ForecastViewPreInflater mPreInflater;
+    // Whether the view hasn't yet drawn any rows.
+    private boolean mFirstDrawPending;
 
     private static final String SELECTED_KEY = "selected_position";
 
@@ -119,15 +120,22 @@ public class ForecastFragment extends Fragment implements LoaderManager.LoaderCa
 
     @Override
     public void onResume() {
-        SharedPreferences sp = PreferenceManager.getDefaultSharedPreferences(getActivity());
-        sp.registerOnSharedPreferenceChangeListener(this);
+        SettingsSnapshot.registerOnSharedPreferenceChangeListener(getActivity(), this);
         super.onResume();
+        // The rows' dates say "Today" and "Tomorrow", so build them again if the day, or the
+        // locale, has changed since.
+        Cursor data = mForecastAdapter.getCursor();
+        if (data instanceof ForecastCursor && !((ForecastCursor) data).isCurrent(getActivity())) {
+            Loader<Cursor> loader = getLoaderManager().getLoader(FORECAST_LOADER);
+            if (null != loader) {
+                loader.onContentChanged();
+            }
+        }
     }
 
     @Override
     public void onPause() {
-        SharedPreferences sp = PreferenceManager.getDefaultSharedPreferences(getActivity());
-        sp.unregisterOnSharedPreferenceChangeListener(this);
+        SettingsSnapshot.unregisterOnSharedPreferenceChangeListener(this);
         super.onPause();
     }
 
@@ -200,6 +208,14 @@ public class ForecastFragment extends Fragment implements LoaderManager.LoaderCa
         // specify an adapter (see also next example)
         mRecyclerView.setAdapter(mForecastAdapter);
 
+        // Inflate the first screen of rows off the main thread while the activity finishes
+        // starting and the loader runs.
+        StartupTrace.begin(StartupTrace.FIRST_LIST_DRAW);
+        mFirstDrawPending = true;
+        mPreInflater = new ForecastViewPreInflater(mRecyclerView, mForecastAdapter);
+        mForecastAdapter.setPreInflater(mPreInflater);
+        mPreInflater.start();
+
         final View parallaxView = rootView.findViewById(R.id.parallax_bar);
         if (null != parallaxView) {
             if (Build.VERSION.SDK_INT >= Build.VERSION_CODES.HONEYCOMB) {
@@ -259,6 +275,7 @@ public class ForecastFragment extends Fragment implements LoaderManager.LoaderCa
         if ( mHoldForTransition ) {
             getActivity().supportPostponeEnterTransition();
         }
+        StartupTrace.begin(StartupTrace.LOADER_FIRST_RESULT);
         getLoaderManager().initLoader(FORECAST_LOADER, null, this);
         super.onActivityCreated(savedInstanceState);
     }
@@ -316,7 +333,7 @@ public class ForecastFragment extends Fragment implements LoaderManager.LoaderCa
         Uri weatherForLocationUri = WeatherContract.WeatherEntry.buildWeatherLocationWithStartDate(
                 locationSetting, System.currentTimeMillis());
 
-        return new CursorLoader(getActivity(),
+        return new ForecastCursorLoader(getActivity(),
                 weatherForLocationUri,
                 FORECAST_COLUMNS,
                 null,
@@ -326,6 +343,7 @@ public class ForecastFragment extends Fragment implements LoaderManager.LoaderCa
 
     @Override
     public void onLoadFinished(Loader<Cursor> loader, Cursor data) {
+        StartupTrace.end(StartupTrace.LOADER_FIRST_RESULT);
         mForecastAdapter.swapCursor(data);
         updateEmptyView();
         if ( data.getCount() == 0 ) {
@@ -338,6 +356,13 @@ public class ForecastFragment extends Fragment implements LoaderManager.LoaderCa
                     // we see Children.
                     if (mRecyclerView.getChildCount() > 0) {
                         mRecyclerView.getViewTreeObserver().removeOnPreDrawListener(this);
+                        if (mFirstDrawPending) {
+                            mFirstDrawPending = false;
+                            StartupTrace.end(StartupTrace.FIRST_LIST_DRAW);
+                            StartupTrace.finish(getActivity());
+                            Log.d(LOG_TAG, mForecastAdapter.getInflatedOnMainThread()
+                                    + " rows inflated on the main thread before the first draw");
+                        }
                         int position = mForecastAdapter.getSelectedItemPosition();
                         if (position == RecyclerView.NO_POSITION &&
                                 -1 != mInitialSelectedDate) {
@@ -374,6 +399,15 @@ public class ForecastFragment extends Fragment implements LoaderManager.LoaderCa
 
 
 
+    @Override
+    public void onDestroyView() {
+        if (null != mPreInflater) {
+            mPreInflater.cancel();
+            mPreInflater = null;
+        }
+        super.onDestroyView();
+    }
+
     @Override
     public void onDestroy() {
         super.onDestroy();
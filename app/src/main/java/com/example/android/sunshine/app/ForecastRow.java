@@ -0,0 +1,97 @@
+/*
+ * Copyright (C) 2015 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.example.android.sunshine.app;
+
+import android.content.Context;
+import android.database.Cursor;
+
+/**
+ * One day of the forecast list with everything ForecastAdapter shows already worked out, so
+ * binding a row only sets views.  Rows are built off the main thread by
+ * {@link ForecastCursorLoader} and never change afterwards.
+ */
+final class ForecastRow {
+
+    static final ForecastRow[] EMPTY = new ForecastRow[0];
+
+    // The weather table's _ID for the day.  A sync replaces the row, and its _ID with it.
+    final long mId;
+    // The same for as long as the location and day are; see ForecastAdapter.getItemId.
+    final long mStableId;
+    final long mDate;
+    final String mLocationSetting;
+    final int mWeatherId;
+
+    // The today layout shows the art and the long form of the date; the others the icon and
+    // the short form.
+    final int mIconResource;
+    final int mArtResource;
+    // Null when the art pack is the one bundled with the app.
+    final String mArtUrl;
+    final String mDateText;
+    final String mLongDateText;
+
+    final String mDescription;
+    final String mDescriptionA11y;
+    final String mHighText;
+    final String mHighA11y;
+    final String mLowText;
+    final String mLowA11y;
+    final String mTransitionName;
+
+    private ForecastRow(Context context, SettingsSnapshot settings, Cursor cursor) {
+        mId = cursor.getLong(ForecastFragment.COL_WEATHER_ID);
+        mDate = cursor.getLong(ForecastFragment.COL_WEATHER_DATE);
+        mLocationSetting = cursor.getString(ForecastFragment.COL_LOCATION_SETTING);
+        mWeatherId = cursor.getInt(ForecastFragment.COL_WEATHER_CONDITION_ID);
+        // Dates fit in 42 bits until 2109, which leaves the top 22 for the location.
+        mStableId = ((long) mLocationSetting.hashCode() << 42) ^ mDate;
+
+        mIconResource = Utility.getIconResourceForWeatherCondition(mWeatherId);
+        mArtResource = Utility.getArtResourceForWeatherCondition(mWeatherId);
+        mArtUrl = settings.usingLocalGraphics
+                ? null : Utility.getArtUrlForWeatherCondition(context, mWeatherId);
+        mDateText = Utility.getFriendlyDayString(context, mDate, false);
+        mLongDateText = Utility.getFriendlyDayString(context, mDate, true);
+
+        mDescription = Utility.getStringForWeatherCondition(context, mWeatherId);
+        mDescriptionA11y = context.getString(R.string.a11y_forecast, mDescription);
+        mHighText = Utility.formatTemperature(context,
+                cursor.getDouble(ForecastFragment.COL_WEATHER_MAX_TEMP), settings.metric);
+        mHighA11y = context.getString(R.string.a11y_high_temp, mHighText);
+        mLowText = Utility.formatTemperature(context,
+                cursor.getDouble(ForecastFragment.COL_WEATHER_MIN_TEMP), settings.metric);
+        mLowA11y = context.getString(R.string.a11y_low_temp, mLowText);
+
+        // this enables better animations. even if we lose state due to a device rotation,
+        // the animator can use this to re-find the original view.  Named for the day rather
+        // than the position, so a row keeps its name when days are added or dropped above it.
+        mTransitionName = "iconView" + mDate;
+    }
+
+    /**
+     * Builds a row for each of the cursor's rows, which must have ForecastFragment's columns.
+     * Leaves the cursor positioned after its last row.
+     */
+    static ForecastRow[] fromCursor(Context context, SettingsSnapshot settings, Cursor cursor) {
+        ForecastRow[] rows = new ForecastRow[cursor.getCount()];
+        cursor.moveToPosition(-1);
+        for (int position = 0; cursor.moveToNext(); position++) {
+            rows[position] = new ForecastRow(context, settings, cursor);
+        }
+        return rows;
+    }
+}
@@ -0,0 +1,143 @@
+/*
+ * Copyright (C) 2015 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.example.android.sunshine.app;
+
+import android.content.res.TypedArray;
+import android.os.Handler;
+import android.os.Looper;
+import android.support.v4.os.TraceCompat;
+import android.support.v7.widget.RecyclerView;
+import android.view.LayoutInflater;
+import android.view.View;
+
+import java.util.concurrent.ConcurrentLinkedQueue;
+
+/**
+ * Inflates the forecast list's rows on a background thread while MainActivity is still being
+ * created, so the first layout of the list binds views instead of inflating them on the main
+ * thread while the first frame waits.
+ *
+ * Inflated views wait in a queue that ForecastAdapter.onCreateViewHolder takes from first.
+ * Once they're all inflated, whatever the adapter hasn't already taken is made into view holders
+ * on the main thread and put in the RecyclerView's pool, where the first layout finds them.
+ */
+class ForecastViewPreInflater {
+
+    private final RecyclerView mRecyclerView;
+    private final ForecastAdapter mAdapter;
+    private final Handler mHandler = new Handler(Looper.getMainLooper());
+    // Indexed by view type.
+    private final ConcurrentLinkedQueue<View>[] mViews;
+    private volatile boolean mCancelled;
+    private volatile boolean mPoolFilled;
+
+    @SuppressWarnings("unchecked")
+    ForecastViewPreInflater(RecyclerView recyclerView, ForecastAdapter adapter) {
+        mRecyclerView = recyclerView;
+        mAdapter = adapter;
+        mViews = new ConcurrentLinkedQueue[ForecastAdapter.VIEW_TYPE_COUNT];
+        for (int viewType = 0; viewType < mViews.length; viewType++) {
+            mViews[viewType] = new ConcurrentLinkedQueue<View>();
+        }
+    }
+
+    /**
+     * Starts inflating one "today" row and enough of the others to fill the screen and scroll
+     * by one.  The today row is wasted when the list doesn't use it, but whether it does isn't
+     * known until MainActivity has finished its onCreate.
+     */
+    void start() {
+        int screenHeight = mRecyclerView.getResources().getDisplayMetrics().heightPixels;
+        TypedArray a = mRecyclerView.getContext().obtainStyledAttributes(
+                new int[]{android.R.attr.listPreferredItemHeight});
+        int rowHeight = Math.max(1, a.getDimensionPixelSize(0, screenHeight));
+        a.recycle();
+        final int[] counts = new int[ForecastAdapter.VIEW_TYPE_COUNT];
+        counts[ForecastAdapter.VIEW_TYPE_TODAY] = 1;
+        counts[ForecastAdapter.VIEW_TYPE_FUTURE_DAY] = (screenHeight + rowHeight - 1) / rowHeight + 1;
+
+        RecyclerView.RecycledViewPool pool = mRecyclerView.getRecycledViewPool();
+        for (int viewType = 0; viewType < counts.length; viewType++) {
+            pool.setMaxRecycledViews(viewType, Math.max(counts[viewType], 5));
+        }
+
+        // LayoutInflater isn't thread-safe, so the background thread gets its own.
+        final LayoutInflater inflater = LayoutInflater.from(mRecyclerView.getContext())
+                .cloneInContext(mRecyclerView.getContext());
+        new Thread(new Runnable() {
+            @Override
+            public void run() {
+                TraceCompat.beginSection("ForecastViewPreInflater.inflate");
+                try {
+                    for (int viewType = 0; viewType < counts.length; viewType++) {
+                        int layoutId = ForecastAdapter.getLayoutId(viewType);
+                        for (int i = 0; i < counts[viewType] && !mCancelled; i++) {
+                            mViews[viewType].add(
+                                    inflater.inflate(layoutId, mRecyclerView, false));
+                        }
+                    }
+                } finally {
+                    TraceCompat.endSection();
+                }
+                mHandler.post(new Runnable() {
+                    @Override
+                    public void run() {
+                        fillPool();
+                    }
+                });
+            }
+        }, "ForecastViewPreInflater").start();
+    }
+
+    /**
+     * Stops inflating and drops the views inflated so far.
+     */
+    void cancel() {
+        mCancelled = true;
+        for (ConcurrentLinkedQueue<View> views : mViews) {
+            views.clear();
+        }
+    }
+
+    /**
+     * Returns whether the views have all been inflated and handed to the adapter or the pool.
+     */
+    boolean isPoolFilled() {
+        return mPoolFilled;
+    }
+
+    /**
+     * Returns a view inflated for the view type, or null if there's none left.
+     */
+    View take(int viewType) {
+        return mViews[viewType].poll();
+    }
+
+    private void fillPool() {
+        if (mCancelled) {
+            return;
+        }
+        RecyclerView.RecycledViewPool pool = mRecyclerView.getRecycledViewPool();
+        for (int viewType = 0; viewType < mViews.length; viewType++) {
+            // createViewHolder calls onCreateViewHolder, which takes the view from the queue,
+            // and sets the holder's view type, which the pool files it under.
+            while (!mViews[viewType].isEmpty()) {
+                pool.putRecycledView(mAdapter.createViewHolder(mRecyclerView, viewType));
+            }
+        }
+        mPoolFilled = true;
+    }
+}
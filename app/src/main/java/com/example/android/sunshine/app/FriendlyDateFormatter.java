@@ -0,0 +1,170 @@
+/*
+ * Copyright (C) 2015 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.example.android.sunshine.app;
+
+import android.content.Context;
+import android.text.format.Time;
+import android.util.SparseArray;
+
+import java.text.SimpleDateFormat;
+import java.util.Locale;
+import java.util.TimeZone;
+
+/**
+ * Builds the day labels behind Utility's friendly date methods ("Today, June 24", "Tomorrow",
+ * "Wednesday", "Mon Jun 30").  The date formats are made once per locale and time zone, and
+ * each label is kept for as long as "today" stays the same, so scrolling the forecast or
+ * refreshing a widget formats each day once.
+ *
+ * Everything hangs off a {@link Labels} for the current day, locale and zone.  When any of
+ * those changes, including at midnight, the next call starts a new one.
+ */
+final class FriendlyDateFormatter {
+
+    private static final int KIND_FRIENDLY = 0;
+    private static final int KIND_FRIENDLY_LONG_TODAY = 1;
+    private static final int KIND_FULL_FRIENDLY = 2;
+    private static final int KIND_DAY_NAME = 3;
+    private static final int KIND_MONTH_DAY = 4;
+    private static final int KIND_COUNT = 5;
+
+    private static volatile Labels sLabels;
+
+    private FriendlyDateFormatter() {
+    }
+
+    static String getFriendlyDayString(Context context, long dateInMillis,
+                                       boolean displayLongToday, long now) {
+        return getLabels(context, now).get(context, dateInMillis,
+                displayLongToday ? KIND_FRIENDLY_LONG_TODAY : KIND_FRIENDLY);
+    }
+
+    static String getFullFriendlyDayString(Context context, long dateInMillis, long now) {
+        return getLabels(context, now).get(context, dateInMillis, KIND_FULL_FRIENDLY);
+    }
+
+    static String getDayName(Context context, long dateInMillis, long now) {
+        return getLabels(context, now).get(context, dateInMillis, KIND_DAY_NAME);
+    }
+
+    static String getFormattedMonthDay(Context context, long dateInMillis, long now) {
+        return getLabels(context, now).get(context, dateInMillis, KIND_MONTH_DAY);
+    }
+
+    private static Labels getLabels(Context context, long now) {
+        // Checking the device's zone on every call is what notices it changing; it's cheap
+        // next to the label lookup.  getDefault() returns a copy, so while the zone is the same
+        // keep using the labels' one.
+        TimeZone zone = TimeZone.getDefault();
+        Labels labels = sLabels;
+        if (labels != null && labels.mZone.getID().equals(zone.getID())) {
+            zone = labels.mZone;
+        }
+        // Days are counted with the offset in force now, as Time.getJulianDay callers always
+        // have, so a DST change starts new labels as well.
+        int gmtoff = zone.getOffset(now) / 1000;
+        int today = Time.getJulianDay(now, gmtoff);
+        Locale locale = Locale.getDefault();
+        if (labels == null || labels.mZone != zone || labels.mToday != today
+                || labels.mGmtoff != gmtoff || labels.mLocale != locale) {
+            labels = new Labels(context, zone, locale, today, gmtoff);
+            sLabels = labels;
+        }
+        return labels;
+    }
+
+    /**
+     * The formats and labels for one "today" in one locale and time zone.  Labels are made as
+     * they're first asked for; access is synchronized since SimpleDateFormat isn't thread-safe.
+     */
+    private static class Labels {
+        final TimeZone mZone;
+        final Locale mLocale;
+        final int mToday;
+        final int mGmtoff;
+
+        private final String mTodayString;
+        private final String mTomorrowString;
+        private final SimpleDateFormat mDayNameFormat;
+        private final SimpleDateFormat mMonthDayFormat;
+        private final SimpleDateFormat mShortenedDateFormat;
+        // By julian day * KIND_COUNT + kind.
+        private final SparseArray<String> mLabels = new SparseArray<String>();
+
+        Labels(Context context, TimeZone zone, Locale locale, int today, int gmtoff) {
+            mZone = zone;
+            mLocale = locale;
+            mToday = today;
+            mGmtoff = gmtoff;
+            mTodayString = context.getString(R.string.today);
+            mTomorrowString = context.getString(R.string.tomorrow);
+            mDayNameFormat = newFormat("EEEE");
+            mMonthDayFormat = newFormat("MMMM dd");
+            mShortenedDateFormat = newFormat("EEE MMM dd");
+        }
+
+        private SimpleDateFormat newFormat(String pattern) {
+            SimpleDateFormat format = new SimpleDateFormat(pattern, mLocale);
+            format.setTimeZone(mZone);
+            return format;
+        }
+
+        synchronized String get(Context context, long dateInMillis, int kind) {
+            int julianDay = Time.getJulianDay(dateInMillis, mGmtoff);
+            int key = julianDay * KIND_COUNT + kind;
+            String label = mLabels.get(key);
+            if (label == null) {
+                label = format(context, dateInMillis, julianDay, kind);
+                mLabels.put(key, label);
+            }
+            return label;
+        }
+
+        private String format(Context context, long dateInMillis, int julianDay, int kind) {
+            switch (kind) {
+                case KIND_FRIENDLY_LONG_TODAY:
+                    // For today: "Today, June 8"
+                    if (julianDay == mToday) {
+                        return context.getString(R.string.format_full_friendly_date,
+                                mTodayString, mMonthDayFormat.format(dateInMillis));
+                    }
+                    return format(context, dateInMillis, julianDay, KIND_FRIENDLY);
+                case KIND_FRIENDLY:
+                    // For the next 5 days: "Wednesday" (just the day name)
+                    // For all days after that: "Mon Jun 8"
+                    if (julianDay < mToday + 7) {
+                        return format(context, dateInMillis, julianDay, KIND_DAY_NAME);
+                    }
+                    return mShortenedDateFormat.format(dateInMillis);
+                case KIND_FULL_FRIENDLY:
+                    return context.getString(R.string.format_full_friendly_date,
+                            format(context, dateInMillis, julianDay, KIND_DAY_NAME),
+                            mMonthDayFormat.format(dateInMillis));
+                case KIND_DAY_NAME:
+                    if (julianDay == mToday) {
+                        return mTodayString;
+                    } else if (julianDay == mToday + 1) {
+                        return mTomorrowString;
+                    }
+                    return mDayNameFormat.format(dateInMillis);
+                case KIND_MONTH_DAY:
+                    return mMonthDayFormat.format(dateInMillis);
+                default:
+                    throw new IllegalArgumentException("Unknown label kind: " + kind);
+            }
+        }
+    }
+}
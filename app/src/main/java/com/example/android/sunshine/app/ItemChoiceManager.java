@@ -27,9 +27,12 @@ import android.util.SparseBooleanArray;
 import android.widget.AbsListView;
 import android.widget.Checkable;
 
+import java.util.HashMap;
+
 /**
- * The ItemChoiceManager class keeps track of which positions have been selected.  Note that it
- * doesn't take advantage of new adapter features to track changes in the underlying data.
+ * The ItemChoiceManager class keeps track of which positions have been selected.  When the
+ * adapter has stable IDs it also remembers which IDs were selected, and after the data changes
+ * it finds where each of them went, dropping any that are gone.
  */
 public class ItemChoiceManager {
     private final String LOG_TAG = MainActivity.class.getSimpleName();
@@ -38,11 +41,28 @@ public class ItemChoiceManager {
 
     private RecyclerView.Adapter mAdapter;
     private RecyclerView.AdapterDataObserver mAdapterDataObserver = new RecyclerView.AdapterDataObserver() {
+        // A granular update can arrive as several notifications, so rather than finding the
+        // checked IDs after each one, note that the positions need checking and do it once, the
+        // next time they're asked for.
         @Override
         public void onChanged() {
             super.onChanged();
-            if (mAdapter != null && mAdapter.hasStableIds())
-                confirmCheckedPositionsById(mAdapter.getItemCount());
+            mPositionsStale = true;
+        }
+
+        @Override
+        public void onItemRangeInserted(int positionStart, int itemCount) {
+            mPositionsStale = true;
+        }
+
+        @Override
+        public void onItemRangeRemoved(int positionStart, int itemCount) {
+            mPositionsStale = true;
+        }
+
+        @Override
+        public void onItemRangeMoved(int fromPosition, int toPosition, int itemCount) {
+            mPositionsStale = true;
         }
     };
 
@@ -53,15 +73,9 @@ public class ItemChoiceManager {
 
     public ItemChoiceManager(RecyclerView.Adapter adapter) {
         mAdapter = adapter;
+        mAdapter.registerAdapterDataObserver(mAdapterDataObserver);
     }
 
-    /**
-     * How many positions in either direction we will search to try to
-     * find a checked item with a stable ID that moved position across
-     * a data set change. If the item isn't found it will be unselected.
-     */
-    private static final int CHECK_POSITION_SEARCH_DISTANCE = 20;
-
     /**
      * Running state of which positions are currently checked
      */
@@ -74,11 +88,20 @@ public class ItemChoiceManager {
      */
     LongSparseArray<Integer> mCheckedIdStates = new LongSparseArray<Integer>();
 
+    /**
+     * Whether the data has changed since mCheckStates was last worked out from mCheckedIdStates.
+     */
+    private boolean mPositionsStale;
+
+    /**
+     * Every ID's position, rebuilt once per data change and only while something is checked.
+     */
+    private final HashMap<Long, Integer> mPositionsById = new HashMap<Long, Integer>();
+
     public void onClick(RecyclerView.ViewHolder vh) {
         if (mChoiceMode == AbsListView.CHOICE_MODE_NONE)
             return;
 
-        int checkedItemCount = mCheckStates.size();
         int position = vh.getAdapterPosition();
 
         if (position == RecyclerView.NO_POSITION) {
@@ -86,37 +109,60 @@ public class ItemChoiceManager {
             return;
         }
 
-        switch (mChoiceMode) {
-            case AbsListView.CHOICE_MODE_NONE:
-                break;
-            case AbsListView.CHOICE_MODE_SINGLE: {
-                boolean checked = mCheckStates.get(position, false);
-                if (!checked) {
-                    for (int i = 0; i < checkedItemCount; i++) {
-                        mAdapter.notifyItemChanged(mCheckStates.keyAt(i));
-                    }
-                    mCheckStates.clear();
-                    mCheckStates.put(position, true);
-                    mCheckedIdStates.clear();
+        if (mChoiceMode == AbsListView.CHOICE_MODE_MULTIPLE_MODAL) {
+            throw new RuntimeException("Multiple Modal not implemented in ItemChoiceManager.");
+        }
+        setItemChecked(position, mChoiceMode == AbsListView.CHOICE_MODE_SINGLE
+                || !isItemChecked(position));
+        // We directly call onBindViewHolder here because notifying that an item has
+        // changed on an item that has the focus causes it to lose focus, which makes
+        // keyboard navigation a bit annoying
+        mAdapter.onBindViewHolder(vh, position);
+    }
+
+    /**
+     * Sets the checked state of the specified position, as AbsListView.setItemChecked does.
+     * In AbsListView.CHOICE_MODE_SINGLE, checking a position unchecks the one checked before
+     * and asks for it to be bound again; the caller is expected to bind the position itself.
+     *
+     * @param position The item whose checked state is to be set
+     * @param value The new checked state for the item
+     */
+    public void setItemChecked(int position, boolean value) {
+        if (mChoiceMode == AbsListView.CHOICE_MODE_NONE) {
+            return;
+        }
+        confirmCheckedPositionsById();
+        boolean stableIds = mAdapter.hasStableIds();
+        if (mChoiceMode == AbsListView.CHOICE_MODE_SINGLE) {
+            boolean checked = mCheckStates.get(position, false);
+            if (value && !checked) {
+                int checkedItemCount = mCheckStates.size();
+                for (int i = 0; i < checkedItemCount; i++) {
+                    mAdapter.notifyItemChanged(mCheckStates.keyAt(i));
+                }
+                mCheckStates.clear();
+                mCheckStates.put(position, true);
+                mCheckedIdStates.clear();
+                if (stableIds) {
                     mCheckedIdStates.put(mAdapter.getItemId(position), position);
                 }
-                // We directly call onBindViewHolder here because notifying that an item has
-                // changed on an item that has the focus causes it to lose focus, which makes
-                // keyboard navigation a bit annoying
-                mAdapter.onBindViewHolder(vh, position);
-                break;
+            } else if (!value && checked) {
+                mCheckStates.clear();
+                mCheckedIdStates.clear();
             }
-            case AbsListView.CHOICE_MODE_MULTIPLE: {
-                boolean checked = mCheckStates.get(position, false);
-                mCheckStates.put(position, !checked);
-                // We directly call onBindViewHolder here because notifying that an item has
-                // changed on an item that has the focus causes it to lose focus, which makes
-                // keyboard navigation a bit annoying
-                mAdapter.onBindViewHolder(vh, position);
-                break;
+        } else {
+            if (value) {
+                mCheckStates.put(position, true);
+            } else {
+                mCheckStates.delete(position);
             }
-            case AbsListView.CHOICE_MODE_MULTIPLE_MODAL: {
-                throw new RuntimeException("Multiple Modal not implemented in ItemChoiceManager.");
+            if (stableIds) {
+                if (value) {
+                    mCheckedIdStates.put(mAdapter.getItemId(position), position);
+                } else {
+                    mCheckedIdStates.delete(mAdapter.getItemId(position));
+                }
             }
         }
     }
@@ -146,46 +192,52 @@ public class ItemChoiceManager {
      * @see #setChoiceMode(int)
      */
     public boolean isItemChecked(int position) {
+        confirmCheckedPositionsById();
         return mCheckStates.get(position);
     }
 
     void clearSelections() {
         mCheckStates.clear();
         mCheckedIdStates.clear();
+        mPositionsStale = false;
     }
 
-    void confirmCheckedPositionsById(int oldItemCount) {
+    /**
+     * If the data has changed since the checked positions were last worked out, finds the
+     * position each checked ID has now, unchecking any ID that's gone.  Each ID costs one lookup
+     * in an index of the whole adapter, built once per data change.
+     */
+    void confirmCheckedPositionsById() {
+        if (!mPositionsStale) {
+            return;
+        }
+        mPositionsStale = false;
+        if (!mAdapter.hasStableIds()) {
+            // Without IDs the checked positions just stay where they were.
+            return;
+        }
+
         // Clear out the positional check states, we'll rebuild it below from IDs.
         mCheckStates.clear();
+        if (mCheckedIdStates.size() == 0) {
+            return;
+        }
 
-        for (int checkedIndex = 0; checkedIndex < mCheckedIdStates.size(); checkedIndex++) {
-            final long id = mCheckedIdStates.keyAt(checkedIndex);
-            final int lastPos = mCheckedIdStates.valueAt(checkedIndex);
-
-            final long lastPosId = mAdapter.getItemId(lastPos);
-            if (id != lastPosId) {
-                // Look around to see if the ID is nearby. If not, uncheck it.
-                final int start = Math.max(0, lastPos - CHECK_POSITION_SEARCH_DISTANCE);
-                final int end = Math.min(lastPos + CHECK_POSITION_SEARCH_DISTANCE, oldItemCount);
-                boolean found = false;
-                for (int searchPos = start; searchPos < end; searchPos++) {
-                    final long searchId = mAdapter.getItemId(searchPos);
-                    if (id == searchId) {
-                        found = true;
-                        mCheckStates.put(searchPos, true);
-                        mCheckedIdStates.setValueAt(checkedIndex, searchPos);
-                        break;
-                    }
-                }
-
-                if (!found) {
-                    mCheckedIdStates.delete(id);
-                    checkedIndex--;
-                }
+        mPositionsById.clear();
+        int itemCount = mAdapter.getItemCount();
+        for (int position = 0; position < itemCount; position++) {
+            mPositionsById.put(mAdapter.getItemId(position), position);
+        }
+        for (int checkedIndex = mCheckedIdStates.size() - 1; checkedIndex >= 0; checkedIndex--) {
+            Integer position = mPositionsById.get(mCheckedIdStates.keyAt(checkedIndex));
+            if (position == null) {
+                mCheckedIdStates.removeAt(checkedIndex);
             } else {
-                mCheckStates.put(lastPos, true);
+                mCheckedIdStates.setValueAt(checkedIndex, position);
+                mCheckStates.put(position, true);
             }
         }
+        mPositionsById.clear();
     }
 
     public void onBindViewHolder(RecyclerView.ViewHolder vh, int position) {
@@ -214,6 +266,7 @@ public class ItemChoiceManager {
     }
 
     public void onSaveInstanceState(Bundle outState) {
+        confirmCheckedPositionsById();
         Parcel outParcel = Parcel.obtain();
         outParcel.writeSparseBooleanArray(mCheckStates);
         final int numStates = mCheckedIdStates.size();
@@ -228,6 +281,7 @@ public class ItemChoiceManager {
     }
 
     public int getSelectedItemPosition() {
+        confirmCheckedPositionsById();
         if ( mCheckStates.size() == 0 ) {
             return RecyclerView.NO_POSITION;
         } else {
@@ -48,6 +48,7 @@ public class MainActivity extends AppCompatActivity implements ForecastFragment.
 
     @Override
     protected void onCreate(Bundle savedInstanceState) {
+        StartupTrace.begin(StartupTrace.ACTIVITY_CREATE);
         super.onCreate(savedInstanceState);
         mLocation = Utility.getPreferredLocation(this);
         Uri contentUri = getIntent() != null ? getIntent().getData() : null;
@@ -89,7 +90,9 @@ public class MainActivity extends AppCompatActivity implements ForecastFragment.
                     WeatherContract.WeatherEntry.getDateFromUri(contentUri));
         }
 
+        StartupTrace.begin(StartupTrace.ACCOUNT_CHECK);
         SunshineSyncAdapter.initializeSyncAdapter(this);
+        StartupTrace.end(StartupTrace.ACCOUNT_CHECK);
 
         // If Google Play Services is up to date, we'll want to register GCM. If it is not, we'll
         // skip the registration and this device will not receive any downstream messages from
@@ -107,6 +110,7 @@ public class MainActivity extends AppCompatActivity implements ForecastFragment.
                 startService(intent);
             }
         }
+        StartupTrace.end(StartupTrace.ACTIVITY_CREATE);
     }
 
     @Override
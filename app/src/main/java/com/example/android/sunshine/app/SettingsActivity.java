@@ -77,16 +77,14 @@ public class SettingsActivity extends PreferenceActivity
     // Registers a shared preference change listener that gets notified when preferences change
     @Override
     protected void onResume() {
-        SharedPreferences sp = PreferenceManager.getDefaultSharedPreferences(this);
-        sp.registerOnSharedPreferenceChangeListener(this);
+        SettingsSnapshot.registerOnSharedPreferenceChangeListener(this, this);
         super.onResume();
     }
 
     // Unregisters a shared preference change listener
     @Override
     protected void onPause() {
-        SharedPreferences sp = PreferenceManager.getDefaultSharedPreferences(this);
-        sp.unregisterOnSharedPreferenceChangeListener(this);
+        SettingsSnapshot.unregisterOnSharedPreferenceChangeListener(this);
         super.onPause();
     }
 
@@ -156,7 +154,7 @@ public class SettingsActivity extends PreferenceActivity
         if ( key.equals(getString(R.string.pref_location_key)) ) {
             // we've changed the location
             // Wipe out any potential PlacePicker latlng values so that we can use this text entry.
-            SharedPreferences.Editor editor = sharedPreferences.edit();
+            SharedPreferences.Editor editor = SettingsSnapshot.edit(this);
             editor.remove(getString(R.string.pref_location_latitude));
             editor.remove(getString(R.string.pref_location_longitude));
             editor.commit();
@@ -203,9 +201,7 @@ public class SettingsActivity extends PreferenceActivity
                     address = String.format("(%.2f, %.2f)",latLong.latitude, latLong.longitude);
                 }
 
-                SharedPreferences sharedPreferences =
-                        PreferenceManager.getDefaultSharedPreferences(this);
-                SharedPreferences.Editor editor = sharedPreferences.edit();
+                SharedPreferences.Editor editor = SettingsSnapshot.edit(this);
                 editor.putString(getString(R.string.pref_location_key), address);
 
                 // Also store the latitude and longitude so that we can use these to get a precise
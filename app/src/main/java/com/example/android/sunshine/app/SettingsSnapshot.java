@@ -0,0 +1,242 @@
+/*
+ * Copyright (C) 2015 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.example.android.sunshine.app;
+
+import android.annotation.TargetApi;
+import android.content.Context;
+import android.content.SharedPreferences;
+import android.content.res.Resources;
+import android.os.Build;
+import android.preference.PreferenceManager;
+
+import com.example.android.sunshine.app.sync.SunshineSyncAdapter;
+
+import java.util.Set;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * An immutable copy of the settings Sunshine reads while binding rows, building widgets and
+ * syncing, so those paths read final fields instead of looking up the preferences file and
+ * the keys' resources every time.
+ *
+ * Every change to the preferences bumps a version number, and {@link #get(Context)} reads the
+ * settings again when the current snapshot is older than that, so a setting is never read
+ * back stale.  Changes made through {@link #edit(Context)} bump it as soon as they're written,
+ * from any thread; anything else (the preference screens, say) bumps it from the change
+ * listener.  SharedPreferences calls its listeners in no particular order, so code that reacts
+ * to a change and reads the snapshot should register through
+ * {@link #registerOnSharedPreferenceChangeListener}, which is only called after the bump.
+ */
+public final class SettingsSnapshot {
+
+    public final String locationSetting;
+    public final boolean locationLatLonAvailable;
+    public final float latitude;
+    public final float longitude;
+    @SunshineSyncAdapter.LocationStatus
+    public final int locationStatus;
+    public final boolean metric;
+    // The art pack's URL format; see R.string.pref_art_pack_sunshine.
+    public final String artPack;
+    public final boolean usingLocalGraphics;
+
+    // The preferences' version this snapshot was read at.
+    private final int mVersion;
+
+    private static volatile SettingsSnapshot sCurrent;
+    private static final AtomicInteger sVersion = new AtomicInteger();
+
+    // Held here because SharedPreferences only keeps weak references to its listeners.
+    private static SharedPreferences.OnSharedPreferenceChangeListener sListener;
+    private static final CopyOnWriteArrayList<SharedPreferences.OnSharedPreferenceChangeListener>
+            sListeners =
+            new CopyOnWriteArrayList<SharedPreferences.OnSharedPreferenceChangeListener>();
+
+    @SuppressWarnings("ResourceType")
+    private SettingsSnapshot(Resources resources, SharedPreferences prefs, int version) {
+        mVersion = version;
+        locationSetting = prefs.getString(resources.getString(R.string.pref_location_key),
+                resources.getString(R.string.pref_location_default));
+
+        String latitudeKey = resources.getString(R.string.pref_location_latitude);
+        String longitudeKey = resources.getString(R.string.pref_location_longitude);
+        locationLatLonAvailable = prefs.contains(latitudeKey) && prefs.contains(longitudeKey);
+        latitude = prefs.getFloat(latitudeKey, Utility.DEFAULT_LATLONG);
+        longitude = prefs.getFloat(longitudeKey, Utility.DEFAULT_LATLONG);
+
+        locationStatus = prefs.getInt(resources.getString(R.string.pref_location_status_key),
+                SunshineSyncAdapter.LOCATION_STATUS_UNKNOWN);
+
+        String metricUnits = resources.getString(R.string.pref_units_metric);
+        metric = prefs.getString(resources.getString(R.string.pref_units_key), metricUnits)
+                .equals(metricUnits);
+
+        String sunshineArtPack = resources.getString(R.string.pref_art_pack_sunshine);
+        artPack = prefs.getString(resources.getString(R.string.pref_art_pack_key),
+                sunshineArtPack);
+        usingLocalGraphics = artPack.equals(sunshineArtPack);
+    }
+
+    /**
+     * Returns the current settings.
+     */
+    public static SettingsSnapshot get(Context context) {
+        SettingsSnapshot snapshot = sCurrent;
+        if (snapshot != null && snapshot.mVersion == sVersion.get()) {
+            return snapshot;
+        }
+        return read(context);
+    }
+
+    /**
+     * Returns an editor for the default preferences that brings the snapshot up to date as soon
+     * as its changes are written, so they can be read straight back on any thread.
+     */
+    public static SharedPreferences.Editor edit(Context context) {
+        return new Editor(getPreferences(context).edit());
+    }
+
+    /**
+     * Registers {@code listener} for changes to the default preferences.  Unlike registering
+     * with SharedPreferences itself, {@link #get(Context)} already returns the changed settings
+     * when it's called.  The listener is held strongly, so unregister it when done.
+     */
+    public static void registerOnSharedPreferenceChangeListener(Context context,
+            SharedPreferences.OnSharedPreferenceChangeListener listener) {
+        getPreferences(context);
+        sListeners.addIfAbsent(listener);
+    }
+
+    public static void unregisterOnSharedPreferenceChangeListener(
+            SharedPreferences.OnSharedPreferenceChangeListener listener) {
+        sListeners.remove(listener);
+    }
+
+    private static synchronized SettingsSnapshot read(Context context) {
+        SettingsSnapshot snapshot = sCurrent;
+        // Taken before reading, so a change made while we read makes this snapshot stale.
+        int version = sVersion.get();
+        if (snapshot != null && snapshot.mVersion == version) {
+            // Another thread read it first.
+            return snapshot;
+        }
+        Context appContext = context.getApplicationContext() != null
+                ? context.getApplicationContext() : context;
+        snapshot = new SettingsSnapshot(appContext.getResources(), getPreferences(appContext),
+                version);
+        sCurrent = snapshot;
+        return snapshot;
+    }
+
+    /**
+     * Returns the default preferences, listening for changes to them from the first call on.
+     */
+    private static synchronized SharedPreferences getPreferences(Context context) {
+        Context appContext = context.getApplicationContext() != null
+                ? context.getApplicationContext() : context;
+        SharedPreferences prefs = PreferenceManager.getDefaultSharedPreferences(appContext);
+        if (sListener == null) {
+            sListener = new SharedPreferences.OnSharedPreferenceChangeListener() {
+                @Override
+                public void onSharedPreferenceChanged(SharedPreferences sharedPreferences,
+                                                      String key) {
+                    sVersion.incrementAndGet();
+                    for (SharedPreferences.OnSharedPreferenceChangeListener listener
+                            : sListeners) {
+                        listener.onSharedPreferenceChanged(sharedPreferences, key);
+                    }
+                }
+            };
+            prefs.registerOnSharedPreferenceChangeListener(sListener);
+        }
+        return prefs;
+    }
+
+    /**
+     * Bumps the version once the changes are in memory, which both commit() and apply() have
+     * done by the time they return.
+     */
+    private static class Editor implements SharedPreferences.Editor {
+        private final SharedPreferences.Editor mEditor;
+
+        Editor(SharedPreferences.Editor editor) {
+            mEditor = editor;
+        }
+
+        @Override
+        public SharedPreferences.Editor putString(String key, String value) {
+            mEditor.putString(key, value);
+            return this;
+        }
+
+        @Override
+        @TargetApi(Build.VERSION_CODES.HONEYCOMB)
+        public SharedPreferences.Editor putStringSet(String key, Set<String> values) {
+            mEditor.putStringSet(key, values);
+            return this;
+        }
+
+        @Override
+        public SharedPreferences.Editor putInt(String key, int value) {
+            mEditor.putInt(key, value);
+            return this;
+        }
+
+        @Override
+        public SharedPreferences.Editor putLong(String key, long value) {
+            mEditor.putLong(key, value);
+            return this;
+        }
+
+        @Override
+        public SharedPreferences.Editor putFloat(String key, float value) {
+            mEditor.putFloat(key, value);
+            return this;
+        }
+
+        @Override
+        public SharedPreferences.Editor putBoolean(String key, boolean value) {
+            mEditor.putBoolean(key, value);
+            return this;
+        }
+
+        @Override
+        public SharedPreferences.Editor remove(String key) {
+            mEditor.remove(key);
+            return this;
+        }
+
+        @Override
+        public SharedPreferences.Editor clear() {
+            mEditor.clear();
+            return this;
+        }
+
+        @Override
+        public boolean commit() {
+            boolean committed = mEditor.commit();
+            sVersion.incrementAndGet();
+            return committed;
+        }
+
+        @Override
+        public void apply() {
+            mEditor.apply();
+            sVersion.incrementAndGet();
+        }
+    }
+}
@@ -0,0 +1,243 @@
+/*
+ * Copyright (C) 2015 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.example.android.sunshine.app;
+
+import android.annotation.TargetApi;
+import android.content.Context;
+import android.os.Build;
+import android.os.SystemClock;
+import android.system.Os;
+import android.system.OsConstants;
+import android.util.Log;
+
+import org.json.JSONArray;
+import org.json.JSONException;
+import org.json.JSONObject;
+
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.FileReader;
+import java.io.FileWriter;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Times the named steps of the process's first launch of MainActivity, from the process starting
+ * to the forecast list's first draw.  Each step is a span begun and ended with {@link #begin}
+ * and {@link #end}; only the first begin and end of each name count, and nothing counts once
+ * {@link #finish} has been called.
+ *
+ * In debug builds {@link #finish} appends the trace as a line of JSON to
+ * {@link #FILE_NAME} in the app's files directory, keeping the last {@link #MAX_TRACES}.  The
+ * app module's startupReport task cold-starts the app, reads the file back and checks the time
+ * to first draw against its budget.
+ */
+public final class StartupTrace {
+    private static final String LOG_TAG = StartupTrace.class.getSimpleName();
+
+    public static final String PROCESS_START = "process start";
+    public static final String PROVIDER_CREATE = "provider onCreate";
+    public static final String ACTIVITY_CREATE = "activity onCreate";
+    public static final String ACCOUNT_CHECK = "account check";
+    public static final String LOADER_FIRST_RESULT = "loader first result";
+    public static final String FIRST_LIST_DRAW = "first list draw";
+
+    static final String FILE_NAME = "startup_traces.jsonl";
+    static final int MAX_TRACES = 50;
+
+    // If the process had been running longer than this when MainActivity was created, something
+    // else started it, a sync or a widget update, and the launch wasn't a cold start.
+    static final long COLD_START_WINDOW_MS = 5000;
+
+    private static final StartupTrace sProcessTrace = new StartupTrace(SystemClock.elapsedRealtime());
+
+    // When this class was loaded, which stands in for the process start if /proc can't be read.
+    private final long mCreated;
+    private final List<Span> mSpans = new ArrayList<Span>();
+    private boolean mFinished;
+
+    StartupTrace(long created) {
+        mCreated = created;
+    }
+
+    public static void begin(String name) {
+        sProcessTrace.beginSpan(name, SystemClock.elapsedRealtime());
+    }
+
+    public static void end(String name) {
+        sProcessTrace.endSpan(name, SystemClock.elapsedRealtime());
+    }
+
+    /**
+     * Stops the process's trace and, in debug builds, writes it out on a background thread.
+     */
+    public static void finish(Context context) {
+        if (!sProcessTrace.markFinished() || !BuildConfig.DEBUG) {
+            return;
+        }
+        final File file = new File(context.getFilesDir(), FILE_NAME);
+        new Thread(new Runnable() {
+            @Override
+            public void run() {
+                try {
+                    long processStart = readProcessStart(sProcessTrace.mCreated);
+                    JSONObject trace = sProcessTrace.toJson(processStart,
+                            System.currentTimeMillis());
+                    append(file, trace.toString());
+                } catch (JSONException e) {
+                    Log.e(LOG_TAG, "Error writing startup trace", e);
+                } catch (IOException e) {
+                    Log.e(LOG_TAG, "Error writing startup trace", e);
+                }
+            }
+        }, LOG_TAG).start();
+    }
+
+    synchronized void beginSpan(String name, long now) {
+        if (!mFinished && null == findSpan(name)) {
+            mSpans.add(new Span(name, now));
+        }
+    }
+
+    synchronized void endSpan(String name, long now) {
+        Span span = findSpan(name);
+        if (!mFinished && null != span && span.mEnd < 0) {
+            span.mEnd = now;
+        }
+    }
+
+    synchronized boolean markFinished() {
+        if (mFinished) {
+            return false;
+        }
+        mFinished = true;
+        return true;
+    }
+
+    /**
+     * Returns the trace with every time in milliseconds after processStart, an
+     * elapsedRealtime.  Spans that were never ended have no end.
+     */
+    synchronized JSONObject toJson(long processStart, long wallTime) throws JSONException {
+        JSONArray spans = new JSONArray();
+        spans.put(new JSONObject().put("name", PROCESS_START).put("start", 0).put("end", 0));
+        for (Span span : mSpans) {
+            JSONObject json = new JSONObject()
+                    .put("name", span.mName)
+                    .put("start", span.mStart - processStart);
+            if (span.mEnd >= 0) {
+                json.put("end", span.mEnd - processStart);
+            }
+            spans.put(json);
+        }
+        Span activity = findSpan(ACTIVITY_CREATE);
+        boolean cold = null != activity
+                && activity.mStart - processStart < COLD_START_WINDOW_MS;
+        return new JSONObject()
+                .put("time", wallTime)
+                .put("cold", cold)
+                .put("spans", spans);
+    }
+
+    private Span findSpan(String name) {
+        for (Span span : mSpans) {
+            if (span.mName.equals(name)) {
+                return span;
+            }
+        }
+        return null;
+    }
+
+    /**
+     * Returns when the process started as an elapsedRealtime, from the start time in
+     * /proc/self/stat, or the fallback if that can't be read or makes no sense.
+     */
+    static long readProcessStart(long fallback) {
+        BufferedReader reader = null;
+        try {
+            reader = new BufferedReader(new FileReader("/proc/self/stat"));
+            String stat = reader.readLine();
+            // The command name is in brackets and may hold spaces; the start time is the 22nd
+            // field, the 20th after it.
+            String[] fields = stat.substring(stat.lastIndexOf(')') + 2).split(" ");
+            long start = Long.parseLong(fields[19]) * 1000 / getClockTicksPerSecond();
+            return start > 0 && start <= fallback ? start : fallback;
+        } catch (IOException e) {
+            return fallback;
+        } catch (RuntimeException e) {
+            // A line that didn't parse.
+            return fallback;
+        } finally {
+            if (null != reader) {
+                try {
+                    reader.close();
+                } catch (IOException e) {
+                    // Nothing was written.
+                }
+            }
+        }
+    }
+
+    private static long getClockTicksPerSecond() {
+        if (Build.VERSION.SDK_INT >= Build.VERSION_CODES.LOLLIPOP) {
+            return getClockTicksPerSecondLollipop();
+        }
+        // What every Android kernel before Lollipop was built with.
+        return 100;
+    }
+
+    @TargetApi(Build.VERSION_CODES.LOLLIPOP)
+    private static long getClockTicksPerSecondLollipop() {
+        return Os.sysconf(OsConstants._SC_CLK_TCK);
+    }
+
+    private static void append(File file, String line) throws IOException {
+        List<String> lines = new ArrayList<String>();
+        if (file.exists()) {
+            BufferedReader reader = new BufferedReader(new FileReader(file));
+            try {
+                String existing;
+                while (null != (existing = reader.readLine())) {
+                    lines.add(existing);
+                }
+            } finally {
+                reader.close();
+            }
+        }
+        lines.add(line);
+        FileWriter writer = new FileWriter(file);
+        try {
+            for (String kept : lines.subList(Math.max(0, lines.size() - MAX_TRACES), lines.size())) {
+                writer.write(kept);
+                writer.write('\n');
+            }
+        } finally {
+            writer.close();
+        }
+    }
+
+    private static class Span {
+        final String mName;
+        final long mStart;
+        long mEnd = -1;
+
+        Span(String name, long start) {
+            mName = name;
+            mStart = start;
+        }
+    }
+}
@@ -0,0 +1,248 @@
+/*
+ * Copyright (C) 2015 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.example.android.sunshine.app;
+
+import android.content.Context;
+
+import java.util.Locale;
+
+/**
+ * Lookup tables from OpenWeatherMap condition ids to the icon, art, art URL and description
+ * Sunshine shows for them, indexed directly by id so every row bound in a list, widget or
+ * notification costs an array read instead of a walk through the ranges.
+ *
+ * Based on weather code data found at:
+ * http://bugs.openweathermap.org/projects/api/wiki/Weather_Condition_Codes
+ */
+final class WeatherConditions {
+
+    // Every id OpenWeatherMap uses is below this.
+    static final int ID_LIMIT = 1000;
+
+    // The kinds of weather there is art for.
+    private static final int NONE = 0;
+    private static final int STORM = 1;
+    private static final int LIGHT_RAIN = 2;
+    private static final int RAIN = 3;
+    private static final int SNOW = 4;
+    private static final int FOG = 5;
+    private static final int CLEAR = 6;
+    private static final int LIGHT_CLOUDS = 7;
+    private static final int CLOUDS = 8;
+
+    private static final int[] ICONS = {
+            -1,
+            R.drawable.ic_storm,
+            R.drawable.ic_light_rain,
+            R.drawable.ic_rain,
+            R.drawable.ic_snow,
+            R.drawable.ic_fog,
+            R.drawable.ic_clear,
+            R.drawable.ic_light_clouds,
+            R.drawable.ic_cloudy
+    };
+
+    private static final int[] ARTS = {
+            -1,
+            R.drawable.art_storm,
+            R.drawable.art_light_rain,
+            R.drawable.art_rain,
+            R.drawable.art_snow,
+            R.drawable.art_fog,
+            R.drawable.art_clear,
+            R.drawable.art_light_clouds,
+            R.drawable.art_clouds
+    };
+
+    // What goes into an art pack's URL format for each kind.
+    private static final String[] ART_NAMES = {
+            null,
+            "storm",
+            "light_rain",
+            "rain",
+            "snow",
+            "fog",
+            "clear",
+            "light_clouds",
+            "clouds"
+    };
+
+    private static final byte[] KINDS = new byte[ID_LIMIT];
+    // Description string resources, 0 where there's no description.
+    private static final int[] STRING_IDS = new int[ID_LIMIT];
+
+    static {
+        setKind(200, 232, STORM);
+        setKind(300, 321, LIGHT_RAIN);
+        setKind(500, 504, RAIN);
+        setKind(511, 511, SNOW);
+        setKind(520, 531, RAIN);
+        setKind(600, 622, SNOW);
+        // 761 (dust) has always shown as fog; only 781 (tornado) gets the storm.
+        setKind(701, 761, FOG);
+        setKind(781, 781, STORM);
+        setKind(800, 800, CLEAR);
+        setKind(801, 801, LIGHT_CLOUDS);
+        setKind(802, 804, CLOUDS);
+
+        for (int id = 200; id <= 232; id++) {
+            STRING_IDS[id] = R.string.condition_2xx;
+        }
+        for (int id = 300; id <= 321; id++) {
+            STRING_IDS[id] = R.string.condition_3xx;
+        }
+        STRING_IDS[500] = R.string.condition_500;
+        STRING_IDS[501] = R.string.condition_501;
+        STRING_IDS[502] = R.string.condition_502;
+        STRING_IDS[503] = R.string.condition_503;
+        STRING_IDS[504] = R.string.condition_504;
+        STRING_IDS[511] = R.string.condition_511;
+        STRING_IDS[520] = R.string.condition_520;
+        STRING_IDS[531] = R.string.condition_531;
+        STRING_IDS[600] = R.string.condition_600;
+        STRING_IDS[601] = R.string.condition_601;
+        STRING_IDS[602] = R.string.condition_602;
+        STRING_IDS[611] = R.string.condition_611;
+        STRING_IDS[612] = R.string.condition_612;
+        STRING_IDS[615] = R.string.condition_615;
+        STRING_IDS[616] = R.string.condition_616;
+        STRING_IDS[620] = R.string.condition_620;
+        STRING_IDS[621] = R.string.condition_621;
+        STRING_IDS[622] = R.string.condition_622;
+        STRING_IDS[701] = R.string.condition_701;
+        STRING_IDS[711] = R.string.condition_711;
+        STRING_IDS[721] = R.string.condition_721;
+        STRING_IDS[731] = R.string.condition_731;
+        STRING_IDS[741] = R.string.condition_741;
+        STRING_IDS[751] = R.string.condition_751;
+        STRING_IDS[761] = R.string.condition_761;
+        STRING_IDS[762] = R.string.condition_762;
+        STRING_IDS[771] = R.string.condition_771;
+        STRING_IDS[781] = R.string.condition_781;
+        STRING_IDS[800] = R.string.condition_800;
+        STRING_IDS[801] = R.string.condition_801;
+        STRING_IDS[802] = R.string.condition_802;
+        STRING_IDS[803] = R.string.condition_803;
+        STRING_IDS[804] = R.string.condition_804;
+        STRING_IDS[900] = R.string.condition_900;
+        STRING_IDS[901] = R.string.condition_901;
+        STRING_IDS[902] = R.string.condition_902;
+        STRING_IDS[903] = R.string.condition_903;
+        STRING_IDS[904] = R.string.condition_904;
+        STRING_IDS[905] = R.string.condition_905;
+        STRING_IDS[906] = R.string.condition_906;
+        STRING_IDS[951] = R.string.condition_951;
+        STRING_IDS[952] = R.string.condition_952;
+        STRING_IDS[953] = R.string.condition_953;
+        STRING_IDS[954] = R.string.condition_954;
+        STRING_IDS[955] = R.string.condition_955;
+        STRING_IDS[956] = R.string.condition_956;
+        STRING_IDS[957] = R.string.condition_957;
+        STRING_IDS[958] = R.string.condition_958;
+        STRING_IDS[959] = R.string.condition_959;
+        STRING_IDS[960] = R.string.condition_960;
+        STRING_IDS[961] = R.string.condition_961;
+        STRING_IDS[962] = R.string.condition_962;
+    }
+
+    // The art URLs for the last art pack asked for, and the descriptions for the current locale.
+    // Each is replaced as a whole when its setting changes, so they're read without locking.
+    private static volatile ArtUrls sArtUrls;
+    private static volatile Descriptions sDescriptions;
+
+    private WeatherConditions() {
+    }
+
+    private static void setKind(int firstId, int lastId, int kind) {
+        for (int id = firstId; id <= lastId; id++) {
+            KINDS[id] = (byte) kind;
+        }
+    }
+
+    private static int kindOf(int weatherId) {
+        return weatherId >= 0 && weatherId < ID_LIMIT ? KINDS[weatherId] : NONE;
+    }
+
+    static int getIconResource(int weatherId) {
+        return ICONS[kindOf(weatherId)];
+    }
+
+    static int getArtResource(int weatherId) {
+        return ARTS[kindOf(weatherId)];
+    }
+
+    static String getArtUrl(Context context, int weatherId) {
+        String artPack = SettingsSnapshot.get(context).artPack;
+        ArtUrls artUrls = sArtUrls;
+        // Snapshots share the string until the art pack changes, so this is usually a
+        // reference comparison.
+        if (artUrls == null || !artUrls.mArtPack.equals(artPack)) {
+            artUrls = new ArtUrls(artPack);
+            sArtUrls = artUrls;
+        }
+        return artUrls.mUrls[kindOf(weatherId)];
+    }
+
+    static String getDescription(Context context, int weatherId) {
+        if (weatherId < 0 || weatherId >= ID_LIMIT) {
+            return context.getString(R.string.condition_unknown, weatherId);
+        }
+        Locale locale = context.getResources().getConfiguration().locale;
+        Descriptions descriptions = sDescriptions;
+        if (descriptions == null || descriptions.mLocale != locale) {
+            descriptions = new Descriptions(locale);
+            sDescriptions = descriptions;
+        }
+        String description = descriptions.mStrings[weatherId];
+        if (description == null) {
+            int stringId = STRING_IDS[weatherId];
+            description = stringId != 0
+                    ? context.getString(stringId)
+                    : context.getString(R.string.condition_unknown, weatherId);
+            descriptions.mStrings[weatherId] = description;
+        }
+        return description;
+    }
+
+    /**
+     * An art pack's URL for each kind of weather.
+     */
+    private static class ArtUrls {
+        final String mArtPack;
+        final String[] mUrls = new String[ART_NAMES.length];
+
+        ArtUrls(String formatArtUrl) {
+            mArtPack = formatArtUrl;
+            for (int kind = 0; kind < ART_NAMES.length; kind++) {
+                if (ART_NAMES[kind] != null) {
+                    mUrls[kind] = String.format(Locale.US, formatArtUrl, ART_NAMES[kind]);
+                }
+            }
+        }
+    }
+
+    /**
+     * Descriptions in one locale, looked up as they're first asked for.
+     */
+    private static class Descriptions {
+        final Locale mLocale;
+        final String[] mStrings = new String[ID_LIMIT];
+
+        Descriptions(Locale locale) {
+            mLocale = locale;
+        }
+    }
+}
@@ -0,0 +1,217 @@
+/*
+ * Copyright (C) 2015 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.example.android.sunshine.app.data;
+
+import android.annotation.TargetApi;
+import android.database.Cursor;
+import android.database.MatrixCursor;
+import android.net.Uri;
+import android.os.Build;
+import android.support.v4.util.LruCache;
+
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Map;
+
+/**
+ * Keeps copies of recent per-location query results so that repeated reads of the same
+ * forecast (the list, the widgets, Muzei, the notification and the watch all ask for today at
+ * the preferred location) are answered without touching SQLite.  Entries belong to a location
+ * setting and are dropped when that location's rows are written.
+ *
+ * Each hit is served as a fresh {@link MatrixCursor} over the stored rows, so callers can move
+ * and close it as they would any other cursor.
+ */
+class QueryResultCache {
+
+    // Bounded by the number of cells (rows times columns) held, not by the number of results,
+    // so a few long histories can't crowd out memory the way a count limit would let them.
+    private final int mMaxCells;
+    private final LruCache<String, Snapshot> mSnapshots;
+
+    // Bumped by every invalidation.  A query that started before an invalidation may have read
+    // the old rows, so its result isn't stored.
+    private long mGeneration;
+
+    QueryResultCache(int maxCells) {
+        mMaxCells = maxCells;
+        mSnapshots = new LruCache<String, Snapshot>(maxCells) {
+            @Override
+            protected int sizeOf(String key, Snapshot snapshot) {
+                return snapshot.cellCount();
+            }
+        };
+    }
+
+    static String keyFor(Uri uri, String[] projection, String sortOrder) {
+        return uri + "|" + Arrays.toString(projection) + "|" + sortOrder;
+    }
+
+    /**
+     * Returns a cursor over the stored result for {@code key}, or null on a miss.
+     */
+    Cursor get(String key) {
+        Snapshot snapshot = mSnapshots.get(key);
+        return snapshot == null ? null : snapshot.newCursor();
+    }
+
+    synchronized long getGeneration() {
+        return mGeneration;
+    }
+
+    /**
+     * Copies {@code cursor} into the cache and returns a cursor over the copy.  The original is
+     * closed.  Nothing is stored if the cache was invalidated since {@code generation}, or if
+     * the result alone would fill the cache.
+     */
+    Cursor put(String key, String locationSetting, Cursor cursor, long generation) {
+        Snapshot snapshot = new Snapshot(locationSetting, cursor);
+        cursor.close();
+        synchronized (this) {
+            if (generation == mGeneration && snapshot.cellCount() <= mMaxCells) {
+                mSnapshots.put(key, snapshot);
+            }
+        }
+        return snapshot.newCursor();
+    }
+
+    /**
+     * Drops every entry for the given location settings.
+     */
+    void invalidate(Collection<String> locationSettings) {
+        synchronized (this) {
+            mGeneration++;
+        }
+        for (Map.Entry<String, Snapshot> entry : mSnapshots.snapshot().entrySet()) {
+            if (locationSettings.contains(entry.getValue().mLocationSetting)) {
+                mSnapshots.remove(entry.getKey());
+            }
+        }
+    }
+
+    void invalidateAll() {
+        synchronized (this) {
+            mGeneration++;
+        }
+        mSnapshots.evictAll();
+    }
+
+    int hitCount() {
+        return mSnapshots.hitCount();
+    }
+
+    int missCount() {
+        return mSnapshots.missCount();
+    }
+
+    int evictionCount() {
+        return mSnapshots.evictionCount();
+    }
+
+    /**
+     * An immutable copy of a query result.
+     */
+    private static class Snapshot {
+        final String mLocationSetting;
+        final String[] mColumnNames;
+        final Object[][] mRows;
+        // getString() of each REAL cell as SQLite formatted it, which isn't what
+        // Double.toString() gives (75.0 reads back as "75").  Null for rows without any.
+        final String[][] mRealText;
+
+        Snapshot(String locationSetting, Cursor cursor) {
+            mLocationSetting = locationSetting;
+            mColumnNames = cursor.getColumnNames();
+            mRows = new Object[cursor.getCount()][];
+            mRealText = new String[mRows.length][];
+            int row = 0;
+            cursor.moveToPosition(-1);
+            while (cursor.moveToNext()) {
+                Object[] values = new Object[mColumnNames.length];
+                for (int column = 0; column < values.length; column++) {
+                    values[column] = readValue(cursor, column);
+                    if (values[column] instanceof Double) {
+                        if (mRealText[row] == null) {
+                            mRealText[row] = new String[values.length];
+                        }
+                        mRealText[row][column] = cursor.getString(column);
+                    }
+                }
+                mRows[row++] = values;
+            }
+        }
+
+        int cellCount() {
+            // Count an empty result as one cell so it still takes up room.
+            return Math.max(1, mRows.length * mColumnNames.length);
+        }
+
+        Cursor newCursor() {
+            SnapshotCursor cursor = new SnapshotCursor(this);
+            for (Object[] row : mRows) {
+                cursor.addRow(row);
+            }
+            return cursor;
+        }
+
+        String getRealText(int row, int column) {
+            if (row < 0 || row >= mRows.length || mRealText[row] == null
+                    || column < 0 || column >= mColumnNames.length) {
+                return null;
+            }
+            return mRealText[row][column];
+        }
+
+        @TargetApi(Build.VERSION_CODES.HONEYCOMB)
+        private static Object readValue(Cursor cursor, int column) {
+            if (Build.VERSION.SDK_INT < Build.VERSION_CODES.HONEYCOMB) {
+                // No getType() yet; MatrixCursor converts strings back for the numeric getters.
+                return cursor.getString(column);
+            }
+            switch (cursor.getType(column)) {
+                case Cursor.FIELD_TYPE_INTEGER:
+                    return cursor.getLong(column);
+                case Cursor.FIELD_TYPE_FLOAT:
+                    return cursor.getDouble(column);
+                case Cursor.FIELD_TYPE_BLOB:
+                    return cursor.getBlob(column);
+                case Cursor.FIELD_TYPE_NULL:
+                    return null;
+                default:
+                    return cursor.getString(column);
+            }
+        }
+    }
+
+    /**
+     * A {@link MatrixCursor} over a snapshot that reads REAL cells back as text the same way a
+     * database cursor would.
+     */
+    private static class SnapshotCursor extends MatrixCursor {
+        private final Snapshot mSnapshot;
+
+        SnapshotCursor(Snapshot snapshot) {
+            super(snapshot.mColumnNames, snapshot.mRows.length);
+            mSnapshot = snapshot;
+        }
+
+        @Override
+        public String getString(int column) {
+            String text = mSnapshot.getRealText(getPosition(), column);
+            return text != null ? text : super.getString(column);
+        }
+    }
+}
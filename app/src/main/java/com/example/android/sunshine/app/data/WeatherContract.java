@@ -19,7 +19,8 @@ import android.content.ContentResolver;
 import android.content.ContentUris;
 import android.net.Uri;
 import android.provider.BaseColumns;
-import android.text.format.Time;
+
+import java.util.TimeZone;
 
 /**
  * Defines table and column names for the weather database.
@@ -44,14 +45,125 @@ public class WeatherContract {
     public static final String PATH_WEATHER = "weather";
     public static final String PATH_LOCATION = "location";
 
+    // Provider methods for ContentResolver.call() (API 11+).
+    // Returns the provider's running totals under the STATS_* keys, cache counters included.
+    public static final String METHOD_GET_WRITE_STATS = "get_write_stats";
+    // Between these two, change notifications are held back and each changed URI is notified
+    // once at the end.  Batches may nest; every begin needs a matching end.
+    public static final String METHOD_BEGIN_NOTIFICATION_BATCH = "begin_notification_batch";
+    public static final String METHOD_END_NOTIFICATION_BATCH = "end_notification_batch";
+
+    // What bulkInsert and applyBatch have done with the weather rows they were given.
+    public static final String STATS_ROWS_INSERTED = "rows_inserted";
+    public static final String STATS_ROWS_UPDATED = "rows_updated";
+    public static final String STATS_ROWS_UNCHANGED = "rows_unchanged";
+    // Write transactions committed; each one is a journal sync.
+    public static final String STATS_TRANSACTIONS_COMMITTED = "transactions_committed";
+    // Change notifications sent, and ones folded into another for the same URI in a batch.
+    public static final String STATS_NOTIFICATIONS_SENT = "notifications_sent";
+    public static final String STATS_NOTIFICATIONS_SUPPRESSED = "notifications_suppressed";
+    // Per-location weather queries answered from the result cache, ones that had to go to the
+    // database, and cached results pushed out to make room.
+    public static final String STATS_QUERY_CACHE_HITS = "query_cache_hits";
+    public static final String STATS_QUERY_CACHE_MISSES = "query_cache_misses";
+    public static final String STATS_QUERY_CACHE_EVICTIONS = "query_cache_evictions";
+
+    private static final long DAY_IN_MILLIS = 1000L * 60 * 60 * 24;
+    // No time zone has two offset changes closer together than this.
+    private static final long HALF_DAY_IN_MILLIS = DAY_IN_MILLIS / 2;
+
+    // The time zone normalizeDate works in, and the local day its last call fell in.  Almost
+    // every call is for the same day as the one before, so that's answered with a couple of
+    // comparisons.  Both are replaced rather than changed, so they can be read without locking.
+    private static volatile TimeZone sTimeZone;
+    private static volatile LocalDay sLastDay;
+
     // To make it easy to query for the exact date, we normalize all dates that go into
-    // the database to the start of the the Julian day at UTC.
+    // the database to the start of the the Julian day in the device's time zone.
     public static long normalizeDate(long startDate) {
-        // normalize the start date to the beginning of the (UTC) day
-        Time time = new Time();
-        time.set(startDate);
-        int julianDay = Time.getJulianDay(startDate, time.gmtoff);
-        return time.setJulianDay(julianDay);
+        LocalDay day = sLastDay;
+        TimeZone zone = sTimeZone;
+        // A day worked out in a zone we've since dropped doesn't count.
+        if (day == null || day.mZone != zone
+                || startDate < day.mStart || startDate >= day.mEnd) {
+            if (zone == null) {
+                // getDefault() returns a copy, so keep it rather than asking on every miss.
+                zone = TimeZone.getDefault();
+                sTimeZone = zone;
+            }
+            long localMidnight = floorToDay(startDate + zone.getOffset(startDate));
+            day = new LocalDay(zone, startOfLocalDay(localMidnight, zone),
+                    startOfLocalDay(localMidnight + DAY_IN_MILLIS, zone));
+            sLastDay = day;
+        }
+        return day.mStart;
+    }
+
+    /**
+     * Forgets the time zone normalizeDate has been working in.  Call this when the device's
+     * time zone changes.
+     */
+    public static void onTimeZoneChanged() {
+        sTimeZone = null;
+        sLastDay = null;
+    }
+
+    private static long floorToDay(long time) {
+        long remainder = time % DAY_IN_MILLIS;
+        return remainder < 0 ? time - remainder - DAY_IN_MILLIS : time - remainder;
+    }
+
+    /**
+     * Returns the first instant whose local time in {@code zone} is on the day starting at
+     * {@code localMidnight}, which is midnight itself unless a clock change skips or repeats it.
+     */
+    private static long startOfLocalDay(long localMidnight, TimeZone zone) {
+        // Midnight as it would be with the offsets in force half a day either side of it.  A
+        // candidate only counts if the offset at that instant is the one it was worked out with.
+        int earlierOffset = zone.getOffset(localMidnight - HALF_DAY_IN_MILLIS);
+        int laterOffset = zone.getOffset(localMidnight + HALF_DAY_IN_MILLIS);
+        long byEarlier = localMidnight - earlierOffset;
+        long byLater = localMidnight - laterOffset;
+        boolean earlierValid = zone.getOffset(byEarlier) == earlierOffset;
+        boolean laterValid = zone.getOffset(byLater) == laterOffset;
+        if (earlierValid && laterValid) {
+            // The clocks went back over midnight, so it happened twice; the day starts at the
+            // first one.
+            return Math.min(byEarlier, byLater);
+        } else if (earlierValid) {
+            return byEarlier;
+        } else if (laterValid) {
+            return byLater;
+        }
+
+        // The clocks went forward over midnight, so the day starts at the change itself, which
+        // lies between the two candidates.  Find it by bisection.
+        long low = Math.min(byEarlier, byLater);
+        long high = Math.max(byEarlier, byLater);
+        while (high - low > 1) {
+            long middle = low + (high - low) / 2;
+            if (zone.getOffset(middle) == earlierOffset) {
+                low = middle;
+            } else {
+                high = middle;
+            }
+        }
+        return high;
+    }
+
+    /**
+     * A local day in {@code mZone} as the instants [mStart, mEnd).
+     */
+    private static class LocalDay {
+        final TimeZone mZone;
+        final long mStart;
+        final long mEnd;
+
+        LocalDay(TimeZone zone, long start, long end) {
+            mZone = zone;
+            mStart = start;
+            mEnd = end;
+        }
     }
 
     /* Inner class that defines the table contents of the location table */
@@ -81,9 +193,26 @@ public class WeatherContract {
         public static final String COLUMN_COORD_LAT = "coord_lat";
         public static final String COLUMN_COORD_LONG = "coord_long";
 
+        // Set on an insert URI to get back the row already stored for the location setting,
+        // left as it is, instead of failing on the UNIQUE constraint.
+        private static final String QUERY_PARAM_LOOKUP_EXISTING = "lookup_existing";
+
         public static Uri buildLocationUri(long id) {
             return ContentUris.withAppendedId(CONTENT_URI, id);
         }
+
+        /**
+         * Returns the URI to insert a location at if it may already be stored, e.g. in a batch
+         * whose weather rows back-reference the location's _ID.
+         */
+        public static Uri buildInsertOrLookupUri() {
+            return CONTENT_URI.buildUpon()
+                    .appendQueryParameter(QUERY_PARAM_LOOKUP_EXISTING, "1").build();
+        }
+
+        public static boolean isInsertOrLookupUri(Uri uri) {
+            return uri.getQueryParameter(QUERY_PARAM_LOOKUP_EXISTING) != null;
+        }
     }
 
     /* Inner class that defines the table contents of the weather table */
@@ -99,6 +228,9 @@ public class WeatherContract {
 
         public static final String TABLE_NAME = "weather";
 
+        // Index on (location_id, date), used by every per-location query.
+        public static final String INDEX_LOCATION_DATE = "weather_location_date";
+
         // Column with the foreign key into the location table.
         public static final String COLUMN_LOC_KEY = "location_id";
         // Date, stored as long in milliseconds since the epoch
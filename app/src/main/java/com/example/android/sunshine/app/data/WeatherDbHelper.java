@@ -15,9 +15,12 @@
  */
 package com.example.android.sunshine.app.data;
 
+import android.annotation.TargetApi;
 import android.content.Context;
+import android.database.Cursor;
 import android.database.sqlite.SQLiteDatabase;
 import android.database.sqlite.SQLiteOpenHelper;
+import android.os.Build;
 
 import com.example.android.sunshine.app.data.WeatherContract.LocationEntry;
 import com.example.android.sunshine.app.data.WeatherContract.WeatherEntry;
@@ -28,27 +31,87 @@ import com.example.android.sunshine.app.data.WeatherContract.WeatherEntry;
 public class WeatherDbHelper extends SQLiteOpenHelper {
 
     // If you change the database schema, you must increment the database version.
-    private static final int DATABASE_VERSION = 2;
+    private static final int DATABASE_VERSION = 3;
 
     static final String DATABASE_NAME = "weather.db";
 
+    // How many pages the write-ahead log may grow to before a commit copies it back into the
+    // database.  Android opens connections with config_sqliteWalAutoCheckpoint (100 pages on
+    // most builds) rather than SQLite's 1000; going back to 1000 means a sync triggers fewer,
+    // larger checkpoints.  It doesn't move them: whichever commit takes the log past the
+    // threshold still checkpoints, in the middle of a sync or not.
+    static final int DEFAULT_WAL_AUTOCHECKPOINT_PAGES = 1000;
+
+    private final boolean mWriteAheadLogging;
+    private final int mWalAutoCheckpointPages;
+
     public WeatherDbHelper(Context context) {
+        this(context, true, DEFAULT_WAL_AUTOCHECKPOINT_PAGES);
+    }
+
+    /**
+     * For tests, which compare the journal modes.  The app always uses the public constructor.
+     *
+     * @param writeAheadLogging whether to use write-ahead logging where the platform has it
+     *                          (API 11+), so queries can run while a sync is writing
+     * @param walAutoCheckpointPages log size, in pages, at which to checkpoint
+     */
+    WeatherDbHelper(Context context, boolean writeAheadLogging, int walAutoCheckpointPages) {
         super(context, DATABASE_NAME, null, DATABASE_VERSION);
+        mWriteAheadLogging = writeAheadLogging
+                && Build.VERSION.SDK_INT >= Build.VERSION_CODES.HONEYCOMB;
+        mWalAutoCheckpointPages = walAutoCheckpointPages;
+        if (Build.VERSION.SDK_INT >= Build.VERSION_CODES.JELLY_BEAN) {
+            // Also gives the database a pool of read-only connections, so each reading thread
+            // gets its own instead of queueing behind the writer's.
+            setWriteAheadLoggingEnabled(mWriteAheadLogging);
+        }
+    }
+
+    boolean isWriteAheadLoggingEnabled() {
+        return mWriteAheadLogging;
+    }
+
+    @Override
+    @TargetApi(Build.VERSION_CODES.HONEYCOMB)
+    public void onOpen(SQLiteDatabase db) {
+        super.onOpen(db);
+        if (!mWriteAheadLogging) {
+            return;
+        }
+        if (Build.VERSION.SDK_INT < Build.VERSION_CODES.JELLY_BEAN && !db.isReadOnly()) {
+            db.enableWriteAheadLogging();
+        }
+        // PRAGMAs that return a row have to go through rawQuery.
+        Cursor cursor = db.rawQuery("PRAGMA wal_autocheckpoint=" + mWalAutoCheckpointPages, null);
+        try {
+            cursor.moveToFirst();
+        } finally {
+            cursor.close();
+        }
     }
 
     @Override
     public void onCreate(SQLiteDatabase sqLiteDatabase) {
+        sqLiteDatabase.execSQL(createLocationTableSql(LocationEntry.TABLE_NAME));
+        sqLiteDatabase.execSQL(createWeatherTableSql(WeatherEntry.TABLE_NAME));
+        sqLiteDatabase.execSQL(createWeatherLocationDateIndexSql());
+    }
+
+    static String createLocationTableSql(String tableName) {
         // Create a table to hold locations.  A location consists of the string supplied in the
         // location setting, the city name, and the latitude and longitude
-        final String SQL_CREATE_LOCATION_TABLE = "CREATE TABLE " + LocationEntry.TABLE_NAME + " (" +
+        return "CREATE TABLE " + tableName + " (" +
                 LocationEntry._ID + " INTEGER PRIMARY KEY," +
                 LocationEntry.COLUMN_LOCATION_SETTING + " TEXT UNIQUE NOT NULL, " +
                 LocationEntry.COLUMN_CITY_NAME + " TEXT NOT NULL, " +
                 LocationEntry.COLUMN_COORD_LAT + " REAL NOT NULL, " +
                 LocationEntry.COLUMN_COORD_LONG + " REAL NOT NULL " +
                 " );";
+    }
 
-        final String SQL_CREATE_WEATHER_TABLE = "CREATE TABLE " + WeatherEntry.TABLE_NAME + " (" +
+    static String createWeatherTableSql(String tableName) {
+        return "CREATE TABLE " + tableName + " (" +
                 // Why AutoIncrement here, and not above?
                 // Unique keys will be auto-generated in either case.  But for weather
                 // forecasting, it's reasonable to assume the user will want information
@@ -78,21 +141,112 @@ public class WeatherDbHelper extends SQLiteOpenHelper {
                 // per location, it's created a UNIQUE constraint with REPLACE strategy
                 " UNIQUE (" + WeatherEntry.COLUMN_DATE + ", " +
                 WeatherEntry.COLUMN_LOC_KEY + ") ON CONFLICT REPLACE);";
+    }
+
+    static String createWeatherLocationDateIndexSql() {
+        // Every WeatherProvider query for a location finds the location by its setting (the
+        // UNIQUE constraint on the location table already indexes that) and then wants that
+        // location's days, usually from a given date onwards and in date order.  The
+        // UNIQUE (date, location_id) index leads with the wrong column for that, so without
+        // this one each of those queries scans the whole weather table.
+        return "CREATE INDEX " + WeatherEntry.INDEX_LOCATION_DATE + " ON " +
+                WeatherEntry.TABLE_NAME + " (" +
+                WeatherEntry.COLUMN_LOC_KEY + ", " + WeatherEntry.COLUMN_DATE + ");";
+    }
+
+    /**
+     * One step in the schema's history, taking a database at {@code mFromVersion} to the
+     * version after it.  Steps run in order inside the upgrade transaction.  A step that has to
+     * change a table in ways ALTER TABLE can't does it with {@link #rebuildTable}.
+     */
+    abstract static class Migration {
+        final int mFromVersion;
+
+        Migration(int fromVersion) {
+            mFromVersion = fromVersion;
+        }
+
+        abstract void migrate(SQLiteDatabase db);
+    }
+
+    /**
+     * Returns the name a table is built under by {@link #rebuildTable} before it takes the
+     * place of the original.
+     */
+    static String rebuiltTableName(String tableName) {
+        return tableName + "_rebuilt";
+    }
 
-        sqLiteDatabase.execSQL(SQL_CREATE_LOCATION_TABLE);
-        sqLiteDatabase.execSQL(SQL_CREATE_WEATHER_TABLE);
+    /**
+     * Changes a table in ways ALTER TABLE can't (constraints, column types, dropped columns)
+     * while keeping its rows: creates the new version of the table, copies {@code columns}
+     * across, drops the old one and renames the new one into its place.  Indexes go with the
+     * old table, so any the table should have are passed in {@code createIndexSql} and created
+     * again at the end.
+     *
+     * @param createRebuiltTableSql creates the new table under
+     *                              {@link #rebuiltTableName(String) rebuiltTableName(tableName)}
+     */
+    static void rebuildTable(SQLiteDatabase db, String tableName, String createRebuiltTableSql,
+                             String[] columns, String... createIndexSql) {
+        String rebuiltTableName = rebuiltTableName(tableName);
+        StringBuilder columnList = new StringBuilder();
+        for (int i = 0; i < columns.length; i++) {
+            if (i > 0) {
+                columnList.append(", ");
+            }
+            columnList.append(columns[i]);
+        }
+
+        // The new table is renamed into place rather than the old one renamed out of the way;
+        // newer SQLite releases rewrite other tables' references to a table when it's renamed.
+        db.execSQL("DROP TABLE IF EXISTS " + rebuiltTableName);
+        db.execSQL(createRebuiltTableSql);
+        db.execSQL("INSERT INTO " + rebuiltTableName + " (" + columnList + ") SELECT " +
+                columnList + " FROM " + tableName);
+        db.execSQL("DROP TABLE " + tableName);
+        db.execSQL("ALTER TABLE " + rebuiltTableName + " RENAME TO " + tableName);
+        for (String sql : createIndexSql) {
+            db.execSQL(sql);
+        }
     }
 
+    // The oldest version we still know how to migrate from.  Anything older is thrown away.
+    static final int OLDEST_MIGRATABLE_VERSION = 2;
+
+    // MIGRATIONS[i] goes from OLDEST_MIGRATABLE_VERSION + i to the version after it, so there
+    // has to be one entry for every DATABASE_VERSION bump since then.  Add new steps at the end.
+    static final Migration[] MIGRATIONS = {
+            // 2 -> 3: index weather by (location_id, date).
+            new Migration(2) {
+                @Override
+                void migrate(SQLiteDatabase db) {
+                    db.execSQL(createWeatherLocationDateIndexSql());
+                }
+            }
+    };
+
     @Override
     public void onUpgrade(SQLiteDatabase sqLiteDatabase, int oldVersion, int newVersion) {
-        // This database is only a cache for online data, so its upgrade policy is
-        // to simply to discard the data and start over
         // Note that this only fires if you change the version number for your database.
         // It does NOT depend on the version number for your application.
-        // If you want to update the schema without wiping data, commenting out the next 2 lines
-        // should be your top priority before modifying this method.
-        sqLiteDatabase.execSQL("DROP TABLE IF EXISTS " + LocationEntry.TABLE_NAME);
-        sqLiteDatabase.execSQL("DROP TABLE IF EXISTS " + WeatherEntry.TABLE_NAME);
-        onCreate(sqLiteDatabase);
+        if (oldVersion < OLDEST_MIGRATABLE_VERSION) {
+            // Too old to carry forward.  The database is only a cache for online data, so
+            // discard it and start over.
+            sqLiteDatabase.execSQL("DROP TABLE IF EXISTS " + LocationEntry.TABLE_NAME);
+            sqLiteDatabase.execSQL("DROP TABLE IF EXISTS " + WeatherEntry.TABLE_NAME);
+            onCreate(sqLiteDatabase);
+            return;
+        }
+        // SQLiteOpenHelper already runs this inside a transaction, so a failing step leaves
+        // the database at oldVersion.
+        for (int version = oldVersion; version < newVersion; version++) {
+            Migration migration = MIGRATIONS[version - OLDEST_MIGRATABLE_VERSION];
+            if (migration.mFromVersion != version) {
+                throw new IllegalStateException("Migration " + migration.mFromVersion +
+                        " is out of order, expected " + version);
+            }
+            migration.migrate(sqLiteDatabase);
+        }
     }
 }
@@ -16,26 +16,73 @@
 package com.example.android.sunshine.app.data;
 
 import android.annotation.TargetApi;
+import android.content.BroadcastReceiver;
 import android.content.ContentProvider;
+import android.content.ContentProviderOperation;
+import android.content.ContentProviderResult;
 import android.content.ContentValues;
+import android.content.Context;
+import android.content.Intent;
+import android.content.IntentFilter;
+import android.content.OperationApplicationException;
 import android.content.UriMatcher;
 import android.database.Cursor;
 import android.database.sqlite.SQLiteDatabase;
 import android.database.sqlite.SQLiteQueryBuilder;
 import android.net.Uri;
+import android.os.Build;
+import android.os.Bundle;
+import android.util.Log;
+import android.util.SparseBooleanArray;
+
+import com.example.android.sunshine.app.StartupTrace;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.LinkedHashSet;
 
 public class WeatherProvider extends ContentProvider {
 
+    private static final String LOG_TAG = WeatherProvider.class.getSimpleName();
+
     // The URI Matcher used by this content provider.
     private static final UriMatcher sUriMatcher = buildUriMatcher();
     private WeatherDbHelper mOpenHelper;
 
+    // Running totals of what bulkInsert did with the weather rows it was given.
+    private long mRowsInserted;
+    private long mRowsUpdated;
+    private long mRowsUnchanged;
+    // Write transactions committed, including single statements outside a transaction.
+    private long mTransactionsCommitted;
+
+    // Notifications held back while a batch is open, one per URI.
+    private final Object mNotificationLock = new Object();
+    private int mNotificationBatchDepth;
+    private final LinkedHashSet<Uri> mPendingNotifications = new LinkedHashSet<Uri>();
+    private long mNotificationsSent;
+    private long mNotificationsSuppressed;
+
+    // Room for about 30 two-week forecasts at the projections the app uses.
+    private static final int QUERY_CACHE_CELLS = 8 * 1024;
+    private final QueryResultCache mQueryCache = new QueryResultCache(QUERY_CACHE_CELLS);
+    // Locations written inside an applyBatch transaction; their cached results are dropped
+    // once it has committed, so a reader can't cache rows that are about to change.
+    private final Object mInvalidationLock = new Object();
+    private final HashSet<String> mPendingInvalidations = new HashSet<String>();
+    private boolean mPendingInvalidateAll;
+
+    // The weather rows of the applyBatch running on this thread that haven't been written yet.
+    private final ThreadLocal<WeatherBatch> mWeatherBatch = new ThreadLocal<WeatherBatch>();
+
     static final int WEATHER = 100;
     static final int WEATHER_WITH_LOCATION = 101;
     static final int WEATHER_WITH_LOCATION_AND_DATE = 102;
     static final int LOCATION = 300;
 
-    private static final SQLiteQueryBuilder sWeatherByLocationSettingQueryBuilder;
+    static final SQLiteQueryBuilder sWeatherByLocationSettingQueryBuilder;
 
     static{
         sWeatherByLocationSettingQueryBuilder = new SQLiteQueryBuilder();
@@ -52,18 +99,18 @@ public class WeatherProvider extends ContentProvider {
     }
 
     //location.location_setting = ?
-    private static final String sLocationSettingSelection =
+    static final String sLocationSettingSelection =
             WeatherContract.LocationEntry.TABLE_NAME+
                     "." + WeatherContract.LocationEntry.COLUMN_LOCATION_SETTING + " = ? ";
 
     //location.location_setting = ? AND date >= ?
-    private static final String sLocationSettingWithStartDateSelection =
+    static final String sLocationSettingWithStartDateSelection =
             WeatherContract.LocationEntry.TABLE_NAME+
                     "." + WeatherContract.LocationEntry.COLUMN_LOCATION_SETTING + " = ? AND " +
                     WeatherContract.WeatherEntry.COLUMN_DATE + " >= ? ";
 
     //location.location_setting = ? AND date = ?
-    private static final String sLocationSettingAndDaySelection =
+    static final String sLocationSettingAndDaySelection =
             WeatherContract.LocationEntry.TABLE_NAME +
                     "." + WeatherContract.LocationEntry.COLUMN_LOCATION_SETTING + " = ? AND " +
                     WeatherContract.WeatherEntry.COLUMN_DATE + " = ? ";
@@ -139,7 +186,17 @@ public class WeatherProvider extends ContentProvider {
      */
     @Override
     public boolean onCreate() {
+        StartupTrace.begin(StartupTrace.PROVIDER_CREATE);
         mOpenHelper = new WeatherDbHelper(getContext());
+        // The provider lives as long as the app's process, so this covers every caller of
+        // normalizeDate in it.
+        getContext().registerReceiver(new BroadcastReceiver() {
+            @Override
+            public void onReceive(Context context, Intent intent) {
+                WeatherContract.onTimeZoneChanged();
+            }
+        }, new IntentFilter(Intent.ACTION_TIMEZONE_CHANGED));
+        StartupTrace.end(StartupTrace.PROVIDER_CREATE);
         return true;
     }
 
@@ -172,6 +229,8 @@ public class WeatherProvider extends ContentProvider {
     @Override
     public Cursor query(Uri uri, String[] projection, String selection, String[] selectionArgs,
                         String sortOrder) {
+        // An assert in a batch must see the rows before it.
+        flushWeatherBatch();
         // Here's the switch statement that, given a URI, will determine what kind of request it is,
         // and query the database accordingly.
         Cursor retCursor;
@@ -179,12 +238,28 @@ public class WeatherProvider extends ContentProvider {
             // "weather/*/*"
             case WEATHER_WITH_LOCATION_AND_DATE:
             {
-                retCursor = getWeatherByLocationSettingAndDate(uri, projection, sortOrder);
+                String key = QueryResultCache.keyFor(uri, projection, sortOrder);
+                retCursor = mQueryCache.get(key);
+                if (retCursor == null) {
+                    long generation = mQueryCache.getGeneration();
+                    retCursor = mQueryCache.put(key,
+                            WeatherContract.WeatherEntry.getLocationSettingFromUri(uri),
+                            getWeatherByLocationSettingAndDate(uri, projection, sortOrder),
+                            generation);
+                }
                 break;
             }
             // "weather/*"
             case WEATHER_WITH_LOCATION: {
-                retCursor = getWeatherByLocationSetting(uri, projection, sortOrder);
+                String key = QueryResultCache.keyFor(uri, projection, sortOrder);
+                retCursor = mQueryCache.get(key);
+                if (retCursor == null) {
+                    long generation = mQueryCache.getGeneration();
+                    retCursor = mQueryCache.put(key,
+                            WeatherContract.WeatherEntry.getLocationSettingFromUri(uri),
+                            getWeatherByLocationSetting(uri, projection, sortOrder),
+                            generation);
+                }
                 break;
             }
             // "weather"
@@ -229,34 +304,88 @@ public class WeatherProvider extends ContentProvider {
         final SQLiteDatabase db = mOpenHelper.getWritableDatabase();
         final int match = sUriMatcher.match(uri);
         Uri returnUri;
+        boolean changed;
 
         switch (match) {
             case WEATHER: {
                 normalizeDate(values);
-                long _id = db.insert(WeatherContract.WeatherEntry.TABLE_NAME, null, values);
+                WeatherBatch batch = mWeatherBatch.get();
+                if (batch != null) {
+                    // Written with the batch's other weather rows; see applyBatch.
+                    batch.add(values);
+                    return WeatherContract.WeatherEntry.CONTENT_URI;
+                }
+                // Same diff as bulkInsert, so a day that's already stored as-is is left alone.
+                WeatherUpsert upsert = new WeatherUpsert(db);
+                long _id;
+                try {
+                    _id = upsert.applySingle(values);
+                } finally {
+                    upsert.close();
+                }
+                recordWriteStats(upsert);
                 if ( _id > 0 )
                     returnUri = WeatherContract.WeatherEntry.buildWeatherUri(_id);
                 else
                     throw new android.database.SQLException("Failed to insert row into " + uri);
+                changed = upsert.getInsertedCount() + upsert.getUpdatedCount() > 0;
+                if (changed) {
+                    invalidateLocations(db, Collections.singleton(
+                            values.getAsLong(WeatherContract.WeatherEntry.COLUMN_LOC_KEY)));
+                }
                 break;
             }
             case LOCATION: {
+                if (WeatherContract.LocationEntry.isInsertOrLookupUri(uri)) {
+                    long existingId = findLocation(db, values.getAsString(
+                            WeatherContract.LocationEntry.COLUMN_LOCATION_SETTING));
+                    if (existingId != -1) {
+                        return WeatherContract.LocationEntry.buildLocationUri(existingId);
+                    }
+                }
                 long _id = db.insert(WeatherContract.LocationEntry.TABLE_NAME, null, values);
                 if ( _id > 0 )
                     returnUri = WeatherContract.LocationEntry.buildLocationUri(_id);
                 else
                     throw new android.database.SQLException("Failed to insert row into " + uri);
+                // Nothing can be cached for a location with no weather yet, but an empty
+                // result for its setting may be.
+                invalidateSettings(db, Collections.singleton(
+                        values.getAsString(WeatherContract.LocationEntry.COLUMN_LOCATION_SETTING)));
+                changed = true;
                 break;
             }
             default:
                 throw new UnsupportedOperationException("Unknown uri: " + uri);
         }
-        getContext().getContentResolver().notifyChange(uri, null);
+        recordCommit(db);
+        if (changed) {
+            notifyChange(uri);
+        }
         return returnUri;
     }
 
+    /**
+     * Returns the _ID of the location stored for {@code locationSetting}, or -1 if there isn't
+     * one.
+     */
+    private static long findLocation(SQLiteDatabase db, String locationSetting) {
+        if (locationSetting == null) {
+            return -1;
+        }
+        Cursor cursor = db.query(WeatherContract.LocationEntry.TABLE_NAME,
+                new String[]{WeatherContract.LocationEntry._ID},
+                sLocationSettingSelection, new String[]{locationSetting}, null, null, null);
+        try {
+            return cursor.moveToFirst() ? cursor.getLong(0) : -1;
+        } finally {
+            cursor.close();
+        }
+    }
+
     @Override
     public int delete(Uri uri, String selection, String[] selectionArgs) {
+        flushWeatherBatch();
         final SQLiteDatabase db = mOpenHelper.getWritableDatabase();
         final int match = sUriMatcher.match(uri);
         int rowsDeleted;
@@ -274,9 +403,12 @@ public class WeatherProvider extends ContentProvider {
             default:
                 throw new UnsupportedOperationException("Unknown uri: " + uri);
         }
+        recordCommit(db);
         // Because a null deletes all rows
         if (rowsDeleted != 0) {
-            getContext().getContentResolver().notifyChange(uri, null);
+            // An arbitrary selection can touch any location.
+            invalidateSettings(db, null);
+            notifyChange(uri);
         }
         return rowsDeleted;
     }
@@ -292,6 +424,7 @@ public class WeatherProvider extends ContentProvider {
     @Override
     public int update(
             Uri uri, ContentValues values, String selection, String[] selectionArgs) {
+        flushWeatherBatch();
         final SQLiteDatabase db = mOpenHelper.getWritableDatabase();
         final int match = sUriMatcher.match(uri);
         int rowsUpdated;
@@ -309,39 +442,343 @@ public class WeatherProvider extends ContentProvider {
             default:
                 throw new UnsupportedOperationException("Unknown uri: " + uri);
         }
+        recordCommit(db);
         if (rowsUpdated != 0) {
-            getContext().getContentResolver().notifyChange(uri, null);
+            invalidateSettings(db, null);
+            notifyChange(uri);
         }
         return rowsUpdated;
     }
 
     @Override
     public int bulkInsert(Uri uri, ContentValues[] values) {
+        flushWeatherBatch();
         final SQLiteDatabase db = mOpenHelper.getWritableDatabase();
         final int match = sUriMatcher.match(uri);
         switch (match) {
             case WEATHER:
-                db.beginTransaction();
-                int returnCount = 0;
+                WeatherUpsert upsert = new WeatherUpsert(db);
+                beginWriteTransaction(db);
                 try {
                     for (ContentValues value : values) {
                         normalizeDate(value);
-                        long _id = db.insert(WeatherContract.WeatherEntry.TABLE_NAME, null, value);
-                        if (_id != -1) {
-                            returnCount++;
-                        }
                     }
+                    upsert.apply(values);
                     db.setTransactionSuccessful();
                 } finally {
                     db.endTransaction();
+                    upsert.close();
+                }
+                recordWriteStats(upsert);
+                recordCommit(db);
+                // Only rows that were added or actually changed count, so a sync that brings
+                // nothing new doesn't wake up every loader.
+                int returnCount = upsert.getInsertedCount() + upsert.getUpdatedCount();
+                if (returnCount > 0) {
+                    HashSet<Long> locationIds = new HashSet<Long>();
+                    for (ContentValues value : values) {
+                        locationIds.add(
+                                value.getAsLong(WeatherContract.WeatherEntry.COLUMN_LOC_KEY));
+                    }
+                    invalidateLocations(db, locationIds);
+                    notifyChange(uri);
                 }
-                getContext().getContentResolver().notifyChange(uri, null);
                 return returnCount;
             default:
                 return super.bulkInsert(uri, values);
         }
     }
 
+    /**
+     * Runs the whole batch in one transaction, so e.g. a location's new days and the trim of its
+     * old ones are committed together with a single journal sync, and observers hear about it
+     * once, after the commit.
+     *
+     * Weather inserts are held back and written together by one {@link WeatherUpsert}, the
+     * same grouped diff as bulkInsert, just before the next operation that isn't one or at the
+     * end.  Their results are counts rather than URIs: 1 if the row was added or changed and 0
+     * if it was already stored as it is.  So a weather row's _ID can't be back-referenced, but
+     * a location's can, e.g. one inserted at {@link
+     * WeatherContract.LocationEntry#buildInsertOrLookupUri()}.
+     */
+    @Override
+    public ContentProviderResult[] applyBatch(ArrayList<ContentProviderOperation> operations)
+            throws OperationApplicationException {
+        final SQLiteDatabase db = mOpenHelper.getWritableDatabase();
+        WeatherBatch outerBatch = mWeatherBatch.get();
+        WeatherBatch batch = new WeatherBatch(db);
+        beginNotificationBatch();
+        try {
+            beginWriteTransaction(db);
+            try {
+                mWeatherBatch.set(batch);
+                ContentProviderResult[] results = new ContentProviderResult[operations.size()];
+                for (int i = 0; i < results.length; i++) {
+                    batch.mOperationIndex = i;
+                    results[i] = operations.get(i).apply(this, results, i);
+                }
+                flushWeatherBatch();
+                if (batch.mUpsert != null) {
+                    recordWriteStats(batch.mUpsert);
+                }
+                for (int i = 0; i < batch.mWritten.size(); i++) {
+                    results[batch.mWritten.keyAt(i)] =
+                            new ContentProviderResult(batch.mWritten.valueAt(i) ? 1 : 0);
+                }
+                db.setTransactionSuccessful();
+                return results;
+            } finally {
+                mWeatherBatch.set(outerBatch);
+                batch.close();
+                db.endTransaction();
+                recordCommit(db);
+                if (!db.inTransaction()) {
+                    applyPendingInvalidations();
+                }
+            }
+        } finally {
+            endNotificationBatch();
+        }
+    }
+
+    /**
+     * Writes the weather rows the batch on this thread is holding back, if there is one.
+     */
+    private void flushWeatherBatch() {
+        WeatherBatch batch = mWeatherBatch.get();
+        if (batch == null || batch.mRows.isEmpty()) {
+            return;
+        }
+        ContentValues[] rows = batch.mRows.toArray(new ContentValues[batch.mRows.size()]);
+        boolean[] written = batch.getUpsert().apply(rows);
+        HashSet<Long> changedLocationIds = new HashSet<Long>();
+        for (int i = 0; i < rows.length; i++) {
+            batch.mWritten.put(batch.mOperationIndexes.get(i), written[i]);
+            if (written[i]) {
+                changedLocationIds.add(
+                        rows[i].getAsLong(WeatherContract.WeatherEntry.COLUMN_LOC_KEY));
+            }
+        }
+        batch.mRows.clear();
+        batch.mOperationIndexes.clear();
+        if (!changedLocationIds.isEmpty()) {
+            invalidateLocations(batch.mDb, changedLocationIds);
+            notifyChange(WeatherContract.WeatherEntry.CONTENT_URI);
+        }
+    }
+
+    /**
+     * Drops cached results for the locations with the given _IDs.
+     */
+    private void invalidateLocations(SQLiteDatabase db, Collection<Long> locationIds) {
+        if (locationIds.isEmpty()) {
+            return;
+        }
+        if (locationIds.contains(null)) {
+            invalidateSettings(db, null);
+            return;
+        }
+        StringBuilder selection = new StringBuilder(WeatherContract.LocationEntry._ID)
+                .append(" IN (");
+        String[] selectionArgs = new String[locationIds.size()];
+        int i = 0;
+        for (Long locationId : locationIds) {
+            selection.append(i == 0 ? "?" : ", ?");
+            selectionArgs[i++] = Long.toString(locationId);
+        }
+        selection.append(')');
+
+        HashSet<String> settings = new HashSet<String>();
+        Cursor cursor = db.query(WeatherContract.LocationEntry.TABLE_NAME,
+                new String[]{WeatherContract.LocationEntry.COLUMN_LOCATION_SETTING},
+                selection.toString(), selectionArgs, null, null, null);
+        try {
+            while (cursor.moveToNext()) {
+                settings.add(cursor.getString(0));
+            }
+        } finally {
+            cursor.close();
+        }
+        invalidateSettings(db, settings);
+    }
+
+    /**
+     * Drops cached results for the given location settings, or for every location if
+     * {@code settings} is null.  Inside a transaction this waits until it has committed.
+     */
+    private void invalidateSettings(SQLiteDatabase db, Collection<String> settings) {
+        if (db.inTransaction()) {
+            synchronized (mInvalidationLock) {
+                if (settings == null) {
+                    mPendingInvalidateAll = true;
+                } else {
+                    mPendingInvalidations.addAll(settings);
+                }
+            }
+        } else if (settings == null) {
+            mQueryCache.invalidateAll();
+        } else {
+            mQueryCache.invalidate(settings);
+        }
+    }
+
+    private void applyPendingInvalidations() {
+        HashSet<String> settings;
+        boolean all;
+        synchronized (mInvalidationLock) {
+            settings = new HashSet<String>(mPendingInvalidations);
+            all = mPendingInvalidateAll;
+            mPendingInvalidations.clear();
+            mPendingInvalidateAll = false;
+        }
+        if (all) {
+            mQueryCache.invalidateAll();
+        } else if (!settings.isEmpty()) {
+            mQueryCache.invalidate(settings);
+        }
+    }
+
+    /**
+     * Counts a finished write if it wasn't part of a larger transaction, i.e. if it was
+     * actually committed.  Each commit costs a journal sync.
+     */
+    private void recordCommit(SQLiteDatabase db) {
+        if (!db.inTransaction()) {
+            synchronized (this) {
+                mTransactionsCommitted++;
+            }
+        }
+    }
+
+    /**
+     * Starts a transaction that, with write-ahead logging on, doesn't stop other connections
+     * from reading while it runs.
+     */
+    @TargetApi(Build.VERSION_CODES.HONEYCOMB)
+    static void beginWriteTransaction(SQLiteDatabase db) {
+        if (Build.VERSION.SDK_INT >= Build.VERSION_CODES.HONEYCOMB) {
+            db.beginTransactionNonExclusive();
+        } else {
+            db.beginTransaction();
+        }
+    }
+
+    /**
+     * Tells observers about a change to {@code uri}, or holds on to it until the current
+     * notification batch ends.
+     */
+    private void notifyChange(Uri uri) {
+        synchronized (mNotificationLock) {
+            if (mNotificationBatchDepth > 0) {
+                if (!mPendingNotifications.add(uri)) {
+                    mNotificationsSuppressed++;
+                }
+                return;
+            }
+            mNotificationsSent++;
+        }
+        getContext().getContentResolver().notifyChange(uri, null);
+    }
+
+    private void beginNotificationBatch() {
+        synchronized (mNotificationLock) {
+            mNotificationBatchDepth++;
+        }
+    }
+
+    private void endNotificationBatch() {
+        ArrayList<Uri> pending;
+        synchronized (mNotificationLock) {
+            if (mNotificationBatchDepth == 0) {
+                Log.w(LOG_TAG, "Notification batch ended without being started");
+                return;
+            }
+            if (--mNotificationBatchDepth > 0) {
+                return;
+            }
+            pending = new ArrayList<Uri>(mPendingNotifications);
+            mPendingNotifications.clear();
+            mNotificationsSent += pending.size();
+        }
+        for (Uri uri : pending) {
+            getContext().getContentResolver().notifyChange(uri, null);
+        }
+    }
+
+    /**
+     * The weather rows an applyBatch is holding back, and what happened to the ones it has
+     * already written, by operation index.
+     */
+    private static class WeatherBatch {
+        final SQLiteDatabase mDb;
+        final ArrayList<ContentValues> mRows = new ArrayList<ContentValues>();
+        final ArrayList<Integer> mOperationIndexes = new ArrayList<Integer>();
+        final SparseBooleanArray mWritten = new SparseBooleanArray();
+        int mOperationIndex;
+        // Compiled the first time there's something to write, and shared by every flush.
+        WeatherUpsert mUpsert;
+
+        WeatherBatch(SQLiteDatabase db) {
+            mDb = db;
+        }
+
+        void add(ContentValues values) {
+            mRows.add(values);
+            mOperationIndexes.add(mOperationIndex);
+        }
+
+        WeatherUpsert getUpsert() {
+            if (mUpsert == null) {
+                mUpsert = new WeatherUpsert(mDb);
+            }
+            return mUpsert;
+        }
+
+        void close() {
+            if (mUpsert != null) {
+                mUpsert.close();
+            }
+        }
+    }
+
+    private synchronized void recordWriteStats(WeatherUpsert upsert) {
+        mRowsInserted += upsert.getInsertedCount();
+        mRowsUpdated += upsert.getUpdatedCount();
+        mRowsUnchanged += upsert.getUnchangedCount();
+    }
+
+    @Override
+    @TargetApi(11)
+    public Bundle call(String method, String arg, Bundle extras) {
+        if (WeatherContract.METHOD_GET_WRITE_STATS.equals(method)) {
+            Bundle stats = new Bundle();
+            synchronized (this) {
+                stats.putLong(WeatherContract.STATS_ROWS_INSERTED, mRowsInserted);
+                stats.putLong(WeatherContract.STATS_ROWS_UPDATED, mRowsUpdated);
+                stats.putLong(WeatherContract.STATS_ROWS_UNCHANGED, mRowsUnchanged);
+                stats.putLong(WeatherContract.STATS_TRANSACTIONS_COMMITTED,
+                        mTransactionsCommitted);
+            }
+            synchronized (mNotificationLock) {
+                stats.putLong(WeatherContract.STATS_NOTIFICATIONS_SENT, mNotificationsSent);
+                stats.putLong(WeatherContract.STATS_NOTIFICATIONS_SUPPRESSED,
+                        mNotificationsSuppressed);
+            }
+            stats.putLong(WeatherContract.STATS_QUERY_CACHE_HITS, mQueryCache.hitCount());
+            stats.putLong(WeatherContract.STATS_QUERY_CACHE_MISSES, mQueryCache.missCount());
+            stats.putLong(WeatherContract.STATS_QUERY_CACHE_EVICTIONS,
+                    mQueryCache.evictionCount());
+            return stats;
+        } else if (WeatherContract.METHOD_BEGIN_NOTIFICATION_BATCH.equals(method)) {
+            beginNotificationBatch();
+            return null;
+        } else if (WeatherContract.METHOD_END_NOTIFICATION_BATCH.equals(method)) {
+            endNotificationBatch();
+            return null;
+        }
+        return super.call(method, arg, extras);
+    }
+
     // You do not need to call this method. This is a method specifically to assist the testing
     // framework in running smoothly. You can read more at:
     // http://developer.android.com/reference/android/content/ContentProvider.html#shutdown()
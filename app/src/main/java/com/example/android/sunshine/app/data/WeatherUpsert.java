@@ -0,0 +1,327 @@
+/*
+ * Copyright (C) 2015 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.example.android.sunshine.app.data;
+
+import android.annotation.TargetApi;
+import android.content.ContentValues;
+import android.database.Cursor;
+import android.database.sqlite.SQLiteDatabase;
+import android.database.sqlite.SQLiteStatement;
+import android.os.Build;
+
+import com.example.android.sunshine.app.data.WeatherContract.WeatherEntry;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+
+/**
+ * Writes a batch of weather rows by comparing them with what is already stored for the same
+ * location and dates, so that a day whose forecast hasn't changed is left alone instead of
+ * being deleted and re-inserted by the table's ON CONFLICT REPLACE.  New days are inserted and
+ * changed days updated in place (keeping their _ID) through precompiled statements.
+ *
+ * The caller owns the transaction and must {@link #close()} the upsert when it is done.
+ */
+class WeatherUpsert {
+
+    // Every column of a weather row besides _ID, the location and the date, in binding order.
+    private static final String[] VALUE_COLUMNS = {
+            WeatherEntry.COLUMN_WEATHER_ID,
+            WeatherEntry.COLUMN_SHORT_DESC,
+            WeatherEntry.COLUMN_MIN_TEMP,
+            WeatherEntry.COLUMN_MAX_TEMP,
+            WeatherEntry.COLUMN_HUMIDITY,
+            WeatherEntry.COLUMN_PRESSURE,
+            WeatherEntry.COLUMN_WIND_SPEED,
+            WeatherEntry.COLUMN_DEGREES
+    };
+
+    // The only text column; everything else is numeric.
+    private static final int SHORT_DESC_INDEX = 1;
+
+    // Incoming rows need the location and date on top of the value columns to be diffed.
+    private static final int FULL_ROW_SIZE = VALUE_COLUMNS.length + 2;
+
+    private static final String SQL_INSERT;
+    private static final String SQL_UPDATE;
+    private static final String SQL_SELECT_EXISTING;
+
+    static {
+        StringBuilder columns = new StringBuilder();
+        StringBuilder placeholders = new StringBuilder();
+        StringBuilder assignments = new StringBuilder();
+        for (int i = 0; i < VALUE_COLUMNS.length; i++) {
+            if (i > 0) {
+                columns.append(", ");
+                placeholders.append(", ");
+                assignments.append(", ");
+            }
+            columns.append(VALUE_COLUMNS[i]);
+            placeholders.append('?');
+            assignments.append(VALUE_COLUMNS[i]).append(" = ?");
+        }
+
+        SQL_INSERT = "INSERT INTO " + WeatherEntry.TABLE_NAME + " (" +
+                WeatherEntry.COLUMN_LOC_KEY + ", " + WeatherEntry.COLUMN_DATE + ", " + columns +
+                ") VALUES (?, ?, " + placeholders + ")";
+        SQL_UPDATE = "UPDATE " + WeatherEntry.TABLE_NAME + " SET " + assignments +
+                " WHERE " + WeatherEntry._ID + " = ?";
+        SQL_SELECT_EXISTING = "SELECT " + WeatherEntry._ID + ", " + WeatherEntry.COLUMN_DATE +
+                ", " + columns + " FROM " + WeatherEntry.TABLE_NAME +
+                " WHERE " + WeatherEntry.COLUMN_LOC_KEY + " = ? AND " +
+                WeatherEntry.COLUMN_DATE + " BETWEEN ? AND ?";
+    }
+
+    // Column positions in SQL_SELECT_EXISTING.
+    private static final int EXISTING_ID = 0;
+    private static final int EXISTING_DATE = 1;
+    private static final int EXISTING_FIRST_VALUE = 2;
+
+    private final SQLiteDatabase mDb;
+    private final SQLiteStatement mInsert;
+    private final SQLiteStatement mUpdate;
+
+    private int mInsertedCount;
+    private int mUpdatedCount;
+    private int mUnchangedCount;
+
+    WeatherUpsert(SQLiteDatabase db) {
+        mDb = db;
+        mInsert = db.compileStatement(SQL_INSERT);
+        mUpdate = db.compileStatement(SQL_UPDATE);
+    }
+
+    /**
+     * Writes {@code values}, whose dates must already be normalized, and returns for each row
+     * whether it was inserted or changed, as opposed to already being stored as it is.
+     */
+    boolean[] apply(ContentValues[] values) {
+        boolean[] written = new boolean[values.length];
+        // Group the rows by location so each location's stored days are read only once.
+        LinkedHashMap<Long, ArrayList<Integer>> rowsByLocation =
+                new LinkedHashMap<Long, ArrayList<Integer>>();
+        for (int i = 0; i < values.length; i++) {
+            ContentValues value = values[i];
+            if (!isFullRow(value)) {
+                // Not something we know how to diff; write it the way a plain insert would.
+                if (mDb.insert(WeatherEntry.TABLE_NAME, null, value) != -1) {
+                    mInsertedCount++;
+                    written[i] = true;
+                }
+                continue;
+            }
+            Long locationId = value.getAsLong(WeatherEntry.COLUMN_LOC_KEY);
+            ArrayList<Integer> rows = rowsByLocation.get(locationId);
+            if (rows == null) {
+                rows = new ArrayList<Integer>();
+                rowsByLocation.put(locationId, rows);
+            }
+            rows.add(i);
+        }
+
+        for (Long locationId : rowsByLocation.keySet()) {
+            ArrayList<Integer> indexes = rowsByLocation.get(locationId);
+            ArrayList<ContentValues> rows = new ArrayList<ContentValues>(indexes.size());
+            for (int index : indexes) {
+                rows.add(values[index]);
+            }
+            boolean[] rowsWritten = new boolean[rows.size()];
+            applyForLocation(locationId, rows, rowsWritten);
+            for (int i = 0; i < rowsWritten.length; i++) {
+                written[indexes.get(i)] = rowsWritten[i];
+            }
+        }
+        return written;
+    }
+
+    /**
+     * Writes a single row, whose date must already be normalized, and returns its _ID, or -1
+     * if it couldn't be written.
+     */
+    long applySingle(ContentValues value) {
+        if (!isFullRow(value)) {
+            long id = mDb.insert(WeatherEntry.TABLE_NAME, null, value);
+            if (id != -1) {
+                mInsertedCount++;
+            }
+            return id;
+        }
+        ArrayList<ContentValues> rows = new ArrayList<ContentValues>(1);
+        rows.add(value);
+        StoredDay day = applyForLocation(value.getAsLong(WeatherEntry.COLUMN_LOC_KEY), rows,
+                new boolean[1]).get(value.getAsLong(WeatherEntry.COLUMN_DATE));
+        return day == null ? -1 : day.mId;
+    }
+
+    /**
+     * Returns the location's days in the range of {@code rows}, by date, as they are now, and
+     * sets {@code written} for each row that was inserted or changed.
+     */
+    private HashMap<Long, StoredDay> applyForLocation(long locationId,
+                                                      ArrayList<ContentValues> rows,
+                                                      boolean[] written) {
+        long firstDate = Long.MAX_VALUE;
+        long lastDate = Long.MIN_VALUE;
+        for (ContentValues row : rows) {
+            long date = row.getAsLong(WeatherEntry.COLUMN_DATE);
+            firstDate = Math.min(firstDate, date);
+            lastDate = Math.max(lastDate, date);
+        }
+
+        HashMap<Long, StoredDay> stored = new HashMap<Long, StoredDay>();
+        Cursor cursor = mDb.rawQuery(SQL_SELECT_EXISTING, new String[]{
+                Long.toString(locationId), Long.toString(firstDate), Long.toString(lastDate)});
+        try {
+            while (cursor.moveToNext()) {
+                stored.put(cursor.getLong(EXISTING_DATE), new StoredDay(cursor));
+            }
+        } finally {
+            cursor.close();
+        }
+
+        for (int i = 0; i < rows.size(); i++) {
+            ContentValues row = rows.get(i);
+            long date = row.getAsLong(WeatherEntry.COLUMN_DATE);
+            StoredDay day = stored.get(date);
+            if (day == null) {
+                mInsert.clearBindings();
+                mInsert.bindLong(1, locationId);
+                mInsert.bindLong(2, date);
+                bindValues(mInsert, 3, row);
+                long id = mInsert.executeInsert();
+                if (id != -1) {
+                    mInsertedCount++;
+                    written[i] = true;
+                    // The same day may show up twice in one batch.
+                    stored.put(date, new StoredDay(id, row));
+                }
+            } else if (day.matches(row)) {
+                mUnchangedCount++;
+            } else {
+                mUpdate.clearBindings();
+                bindValues(mUpdate, 1, row);
+                mUpdate.bindLong(VALUE_COLUMNS.length + 1, day.mId);
+                executeUpdate(mUpdate);
+                mUpdatedCount++;
+                written[i] = true;
+                stored.put(date, new StoredDay(day.mId, row));
+            }
+        }
+        return stored;
+    }
+
+    int getInsertedCount() {
+        return mInsertedCount;
+    }
+
+    int getUpdatedCount() {
+        return mUpdatedCount;
+    }
+
+    int getUnchangedCount() {
+        return mUnchangedCount;
+    }
+
+    void close() {
+        mInsert.close();
+        mUpdate.close();
+    }
+
+    /**
+     * Returns true if {@code value} has exactly the columns of a weather row, with the types we
+     * expect, so it can be compared against and bound to the precompiled statements.
+     */
+    private static boolean isFullRow(ContentValues value) {
+        if (value.size() != FULL_ROW_SIZE
+                || !(value.get(WeatherEntry.COLUMN_LOC_KEY) instanceof Number)
+                || !(value.get(WeatherEntry.COLUMN_DATE) instanceof Number)) {
+            return false;
+        }
+        for (int i = 0; i < VALUE_COLUMNS.length; i++) {
+            Object column = value.get(VALUE_COLUMNS[i]);
+            if (i == SHORT_DESC_INDEX ? !(column instanceof String) : !(column instanceof Number)) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    private static void bindValues(SQLiteStatement statement, int firstIndex, ContentValues row) {
+        for (int i = 0; i < VALUE_COLUMNS.length; i++) {
+            Object column = row.get(VALUE_COLUMNS[i]);
+            if (i == SHORT_DESC_INDEX) {
+                statement.bindString(firstIndex + i, (String) column);
+            } else if (column instanceof Integer || column instanceof Long) {
+                statement.bindLong(firstIndex + i, ((Number) column).longValue());
+            } else {
+                statement.bindDouble(firstIndex + i, ((Number) column).doubleValue());
+            }
+        }
+    }
+
+    @TargetApi(Build.VERSION_CODES.HONEYCOMB)
+    private static void executeUpdate(SQLiteStatement statement) {
+        if (Build.VERSION.SDK_INT >= Build.VERSION_CODES.HONEYCOMB) {
+            statement.executeUpdateDelete();
+        } else {
+            statement.execute();
+        }
+    }
+
+    /**
+     * The parts of a stored day that a new forecast can change.
+     */
+    private static class StoredDay {
+        final long mId;
+        final String mShortDesc;
+        // VALUE_COLUMNS order, with the short description's slot unused.
+        final double[] mNumbers = new double[VALUE_COLUMNS.length];
+
+        StoredDay(Cursor cursor) {
+            mId = cursor.getLong(EXISTING_ID);
+            mShortDesc = cursor.getString(EXISTING_FIRST_VALUE + SHORT_DESC_INDEX);
+            for (int i = 0; i < VALUE_COLUMNS.length; i++) {
+                if (i != SHORT_DESC_INDEX) {
+                    mNumbers[i] = cursor.getDouble(EXISTING_FIRST_VALUE + i);
+                }
+            }
+        }
+
+        StoredDay(long id, ContentValues row) {
+            mId = id;
+            mShortDesc = row.getAsString(WeatherEntry.COLUMN_SHORT_DESC);
+            for (int i = 0; i < VALUE_COLUMNS.length; i++) {
+                if (i != SHORT_DESC_INDEX) {
+                    mNumbers[i] = ((Number) row.get(VALUE_COLUMNS[i])).doubleValue();
+                }
+            }
+        }
+
+        boolean matches(ContentValues row) {
+            if (!mShortDesc.equals(row.getAsString(WeatherEntry.COLUMN_SHORT_DESC))) {
+                return false;
+            }
+            for (int i = 0; i < VALUE_COLUMNS.length; i++) {
+                if (i != SHORT_DESC_INDEX && Double.compare(mNumbers[i],
+                        ((Number) row.get(VALUE_COLUMNS[i])).doubleValue()) != 0) {
+                    return false;
+                }
+            }
+            return true;
+        }
+    }
+}
@@ -0,0 +1,242 @@
+/*
+ * Copyright (C) 2015 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.example.android.sunshine.app.net;
+
+import java.io.Closeable;
+import java.io.FilterInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.net.HttpURLConnection;
+import java.net.URL;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.zip.GZIPInputStream;
+
+/**
+ * The one place the app talks HTTP.  Every request asks for gzip and decompresses it as it is
+ * read, and connections are handed back to the platform's keep-alive pool instead of being torn
+ * down, so back to back requests to the same host skip the TCP (and TLS) handshake.
+ *
+ * For a connection to go back in the pool its body has to be read to the end and closed, which
+ * {@link Response#close()} takes care of.  Use {@link Response#abort()} to give up on a request
+ * without reading the rest of it.
+ */
+public class HttpFetcher {
+
+    public static final int DEFAULT_CONNECT_TIMEOUT_MILLIS = 15 * 1000;
+    public static final int DEFAULT_READ_TIMEOUT_MILLIS = 20 * 1000;
+
+    // Bodies longer than this aren't worth draining just to keep a connection around.
+    private static final int MAX_DRAIN_BYTES = 64 * 1024;
+
+    private static HttpFetcher sInstance;
+
+    private final int mConnectTimeoutMillis;
+    private final int mReadTimeoutMillis;
+
+    private final AtomicLong mRequestCount = new AtomicLong();
+    private final AtomicLong mBytesReceived = new AtomicLong();
+    private final AtomicLong mBytesDecoded = new AtomicLong();
+    private final AtomicLong mLatencyNanos = new AtomicLong();
+
+    /**
+     * Returns the fetcher shared by the sync adapter, Glide and everything else.
+     */
+    public static synchronized HttpFetcher getInstance() {
+        if (sInstance == null) {
+            sInstance = new HttpFetcher(DEFAULT_CONNECT_TIMEOUT_MILLIS,
+                    DEFAULT_READ_TIMEOUT_MILLIS);
+        }
+        return sInstance;
+    }
+
+    public HttpFetcher(int connectTimeoutMillis, int readTimeoutMillis) {
+        mConnectTimeoutMillis = connectTimeoutMillis;
+        mReadTimeoutMillis = readTimeoutMillis;
+    }
+
+    /**
+     * Sends a GET for {@code url} and waits for the response headers.
+     *
+     * @param requestHeaders extra headers to send, may be null
+     */
+    public Response get(URL url, Map<String, String> requestHeaders) throws IOException {
+        HttpURLConnection urlConnection = (HttpURLConnection) url.openConnection();
+        urlConnection.setRequestMethod("GET");
+        urlConnection.setConnectTimeout(mConnectTimeoutMillis);
+        urlConnection.setReadTimeout(mReadTimeoutMillis);
+        // Asking for gzip ourselves turns off the platform's transparent decompression, which
+        // is what lets us count the bytes that actually came over the air.
+        urlConnection.setRequestProperty("Accept-Encoding", "gzip");
+        if (requestHeaders != null) {
+            for (Map.Entry<String, String> header : requestHeaders.entrySet()) {
+                urlConnection.setRequestProperty(header.getKey(), header.getValue());
+            }
+        }
+
+        long start = System.nanoTime();
+        try {
+            urlConnection.connect();
+            // Blocks until the status line and headers are in.
+            urlConnection.getResponseCode();
+        } catch (IOException e) {
+            urlConnection.disconnect();
+            throw e;
+        }
+        mLatencyNanos.addAndGet(System.nanoTime() - start);
+        mRequestCount.incrementAndGet();
+        return new Response(urlConnection);
+    }
+
+    public long getRequestCount() {
+        return mRequestCount.get();
+    }
+
+    /**
+     * Body bytes read off the network, before decompression.
+     */
+    public long getBytesReceived() {
+        return mBytesReceived.get();
+    }
+
+    /**
+     * Body bytes handed to callers, after decompression.
+     */
+    public long getBytesDecoded() {
+        return mBytesDecoded.get();
+    }
+
+    /**
+     * Average time from starting a request to having its response headers.
+     */
+    public long getAverageLatencyMillis() {
+        long requests = mRequestCount.get();
+        return requests == 0 ? 0 : mLatencyNanos.get() / requests / 1000000;
+    }
+
+    public void resetStats() {
+        mRequestCount.set(0);
+        mBytesReceived.set(0);
+        mBytesDecoded.set(0);
+        mLatencyNanos.set(0);
+    }
+
+    /**
+     * A response whose headers have arrived.  Close it when done with the body.
+     */
+    public class Response implements Closeable {
+        private final HttpURLConnection mConnection;
+        private InputStream mBody;
+
+        Response(HttpURLConnection connection) {
+            mConnection = connection;
+        }
+
+        public int getCode() throws IOException {
+            return mConnection.getResponseCode();
+        }
+
+        public String getHeader(String name) {
+            return mConnection.getHeaderField(name);
+        }
+
+        /**
+         * Returns the decompressed body.  Like {@link HttpURLConnection#getInputStream()} this
+         * throws for error responses.
+         */
+        public InputStream getBody() throws IOException {
+            if (mBody == null) {
+                InputStream wire = new CountingInputStream(mConnection.getInputStream(),
+                        mBytesReceived);
+                if ("gzip".equalsIgnoreCase(mConnection.getContentEncoding())) {
+                    wire = new GZIPInputStream(wire);
+                }
+                mBody = new CountingInputStream(wire, mBytesDecoded);
+            }
+            return mBody;
+        }
+
+        /**
+         * Finishes off the body and releases the connection back to the pool.
+         */
+        @Override
+        public void close() throws IOException {
+            if (mBody == null) {
+                // Nobody read the body, e.g. a 304.  There's nothing to drain for those.
+                try {
+                    mBody = mConnection.getInputStream();
+                } catch (IOException e) {
+                    mConnection.disconnect();
+                    return;
+                }
+            }
+            try {
+                byte[] buffer = new byte[4096];
+                int drained = 0;
+                int read;
+                while (drained < MAX_DRAIN_BYTES && (read = mBody.read(buffer)) != -1) {
+                    drained += read;
+                }
+                if (drained >= MAX_DRAIN_BYTES) {
+                    mConnection.disconnect();
+                }
+            } finally {
+                mBody.close();
+            }
+        }
+
+        /**
+         * Drops the connection without reading the rest of the body.
+         */
+        public void abort() {
+            mConnection.disconnect();
+        }
+    }
+
+    private static class CountingInputStream extends FilterInputStream {
+        private final AtomicLong mCounter;
+
+        CountingInputStream(InputStream in, AtomicLong counter) {
+            super(in);
+            mCounter = counter;
+        }
+
+        @Override
+        public int read() throws IOException {
+            int b = super.read();
+            if (b != -1) {
+                mCounter.incrementAndGet();
+            }
+            return b;
+        }
+
+        @Override
+        public int read(byte[] buffer, int offset, int count) throws IOException {
+            int read = super.read(buffer, offset, count);
+            if (read > 0) {
+                mCounter.addAndGet(read);
+            }
+            return read;
+        }
+
+        @Override
+        public long skip(long byteCount) throws IOException {
+            long skipped = super.skip(byteCount);
+            mCounter.addAndGet(skipped);
+            return skipped;
+        }
+    }
+}
@@ -0,0 +1,117 @@
+/*
+ * Copyright (C) 2015 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.example.android.sunshine.app.net;
+
+import android.content.Context;
+
+import com.bumptech.glide.Glide;
+import com.bumptech.glide.GlideBuilder;
+import com.bumptech.glide.Priority;
+import com.bumptech.glide.load.data.DataFetcher;
+import com.bumptech.glide.load.model.GenericLoaderFactory;
+import com.bumptech.glide.load.model.GlideUrl;
+import com.bumptech.glide.load.model.ModelLoader;
+import com.bumptech.glide.load.model.ModelLoaderFactory;
+import com.bumptech.glide.load.model.stream.StreamModelLoader;
+import com.bumptech.glide.module.GlideModule;
+
+import java.io.IOException;
+import java.io.InputStream;
+
+/**
+ * Routes Glide's http(s) loads, i.e. the art pack images, through {@link HttpFetcher} so they
+ * share its connection pool, gzip handling and byte accounting with the forecast sync.
+ * Registered in the manifest.
+ */
+public class HttpFetcherGlideModule implements GlideModule {
+
+    @Override
+    public void applyOptions(Context context, GlideBuilder builder) {
+    }
+
+    @Override
+    public void registerComponents(Context context, Glide glide) {
+        glide.register(GlideUrl.class, InputStream.class, new UrlLoaderFactory());
+    }
+
+    private static class UrlLoaderFactory implements ModelLoaderFactory<GlideUrl, InputStream> {
+        @Override
+        public ModelLoader<GlideUrl, InputStream> build(Context context,
+                                                        GenericLoaderFactory factories) {
+            return new UrlLoader();
+        }
+
+        @Override
+        public void teardown() {
+        }
+    }
+
+    private static class UrlLoader implements StreamModelLoader<GlideUrl> {
+        @Override
+        public DataFetcher<InputStream> getResourceFetcher(GlideUrl model, int width, int height) {
+            return new UrlFetcher(model);
+        }
+    }
+
+    private static class UrlFetcher implements DataFetcher<InputStream> {
+        private final GlideUrl mUrl;
+        private volatile HttpFetcher.Response mResponse;
+        private volatile boolean mCancelled;
+
+        UrlFetcher(GlideUrl url) {
+            mUrl = url;
+        }
+
+        @Override
+        public InputStream loadData(Priority priority) throws Exception {
+            if (mCancelled) {
+                return null;
+            }
+            mResponse = HttpFetcher.getInstance().get(mUrl.toURL(), null);
+            int code = mResponse.getCode();
+            if (code / 100 != 2) {
+                throw new IOException("Request failed " + code + ": " + mUrl);
+            }
+            return mResponse.getBody();
+        }
+
+        @Override
+        public void cleanup() {
+            HttpFetcher.Response response = mResponse;
+            if (response != null) {
+                try {
+                    response.close();
+                } catch (IOException e) {
+                    response.abort();
+                }
+            }
+        }
+
+        @Override
+        public String getId() {
+            return mUrl.toString();
+        }
+
+        @Override
+        public void cancel() {
+            mCancelled = true;
+            HttpFetcher.Response response = mResponse;
+            if (response != null) {
+                response.abort();
+            }
+        }
+    }
+}
@@ -0,0 +1,151 @@
+/*
+ * Copyright (C) 2015 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.example.android.sunshine.app.sync;
+
+import android.content.Context;
+import android.content.SharedPreferences;
+
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Remembers the validators (ETag, Last-Modified) and a hash of the body of the last forecast
+ * response we stored for each request, so the next sync can ask the server whether anything
+ * changed and skip the database write when it didn't.
+ *
+ * Entries live in their own SharedPreferences file, keyed by the request URL, which already
+ * identifies the location query.
+ */
+public class ForecastHttpCache {
+
+    private static final String PREFS_NAME = "forecast_http_cache";
+
+    private static final String KEY_ETAG = ".etag";
+    private static final String KEY_LAST_MODIFIED = ".last_modified";
+    private static final String KEY_BODY_HASH = ".body_hash";
+
+    private static final String HASH_ALGORITHM = "MD5";
+
+    // Responses the server answered with 304 Not Modified.
+    private static final AtomicInteger sNotModifiedCount = new AtomicInteger();
+    // Full responses whose body was the same as the one we already had.
+    private static final AtomicInteger sUnchangedBodyCount = new AtomicInteger();
+    // Full responses with new data in them.
+    private static final AtomicInteger sMissCount = new AtomicInteger();
+
+    private final SharedPreferences mPrefs;
+
+    public ForecastHttpCache(Context context) {
+        mPrefs = context.getSharedPreferences(PREFS_NAME, Context.MODE_PRIVATE);
+    }
+
+    /**
+     * Adds If-None-Match / If-Modified-Since headers for whatever we know about {@code key}.
+     */
+    void addConditionalHeaders(String key, Map<String, String> requestHeaders) {
+        String etag = mPrefs.getString(key + KEY_ETAG, null);
+        if (etag != null) {
+            requestHeaders.put("If-None-Match", etag);
+        }
+        String lastModified = mPrefs.getString(key + KEY_LAST_MODIFIED, null);
+        if (lastModified != null) {
+            requestHeaders.put("If-Modified-Since", lastModified);
+        }
+    }
+
+    /**
+     * Returns true if {@code bodyHash} matches the body we last stored for {@code key}.
+     */
+    boolean isSameBody(String key, String bodyHash) {
+        return bodyHash != null && bodyHash.equals(mPrefs.getString(key + KEY_BODY_HASH, null));
+    }
+
+    /**
+     * Records the validators of a response once its data has made it into the database.
+     */
+    void put(String key, String etag, String lastModified, String bodyHash) {
+        mPrefs.edit()
+                .putString(key + KEY_ETAG, etag)
+                .putString(key + KEY_LAST_MODIFIED, lastModified)
+                .putString(key + KEY_BODY_HASH, bodyHash)
+                .apply();
+    }
+
+    /**
+     * Forgets everything, e.g. when the stored forecasts have been thrown away.
+     */
+    public void clear() {
+        mPrefs.edit().clear().apply();
+    }
+
+    static MessageDigest newBodyDigest() {
+        try {
+            return MessageDigest.getInstance(HASH_ALGORITHM);
+        } catch (NoSuchAlgorithmException e) {
+            // Every Android release ships MD5.
+            throw new IllegalStateException(e);
+        }
+    }
+
+    static String toHex(byte[] digest) {
+        StringBuilder hex = new StringBuilder(digest.length * 2);
+        for (byte b : digest) {
+            hex.append(Character.forDigit((b >> 4) & 0xf, 16))
+                    .append(Character.forDigit(b & 0xf, 16));
+        }
+        return hex.toString();
+    }
+
+    static void recordNotModified() {
+        sNotModifiedCount.incrementAndGet();
+    }
+
+    static void recordUnchangedBody() {
+        sUnchangedBodyCount.incrementAndGet();
+    }
+
+    static void recordMiss() {
+        sMissCount.incrementAndGet();
+    }
+
+    /**
+     * Number of fetches that didn't need a database write, either because the server said
+     * 304 Not Modified or because it sent back the body we already had.
+     */
+    public static int getHitCount() {
+        return sNotModifiedCount.get() + sUnchangedBodyCount.get();
+    }
+
+    public static int getNotModifiedCount() {
+        return sNotModifiedCount.get();
+    }
+
+    public static int getUnchangedBodyCount() {
+        return sUnchangedBodyCount.get();
+    }
+
+    public static int getMissCount() {
+        return sMissCount.get();
+    }
+
+    public static void resetStats() {
+        sNotModifiedCount.set(0);
+        sUnchangedBodyCount.set(0);
+        sMissCount.set(0);
+    }
+}
@@ -0,0 +1,305 @@
+/*
+ * Copyright (C) 2015 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.example.android.sunshine.app.sync;
+
+import android.annotation.TargetApi;
+import android.os.Build;
+import android.util.JsonReader;
+import android.util.JsonToken;
+import android.util.MalformedJsonException;
+
+import org.json.JSONArray;
+import org.json.JSONException;
+import org.json.JSONObject;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+
+/**
+ * Decodes the OpenWeatherMap daily forecast response and hands every piece of it to a
+ * {@link Handler} as soon as it has been read.
+ *
+ * There are two ways in.  {@link #parse(InputStream, Handler)} pulls tokens straight off the
+ * network stream with a {@link JsonReader}, so memory use doesn't grow with the size of the
+ * response and the first day is available while the rest of the bytes are still arriving.
+ * {@link #parse(String, Handler)} builds the whole {@link JSONObject} tree first; it is kept for
+ * devices that predate {@link JsonReader} (API 11) and as a baseline for benchmarks.
+ */
+public class ForecastJsonParser {
+
+    // Location information
+    static final String OWM_CITY = "city";
+    static final String OWM_CITY_NAME = "name";
+    static final String OWM_COORD = "coord";
+
+    // Location coordinate
+    static final String OWM_LATITUDE = "lat";
+    static final String OWM_LONGITUDE = "lon";
+
+    // Weather information.  Each day's forecast info is an element of the "list" array.
+    static final String OWM_LIST = "list";
+
+    static final String OWM_PRESSURE = "pressure";
+    static final String OWM_HUMIDITY = "humidity";
+    static final String OWM_WINDSPEED = "speed";
+    static final String OWM_WIND_DIRECTION = "deg";
+
+    // All temperatures are children of the "temp" object.
+    static final String OWM_TEMPERATURE = "temp";
+    static final String OWM_MAX = "max";
+    static final String OWM_MIN = "min";
+
+    static final String OWM_WEATHER = "weather";
+    static final String OWM_DESCRIPTION = "main";
+    static final String OWM_WEATHER_ID = "id";
+
+    static final String OWM_MESSAGE_CODE = "cod";
+
+    /**
+     * Receives the decoded parts of a forecast, in the order they appear in the response.
+     * OpenWeatherMap sends "city" ahead of "list", but handlers shouldn't rely on it.
+     */
+    public interface Handler {
+        /**
+         * Called with the value of the "cod" field, if the response has one.
+         */
+        void onMessageCode(int code);
+
+        void onCity(String cityName, double latitude, double longitude);
+
+        /**
+         * Called once per element of the "list" array.
+         *
+         * @param dayIndex position in the array; the first day is always the current day
+         */
+        void onDay(int dayIndex, double pressure, int humidity, double windSpeed,
+                   double windDirection, double high, double low, String description,
+                   int weatherId);
+    }
+
+    private ForecastJsonParser() {
+    }
+
+    /**
+     * Returns true if {@link #parse(InputStream, Handler)} can be used on this device.
+     */
+    public static boolean isStreamingSupported() {
+        return Build.VERSION.SDK_INT >= Build.VERSION_CODES.HONEYCOMB;
+    }
+
+    /**
+     * Streams the forecast from {@code in}, calling back into {@code handler} as each part is
+     * decoded.  The stream is not closed.
+     */
+    @TargetApi(Build.VERSION_CODES.HONEYCOMB)
+    public static void parse(InputStream in, Handler handler) throws IOException, JSONException {
+        JsonReader reader = new JsonReader(new InputStreamReader(in, "UTF-8"));
+        try {
+            reader.beginObject();
+            while (reader.hasNext()) {
+                String name = reader.nextName();
+                if (OWM_MESSAGE_CODE.equals(name)) {
+                    // OWM sends this as a string for some responses and a number for others;
+                    // nextInt() copes with both.
+                    handler.onMessageCode(reader.nextInt());
+                } else if (OWM_CITY.equals(name)) {
+                    readCity(reader, handler);
+                } else if (OWM_LIST.equals(name)) {
+                    readList(reader, handler);
+                } else {
+                    reader.skipValue();
+                }
+            }
+            reader.endObject();
+        } catch (MalformedJsonException | IllegalStateException | NumberFormatException e) {
+            // JsonReader reports bad syntax and unexpected tokens this way; surface them the
+            // same way the JSONObject path does so the caller can tell them apart from I/O
+            // errors.
+            throw new JSONException(e.getMessage());
+        }
+    }
+
+    @TargetApi(Build.VERSION_CODES.HONEYCOMB)
+    private static void readCity(JsonReader reader, Handler handler)
+            throws IOException, JSONException {
+        String cityName = null;
+        double latitude = Double.NaN;
+        double longitude = Double.NaN;
+
+        reader.beginObject();
+        while (reader.hasNext()) {
+            String name = reader.nextName();
+            if (OWM_CITY_NAME.equals(name)) {
+                cityName = reader.nextString();
+            } else if (OWM_COORD.equals(name)) {
+                reader.beginObject();
+                while (reader.hasNext()) {
+                    String coordName = reader.nextName();
+                    if (OWM_LATITUDE.equals(coordName)) {
+                        latitude = reader.nextDouble();
+                    } else if (OWM_LONGITUDE.equals(coordName)) {
+                        longitude = reader.nextDouble();
+                    } else {
+                        reader.skipValue();
+                    }
+                }
+                reader.endObject();
+            } else {
+                reader.skipValue();
+            }
+        }
+        reader.endObject();
+
+        if (cityName == null || Double.isNaN(latitude) || Double.isNaN(longitude)) {
+            throw new JSONException("Incomplete city in forecast response");
+        }
+        handler.onCity(cityName, latitude, longitude);
+    }
+
+    @TargetApi(Build.VERSION_CODES.HONEYCOMB)
+    private static void readList(JsonReader reader, Handler handler)
+            throws IOException, JSONException {
+        int dayIndex = 0;
+        reader.beginArray();
+        while (reader.hasNext()) {
+            readDay(reader, dayIndex++, handler);
+        }
+        reader.endArray();
+    }
+
+    @TargetApi(Build.VERSION_CODES.HONEYCOMB)
+    private static void readDay(JsonReader reader, int dayIndex, Handler handler)
+            throws IOException, JSONException {
+        double pressure = Double.NaN;
+        int humidity = 0;
+        boolean hasHumidity = false;
+        double windSpeed = Double.NaN;
+        double windDirection = Double.NaN;
+        double high = Double.NaN;
+        double low = Double.NaN;
+        String description = null;
+        int weatherId = 0;
+        boolean hasWeatherId = false;
+
+        reader.beginObject();
+        while (reader.hasNext()) {
+            String name = reader.nextName();
+            if (OWM_PRESSURE.equals(name)) {
+                pressure = reader.nextDouble();
+            } else if (OWM_HUMIDITY.equals(name)) {
+                // JSONObject.getInt() truncates fractional values, so match it here.
+                humidity = (int) reader.nextDouble();
+                hasHumidity = true;
+            } else if (OWM_WINDSPEED.equals(name)) {
+                windSpeed = reader.nextDouble();
+            } else if (OWM_WIND_DIRECTION.equals(name)) {
+                windDirection = reader.nextDouble();
+            } else if (OWM_TEMPERATURE.equals(name)) {
+                reader.beginObject();
+                while (reader.hasNext()) {
+                    String tempName = reader.nextName();
+                    if (OWM_MAX.equals(tempName)) {
+                        high = reader.nextDouble();
+                    } else if (OWM_MIN.equals(tempName)) {
+                        low = reader.nextDouble();
+                    } else {
+                        reader.skipValue();
+                    }
+                }
+                reader.endObject();
+            } else if (OWM_WEATHER.equals(name)) {
+                // Description is in a child array called "weather", which is 1 element long.
+                // That element also contains a weather code.
+                reader.beginArray();
+                if (reader.hasNext() && reader.peek() == JsonToken.BEGIN_OBJECT) {
+                    reader.beginObject();
+                    while (reader.hasNext()) {
+                        String weatherName = reader.nextName();
+                        if (OWM_DESCRIPTION.equals(weatherName)) {
+                            description = reader.nextString();
+                        } else if (OWM_WEATHER_ID.equals(weatherName)) {
+                            weatherId = reader.nextInt();
+                            hasWeatherId = true;
+                        } else {
+                            reader.skipValue();
+                        }
+                    }
+                    reader.endObject();
+                }
+                while (reader.hasNext()) {
+                    reader.skipValue();
+                }
+                reader.endArray();
+            } else {
+                reader.skipValue();
+            }
+        }
+        reader.endObject();
+
+        if (Double.isNaN(pressure) || !hasHumidity || Double.isNaN(windSpeed)
+                || Double.isNaN(windDirection) || Double.isNaN(high) || Double.isNaN(low)
+                || description == null || !hasWeatherId) {
+            throw new JSONException("Incomplete day " + dayIndex + " in forecast response");
+        }
+        handler.onDay(dayIndex, pressure, humidity, windSpeed, windDirection, high, low,
+                description, weatherId);
+    }
+
+    /**
+     * Parses a forecast that has already been read into memory by building the full
+     * {@link JSONObject} tree, then walks it calling back into {@code handler}.
+     */
+    public static void parse(String forecastJsonStr, Handler handler) throws JSONException {
+        JSONObject forecastJson = new JSONObject(forecastJsonStr);
+
+        if (forecastJson.has(OWM_MESSAGE_CODE)) {
+            handler.onMessageCode(forecastJson.getInt(OWM_MESSAGE_CODE));
+        }
+        if (!forecastJson.has(OWM_LIST)) {
+            // Error responses carry only a code and a message.
+            return;
+        }
+
+        JSONObject cityJson = forecastJson.getJSONObject(OWM_CITY);
+        JSONObject cityCoord = cityJson.getJSONObject(OWM_COORD);
+        handler.onCity(cityJson.getString(OWM_CITY_NAME),
+                cityCoord.getDouble(OWM_LATITUDE),
+                cityCoord.getDouble(OWM_LONGITUDE));
+
+        JSONArray weatherArray = forecastJson.getJSONArray(OWM_LIST);
+        for (int i = 0; i < weatherArray.length(); i++) {
+            // Get the JSON object representing the day
+            JSONObject dayForecast = weatherArray.getJSONObject(i);
+
+            JSONObject weatherObject = dayForecast.getJSONArray(OWM_WEATHER).getJSONObject(0);
+
+            // Temperatures are in a child object called "temp".  Try not to name variables
+            // "temp" when working with temperature.  It confuses everybody.
+            JSONObject temperatureObject = dayForecast.getJSONObject(OWM_TEMPERATURE);
+
+            handler.onDay(i,
+                    dayForecast.getDouble(OWM_PRESSURE),
+                    dayForecast.getInt(OWM_HUMIDITY),
+                    dayForecast.getDouble(OWM_WINDSPEED),
+                    dayForecast.getDouble(OWM_WIND_DIRECTION),
+                    temperatureObject.getDouble(OWM_MAX),
+                    temperatureObject.getDouble(OWM_MIN),
+                    weatherObject.getString(OWM_DESCRIPTION),
+                    weatherObject.getInt(OWM_WEATHER_ID));
+        }
+    }
+}
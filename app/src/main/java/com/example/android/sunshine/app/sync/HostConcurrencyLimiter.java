@@ -0,0 +1,53 @@
+/*
+ * Copyright (C) 2015 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.example.android.sunshine.app.sync;
+
+import java.util.HashMap;
+import java.util.concurrent.Semaphore;
+
+/**
+ * Caps how many requests may be in flight to any one host at a time, however many worker
+ * threads are fetching.  Every {@link #acquire(String)} must be paired with a
+ * {@link #release(String)} for the same host.
+ */
+class HostConcurrencyLimiter {
+    private final int mPermitsPerHost;
+    private final HashMap<String, Semaphore> mHostPermits = new HashMap<String, Semaphore>();
+
+    HostConcurrencyLimiter(int permitsPerHost) {
+        mPermitsPerHost = permitsPerHost;
+    }
+
+    /**
+     * Blocks until a request to {@code host} is allowed to start.
+     */
+    void acquire(String host) throws InterruptedException {
+        permitsFor(host).acquire();
+    }
+
+    void release(String host) {
+        permitsFor(host).release();
+    }
+
+    private synchronized Semaphore permitsFor(String host) {
+        Semaphore permits = mHostPermits.get(host);
+        if (permits == null) {
+            permits = new Semaphore(mPermitsPerHost, true);
+            mHostPermits.put(host, permits);
+        }
+        return permits;
+    }
+}
@@ -0,0 +1,190 @@
+/*
+ * Copyright (C) 2015 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.example.android.sunshine.app.sync;
+
+import android.os.Process;
+import android.os.SystemClock;
+import android.util.Log;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Locale;
+import java.util.concurrent.ScheduledThreadPoolExecutor;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Tells everything that shows the weather (the widgets, Muzei, the notification and the watch)
+ * that a sync changed it, each on its own thread from a small pool so a slow one doesn't hold
+ * up the others or the sync.
+ *
+ * Each consumer runs a short while after it's asked to, and however many times it was asked in
+ * the meantime it runs once, since it reads the latest forecast itself.  Asking again while it's
+ * running has it run once more afterwards.  A consumer that keeps being asked still runs within
+ * the maximum delay of the first request.
+ *
+ * How long each consumer takes, and how long after the sync it finishes, goes to the log.
+ */
+class PostSyncDispatcher {
+    private static final String LOG_TAG = PostSyncDispatcher.class.getSimpleName();
+
+    private final long mDebounceMillis;
+    private final long mMaxDelayMillis;
+    private final ScheduledThreadPoolExecutor mExecutor;
+    private final List<Consumer> mConsumers = new ArrayList<Consumer>();
+
+    // Consumers waiting to run or running; guarded by this.
+    private int mBusyCount;
+
+    PostSyncDispatcher(int threads, long debounceMillis, long maxDelayMillis) {
+        mDebounceMillis = debounceMillis;
+        mMaxDelayMillis = maxDelayMillis;
+        final AtomicInteger threadCount = new AtomicInteger();
+        mExecutor = new ScheduledThreadPoolExecutor(threads, new ThreadFactory() {
+            @Override
+            public Thread newThread(final Runnable r) {
+                return new Thread(new Runnable() {
+                    @Override
+                    public void run() {
+                        Process.setThreadPriority(Process.THREAD_PRIORITY_BACKGROUND);
+                        r.run();
+                    }
+                }, LOG_TAG + "-" + threadCount.incrementAndGet());
+            }
+        });
+        // Nothing runs between syncs, so don't keep idle threads around.
+        mExecutor.setKeepAliveTime(30, TimeUnit.SECONDS);
+        mExecutor.allowCoreThreadTimeOut(true);
+    }
+
+    synchronized void addConsumer(String name, Runnable consumer) {
+        mConsumers.add(new Consumer(name, consumer));
+    }
+
+    /**
+     * Asks every consumer to run.
+     */
+    synchronized void dispatch() {
+        long now = SystemClock.uptimeMillis();
+        for (Consumer consumer : mConsumers) {
+            consumer.mRequests++;
+            consumer.mLastRequest = now;
+            if (consumer.mPending) {
+                // The run that's waiting will see this sync's data too.
+                continue;
+            }
+            consumer.mPending = true;
+            consumer.mFirstRequest = now;
+            if (!consumer.mRunning) {
+                mBusyCount++;
+                schedule(consumer, mDebounceMillis);
+            }
+            // Otherwise it's scheduled again when the current run finishes.
+        }
+    }
+
+    /**
+     * Waits until no consumer is waiting to run or running, and returns whether that happened
+     * before the timeout.
+     */
+    synchronized boolean awaitIdle(long timeoutMillis) throws InterruptedException {
+        long deadline = SystemClock.uptimeMillis() + timeoutMillis;
+        while (mBusyCount > 0) {
+            long remaining = deadline - SystemClock.uptimeMillis();
+            if (remaining <= 0) {
+                return false;
+            }
+            wait(remaining);
+        }
+        return true;
+    }
+
+    private void schedule(final Consumer consumer, long delayMillis) {
+        mExecutor.schedule(new Runnable() {
+            @Override
+            public void run() {
+                runConsumer(consumer);
+            }
+        }, delayMillis, TimeUnit.MILLISECONDS);
+    }
+
+    private void runConsumer(Consumer consumer) {
+        long firstRequest;
+        int requests;
+        synchronized (this) {
+            long now = SystemClock.uptimeMillis();
+            long due = Math.min(consumer.mLastRequest + mDebounceMillis,
+                    consumer.mFirstRequest + mMaxDelayMillis);
+            if (now < due) {
+                // Asked again since this was scheduled; wait for things to settle.
+                schedule(consumer, due - now);
+                return;
+            }
+            firstRequest = consumer.mFirstRequest;
+            requests = consumer.mRequests;
+            consumer.mRequests = 0;
+            consumer.mPending = false;
+            consumer.mRunning = true;
+        }
+
+        long start = SystemClock.uptimeMillis();
+        try {
+            consumer.mRunnable.run();
+        } catch (RuntimeException e) {
+            Log.e(LOG_TAG, "Error updating " + consumer.mName, e);
+        } finally {
+            long end = SystemClock.uptimeMillis();
+            synchronized (this) {
+                consumer.mRunning = false;
+                consumer.mRuns++;
+                consumer.mTotalRunMillis += end - start;
+                consumer.mMaxRunMillis = Math.max(consumer.mMaxRunMillis, end - start);
+                Log.d(LOG_TAG, String.format(Locale.US,
+                        "%s took %d ms, done %d ms after the first of %d syncs; "
+                                + "%d ms average, %d ms worst over %d runs",
+                        consumer.mName, end - start, end - firstRequest, requests,
+                        consumer.mTotalRunMillis / consumer.mRuns, consumer.mMaxRunMillis,
+                        consumer.mRuns));
+                if (consumer.mPending) {
+                    schedule(consumer, 0);
+                } else if (--mBusyCount == 0) {
+                    notifyAll();
+                }
+            }
+        }
+    }
+
+    private static class Consumer {
+        final String mName;
+        final Runnable mRunnable;
+
+        // Guarded by the dispatcher.
+        boolean mPending;
+        boolean mRunning;
+        long mFirstRequest;
+        long mLastRequest;
+        int mRequests;
+        int mRuns;
+        long mTotalRunMillis;
+        long mMaxRunMillis;
+
+        Consumer(String name, Runnable runnable) {
+            mName = name;
+            mRunnable = runnable;
+        }
+    }
+}
@@ -3,25 +3,28 @@ package com.example.android.sunshine.app.sync;
 import android.accounts.Account;
 import android.accounts.AccountManager;
 import android.annotation.SuppressLint;
+import android.annotation.TargetApi;
 import android.app.NotificationManager;
 import android.app.PendingIntent;
 import android.content.AbstractThreadedSyncAdapter;
 import android.content.ContentProviderClient;
+import android.content.ContentProviderOperation;
+import android.content.ContentProviderResult;
 import android.content.ContentResolver;
-import android.content.ContentUris;
 import android.content.ContentValues;
 import android.content.Context;
 import android.content.Intent;
+import android.content.OperationApplicationException;
 import android.content.SharedPreferences;
 import android.content.SyncRequest;
 import android.content.SyncResult;
 import android.content.res.Resources;
 import android.database.Cursor;
 import android.graphics.Bitmap;
-import android.graphics.BitmapFactory;
 import android.net.Uri;
 import android.os.Build;
 import android.os.Bundle;
+import android.os.RemoteException;
 import android.preference.PreferenceManager;
 import android.support.annotation.IntDef;
 import android.support.v4.app.NotificationCompat;
@@ -29,28 +32,25 @@ import android.support.v4.app.TaskStackBuilder;
 import android.text.format.Time;
 import android.util.Log;
 
-import com.bumptech.glide.Glide;
 import com.example.android.sunshine.app.BuildConfig;
 import com.example.android.sunshine.app.MainActivity;
 import com.example.android.sunshine.app.R;
+import com.example.android.sunshine.app.SettingsSnapshot;
 import com.example.android.sunshine.app.Utility;
 import com.example.android.sunshine.app.data.WeatherContract;
 import com.example.android.sunshine.app.muzei.WeatherMuzeiSource;
+import com.example.android.sunshine.app.net.HttpFetcher;
+import com.google.android.gms.common.ConnectionResult;
 import com.google.android.gms.common.api.GoogleApiClient;
-import com.google.android.gms.common.api.ResultCallbacks;
-import com.google.android.gms.common.api.Status;
-import com.google.android.gms.wearable.Asset;
 import com.google.android.gms.wearable.DataApi;
+import com.google.android.gms.wearable.MessageApi;
 import com.google.android.gms.wearable.PutDataMapRequest;
 import com.google.android.gms.wearable.PutDataRequest;
 import com.google.android.gms.wearable.Wearable;
 
-import org.json.JSONArray;
 import org.json.JSONException;
-import org.json.JSONObject;
 
 import java.io.BufferedReader;
-import java.io.ByteArrayOutputStream;
 import java.io.IOException;
 import java.io.InputStream;
 import java.io.InputStreamReader;
@@ -58,18 +58,40 @@ import java.lang.annotation.Retention;
 import java.lang.annotation.RetentionPolicy;
 import java.net.HttpURLConnection;
 import java.net.URL;
-import java.util.Vector;
+import java.security.DigestInputStream;
+import java.security.MessageDigest;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.concurrent.Callable;
 import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
 
 public class SunshineSyncAdapter extends AbstractThreadedSyncAdapter {
-    public final String LOG_TAG = SunshineSyncAdapter.class.getSimpleName();
+    public static final String LOG_TAG = SunshineSyncAdapter.class.getSimpleName();
     public static final String ACTION_DATA_UPDATED =
             "com.example.android.sunshine.app.ACTION_DATA_UPDATED";
     // Interval at which to sync with the weather, in seconds.
     // 60 seconds (1 minute) * 180 = 3 hours
     public static final int SYNC_INTERVAL = 60 * 180;
     public static final int SYNC_FLEXTIME = SYNC_INTERVAL/3;
+    // Set this extra to refresh every saved location instead of just the preferred one.  The
+    // periodic sync sets it; a sync the user asked for only needs the preferred location.
+    public static final String SYNC_EXTRAS_ALL_LOCATIONS = "sync_all_locations";
+    // How many forecasts we fetch at once when refreshing every saved location, and how many of
+    // those may be talking to the same host.
+    private static final int MAX_PARALLEL_FETCHES = 8;
+    private static final int MAX_REQUESTS_PER_HOST = 6;
     private static final long DAY_IN_MILLIS = 1000 * 60 * 60 * 24;
+    // After a sync the widgets, Muzei, the notification and the watch are updated together, one
+    // thread each, a moment later so that syncs in quick succession update them once.
+    private static final int POST_SYNC_THREADS = 4;
+    private static final long POST_SYNC_DEBOUNCE_MILLIS = 750;
+    private static final long POST_SYNC_MAX_DELAY_MILLIS = 5000;
     private static final int WEATHER_NOTIFICATION_ID = 3004;
 
 
@@ -80,12 +102,38 @@ public class SunshineSyncAdapter extends AbstractThreadedSyncAdapter {
             WeatherContract.WeatherEntry.COLUMN_SHORT_DESC
     };
 
+    // The phone puts today's high, low and icon hash at WEAR_WEATHER_PATH.  A watch that hasn't
+    // got the icon sends its hash in a message to WEAR_ICON_REQUEST_PATH, and the bytes come back
+    // in a message to WEAR_ICON_PATH_PREFIX followed by the hash.
+    private static final String WEAR_WEATHER_PATH = "/weather-info";
+    private static final String WEAR_ICON_HASH_KEY = "weatherImageHash";
+    public static final String WEAR_ICON_REQUEST_PATH = "/weather-icon-request";
+    private static final String WEAR_ICON_PATH_PREFIX = "/weather-icon/";
+    private static final long WEAR_CONNECT_TIMEOUT_SECONDS = 30;
+
+    // How long a sync waits for the post-sync updates before it returns, since the sync
+    // manager only keeps the device awake until then: the longest they can be put off, the
+    // watch's connect timeout, and some time for the work itself.
+    private static final long POST_SYNC_AWAIT_MILLIS = POST_SYNC_MAX_DELAY_MILLIS
+            + WEAR_CONNECT_TIMEOUT_SECONDS * 1000 + 10 * 1000;
+
     private static final String[] WEAR_WEATHER_PROJECTION = new String[] {
             WeatherContract.WeatherEntry.COLUMN_WEATHER_ID,
             WeatherContract.WeatherEntry.COLUMN_MAX_TEMP,
             WeatherContract.WeatherEntry.COLUMN_MIN_TEMP
     };
 
+    private static final String[] SYNC_LOCATION_PROJECTION = new String[] {
+            WeatherContract.LocationEntry.COLUMN_LOCATION_SETTING,
+            WeatherContract.LocationEntry.COLUMN_COORD_LAT,
+            WeatherContract.LocationEntry.COLUMN_COORD_LONG
+    };
+
+    // these indices must match the projection
+    private static final int INDEX_LOCATION_SETTING = 0;
+    private static final int INDEX_COORD_LAT = 1;
+    private static final int INDEX_COORD_LONG = 2;
+
     // these indices must match the projection
     private static final int INDEX_WEATHER_ID = 0;
     private static final int INDEX_MAX_TEMP = 1;
@@ -102,298 +150,595 @@ public class SunshineSyncAdapter extends AbstractThreadedSyncAdapter {
     public static final int LOCATION_STATUS_UNKNOWN = 3;
     public static final int LOCATION_STATUS_INVALID = 4;
 
+    // Shared by every sync so that overlapping syncs respect the same per-host limit.
+    private static final HostConcurrencyLimiter sHostLimiter =
+            new HostConcurrencyLimiter(MAX_REQUESTS_PER_HOST);
+
+    private final ForecastHttpCache mHttpCache;
+    private final PostSyncDispatcher mPostSync;
+
     public SunshineSyncAdapter(Context context, boolean autoInitialize) {
         super(context, autoInitialize);
+        mHttpCache = new ForecastHttpCache(context);
+        mPostSync = new PostSyncDispatcher(POST_SYNC_THREADS, POST_SYNC_DEBOUNCE_MILLIS,
+                POST_SYNC_MAX_DELAY_MILLIS);
+        mPostSync.addConsumer("widgets", new Runnable() {
+            @Override
+            public void run() {
+                updateWidgets();
+            }
+        });
+        mPostSync.addConsumer("muzei", new Runnable() {
+            @Override
+            public void run() {
+                updateMuzei();
+            }
+        });
+        mPostSync.addConsumer("notification", new Runnable() {
+            @Override
+            public void run() {
+                notifyWeather();
+            }
+        });
+        mPostSync.addConsumer("wear", new Runnable() {
+            @Override
+            public void run() {
+                notifyWear();
+            }
+        });
     }
 
     @Override
     public void onPerformSync(Account account, Bundle extras, String authority, ContentProviderClient provider, SyncResult syncResult) {
         Log.d(LOG_TAG, "Starting sync");
 
-        // We no longer need just the location String, but also potentially the latitude and
-        // longitude, in case we are syncing based on a new Place Picker API result.
+        // A sync can add a location, write the days and trim old ones; observers only need to
+        // hear about it once.
+        setNotificationBatch(true);
+        try {
+            if (extras != null && extras.getBoolean(SYNC_EXTRAS_ALL_LOCATIONS, false)) {
+                syncAllLocations();
+            } else {
+                syncPreferredLocation();
+            }
+        } finally {
+            setNotificationBatch(false);
+        }
+
+        try {
+            if (!mPostSync.awaitIdle(POST_SYNC_AWAIT_MILLIS)) {
+                Log.w(LOG_TAG, "Post-sync updates still running after "
+                        + POST_SYNC_AWAIT_MILLIS + " ms");
+            }
+        } catch (InterruptedException e) {
+            // The sync was cancelled; the updates carry on without us.
+            Thread.currentThread().interrupt();
+        }
+
+        HttpFetcher fetcher = HttpFetcher.getInstance();
+        Log.d(LOG_TAG, "Network so far: " + fetcher.getRequestCount() + " requests, "
+                + fetcher.getBytesReceived() + " bytes received ("
+                + fetcher.getBytesDecoded() + " decoded), "
+                + fetcher.getAverageLatencyMillis() + " ms average latency");
+    }
+
+    @TargetApi(Build.VERSION_CODES.HONEYCOMB)
+    private void setNotificationBatch(boolean begin) {
+        // ContentResolver.call() needs Honeycomb; older devices just get every notification.
+        if (Build.VERSION.SDK_INT >= Build.VERSION_CODES.HONEYCOMB) {
+            getContext().getContentResolver().call(WeatherContract.BASE_CONTENT_URI,
+                    begin ? WeatherContract.METHOD_BEGIN_NOTIFICATION_BATCH
+                            : WeatherContract.METHOD_END_NOTIFICATION_BATCH,
+                    null, null);
+        }
+    }
+
+    /**
+     * Refreshes the forecast for the location the user has picked in the settings.
+     */
+    private void syncPreferredLocation() {
         Context context = getContext();
         String locationQuery = Utility.getPreferredLocation(context);
-        String locationLatitude = String.valueOf(Utility.getLocationLatitude(context));
-        String locationLongitude = String.valueOf(Utility.getLocationLongitude(context));
 
-        // These two need to be declared outside the try/catch
-        // so that they can be closed in the finally block.
-        HttpURLConnection urlConnection = null;
-        BufferedReader reader = null;
+        @LocationStatus int status =
+                syncLocation(buildPreferredLocationUri(context, locationQuery), locationQuery);
+        if (status != LOCATION_STATUS_UNKNOWN) {
+            setLocationStatus(context, status);
+        }
+    }
+
+    /**
+     * Requests the forecast at {@code forecastUri} for {@code locationSetting} and, if it has
+     * anything we haven't stored yet, stores it and updates everything that shows it.  Returns
+     * how the request went.
+     */
+    @LocationStatus int syncLocation(Uri forecastUri, String locationSetting) {
+        ForecastRowCollector collector = new ForecastRowCollector(locationSetting);
+        fetchForecast(forecastUri, collector);
+        if (collector.mStatus == LOCATION_STATUS_OK && collector.hasNewData()) {
+            storeWeatherData(Collections.singletonList(collector));
+        }
+        return collector.mStatus;
+    }
+
+    PostSyncDispatcher getPostSyncDispatcher() {
+        return mPostSync;
+    }
+
+    /**
+     * Refreshes the forecast for every location in the location table, plus the preferred one
+     * if it isn't in there yet.  The requests go out in parallel on a bounded pool, so the sync
+     * takes about as long as the slowest of them, and everything that came back is written in a
+     * single batch.
+     */
+    private void syncAllLocations() {
+        Context context = getContext();
+        String preferredLocation = Utility.getPreferredLocation(context);
+
+        ForecastRowCollector preferredCollector = new ForecastRowCollector(preferredLocation);
+        ArrayList<Callable<ForecastRowCollector>> fetches =
+                new ArrayList<Callable<ForecastRowCollector>>();
+        fetches.add(new ForecastFetch(
+                buildPreferredLocationUri(context, preferredLocation), preferredCollector));
+
+        Cursor locationCursor = context.getContentResolver().query(
+                WeatherContract.LocationEntry.CONTENT_URI,
+                SYNC_LOCATION_PROJECTION,
+                null,
+                null,
+                null);
+        if (locationCursor != null) {
+            while (locationCursor.moveToNext()) {
+                String locationSetting = locationCursor.getString(INDEX_LOCATION_SETTING);
+                if (locationSetting.equals(preferredLocation)) {
+                    continue;
+                }
+                // Saved locations are looked up by the coordinates OWM gave us for them the
+                // first time round, which always resolve back to the same city.
+                fetches.add(new ForecastFetch(
+                        buildForecastUri(locationSetting,
+                                String.valueOf(locationCursor.getDouble(INDEX_COORD_LAT)),
+                                String.valueOf(locationCursor.getDouble(INDEX_COORD_LONG))),
+                        new ForecastRowCollector(locationSetting)));
+            }
+            locationCursor.close();
+        }
+
+        ArrayList<ForecastRowCollector> fetched = new ArrayList<ForecastRowCollector>();
+        ExecutorService fetchPool =
+                Executors.newFixedThreadPool(Math.min(MAX_PARALLEL_FETCHES, fetches.size()));
+        try {
+            for (Future<ForecastRowCollector> result : fetchPool.invokeAll(fetches)) {
+                ForecastRowCollector collector;
+                try {
+                    collector = result.get();
+                } catch (ExecutionException e) {
+                    // Only this location is lost; the others may still have come back fine.
+                    Log.e(LOG_TAG, "Error fetching a forecast", e);
+                    continue;
+                }
+                if (collector.mStatus == LOCATION_STATUS_OK) {
+                    if (collector.hasNewData()) {
+                        fetched.add(collector);
+                    }
+                } else {
+                    Log.d(LOG_TAG, "Skipping " + collector.mLocationSetting
+                            + ", status " + collector.mStatus);
+                }
+            }
+        } catch (InterruptedException e) {
+            // The sync was cancelled; leave whatever we had in the database alone.
+            Thread.currentThread().interrupt();
+            return;
+        } finally {
+            fetchPool.shutdownNow();
+        }
 
-        // Will contain the raw JSON response as a string.
-        String forecastJsonStr = null;
+        if (fetched.size() > 0) {
+            storeWeatherData(fetched);
+        }
+        Log.d(LOG_TAG, "Synced " + fetches.size() + " locations, " + fetched.size() + " changed");
+        if (preferredCollector.mStatus != LOCATION_STATUS_UNKNOWN) {
+            setLocationStatus(context, preferredCollector.mStatus);
+        }
+    }
+
+    private static Uri buildPreferredLocationUri(Context context, String locationQuery) {
+        // Instead of always building the query based off of the location string, we want to
+        // potentially build a query using a lat/lon value. This will be the case when we are
+        // syncing based off of a new location from the Place Picker API. So we need to check
+        // if we have a lat/lon to work with, and use those when we do. Otherwise, the weather
+        // service may not understand the location address provided by the Place Picker API
+        // and the user could end up with no weather! The horror!
+        if (Utility.isLocationLatLonAvailable(context)) {
+            return buildForecastUri(locationQuery,
+                    String.valueOf(Utility.getLocationLatitude(context)),
+                    String.valueOf(Utility.getLocationLongitude(context)));
+        }
+        return buildForecastUri(locationQuery, null, null);
+    }
 
+    /**
+     * Builds the OpenWeatherMap forecast query for a location, by latitude and longitude when
+     * both are given and by the location string otherwise.
+     */
+    private static Uri buildForecastUri(String locationQuery, String latitude, String longitude) {
         String format = "json";
         String units = "metric";
         int numDays = 14;
 
+        // Construct the URL for the OpenWeatherMap query
+        // Possible parameters are avaiable at OWM's forecast API page, at
+        // http://openweathermap.org/API#forecast
+        final String FORECAST_BASE_URL =
+                "http://api.openweathermap.org/data/2.5/forecast/daily?";
+        final String QUERY_PARAM = "q";
+        final String LAT_PARAM = "lat";
+        final String LON_PARAM = "lon";
+        final String FORMAT_PARAM = "mode";
+        final String UNITS_PARAM = "units";
+        final String DAYS_PARAM = "cnt";
+        final String APPID_PARAM = "APPID";
+
+        Uri.Builder uriBuilder = Uri.parse(FORECAST_BASE_URL).buildUpon();
+        if (latitude != null && longitude != null) {
+            uriBuilder.appendQueryParameter(LAT_PARAM, latitude)
+                    .appendQueryParameter(LON_PARAM, longitude);
+        } else {
+            uriBuilder.appendQueryParameter(QUERY_PARAM, locationQuery);
+        }
+
+        return uriBuilder.appendQueryParameter(FORMAT_PARAM, format)
+                .appendQueryParameter(UNITS_PARAM, units)
+                .appendQueryParameter(DAYS_PARAM, Integer.toString(numDays))
+                .appendQueryParameter(APPID_PARAM, BuildConfig.OPEN_WEATHER_MAP_API_KEY)
+                .build();
+    }
+
+    /**
+     * Returns true if the database still has forecasts from today onwards for the location.
+     * Without them a 304 would leave the user with nothing to look at.
+     */
+    private boolean hasStoredForecast(String locationSetting) {
+        Cursor cursor = getContext().getContentResolver().query(
+                WeatherContract.WeatherEntry.buildWeatherLocationWithStartDate(
+                        locationSetting, System.currentTimeMillis()),
+                new String[]{WeatherContract.WeatherEntry.TABLE_NAME + "." +
+                        WeatherContract.WeatherEntry._ID},
+                null,
+                null,
+                null);
+        if (cursor == null) {
+            return false;
+        }
         try {
-            // Construct the URL for the OpenWeatherMap query
-            // Possible parameters are avaiable at OWM's forecast API page, at
-            // http://openweathermap.org/API#forecast
-            final String FORECAST_BASE_URL =
-                    "http://api.openweathermap.org/data/2.5/forecast/daily?";
-            final String QUERY_PARAM = "q";
-            final String LAT_PARAM = "lat";
-            final String LON_PARAM = "lon";
-            final String FORMAT_PARAM = "mode";
-            final String UNITS_PARAM = "units";
-            final String DAYS_PARAM = "cnt";
-            final String APPID_PARAM = "APPID";
-
-            Uri.Builder uriBuilder = Uri.parse(FORECAST_BASE_URL).buildUpon();
-
-            // Instead of always building the query based off of the location string, we want to
-            // potentially build a query using a lat/lon value. This will be the case when we are
-            // syncing based off of a new location from the Place Picker API. So we need to check
-            // if we have a lat/lon to work with, and use those when we do. Otherwise, the weather
-            // service may not understand the location address provided by the Place Picker API
-            // and the user could end up with no weather! The horror!
-            if (Utility.isLocationLatLonAvailable(context)) {
-                uriBuilder.appendQueryParameter(LAT_PARAM, locationLatitude)
-                        .appendQueryParameter(LON_PARAM, locationLongitude);
-            } else {
-                uriBuilder.appendQueryParameter(QUERY_PARAM, locationQuery);
-            }
+            return cursor.getCount() > 0;
+        } finally {
+            cursor.close();
+        }
+    }
+
+    /**
+     * Runs {@link #fetchForecast(Uri, ForecastRowCollector)} on one of the sync worker threads.
+     */
+    private class ForecastFetch implements Callable<ForecastRowCollector> {
+        private final Uri mForecastUri;
+        private final ForecastRowCollector mCollector;
+
+        ForecastFetch(Uri forecastUri, ForecastRowCollector collector) {
+            mForecastUri = forecastUri;
+            mCollector = collector;
+        }
+
+        @Override
+        public ForecastRowCollector call() {
+            fetchForecast(mForecastUri, mCollector);
+            return mCollector;
+        }
+    }
+
+    /**
+     * Requests the forecast at {@code forecastUri} and feeds it to {@code collector}, leaving the
+     * outcome in {@link ForecastRowCollector#mStatus}.  Safe to call from several threads at once.
+     */
+    private void fetchForecast(Uri forecastUri, ForecastRowCollector collector) {
+        // This needs to be declared outside the try/catch
+        // so that it can be closed in the finally block.
+        HttpFetcher.Response response = null;
+        String host = forecastUri.getHost();
 
-            Uri builtUri = uriBuilder.appendQueryParameter(FORMAT_PARAM, format)
-                    .appendQueryParameter(UNITS_PARAM, units)
-                    .appendQueryParameter(DAYS_PARAM, Integer.toString(numDays))
-                    .appendQueryParameter(APPID_PARAM, BuildConfig.OPEN_WEATHER_MAP_API_KEY)
-                    .build();
+        try {
+            sHostLimiter.acquire(host);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            return;
+        }
+        try {
+            URL url = new URL(forecastUri.toString());
 
-            URL url = new URL(builtUri.toString());
+            HashMap<String, String> requestHeaders = new HashMap<String, String>();
+            collector.mCacheKey = forecastUri.toString();
+            if (hasStoredForecast(collector.mLocationSetting)) {
+                // Only worth asking "has it changed?" if we still have the previous answer.
+                mHttpCache.addConditionalHeaders(collector.mCacheKey, requestHeaders);
+            }
 
             // Create the request to OpenWeatherMap, and open the connection
-            urlConnection = (HttpURLConnection) url.openConnection();
-            urlConnection.setRequestMethod("GET");
-            urlConnection.connect();
-
-            // Read the input stream into a String
-            InputStream inputStream = urlConnection.getInputStream();
-            StringBuffer buffer = new StringBuffer();
-            if (inputStream == null) {
-                // Nothing to do.
+            response = HttpFetcher.getInstance().get(url, requestHeaders);
+
+            if (response.getCode() == HttpURLConnection.HTTP_NOT_MODIFIED) {
+                ForecastHttpCache.recordNotModified();
+                collector.mUnchanged = true;
+                collector.mStatus = LOCATION_STATUS_OK;
                 return;
             }
-            reader = new BufferedReader(new InputStreamReader(inputStream));
-
-            String line;
-            while ((line = reader.readLine()) != null) {
-                // Since it's JSON, adding a newline isn't necessary (it won't affect parsing)
-                // But it does make debugging a *lot* easier if you print out the completed
-                // buffer for debugging.
-                buffer.append(line + "\n");
-            }
 
-            if (buffer.length() == 0) {
-                // Stream was empty.  No point in parsing.
-                setLocationStatus(getContext(), LOCATION_STATUS_SERVER_DOWN);
-                return;
+            // Hash the body as it goes by so we can tell if it is the one we already stored.  The
+            // hash is only known once the whole body has been read, and the body is parsed as
+            // it's read, so a body we already have is still parsed; the days are simply thrown
+            // away.  Nothing is written until storeWeatherData, which an unchanged body skips.
+            MessageDigest bodyDigest = ForecastHttpCache.newBodyDigest();
+            InputStream inputStream = new DigestInputStream(response.getBody(), bodyDigest);
+
+            if (ForecastJsonParser.isStreamingSupported()) {
+                // Decode the days straight off the connection; nothing holds on to the raw
+                // response.  An empty stream shows up as an EOFException, same as a dropped
+                // connection.
+                ForecastJsonParser.parse(inputStream, collector);
+            } else {
+                String forecastJsonStr = readFully(inputStream);
+                if (forecastJsonStr.length() == 0) {
+                    // Stream was empty.  No point in parsing.
+                    collector.mStatus = LOCATION_STATUS_SERVER_DOWN;
+                    return;
+                }
+                ForecastJsonParser.parse(forecastJsonStr, collector);
+            }
+            collector.mStatus = collector.getResultStatus();
+
+            if (collector.mStatus == LOCATION_STATUS_OK) {
+                collector.mEtag = response.getHeader("ETag");
+                collector.mLastModified = response.getHeader("Last-Modified");
+                collector.mBodyHash = ForecastHttpCache.toHex(bodyDigest.digest());
+                if (mHttpCache.isSameBody(collector.mCacheKey, collector.mBodyHash)
+                        && hasStoredForecast(collector.mLocationSetting)) {
+                    ForecastHttpCache.recordUnchangedBody();
+                    collector.mUnchanged = true;
+                    collector.rememberResponse();
+                } else {
+                    ForecastHttpCache.recordMiss();
+                }
             }
-            forecastJsonStr = buffer.toString();
-            getWeatherDataFromJson(forecastJsonStr, locationQuery);
         } catch (IOException e) {
             Log.e(LOG_TAG, "Error ", e);
             // If the code didn't successfully get the weather data, there's no point in attempting
             // to parse it.
-            setLocationStatus(getContext(), LOCATION_STATUS_SERVER_DOWN);
+            collector.mStatus = LOCATION_STATUS_SERVER_DOWN;
         } catch (JSONException e) {
             Log.e(LOG_TAG, e.getMessage(), e);
             e.printStackTrace();
-            setLocationStatus(getContext(), LOCATION_STATUS_SERVER_INVALID);
+            collector.mStatus = LOCATION_STATUS_SERVER_INVALID;
         } finally {
-            if (urlConnection != null) {
-                urlConnection.disconnect();
-            }
-            if (reader != null) {
+            if (response != null) {
+                // Hands the connection back to the keep-alive pool.
                 try {
-                    reader.close();
+                    response.close();
                 } catch (final IOException e) {
                     Log.e(LOG_TAG, "Error closing stream", e);
+                    response.abort();
                 }
             }
+            sHostLimiter.release(host);
         }
-        return;
     }
 
     /**
-     * Take the String representing the complete forecast in JSON Format and
-     * pull out the data we need to construct the Strings needed for the wireframes.
-     *
-     * Fortunately parsing is easy:  constructor takes the JSON string and converts it
-     * into an Object hierarchy for us.
+     * Reads the whole response into a String.  Only used on devices that can't stream the
+     * forecast through {@link ForecastJsonParser#parse(InputStream, ForecastJsonParser.Handler)}.
      */
-    private void getWeatherDataFromJson(String forecastJsonStr,
-                                        String locationSetting)
-            throws JSONException {
+    private static String readFully(InputStream inputStream) throws IOException {
+        BufferedReader reader = new BufferedReader(new InputStreamReader(inputStream, "UTF-8"));
+        StringBuilder buffer = new StringBuilder();
+        char[] chunk = new char[4096];
+        int read;
+        while ((read = reader.read(chunk)) != -1) {
+            buffer.append(chunk, 0, read);
+        }
+        return buffer.toString();
+    }
 
-        // Now we have a String representing the complete forecast in JSON Format.
-        // Fortunately parsing is easy:  constructor takes the JSON string and converts it
-        // into an Object hierarchy for us.
+    /**
+     * Turns each day handed over by {@link ForecastJsonParser} into the ContentValues for a row of
+     * the weather table as soon as it is decoded.  The rows are left without a location; the
+     * location row is looked up or added in the same batch that stores them.
+     */
+    private class ForecastRowCollector implements ForecastJsonParser.Handler {
+        final String mLocationSetting;
+        final ArrayList<ContentValues> mRows = new ArrayList<ContentValues>();
+        // OWM returns daily forecasts based upon the local time of the city that is being
+        // asked for, which means that we need to know the GMT offset to translate this data
+        // properly.
+
+        // Since this data is also sent in-order and the first day is always the
+        // current day, we're going to take advantage of that to get a nice
+        // normalized UTC date for all of our weather.
+        final int mJulianStartDay;
+        final Time mDayTime;
+        int mMessageCode = HttpURLConnection.HTTP_OK;
+        // The city the response was for; null until it arrives.
+        String mCityName;
+        double mLatitude;
+        double mLongitude;
+        @LocationStatus int mStatus = LOCATION_STATUS_UNKNOWN;
+        // What we learn about the response for the HTTP cache.
+        String mCacheKey;
+        String mEtag;
+        String mLastModified;
+        String mBodyHash;
+        // Set when the server had nothing we don't already have.
+        boolean mUnchanged;
+
+        ForecastRowCollector(String locationSetting) {
+            mLocationSetting = locationSetting;
 
-        // These are the names of the JSON objects that need to be extracted.
+            Time dayTime = new Time();
+            dayTime.setToNow();
 
-        // Location information
-        final String OWM_CITY = "city";
-        final String OWM_CITY_NAME = "name";
-        final String OWM_COORD = "coord";
+            // we start at the day returned by local time. Otherwise this is a mess.
+            mJulianStartDay = Time.getJulianDay(System.currentTimeMillis(), dayTime.gmtoff);
 
-        // Location coordinate
-        final String OWM_LATITUDE = "lat";
-        final String OWM_LONGITUDE = "lon";
+            // now we work exclusively in UTC
+            mDayTime = new Time();
+        }
 
-        // Weather information.  Each day's forecast info is an element of the "list" array.
-        final String OWM_LIST = "list";
+        @Override
+        public void onMessageCode(int code) {
+            mMessageCode = code;
+        }
 
-        final String OWM_PRESSURE = "pressure";
-        final String OWM_HUMIDITY = "humidity";
-        final String OWM_WINDSPEED = "speed";
-        final String OWM_WIND_DIRECTION = "deg";
+        @Override
+        public void onCity(String cityName, double latitude, double longitude) {
+            if (mMessageCode != HttpURLConnection.HTTP_OK) {
+                return;
+            }
+            mCityName = cityName;
+            mLatitude = latitude;
+            mLongitude = longitude;
+        }
 
-        // All temperatures are children of the "temp" object.
-        final String OWM_TEMPERATURE = "temp";
-        final String OWM_MAX = "max";
-        final String OWM_MIN = "min";
+        @Override
+        public void onDay(int dayIndex, double pressure, int humidity, double windSpeed,
+                          double windDirection, double high, double low, String description,
+                          int weatherId) {
+            // Cheating to convert this to UTC time, which is what we want anyhow
+            long dateTime = mDayTime.setJulianDay(mJulianStartDay + dayIndex);
+
+            ContentValues weatherValues = new ContentValues();
+
+            weatherValues.put(WeatherContract.WeatherEntry.COLUMN_DATE, dateTime);
+            weatherValues.put(WeatherContract.WeatherEntry.COLUMN_HUMIDITY, humidity);
+            weatherValues.put(WeatherContract.WeatherEntry.COLUMN_PRESSURE, pressure);
+            weatherValues.put(WeatherContract.WeatherEntry.COLUMN_WIND_SPEED, windSpeed);
+            weatherValues.put(WeatherContract.WeatherEntry.COLUMN_DEGREES, windDirection);
+            weatherValues.put(WeatherContract.WeatherEntry.COLUMN_MAX_TEMP, high);
+            weatherValues.put(WeatherContract.WeatherEntry.COLUMN_MIN_TEMP, low);
+            weatherValues.put(WeatherContract.WeatherEntry.COLUMN_SHORT_DESC, description);
+            weatherValues.put(WeatherContract.WeatherEntry.COLUMN_WEATHER_ID, weatherId);
+
+            mRows.add(weatherValues);
+        }
 
-        final String OWM_WEATHER = "weather";
-        final String OWM_DESCRIPTION = "main";
-        final String OWM_WEATHER_ID = "id";
+        boolean hasNewData() {
+            return !mUnchanged;
+        }
 
-        final String OWM_MESSAGE_CODE = "cod";
+        ContentValues getLocationValues() {
+            ContentValues locationValues = new ContentValues();
+            locationValues.put(WeatherContract.LocationEntry.COLUMN_CITY_NAME, mCityName);
+            locationValues.put(WeatherContract.LocationEntry.COLUMN_LOCATION_SETTING,
+                    mLocationSetting);
+            locationValues.put(WeatherContract.LocationEntry.COLUMN_COORD_LAT, mLatitude);
+            locationValues.put(WeatherContract.LocationEntry.COLUMN_COORD_LONG, mLongitude);
+            return locationValues;
+        }
 
-        try {
-            JSONObject forecastJson = new JSONObject(forecastJsonStr);
-            Context context = getContext();
+        /**
+         * Saves the validators of this response so the next sync can send a conditional request.
+         */
+        void rememberResponse() {
+            if (mCacheKey != null && mBodyHash != null) {
+                mHttpCache.put(mCacheKey, mEtag, mLastModified, mBodyHash);
+            }
+        }
 
+        /**
+         * Works out how the request went once the whole response has been parsed.
+         */
+        @LocationStatus int getResultStatus() {
             // do we have an error?
-            if ( forecastJson.has(OWM_MESSAGE_CODE) ) {
-                int errorCode = forecastJson.getInt(OWM_MESSAGE_CODE);
-
-                switch (errorCode) {
-                    case HttpURLConnection.HTTP_OK:
-                        break;
-                    case HttpURLConnection.HTTP_NOT_FOUND:
-                        setLocationStatus(getContext(), LOCATION_STATUS_INVALID);
-                        return;
-                    default:
-                        setLocationStatus(getContext(), LOCATION_STATUS_SERVER_DOWN);
-                        return;
-                }
+            switch (mMessageCode) {
+                case HttpURLConnection.HTTP_OK:
+                    // A response without a city is one we don't understand.
+                    return mCityName == null ? LOCATION_STATUS_SERVER_INVALID : LOCATION_STATUS_OK;
+                case HttpURLConnection.HTTP_NOT_FOUND:
+                    return LOCATION_STATUS_INVALID;
+                default:
+                    return LOCATION_STATUS_SERVER_DOWN;
             }
+        }
+    }
 
-            JSONArray weatherArray = forecastJson.getJSONArray(OWM_LIST);
-
-            JSONObject cityJson = forecastJson.getJSONObject(OWM_CITY);
-            String cityName = cityJson.getString(OWM_CITY_NAME);
-
-            JSONObject cityCoord = cityJson.getJSONObject(OWM_COORD);
-            double cityLatitude = cityCoord.getDouble(OWM_LATITUDE);
-            double cityLongitude = cityCoord.getDouble(OWM_LONGITUDE);
-
-            long locationId = addLocation(locationSetting, cityName, cityLatitude, cityLongitude);
-
-            // Insert the new weather information into the database
-            Vector<ContentValues> cVVector = new Vector<ContentValues>(weatherArray.length());
-
-            // OWM returns daily forecasts based upon the local time of the city that is being
-            // asked for, which means that we need to know the GMT offset to translate this data
-            // properly.
-
-            // Since this data is also sent in-order and the first day is always the
-            // current day, we're going to take advantage of that to get a nice
-            // normalized UTC date for all of our weather.
-
-            Time dayTime = new Time();
-            dayTime.setToNow();
-
-            // we start at the day returned by local time. Otherwise this is a mess.
-            int julianStartDay = Time.getJulianDay(System.currentTimeMillis(), dayTime.gmtoff);
-
-            // now we work exclusively in UTC
-            dayTime = new Time();
-
-            for(int i = 0; i < weatherArray.length(); i++) {
-                // These are the values that will be collected.
-                long dateTime;
-                double pressure;
-                int humidity;
-                double windSpeed;
-                double windDirection;
-
-                double high;
-                double low;
-
-                String description;
-                int weatherId;
-
-                // Get the JSON object representing the day
-                JSONObject dayForecast = weatherArray.getJSONObject(i);
-
-                // Cheating to convert this to UTC time, which is what we want anyhow
-                dateTime = dayTime.setJulianDay(julianStartDay+i);
-
-                pressure = dayForecast.getDouble(OWM_PRESSURE);
-                humidity = dayForecast.getInt(OWM_HUMIDITY);
-                windSpeed = dayForecast.getDouble(OWM_WINDSPEED);
-                windDirection = dayForecast.getDouble(OWM_WIND_DIRECTION);
-
-                // Description is in a child array called "weather", which is 1 element long.
-                // That element also contains a weather code.
-                JSONObject weatherObject =
-                        dayForecast.getJSONArray(OWM_WEATHER).getJSONObject(0);
-                description = weatherObject.getString(OWM_DESCRIPTION);
-                weatherId = weatherObject.getInt(OWM_WEATHER_ID);
-
-                // Temperatures are in a child object called "temp".  Try not to name variables
-                // "temp" when working with temperature.  It confuses everybody.
-                JSONObject temperatureObject = dayForecast.getJSONObject(OWM_TEMPERATURE);
-                high = temperatureObject.getDouble(OWM_MAX);
-                low = temperatureObject.getDouble(OWM_MIN);
-
-                ContentValues weatherValues = new ContentValues();
-
-                weatherValues.put(WeatherContract.WeatherEntry.COLUMN_LOC_KEY, locationId);
-                weatherValues.put(WeatherContract.WeatherEntry.COLUMN_DATE, dateTime);
-                weatherValues.put(WeatherContract.WeatherEntry.COLUMN_HUMIDITY, humidity);
-                weatherValues.put(WeatherContract.WeatherEntry.COLUMN_PRESSURE, pressure);
-                weatherValues.put(WeatherContract.WeatherEntry.COLUMN_WIND_SPEED, windSpeed);
-                weatherValues.put(WeatherContract.WeatherEntry.COLUMN_DEGREES, windDirection);
-                weatherValues.put(WeatherContract.WeatherEntry.COLUMN_MAX_TEMP, high);
-                weatherValues.put(WeatherContract.WeatherEntry.COLUMN_MIN_TEMP, low);
-                weatherValues.put(WeatherContract.WeatherEntry.COLUMN_SHORT_DESC, description);
-                weatherValues.put(WeatherContract.WeatherEntry.COLUMN_WEATHER_ID, weatherId);
-
-                cVVector.add(weatherValues);
+    /**
+     * Writes the days gathered by one or more {@link ForecastRowCollector}s, with their
+     * locations, to the database in a single batch, trims the old history and lets everything
+     * that shows the weather know about it.
+     */
+    private void storeWeatherData(List<ForecastRowCollector> collectors) {
+        // Each location, looked up or added, then its days, which take the location's _ID by
+        // back-reference; then the trim.  The provider commits the batch as one transaction and
+        // writes all the days with one grouped upsert.
+        ArrayList<ContentProviderOperation> operations =
+                new ArrayList<ContentProviderOperation>();
+        int dayCount = 0;
+        for (ForecastRowCollector collector : collectors) {
+            int locationIndex = operations.size();
+            operations.add(ContentProviderOperation
+                    .newInsert(WeatherContract.LocationEntry.buildInsertOrLookupUri())
+                    .withValues(collector.getLocationValues())
+                    .build());
+            for (ContentValues row : collector.mRows) {
+                operations.add(ContentProviderOperation
+                        .newInsert(WeatherContract.WeatherEntry.CONTENT_URI)
+                        .withValues(row)
+                        .withValueBackReference(WeatherContract.WeatherEntry.COLUMN_LOC_KEY,
+                                locationIndex)
+                        .build());
             }
+            dayCount += collector.mRows.size();
+        }
+        if (dayCount == 0) {
+            return;
+        }
 
-            int inserted = 0;
-            // add to database
-            if ( cVVector.size() > 0 ) {
-                ContentValues[] cvArray = new ContentValues[cVVector.size()];
-                cVVector.toArray(cvArray);
-                getContext().getContentResolver().bulkInsert(WeatherContract.WeatherEntry.CONTENT_URI, cvArray);
-
-                // delete old data so we don't build up an endless history
-                getContext().getContentResolver().delete(WeatherContract.WeatherEntry.CONTENT_URI,
-                        WeatherContract.WeatherEntry.COLUMN_DATE + " <= ?",
-                        new String[]{Long.toString(dayTime.setJulianDay(julianStartDay - 1))});
+        // delete old data so we don't build up an endless history
+        ForecastRowCollector first = collectors.get(0);
+        operations.add(ContentProviderOperation
+                .newDelete(WeatherContract.WeatherEntry.CONTENT_URI)
+                .withSelection(WeatherContract.WeatherEntry.COLUMN_DATE + " <= ?",
+                        new String[]{Long.toString(
+                                first.mDayTime.setJulianDay(first.mJulianStartDay - 1))})
+                .build());
 
-                updateWidgets();
-                updateMuzei();
-                notifyWeather();
-                notifyWear();
+        ContentProviderResult[] results;
+        try {
+            results = getContext().getContentResolver().applyBatch(
+                    WeatherContract.CONTENT_AUTHORITY, operations);
+        } catch (RemoteException | OperationApplicationException e) {
+            Log.e(LOG_TAG, "Error storing weather", e);
+            return;
+        }
+        int deletedCount = results[results.length - 1].count;
+        // Each day's result is 1 if it was new or actually changed, and 0 if it was already
+        // stored as it is; the locations' results are URIs.
+        int changedCount = 0;
+        for (int i = 0; i < results.length - 1; i++) {
+            if (results[i].uri == null) {
+                changedCount += results[i].count;
             }
-            Log.d(LOG_TAG, "Sync Complete. " + cVVector.size() + " Inserted");
-            setLocationStatus(getContext(), LOCATION_STATUS_OK);
+        }
 
-        } catch (JSONException e) {
-            Log.e(LOG_TAG, e.getMessage(), e);
-            e.printStackTrace();
-            setLocationStatus(getContext(), LOCATION_STATUS_SERVER_INVALID);
+        for (ForecastRowCollector collector : collectors) {
+            collector.rememberResponse();
+        }
+
+        if (changedCount == 0 && deletedCount == 0) {
+            // Same forecast as last time; nobody needs to redraw.
+            Log.d(LOG_TAG, "Sync Complete. No changes");
+            return;
         }
+
+        mPostSync.dispatch();
+        Log.d(LOG_TAG, "Sync Complete. " + changedCount + " of " + dayCount + " days changed");
     }
 
     private void updateWidgets() {
@@ -459,25 +804,18 @@ public class SunshineSyncAdapter extends AbstractThreadedSyncAdapter {
                             : resources.getDimensionPixelSize(R.dimen.notification_large_icon_default);
 
                     // Retrieve the large icon
-                    Bitmap largeIcon;
-                    try {
-                        largeIcon = Glide.with(context)
-                                .load(artUrl)
-                                .asBitmap()
-                                .error(artResourceId)
-                                .fitCenter()
-                                .into(largeIconWidth, largeIconHeight).get();
-                    } catch (InterruptedException | ExecutionException e) {
-                        Log.e(LOG_TAG, "Error retrieving large icon from " + artUrl, e);
-                        largeIcon = BitmapFactory.decodeResource(resources, artResourceId);
-                    }
+                    Bitmap largeIcon = WeatherIconCache.getInstance(context)
+                            .get(artUrl, artResourceId, largeIconWidth, largeIconHeight,
+                                    Bitmap.CompressFormat.PNG)
+                            .getBitmap();
                     String title = context.getString(R.string.app_name);
 
                     // Define the text of the forecast.
+                    boolean isMetric = SettingsSnapshot.get(context).metric;
                     String contentText = String.format(context.getString(R.string.format_notification),
                             desc,
-                            Utility.formatTemperature(context, high),
-                            Utility.formatTemperature(context, low));
+                            Utility.formatTemperature(context, high, isMetric),
+                            Utility.formatTemperature(context, low, isMetric));
 
                     // NotificationCompatBuilder is a very convenient way to build backward-compatible
                     // notifications.  Just throw in some data.
@@ -521,146 +859,144 @@ public class SunshineSyncAdapter extends AbstractThreadedSyncAdapter {
         }
     }
 
-    private Asset createAssetFromBitmap(Bitmap bitmap) {
-        final ByteArrayOutputStream byteStream = new ByteArrayOutputStream();
-        bitmap.compress(Bitmap.CompressFormat.PNG, 100, byteStream);
-        return Asset.createFromBytes(byteStream.toByteArray());
-    }
-
     private void notifyWear() {
         Log.d(LOG_TAG, "notifyWear");
         Context context = getContext();
-        String locationQuery = Utility.getPreferredLocation(context);
-
-        Uri weatherUri = WeatherContract.WeatherEntry.buildWeatherLocationWithDate(locationQuery, System.currentTimeMillis());
-
-        // we'll query our contentProvider, as always
-        Cursor cursor = context.getContentResolver().query(weatherUri, WEAR_WEATHER_PROJECTION, null, null, null);
-
-        if (cursor.moveToFirst()) {
+        Cursor cursor = queryTodayForWear(context);
+        if (cursor == null) {
+            return;
+        }
+        try {
+            if (!cursor.moveToFirst()) {
+                return;
+            }
             int weatherId = cursor.getInt(INDEX_WEATHER_ID);
             double high = cursor.getDouble(INDEX_MAX_TEMP);
             double low = cursor.getDouble(INDEX_MIN_TEMP);
 
-//            int iconId = Utility.getIconResourceForWeatherCondition(weatherId);
-            Resources resources = context.getResources();
-            int artResourceId = Utility.getArtResourceForWeatherCondition(weatherId);
-            String artUrl = Utility.getArtUrlForWeatherCondition(context, weatherId);
-
-            @SuppressLint("InlinedApi")
-            int largeIconWidth = resources.getDimensionPixelSize(R.dimen.wear_icon_default);
-            @SuppressLint("InlinedApi")
-            int largeIconHeight = resources.getDimensionPixelSize(R.dimen.wear_icon_default);
-
-            // Retrieve the large icon
-            Bitmap largeIcon;
-            try {
-                largeIcon = Glide.with(context)
-                        .load(artUrl)
-                        .asBitmap()
-                        .error(artResourceId)
-                        .fitCenter()
-                        .into(largeIconWidth, largeIconHeight).get();
-            } catch (InterruptedException | ExecutionException e) {
-                Log.e(LOG_TAG, "Error retrieving large icon from " + artUrl, e);
-                largeIcon = BitmapFactory.decodeResource(resources, artResourceId);
-            }
-
-            final Asset asset = createAssetFromBitmap(largeIcon);
-            final PutDataMapRequest putDataMapRequest = PutDataMapRequest.create("/weather-info");
+            // The watch is only told which icon to show; it asks for the bytes with
+            // WEAR_ICON_REQUEST_PATH if it hasn't got them already.
+            WeatherIconCache.Icon icon = getWearIcon(context, weatherId);
+            PutDataMapRequest putDataMapRequest = PutDataMapRequest.create(WEAR_WEATHER_PATH);
             putDataMapRequest.getDataMap().putDouble("high", high);
             putDataMapRequest.getDataMap().putDouble("low", low);
-            putDataMapRequest.getDataMap().putAsset("weatherImage", asset);
-            final PutDataRequest request = putDataMapRequest.asPutDataRequest();
-            final GoogleApiClient googleApiClient = new GoogleApiClient.Builder(getContext())
-                    .addApi(Wearable.API)
-                    .build();
-            Wearable.DataApi.putDataItem(googleApiClient, request)
-                .setResultCallback(new ResultCallbacks<DataApi.DataItemResult>() {
-                    @Override
-                    public void onSuccess(DataApi.DataItemResult dataItemResult) {
-                        if (dataItemResult.getStatus().isSuccess()) {
-                            Log.d(LOG_TAG, "Successfully sent weather data");
-                        } else {
-                            Log.d(LOG_TAG, "Failed to send weather data");
-                        }
-                    }
+            putDataMapRequest.getDataMap().putString(WEAR_ICON_HASH_KEY, icon.getHash());
+            PutDataRequest request = putDataMapRequest.asPutDataRequest();
 
-                    @Override
-                    public void onFailure(Status status) {
-                        Log.d(LOG_TAG, "onFailure" + status);
-                    }
-                });
+            GoogleApiClient googleApiClient = connectWearable(context);
+            if (googleApiClient == null) {
+                return;
+            }
+            try {
+                DataApi.DataItemResult result =
+                        Wearable.DataApi.putDataItem(googleApiClient, request).await();
+                if (result.getStatus().isSuccess()) {
+                    Log.d(LOG_TAG, "Successfully sent weather data");
+                } else {
+                    Log.d(LOG_TAG, "Failed to send weather data: " + result.getStatus());
+                }
+            } finally {
+                googleApiClient.disconnect();
+            }
+        } finally {
+            cursor.close();
         }
-        cursor.close();
     }
 
     /**
-     * Helper method to handle insertion of a new location in the weather database.
-     *
-     * @param locationSetting The location string used to request updates from the server.
-     * @param cityName A human-readable city name, e.g "Mountain View"
-     * @param lat the latitude of the city
-     * @param lon the longitude of the city
-     * @return the row ID of the added location.
+     * Answers a watch's {@link #WEAR_ICON_REQUEST_PATH} message by sending it the bytes of the
+     * icon with the given hash, if that's still the one for today's weather.  If it isn't, a
+     * newer hash is already on its way to the watch, which will ask again.  Blocks, so it must
+     * not be called on the main thread.
      */
-    long addLocation(String locationSetting, String cityName, double lat, double lon) {
-        long locationId;
-
-        // First, check if the location with this city name exists in the db
-        Cursor locationCursor = getContext().getContentResolver().query(
-                WeatherContract.LocationEntry.CONTENT_URI,
-                new String[]{WeatherContract.LocationEntry._ID},
-                WeatherContract.LocationEntry.COLUMN_LOCATION_SETTING + " = ?",
-                new String[]{locationSetting},
-                null);
+    public static void sendWearIcon(Context context, String nodeId, String hash) {
+        Cursor cursor = queryTodayForWear(context);
+        if (cursor == null) {
+            return;
+        }
+        WeatherIconCache.Icon icon;
+        try {
+            if (!cursor.moveToFirst()) {
+                return;
+            }
+            icon = getWearIcon(context, cursor.getInt(INDEX_WEATHER_ID));
+        } finally {
+            cursor.close();
+        }
+        if (!icon.getHash().equals(hash)) {
+            Log.d(LOG_TAG, "Watch asked for icon " + hash + ", now " + icon.getHash());
+            return;
+        }
 
-        if (locationCursor.moveToFirst()) {
-            int locationIdIndex = locationCursor.getColumnIndex(WeatherContract.LocationEntry._ID);
-            locationId = locationCursor.getLong(locationIdIndex);
-        } else {
-            // Now that the content provider is set up, inserting rows of data is pretty simple.
-            // First create a ContentValues object to hold the data you want to insert.
-            ContentValues locationValues = new ContentValues();
+        GoogleApiClient googleApiClient = connectWearable(context);
+        if (googleApiClient == null) {
+            return;
+        }
+        try {
+            MessageApi.SendMessageResult result = Wearable.MessageApi.sendMessage(
+                    googleApiClient, nodeId, WEAR_ICON_PATH_PREFIX + hash, icon.bytes).await();
+            Log.d(LOG_TAG, "Sent icon " + hash + ", " + icon.bytes.length + " bytes: "
+                    + result.getStatus());
+        } finally {
+            googleApiClient.disconnect();
+        }
+    }
 
-            // Then add the data, along with the corresponding name of the data type,
-            // so the content provider knows what kind of value is being inserted.
-            locationValues.put(WeatherContract.LocationEntry.COLUMN_CITY_NAME, cityName);
-            locationValues.put(WeatherContract.LocationEntry.COLUMN_LOCATION_SETTING, locationSetting);
-            locationValues.put(WeatherContract.LocationEntry.COLUMN_COORD_LAT, lat);
-            locationValues.put(WeatherContract.LocationEntry.COLUMN_COORD_LONG, lon);
+    private static Cursor queryTodayForWear(Context context) {
+        String locationQuery = Utility.getPreferredLocation(context);
+        Uri weatherUri = WeatherContract.WeatherEntry.buildWeatherLocationWithDate(
+                locationQuery, System.currentTimeMillis());
+        return context.getContentResolver().query(weatherUri, WEAR_WEATHER_PROJECTION,
+                null, null, null);
+    }
 
-            // Finally, insert location data into the database.
-            Uri insertedUri = getContext().getContentResolver().insert(
-                    WeatherContract.LocationEntry.CONTENT_URI,
-                    locationValues
-            );
+    private static WeatherIconCache.Icon getWearIcon(Context context, int weatherId) {
+        int artResourceId = Utility.getArtResourceForWeatherCondition(weatherId);
+        String artUrl = Utility.getArtUrlForWeatherCondition(context, weatherId);
+        int iconSize = context.getResources().getDimensionPixelSize(R.dimen.wear_icon_default);
+        return WeatherIconCache.getInstance(context)
+                .get(artUrl, artResourceId, iconSize, iconSize, Bitmap.CompressFormat.PNG);
+    }
 
-            // The resulting URI contains the ID for the row.  Extract the locationId from the Uri.
-            locationId = ContentUris.parseId(insertedUri);
+    /**
+     * Returns a client connected to the Wearable API, or null if it couldn't connect.  The
+     * caller must disconnect it.
+     */
+    private static GoogleApiClient connectWearable(Context context) {
+        GoogleApiClient googleApiClient = new GoogleApiClient.Builder(context)
+                .addApi(Wearable.API)
+                .build();
+        ConnectionResult connectionResult = googleApiClient.blockingConnect(
+                WEAR_CONNECT_TIMEOUT_SECONDS, TimeUnit.SECONDS);
+        if (!connectionResult.isSuccess()) {
+            Log.d(LOG_TAG, "Couldn't connect to the Wearable API: " + connectionResult);
+            return null;
         }
-
-        locationCursor.close();
-        // Wait, that worked?  Yes!
-        return locationId;
+        return googleApiClient;
     }
 
     /**
-     * Helper method to schedule the sync adapter periodic execution
+     * Helper method to schedule the sync adapter periodic execution, which refreshes every
+     * saved location
      */
     public static void configurePeriodicSync(Context context, int syncInterval, int flexTime) {
         Account account = getSyncAccount(context);
         String authority = context.getString(R.string.content_authority);
+        Bundle extras = new Bundle();
+        extras.putBoolean(SYNC_EXTRAS_ALL_LOCATIONS, true);
+        // Periodic syncs are told apart by their extras, so drop the preferred-location-only
+        // one that earlier versions scheduled rather than running both.
+        ContentResolver.removePeriodicSync(account, authority, new Bundle());
         if (Build.VERSION.SDK_INT >= Build.VERSION_CODES.KITKAT) {
             // we can enable inexact timers in our periodic sync
             SyncRequest request = new SyncRequest.Builder().
                     syncPeriodic(syncInterval, flexTime).
                     setSyncAdapter(account, authority).
-                    setExtras(new Bundle()).build();
+                    setExtras(extras).build();
             ContentResolver.requestSync(request);
         } else {
             ContentResolver.addPeriodicSync(account,
-                    authority, new Bundle(), syncInterval);
+                    authority, extras, syncInterval);
         }
     }
 
@@ -734,6 +1070,9 @@ public class SunshineSyncAdapter extends AbstractThreadedSyncAdapter {
 
     public static void initializeSyncAdapter(Context context) {
         getSyncAccount(context);
+        // Scheduling the same periodic sync again only updates it, and this moves installs
+        // from before the all-locations sync over to it.
+        configurePeriodicSync(context, SYNC_INTERVAL, SYNC_FLEXTIME);
     }
 
     /**
@@ -743,8 +1082,7 @@ public class SunshineSyncAdapter extends AbstractThreadedSyncAdapter {
      * @param locationStatus The IntDef value to set
      */
     static private void setLocationStatus(Context c, @LocationStatus int locationStatus){
-        SharedPreferences sp = PreferenceManager.getDefaultSharedPreferences(c);
-        SharedPreferences.Editor spe = sp.edit();
+        SharedPreferences.Editor spe = SettingsSnapshot.edit(c);
         spe.putInt(c.getString(R.string.pref_location_status_key), locationStatus);
         spe.commit();
     }
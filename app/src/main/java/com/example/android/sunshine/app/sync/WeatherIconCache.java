@@ -0,0 +1,259 @@
+/*
+ * Copyright (C) 2015 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.example.android.sunshine.app.sync;
+
+import android.content.Context;
+import android.graphics.Bitmap;
+import android.graphics.BitmapFactory;
+import android.support.v4.util.LruCache;
+import android.util.Log;
+
+import com.bumptech.glide.Glide;
+
+import java.io.ByteArrayOutputStream;
+import java.io.Closeable;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.concurrent.ExecutionException;
+
+/**
+ * The condition art the notification and the watch show, fetched and scaled once for each art
+ * pack, condition, size and encoding, and kept both decoded and encoded.  A sync whose
+ * condition hasn't changed gets the same {@link Icon} back without touching the network, Glide
+ * or the encoder.
+ *
+ * The encoded bytes are also written to the app's cache directory, so a new process only reads
+ * them back, and only decodes them if something asks for the bitmap.
+ */
+class WeatherIconCache {
+    private static final String LOG_TAG = WeatherIconCache.class.getSimpleName();
+
+    private static final String DIRECTORY = "weather_icons";
+    // Every condition for two art packs at the two sizes we use.
+    private static final int MAX_FILES = 32;
+    private static final int MAX_BYTES = 1024 * 1024;
+
+    private static WeatherIconCache sInstance;
+
+    private final Context mContext;
+    private final File mDirectory;
+    private final LruCache<String, Icon> mIcons;
+
+    /**
+     * A scaled piece of art and its encoding.
+     */
+    static final class Icon {
+        final byte[] bytes;
+        private Bitmap mBitmap;
+        private String mHash;
+
+        Icon(byte[] bytes, Bitmap bitmap) {
+            this.bytes = bytes;
+            mBitmap = bitmap;
+        }
+
+        /**
+         * Returns the decoded icon, decoding the bytes the first time if the icon was read back
+         * from disk.  The bitmap is shared and must not be changed.
+         */
+        synchronized Bitmap getBitmap() {
+            if (mBitmap == null) {
+                mBitmap = BitmapFactory.decodeByteArray(bytes, 0, bytes.length);
+            }
+            return mBitmap;
+        }
+
+        /**
+         * Returns the hex MD5 of the encoded bytes, which the watch keeps its copy under.
+         */
+        synchronized String getHash() {
+            if (mHash == null) {
+                mHash = ForecastHttpCache.toHex(ForecastHttpCache.newBodyDigest().digest(bytes));
+            }
+            return mHash;
+        }
+
+        synchronized int sizeInBytes() {
+            return bytes.length
+                    + (mBitmap == null ? 0 : mBitmap.getRowBytes() * mBitmap.getHeight());
+        }
+    }
+
+    WeatherIconCache(Context context, File directory, int maxBytes) {
+        mContext = context.getApplicationContext() != null
+                ? context.getApplicationContext() : context;
+        mDirectory = directory;
+        mIcons = new LruCache<String, Icon>(maxBytes) {
+            @Override
+            protected int sizeOf(String key, Icon icon) {
+                // A bitmap decoded later isn't counted until the icon is put again, which is
+                // close enough for icons this size.
+                return icon.sizeInBytes();
+            }
+        };
+    }
+
+    static synchronized WeatherIconCache getInstance(Context context) {
+        if (sInstance == null) {
+            sInstance = new WeatherIconCache(context,
+                    new File(context.getCacheDir(), DIRECTORY), MAX_BYTES);
+        }
+        return sInstance;
+    }
+
+    static String keyFor(String artUrl, int width, int height, Bitmap.CompressFormat format) {
+        return artUrl + "@" + width + "x" + height + "." + format.name();
+    }
+
+    /**
+     * Returns the art at {@code artUrl} scaled to fit {@code width} by {@code height} and
+     * encoded as {@code format}, losslessly where the format allows.  If the art can't be
+     * fetched, the fallback resource is used instead and nothing is cached, so the next sync
+     * tries again.  Blocks on the disk and the network, so it must not be called on the main
+     * thread.
+     */
+    Icon get(String artUrl, int fallbackResourceId, int width, int height,
+             Bitmap.CompressFormat format) {
+        String key = keyFor(artUrl, width, height, format);
+        Icon icon = mIcons.get(key);
+        if (icon != null) {
+            return icon;
+        }
+
+        File file = new File(mDirectory, ForecastHttpCache.toHex(
+                ForecastHttpCache.newBodyDigest().digest(key.getBytes())));
+        byte[] bytes = readFile(file);
+        if (bytes != null) {
+            icon = new Icon(bytes, null);
+        } else {
+            Bitmap bitmap = fetch(artUrl, width, height);
+            if (bitmap == null) {
+                bitmap = BitmapFactory.decodeResource(mContext.getResources(),
+                        fallbackResourceId);
+                return new Icon(encode(bitmap, format), bitmap);
+            }
+            icon = new Icon(encode(bitmap, format), bitmap);
+            writeFile(file, icon.bytes);
+        }
+        mIcons.put(key, icon);
+        return icon;
+    }
+
+    Bitmap fetch(String artUrl, int width, int height) {
+        try {
+            // Kept out of Glide's memory cache, which would only hold a second copy; the bitmap
+            // stays ours because the request is never cleared.
+            return Glide.with(mContext)
+                    .load(artUrl)
+                    .asBitmap()
+                    .fitCenter()
+                    .skipMemoryCache(true)
+                    .into(width, height).get();
+        } catch (InterruptedException | ExecutionException e) {
+            Log.e(LOG_TAG, "Error retrieving icon from " + artUrl, e);
+            return null;
+        }
+    }
+
+    private static byte[] encode(Bitmap bitmap, Bitmap.CompressFormat format) {
+        ByteArrayOutputStream byteStream = new ByteArrayOutputStream();
+        bitmap.compress(format, 100, byteStream);
+        return byteStream.toByteArray();
+    }
+
+    private static byte[] readFile(File file) {
+        if (!file.isFile()) {
+            return null;
+        }
+        InputStream in = null;
+        try {
+            in = new FileInputStream(file);
+            byte[] bytes = new byte[(int) file.length()];
+            int read = 0;
+            while (read < bytes.length) {
+                int count = in.read(bytes, read, bytes.length - read);
+                if (count < 0) {
+                    return null;
+                }
+                read += count;
+            }
+            return bytes;
+        } catch (IOException e) {
+            Log.w(LOG_TAG, "Error reading " + file, e);
+            return null;
+        } finally {
+            closeQuietly(in);
+        }
+    }
+
+    private void writeFile(File file, byte[] bytes) {
+        if (!mDirectory.isDirectory() && !mDirectory.mkdirs()) {
+            return;
+        }
+        // Written aside and renamed, so a process killed halfway leaves no torn icon behind.
+        File temp = new File(mDirectory, file.getName() + ".tmp");
+        OutputStream out = null;
+        try {
+            out = new FileOutputStream(temp);
+            out.write(bytes);
+            out.close();
+            out = null;
+            if (!temp.renameTo(file)) {
+                temp.delete();
+            }
+        } catch (IOException e) {
+            Log.w(LOG_TAG, "Error writing " + file, e);
+            temp.delete();
+        } finally {
+            closeQuietly(out);
+        }
+        trimFiles();
+    }
+
+    private void trimFiles() {
+        File[] files = mDirectory.listFiles();
+        if (files == null || files.length <= MAX_FILES) {
+            return;
+        }
+        Arrays.sort(files, new Comparator<File>() {
+            @Override
+            public int compare(File lhs, File rhs) {
+                long lhsModified = lhs.lastModified();
+                long rhsModified = rhs.lastModified();
+                return lhsModified < rhsModified ? -1 : (lhsModified == rhsModified ? 0 : 1);
+            }
+        });
+        for (int i = 0; i < files.length - MAX_FILES; i++) {
+            files[i].delete();
+        }
+    }
+
+    private static void closeQuietly(Closeable closeable) {
+        if (closeable != null) {
+            try {
+                closeable.close();
+            } catch (IOException e) {
+                // Nothing more to do with it.
+            }
+        }
+    }
+}
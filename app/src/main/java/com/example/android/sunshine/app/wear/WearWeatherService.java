@@ -5,16 +5,20 @@ import android.util.Log;
 import com.example.android.sunshine.app.sync.SunshineSyncAdapter;
 import com.google.android.gms.wearable.DataEvent;
 import com.google.android.gms.wearable.DataEventBuffer;
+import com.google.android.gms.wearable.MessageEvent;
 import com.google.android.gms.wearable.WearableListenerService;
+
+import java.nio.charset.Charset;
+
 /**
  * Created by alexander on 10.03.16.
  */
 public class WearWeatherService extends WearableListenerService {
-
+    private static final String LOG_TAG = WearWeatherService.class.getSimpleName();
 
     @Override
     public void onDataChanged(DataEventBuffer dataEvents) {
-        Log.d("WearWeatherService", "onDataChanged");
+        Log.d(LOG_TAG, "onDataChanged");
         for (DataEvent dataEvent : dataEvents) {
             if (dataEvent.getType() == DataEvent.TYPE_CHANGED) {
                 final String path = dataEvent.getDataItem().getUri().getPath();
@@ -24,4 +28,15 @@ public class WearWeatherService extends WearableListenerService {
             }
         }
     }
+
+    @Override
+    public void onMessageReceived(MessageEvent messageEvent) {
+        if (SunshineSyncAdapter.WEAR_ICON_REQUEST_PATH.equals(messageEvent.getPath())) {
+            // A watch didn't have the icon it was told to show.  Listener callbacks come on a
+            // background thread, so the icon can be looked up and sent from here.
+            String hash = new String(messageEvent.getData(), Charset.forName("UTF-8"));
+            Log.d(LOG_TAG, "Icon " + hash + " requested");
+            SunshineSyncAdapter.sendWearIcon(this, messageEvent.getSourceNodeId(), hash);
+        }
+    }
 }
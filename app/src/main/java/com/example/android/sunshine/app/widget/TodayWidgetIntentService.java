@@ -20,22 +20,37 @@ import android.app.IntentService;
 import android.app.PendingIntent;
 import android.appwidget.AppWidgetManager;
 import android.content.ComponentName;
+import android.content.Context;
 import android.content.Intent;
+import android.content.SharedPreferences;
 import android.database.Cursor;
 import android.net.Uri;
 import android.os.Build;
 import android.os.Bundle;
 import android.util.DisplayMetrics;
+import android.util.SparseArray;
 import android.util.TypedValue;
 import android.widget.RemoteViews;
 
 import com.example.android.sunshine.app.MainActivity;
 import com.example.android.sunshine.app.R;
+import com.example.android.sunshine.app.SettingsSnapshot;
 import com.example.android.sunshine.app.Utility;
 import com.example.android.sunshine.app.data.WeatherContract;
 
+import java.io.UnsupportedEncodingException;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
 /**
- * IntentService which handles updating all Today widgets with the latest data
+ * IntentService which handles updating all Today widgets with the latest data.
+ *
+ * Widgets are grouped by the layout their width calls for, and each layout's RemoteViews is
+ * built once and sent to all of its widgets in one update.  Widgets already showing the same
+ * content are left alone.
  */
 public class TodayWidgetIntentService extends IntentService {
     private static final String[] FORECAST_COLUMNS = {
@@ -50,6 +65,18 @@ public class TodayWidgetIntentService extends IntentService {
     private static final int INDEX_MAX_TEMP = 2;
     private static final int INDEX_MIN_TEMP = 3;
 
+    /**
+     * Set on intents that must update every widget even if it should already be showing the
+     * latest data, such as when widgets are added, resized or restored after a reboot.
+     */
+    static final String EXTRA_FORCE_UPDATE =
+            "com.example.android.sunshine.app.widget.EXTRA_FORCE_UPDATE";
+
+    // Each widget's id mapped to a digest of what was last sent to it.  (The file before this
+    // one, "today_widget_rendered", held 32-bit hashes and is no longer read.)
+    static final String RENDERED_DIGESTS_FILE = "today_widget_rendered_digests";
+    private static final String CONTENT_DIGEST_ALGORITHM = "MD5";
+
     public TodayWidgetIntentService() {
         super("TodayWidgetIntentService");
     }
@@ -60,6 +87,10 @@ public class TodayWidgetIntentService extends IntentService {
         AppWidgetManager appWidgetManager = AppWidgetManager.getInstance(this);
         int[] appWidgetIds = appWidgetManager.getAppWidgetIds(new ComponentName(this,
                 TodayWidgetProvider.class));
+        if (appWidgetIds.length == 0) {
+            return;
+        }
+        boolean forceUpdate = intent != null && intent.getBooleanExtra(EXTRA_FORCE_UPDATE, false);
 
         // Get today's data from the ContentProvider
         String location = Utility.getPreferredLocation(this);
@@ -81,24 +112,41 @@ public class TodayWidgetIntentService extends IntentService {
         String description = data.getString(INDEX_SHORT_DESC);
         double maxTemp = data.getDouble(INDEX_MAX_TEMP);
         double minTemp = data.getDouble(INDEX_MIN_TEMP);
-        String formattedMaxTemperature = Utility.formatTemperature(this, maxTemp);
-        String formattedMinTemperature = Utility.formatTemperature(this, minTemp);
+        boolean isMetric = SettingsSnapshot.get(this).metric;
+        String formattedMaxTemperature = Utility.formatTemperature(this, maxTemp, isMetric);
+        String formattedMinTemperature = Utility.formatTemperature(this, minTemp, isMetric);
         data.close();
 
-        // Perform this loop procedure for each Today widget
-        for (int appWidgetId : appWidgetIds) {
-            // Find the correct layout based on the widget's width
-            int widgetWidth = getWidgetWidth(appWidgetManager, appWidgetId);
-            int defaultWidth = getResources().getDimensionPixelSize(R.dimen.widget_today_default_width);
-            int largeWidth = getResources().getDimensionPixelSize(R.dimen.widget_today_large_width);
-            int layoutId;
-            if (widgetWidth >= largeWidth) {
-                layoutId = R.layout.widget_today_large;
-            } else if (widgetWidth >= defaultWidth) {
-                layoutId = R.layout.widget_today;
-            } else {
-                layoutId = R.layout.widget_today_small;
+        // Find the correct layout for each widget based on its width, so that each layout is
+        // only built once however many widgets use it
+        int defaultWidth = getResources().getDimensionPixelSize(R.dimen.widget_today_default_width);
+        int largeWidth = getResources().getDimensionPixelSize(R.dimen.widget_today_large_width);
+        int[] widgetWidths = new int[appWidgetIds.length];
+        for (int i = 0; i < appWidgetIds.length; i++) {
+            widgetWidths[i] = getWidgetWidth(appWidgetManager, appWidgetIds[i], defaultWidth);
+        }
+        SparseArray<List<Integer>> widgetsByLayout =
+                groupByLayout(appWidgetIds, widgetWidths, defaultWidth, largeWidth);
+
+        // Create an Intent to launch MainActivity
+        Intent launchIntent = new Intent(this, MainActivity.class);
+        PendingIntent pendingIntent = PendingIntent.getActivity(this, 0, launchIntent, 0);
+
+        SharedPreferences renderedDigests = getSharedPreferences(RENDERED_DIGESTS_FILE,
+                Context.MODE_PRIVATE);
+        SharedPreferences.Editor editor = renderedDigests.edit();
+        for (int i = 0; i < widgetsByLayout.size(); i++) {
+            int layoutId = widgetsByLayout.keyAt(i);
+
+            // Widgets already showing exactly this don't need it sent again
+            String contentDigest = getContentDigest(layoutId, weatherArtResourceId, description,
+                    formattedMaxTemperature, formattedMinTemperature);
+            int[] staleWidgetIds = selectStaleWidgets(renderedDigests, editor,
+                    widgetsByLayout.valueAt(i), contentDigest, forceUpdate);
+            if (staleWidgetIds.length == 0) {
+                continue;
             }
+
             RemoteViews views = new RemoteViews(getPackageName(), layoutId);
 
             // Add the data to the RemoteViews
@@ -110,29 +158,113 @@ public class TodayWidgetIntentService extends IntentService {
             views.setTextViewText(R.id.widget_description, description);
             views.setTextViewText(R.id.widget_high_temperature, formattedMaxTemperature);
             views.setTextViewText(R.id.widget_low_temperature, formattedMinTemperature);
-
-            // Create an Intent to launch MainActivity
-            Intent launchIntent = new Intent(this, MainActivity.class);
-            PendingIntent pendingIntent = PendingIntent.getActivity(this, 0, launchIntent, 0);
             views.setOnClickPendingIntent(R.id.widget, pendingIntent);
 
-            // Tell the AppWidgetManager to perform an update on the current app widget
-            appWidgetManager.updateAppWidget(appWidgetId, views);
+            // Tell the AppWidgetManager to update every widget using this layout at once
+            appWidgetManager.updateAppWidget(staleWidgetIds, views);
+        }
+        editor.apply();
+    }
+
+    /**
+     * Groups widgets by the layout their width calls for.  {@code widgetWidths[i]} is the width
+     * of {@code appWidgetIds[i]}, in pixels.
+     */
+    static SparseArray<List<Integer>> groupByLayout(int[] appWidgetIds, int[] widgetWidths,
+                                                    int defaultWidth, int largeWidth) {
+        SparseArray<List<Integer>> widgetsByLayout = new SparseArray<List<Integer>>();
+        for (int i = 0; i < appWidgetIds.length; i++) {
+            int layoutId;
+            if (widgetWidths[i] >= largeWidth) {
+                layoutId = R.layout.widget_today_large;
+            } else if (widgetWidths[i] >= defaultWidth) {
+                layoutId = R.layout.widget_today;
+            } else {
+                layoutId = R.layout.widget_today_small;
+            }
+            List<Integer> widgets = widgetsByLayout.get(layoutId);
+            if (widgets == null) {
+                widgets = new ArrayList<Integer>();
+                widgetsByLayout.put(layoutId, widgets);
+            }
+            widgets.add(appWidgetIds[i]);
+        }
+        return widgetsByLayout;
+    }
+
+    /**
+     * Returns a digest of everything a widget shows.
+     */
+    static String getContentDigest(int layoutId, int artResourceId, String description,
+                                   String highTemperature, String lowTemperature) {
+        // Each field ends in a NUL, so moving text from one field to the next changes it too.
+        StringBuilder content = new StringBuilder()
+                .append(layoutId).append('\0')
+                .append(artResourceId).append('\0')
+                .append(description).append('\0')
+                .append(highTemperature).append('\0')
+                .append(lowTemperature).append('\0');
+        byte[] digest;
+        try {
+            digest = MessageDigest.getInstance(CONTENT_DIGEST_ALGORITHM)
+                    .digest(content.toString().getBytes("UTF-8"));
+        } catch (NoSuchAlgorithmException | UnsupportedEncodingException e) {
+            // Every Android release has MD5 and UTF-8.
+            throw new IllegalStateException(e);
+        }
+        StringBuilder hex = new StringBuilder(digest.length * 2);
+        for (byte b : digest) {
+            hex.append(Character.forDigit((b >> 4) & 0xf, 16))
+                    .append(Character.forDigit(b & 0xf, 16));
+        }
+        return hex.toString();
+    }
+
+    /**
+     * Returns those of {@code widgets} that aren't already showing {@code contentDigest}, or all
+     * of them if {@code forceUpdate} is set, and records in {@code editor} that they will be.
+     */
+    static int[] selectStaleWidgets(SharedPreferences renderedDigests,
+                                    SharedPreferences.Editor editor, List<Integer> widgets,
+                                    String contentDigest, boolean forceUpdate) {
+        int[] staleWidgetIds = new int[widgets.size()];
+        int staleCount = 0;
+        for (int appWidgetId : widgets) {
+            String key = String.valueOf(appWidgetId);
+            if (forceUpdate || !contentDigest.equals(renderedDigests.getString(key, null))) {
+                staleWidgetIds[staleCount++] = appWidgetId;
+                editor.putString(key, contentDigest);
+            }
+        }
+        return Arrays.copyOf(staleWidgetIds, staleCount);
+    }
+
+    /**
+     * Forgets what was last rendered into deleted widgets.
+     */
+    static void forgetWidgets(Context context, int[] appWidgetIds) {
+        SharedPreferences.Editor editor = context.getSharedPreferences(RENDERED_DIGESTS_FILE,
+                Context.MODE_PRIVATE).edit();
+        for (int appWidgetId : appWidgetIds) {
+            editor.remove(String.valueOf(appWidgetId));
         }
+        editor.apply();
     }
 
-    private int getWidgetWidth(AppWidgetManager appWidgetManager, int appWidgetId) {
+    private int getWidgetWidth(AppWidgetManager appWidgetManager, int appWidgetId,
+                               int defaultWidth) {
         // Prior to Jelly Bean, widgets were always their default size
         if (Build.VERSION.SDK_INT < Build.VERSION_CODES.JELLY_BEAN) {
-            return getResources().getDimensionPixelSize(R.dimen.widget_today_default_width);
+            return defaultWidth;
         }
         // For Jelly Bean and higher devices, widgets can be resized - the current size can be
         // retrieved from the newly added App Widget Options
-        return getWidgetWidthFromOptions(appWidgetManager, appWidgetId);
+        return getWidgetWidthFromOptions(appWidgetManager, appWidgetId, defaultWidth);
     }
 
     @TargetApi(Build.VERSION_CODES.JELLY_BEAN)
-    private int getWidgetWidthFromOptions(AppWidgetManager appWidgetManager, int appWidgetId) {
+    private int getWidgetWidthFromOptions(AppWidgetManager appWidgetManager, int appWidgetId,
+                                          int defaultWidth) {
         Bundle options = appWidgetManager.getAppWidgetOptions(appWidgetId);
         if (options.containsKey(AppWidgetManager.OPTION_APPWIDGET_MIN_WIDTH)) {
             int minWidthDp = options.getInt(AppWidgetManager.OPTION_APPWIDGET_MIN_WIDTH);
@@ -141,7 +273,7 @@ public class TodayWidgetIntentService extends IntentService {
             return (int) TypedValue.applyDimension(TypedValue.COMPLEX_UNIT_DIP, minWidthDp,
                     displayMetrics);
         }
-        return  getResources().getDimensionPixelSize(R.dimen.widget_today_default_width);
+        return defaultWidth;
     }
 
     @TargetApi(Build.VERSION_CODES.ICE_CREAM_SANDWICH_MR1)
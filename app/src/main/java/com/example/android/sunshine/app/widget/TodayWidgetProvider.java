@@ -34,13 +34,21 @@ public class TodayWidgetProvider extends AppWidgetProvider {
 
     @Override
     public void onUpdate(Context context, AppWidgetManager appWidgetManager, int[] appWidgetIds) {
-        context.startService(new Intent(context, TodayWidgetIntentService.class));
+        // The widgets may be new or freshly restored and showing nothing yet.
+        context.startService(new Intent(context, TodayWidgetIntentService.class)
+                .putExtra(TodayWidgetIntentService.EXTRA_FORCE_UPDATE, true));
     }
 
     @Override
     public void onAppWidgetOptionsChanged(Context context, AppWidgetManager appWidgetManager,
                                           int appWidgetId, Bundle newOptions) {
-        context.startService(new Intent(context, TodayWidgetIntentService.class));
+        context.startService(new Intent(context, TodayWidgetIntentService.class)
+                .putExtra(TodayWidgetIntentService.EXTRA_FORCE_UPDATE, true));
+    }
+
+    @Override
+    public void onDeleted(Context context, int[] appWidgetIds) {
+        TodayWidgetIntentService.forgetWidgets(context, appWidgetIds);
     }
 
     @Override
@@ -0,0 +1,116 @@
+/*
+ * Copyright (C) 2015 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.example.android.sunshine.app.widget;
+
+import android.content.Context;
+import android.graphics.Bitmap;
+import android.support.v4.util.LruCache;
+import android.util.Log;
+
+import com.bumptech.glide.Glide;
+
+import java.util.concurrent.ExecutionException;
+
+/**
+ * Weather art for the widgets, decoded once per art pack, condition and size at the size the
+ * widget shows it, and kept for every row and refresh after.  Every bitmap a widget shows is
+ * parcelled into its RemoteViews and sent to the launcher, so one at the icon's own size instead
+ * of the art's full resolution keeps each row's transaction small.
+ *
+ * Entries are keyed by the art URL, which is the art pack filled in with the condition's art
+ * name, and the size.  The cache is bounded by the bytes its bitmaps hold.
+ */
+class WidgetArtCache {
+    private static final String LOG_TAG = WidgetArtCache.class.getSimpleName();
+
+    // Room for every condition at a large icon size or two, but never more than a small share
+    // of the heap.
+    private static final int MAX_BYTES = 2 * 1024 * 1024;
+
+    private static WidgetArtCache sInstance;
+
+    private final Context mContext;
+    private final LruCache<String, Bitmap> mBitmaps;
+
+    WidgetArtCache(Context context, int maxBytes) {
+        mContext = context.getApplicationContext() != null
+                ? context.getApplicationContext() : context;
+        mBitmaps = new LruCache<String, Bitmap>(maxBytes) {
+            @Override
+            protected int sizeOf(String key, Bitmap bitmap) {
+                // getByteCount is API 12.
+                return bitmap.getRowBytes() * bitmap.getHeight();
+            }
+        };
+    }
+
+    static synchronized WidgetArtCache getInstance(Context context) {
+        if (sInstance == null) {
+            int maxBytes = (int) Math.min(MAX_BYTES, Runtime.getRuntime().maxMemory() / 32);
+            sInstance = new WidgetArtCache(context, maxBytes);
+        }
+        return sInstance;
+    }
+
+    static String keyFor(String artUrl, int width, int height) {
+        return artUrl + "@" + width + "x" + height;
+    }
+
+    /**
+     * Returns the art at {@code artUrl} scaled to fit {@code width} by {@code height}, decoding
+     * it if it isn't cached, or null if it can't be loaded.  Blocks while decoding, so it must
+     * not be called on the main thread.  The bitmap is shared and must not be changed.
+     */
+    Bitmap get(String artUrl, int width, int height) {
+        String key = keyFor(artUrl, width, height);
+        Bitmap bitmap = mBitmaps.get(key);
+        if (bitmap == null) {
+            bitmap = decode(artUrl, width, height);
+            if (bitmap != null) {
+                mBitmaps.put(key, bitmap);
+            }
+        }
+        return bitmap;
+    }
+
+    /**
+     * Drops every bitmap, for when the system is short of memory.
+     */
+    void evictAll() {
+        mBitmaps.evictAll();
+    }
+
+    int size() {
+        return mBitmaps.size();
+    }
+
+    Bitmap decode(String artUrl, int width, int height) {
+        try {
+            // Glide's own memory cache would only hold a second copy, and the bitmap it returns
+            // stays ours because the request is never cleared.  The scaled result still goes to
+            // its disk cache, so a new process doesn't fetch the art again.
+            return Glide.with(mContext)
+                    .load(artUrl)
+                    .asBitmap()
+                    .fitCenter()
+                    .skipMemoryCache(true)
+                    .into(width, height).get();
+        } catch (InterruptedException | ExecutionException e) {
+            Log.e(LOG_TAG, "Error retrieving art from " + artUrl, e);
+            return null;
+        }
+    }
+}
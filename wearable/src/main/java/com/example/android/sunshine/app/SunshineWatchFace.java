@@ -22,7 +22,6 @@ import android.content.Intent;
 import android.content.IntentFilter;
 import android.content.res.Resources;
 import android.graphics.Bitmap;
-import android.graphics.BitmapFactory;
 import android.graphics.Canvas;
 import android.graphics.Color;
 import android.graphics.Paint;
@@ -44,20 +43,23 @@ import com.google.android.gms.common.api.GoogleApiClient;
 import com.google.android.gms.common.api.ResolvingResultCallbacks;
 import com.google.android.gms.common.api.ResultCallback;
 import com.google.android.gms.common.api.Status;
-import com.google.android.gms.wearable.Asset;
 import com.google.android.gms.wearable.DataApi;
 import com.google.android.gms.wearable.DataEvent;
 import com.google.android.gms.wearable.DataEventBuffer;
 import com.google.android.gms.wearable.DataItemBuffer;
 import com.google.android.gms.wearable.DataMap;
 import com.google.android.gms.wearable.DataMapItem;
+import com.google.android.gms.wearable.MessageApi;
+import com.google.android.gms.wearable.MessageEvent;
+import com.google.android.gms.wearable.Node;
+import com.google.android.gms.wearable.NodeApi;
 import com.google.android.gms.wearable.PutDataMapRequest;
 import com.google.android.gms.wearable.PutDataRequest;
 import com.google.android.gms.wearable.Wearable;
 
-import java.io.InputStream;
 import java.lang.ref.WeakReference;
 import java.lang.reflect.Type;
+import java.nio.charset.StandardCharsets;
 import java.text.SimpleDateFormat;
 import java.util.Calendar;
 import java.util.Date;
@@ -110,9 +112,16 @@ public class SunshineWatchFace extends CanvasWatchFaceService {
     }
 
     private class Engine extends CanvasWatchFaceService.Engine implements DataApi.DataListener,
+            MessageApi.MessageListener,
             GoogleApiClient.ConnectionCallbacks,
             GoogleApiClient.OnConnectionFailedListener {
         private static final String WEATHER_PATH = "/weather";
+        // The phone puts the forecast and its icon's hash here, and sends an icon's bytes to
+        // ICON_PATH_PREFIX plus its hash when asked for it at ICON_REQUEST_PATH.
+        private static final String WEATHER_INFO_PATH = "/weather-info";
+        private static final String ICON_HASH_KEY = "weatherImageHash";
+        private static final String ICON_REQUEST_PATH = "/weather-icon-request";
+        private static final String ICON_PATH_PREFIX = "/weather-icon/";
 
         private static final String COLON_STRING = ":";
 
@@ -135,6 +144,10 @@ public class SunshineWatchFace extends CanvasWatchFaceService {
         private double mHighTemperature;
         private double mLowTemperature;
         private Bitmap mWeatherImage;
+        // The hash of the icon being shown, and of the one the phone last said to show.
+        private String mWeatherImageHash;
+        private String mWantedImageHash;
+        private WeatherIconStore mIconStore;
 
         private SimpleDateFormat mDayOfWeekFormat;
         private java.text.DateFormat mDateFormat;
@@ -191,6 +204,7 @@ public class SunshineWatchFace extends CanvasWatchFaceService {
 
             mCalendar = Calendar.getInstance();
             mDate = new Date();
+            mIconStore = new WeatherIconStore(SunshineWatchFace.this);
 
             initFormats();
         }
@@ -225,6 +239,7 @@ public class SunshineWatchFace extends CanvasWatchFaceService {
 
                 if (mGoogleApiClient != null && mGoogleApiClient.isConnected()) {
                     Wearable.DataApi.removeListener(mGoogleApiClient, this);
+                    Wearable.MessageApi.removeListener(mGoogleApiClient, this);
                     mGoogleApiClient.disconnect();
                 }
             }
@@ -437,11 +452,14 @@ public class SunshineWatchFace extends CanvasWatchFaceService {
                 if (dataEvent.getType() == DataEvent.TYPE_CHANGED) {
                     final DataMap dataMap = DataMapItem.fromDataItem(dataEvent.getDataItem()).getDataMap();
                     final String path = dataEvent.getDataItem().getUri().getPath();
-                    if (path.equals("weather-info")) {
+                    if (path.equals(WEATHER_INFO_PATH)) {
                         mHighTemperature = dataMap.getDouble("high");
                         mLowTemperature = dataMap.getDouble("low");
-                        final Asset weatherIconAsset = dataMap.getAsset("weatherImage");
-                        mWeatherImage = loadBitmapFromAsset(weatherIconAsset);
+                        String hash = dataMap.getString(ICON_HASH_KEY);
+                        if (hash != null && !hash.equals(mWantedImageHash)) {
+                            mWantedImageHash = hash;
+                            loadIcon(hash);
+                        }
                     }
                 }
             }
@@ -452,7 +470,82 @@ public class SunshineWatchFace extends CanvasWatchFaceService {
         public void onConnected(Bundle bundle) {
             Log.d("SunshineWatch", "onConnected");
             Wearable.DataApi.addListener(mGoogleApiClient, Engine.this);
+            Wearable.MessageApi.addListener(mGoogleApiClient, Engine.this);
             updateConfigDataItemAndUiOnStartup();
+            // An icon asked for while we were disconnected may never have arrived.
+            if (mWantedImageHash != null && !mWantedImageHash.equals(mWeatherImageHash)) {
+                loadIcon(mWantedImageHash);
+            }
+        }
+
+        @Override
+        public void onMessageReceived(MessageEvent messageEvent) {
+            String path = messageEvent.getPath();
+            if (path.startsWith(ICON_PATH_PREFIX)) {
+                final String hash = path.substring(ICON_PATH_PREFIX.length());
+                final byte[] bytes = messageEvent.getData();
+                new AsyncTask<Void, Void, Bitmap>() {
+                    @Override
+                    protected Bitmap doInBackground(Void... params) {
+                        return mIconStore.store(hash, bytes);
+                    }
+
+                    @Override
+                    protected void onPostExecute(Bitmap icon) {
+                        showIcon(hash, icon);
+                    }
+                }.execute();
+            }
+        }
+
+        /**
+         * Shows the icon with the given hash from the store, or asks the phone for it if it
+         * isn't there.
+         */
+        private void loadIcon(final String hash) {
+            new AsyncTask<Void, Void, Bitmap>() {
+                @Override
+                protected Bitmap doInBackground(Void... params) {
+                    return mIconStore.load(hash);
+                }
+
+                @Override
+                protected void onPostExecute(Bitmap icon) {
+                    if (icon != null) {
+                        showIcon(hash, icon);
+                    } else {
+                        requestIcon(hash);
+                    }
+                }
+            }.execute();
+        }
+
+        private void requestIcon(final String hash) {
+            if (!mGoogleApiClient.isConnected()) {
+                // Asked for again once we're connected.
+                return;
+            }
+            Log.d("SunshineWatch", "Requesting icon " + hash);
+            Wearable.NodeApi.getConnectedNodes(mGoogleApiClient)
+                    .setResultCallback(new ResultCallback<NodeApi.GetConnectedNodesResult>() {
+                        @Override
+                        public void onResult(NodeApi.GetConnectedNodesResult result) {
+                            for (Node node : result.getNodes()) {
+                                Wearable.MessageApi.sendMessage(mGoogleApiClient, node.getId(),
+                                        ICON_REQUEST_PATH,
+                                        hash.getBytes(StandardCharsets.UTF_8));
+                            }
+                        }
+                    });
+        }
+
+        private void showIcon(String hash, Bitmap icon) {
+            // A newer forecast may have asked for a different icon in the meantime.
+            if (icon != null && hash.equals(mWantedImageHash)) {
+                mWeatherImage = icon;
+                mWeatherImageHash = hash;
+                invalidate();
+            }
         }
 
         @Override
@@ -464,28 +557,5 @@ public class SunshineWatchFace extends CanvasWatchFaceService {
         public void onConnectionFailed(ConnectionResult connectionResult) {
             Log.d("SunshineWatch", "onConnectionFailed");
         }
-
-        private final long TIMEOUT_MS = 1000;
-        public Bitmap loadBitmapFromAsset(Asset asset) {
-            if (asset == null) {
-                throw new IllegalArgumentException("Asset must be non-null");
-            }
-            ConnectionResult result =
-                    mGoogleApiClient.blockingConnect(TIMEOUT_MS, TimeUnit.MILLISECONDS);
-            if (!result.isSuccess()) {
-                return null;
-            }
-            // convert asset into a file descriptor and block until it's ready
-            InputStream assetInputStream = Wearable.DataApi.getFdForAsset(
-                    mGoogleApiClient, asset).await().getInputStream();
-            mGoogleApiClient.disconnect();
-
-            if (assetInputStream == null) {
-//                Log.w(TAG, "Requested an unknown Asset.");
-                return null;
-            }
-            // decode the stream into a bitmap
-            return BitmapFactory.decodeStream(assetInputStream);
-        }
     }
 }
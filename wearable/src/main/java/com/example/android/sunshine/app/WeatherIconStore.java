@@ -0,0 +1,132 @@
+/*
+ * Copyright (C) 2015 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.example.android.sunshine.app;
+
+import android.content.Context;
+import android.graphics.Bitmap;
+import android.graphics.BitmapFactory;
+import android.util.Log;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.Arrays;
+import java.util.Comparator;
+
+/**
+ * The weather icons the phone has sent, kept in the watch's files directory under the hex MD5
+ * of their bytes, which is the hash the phone sends with each forecast.  An icon is only ever
+ * sent once; after that the watch reads it back from here.
+ */
+class WeatherIconStore {
+    private static final String TAG = "WeatherIconStore";
+
+    private static final String DIRECTORY = "weather_icons";
+    // Every condition for a couple of art packs.
+    private static final int MAX_FILES = 32;
+
+    private final File mDirectory;
+
+    WeatherIconStore(Context context) {
+        mDirectory = new File(context.getFilesDir(), DIRECTORY);
+    }
+
+    /**
+     * Returns the icon stored under {@code hash}, decoded, or null if there isn't one.
+     */
+    Bitmap load(String hash) {
+        File file = new File(mDirectory, hash);
+        if (!file.isFile()) {
+            return null;
+        }
+        // Marks it recently used, so trimming keeps it.
+        file.setLastModified(System.currentTimeMillis());
+        return BitmapFactory.decodeFile(file.getPath());
+    }
+
+    /**
+     * Stores an icon the phone sent and returns it decoded, or returns null if the bytes don't
+     * match the hash they were sent for.
+     */
+    Bitmap store(String hash, byte[] bytes) {
+        if (!hash.equals(hashOf(bytes))) {
+            Log.w(TAG, "Icon doesn't match its hash " + hash);
+            return null;
+        }
+        if (mDirectory.isDirectory() || mDirectory.mkdirs()) {
+            // Written aside and renamed, so a half-written file is never taken for the icon.
+            File temp = new File(mDirectory, hash + ".tmp");
+            OutputStream out = null;
+            try {
+                out = new FileOutputStream(temp);
+                out.write(bytes);
+                out.close();
+                out = null;
+                if (!temp.renameTo(new File(mDirectory, hash))) {
+                    temp.delete();
+                }
+            } catch (IOException e) {
+                Log.w(TAG, "Error storing icon " + hash, e);
+                temp.delete();
+            } finally {
+                if (out != null) {
+                    try {
+                        out.close();
+                    } catch (IOException e) {
+                        // Already failed.
+                    }
+                }
+            }
+            trim();
+        }
+        return BitmapFactory.decodeByteArray(bytes, 0, bytes.length);
+    }
+
+    static String hashOf(byte[] bytes) {
+        byte[] digest;
+        try {
+            digest = MessageDigest.getInstance("MD5").digest(bytes);
+        } catch (NoSuchAlgorithmException e) {
+            // Every Android release ships MD5.
+            throw new IllegalStateException(e);
+        }
+        StringBuilder hex = new StringBuilder(digest.length * 2);
+        for (byte b : digest) {
+            hex.append(Character.forDigit((b >> 4) & 0xf, 16))
+                    .append(Character.forDigit(b & 0xf, 16));
+        }
+        return hex.toString();
+    }
+
+    private void trim() {
+        File[] files = mDirectory.listFiles();
+        if (files == null || files.length <= MAX_FILES) {
+            return;
+        }
+        Arrays.sort(files, new Comparator<File>() {
+            @Override
+            public int compare(File lhs, File rhs) {
+                return Long.compare(lhs.lastModified(), rhs.lastModified());
+            }
+        });
+        for (int i = 0; i < files.length - MAX_FILES; i++) {
+            files[i].delete();
+        }
+    }
+}